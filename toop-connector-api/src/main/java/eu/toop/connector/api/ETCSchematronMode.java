@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.api;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * Contains the supported modes of the Schematron validation in the message
+ * processor steps 1/4 and 3/4.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+public enum ETCSchematronMode implements IHasID <String>
+{
+  /** Every message is validated before it is processed further */
+  SYNC ("sync"),
+  /**
+   * Only a sample of the messages is validated before it is processed
+   * further. Messages with violations are rejected.
+   */
+  SAMPLED ("sampled"),
+  /**
+   * A sample of the messages is validated in the background after the message
+   * was processed. Violations are only reported.
+   */
+  SHADOW ("shadow"),
+  /** No validation at all */
+  OFF ("off");
+
+  private final String m_sID;
+
+  private ETCSchematronMode (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  /**
+   * @return <code>true</code> if at least some messages are validated.
+   */
+  public boolean isEnabled ()
+  {
+    return this != OFF;
+  }
+
+  /**
+   * @return <code>true</code> if validation failures reject the message,
+   *         <code>false</code> if they are only reported.
+   */
+  public boolean isRejecting ()
+  {
+    return this == SYNC || this == SAMPLED;
+  }
+
+  /**
+   * @return <code>true</code> if only a sample of the messages is validated.
+   */
+  public boolean isSampling ()
+  {
+    return this == SAMPLED || this == SHADOW;
+  }
+
+  @Nullable
+  public static ETCSchematronMode getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (ETCSchematronMode.class, sID);
+  }
+}
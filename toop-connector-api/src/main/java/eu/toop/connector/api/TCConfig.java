@@ -19,6 +19,7 @@ import java.io.File;
 import java.net.URI;
 
 import javax.annotation.CheckForSigned;
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -27,6 +28,10 @@ import javax.annotation.concurrent.ThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.CGlobal;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.debug.GlobalDebug;
 import com.helger.commons.id.factory.GlobalIDFactory;
@@ -127,6 +132,38 @@ public final class TCConfig
   public static final boolean DEFAULT_TOOP_TRACKER_ENABLED = false;
   public static final String DEFAULT_TOOP_TRACKER_TOPIC = "toop";
   public static final boolean DEFAULT_USE_SML = true;
+  public static final int DEFAULT_MP_WORKER_COUNT = 1;
+  public static final int DEFAULT_MP_DC_OUTGOING_WORKER_COUNT = 4;
+  public static final int DEFAULT_MP_MAX_CONCURRENCY = 200;
+  public static final int DEFAULT_MP_JOURNAL_SEGMENT_SIZE = 64 * CGlobal.BYTES_PER_MEGABYTE;
+  public static final int DEFAULT_MP_PIPELINE_QUEUE_CAPACITY = 100;
+  public static final int DEFAULT_MP_PRIORITY_STARVATION_LIMIT = 10;
+  public static final long DEFAULT_MP_DEDUPLICATION_TTL_MS = 10 * CGlobal.MILLISECONDS_PER_MINUTE;
+  public static final int DEFAULT_MP_DEDUPLICATION_MAX_ENTRIES = 100000;
+  public static final int DEFAULT_MP_DISCOVER_BATCH_SIZE = 20;
+  public static final int DEFAULT_MP_SCHEMATRON_SHADOW_QUEUE_SIZE = 1000;
+  public static final long DEFAULT_MP_INTAKE_SPILL_THRESHOLD = 4L * CGlobal.BYTES_PER_MEGABYTE;
+  public static final long DEFAULT_SMM_MAPPING_CHECK_INTERVAL_MS = 10 * CGlobal.MILLISECONDS_PER_SECOND;
+  public static final long DEFAULT_SMM_REMOTE_TTL_MS = CGlobal.MILLISECONDS_PER_HOUR;
+  public static final long DEFAULT_SMM_REMOTE_STALE_MS = 24 * CGlobal.MILLISECONDS_PER_HOUR;
+  public static final int DEFAULT_SMM_REMOTE_MAX_ENTRIES = 1000;
+  public static final int DEFAULT_R2D2_DIRECTORY_MAX_CONCURRENCY = 4;
+  public static final int DEFAULT_R2D2_SMP_MAX_CONCURRENCY = 8;
+  public static final int DEFAULT_R2D2_SMP_MAX_CONCURRENCY_PER_HOST = 4;
+  public static final long DEFAULT_R2D2_SMP_DEADLINE_MS = 30 * CGlobal.MILLISECONDS_PER_SECOND;
+  public static final boolean DEFAULT_R2D2_ENDPOINT_CACHE_ENABLED = false;
+  public static final long DEFAULT_R2D2_ENDPOINT_CACHE_TTL_MS = 10 * CGlobal.MILLISECONDS_PER_MINUTE;
+  public static final long DEFAULT_R2D2_ENDPOINT_CACHE_STALE_MS = CGlobal.MILLISECONDS_PER_HOUR;
+  public static final long DEFAULT_R2D2_ENDPOINT_CACHE_NEGATIVE_TTL_MS = CGlobal.MILLISECONDS_PER_MINUTE;
+  public static final int DEFAULT_R2D2_ENDPOINT_CACHE_MAX_ENTRIES = 10000;
+  public static final boolean DEFAULT_R2D2_PARTICIPANT_CACHE_ENABLED = false;
+  public static final long DEFAULT_R2D2_PARTICIPANT_CACHE_TTL_MS = CGlobal.MILLISECONDS_PER_HOUR;
+  public static final long DEFAULT_R2D2_PARTICIPANT_CACHE_STALE_MS = 24 * CGlobal.MILLISECONDS_PER_HOUR;
+  public static final long DEFAULT_R2D2_PARTICIPANT_CACHE_NEGATIVE_TTL_MS = CGlobal.MILLISECONDS_PER_MINUTE;
+  public static final int DEFAULT_R2D2_PARTICIPANT_CACHE_MAX_ENTRIES = 1000;
+  public static final int DEFAULT_HTTP_POOL_MAX_TOTAL = 100;
+  public static final int DEFAULT_HTTP_POOL_MAX_PER_ROUTE = 20;
+  public static final long DEFAULT_HTTP_POOL_IDLE_MS = 30 * CGlobal.MILLISECONDS_PER_SECOND;
 
   @GuardedBy ("s_aRWLock")
   private static String s_sMPToopInterfaceDPOverrideUrl = null;
@@ -204,6 +241,92 @@ public final class TCConfig
     return getConfigFile ().getAsBoolean ("toop.smm.dp.mapping.error.fatal", true);
   }
 
+  /**
+   * @return The semantic mapping file to be used instead of the built-in one.
+   *         Either an XML file, where changes are applied without restart, or
+   *         a file in the compact binary format that is memory-mapped.
+   *         <code>null</code> means the built-in mapping file is used.
+   * @since 0.10.9
+   * @see #getSMMMappingCheckIntervalMS()
+   */
+  @Nullable
+  public static File getSMMMappingFile ()
+  {
+    final String sPath = getConfigFile ().getAsString ("toop.smm.mapping.file");
+    return sPath == null ? null : new File (sPath);
+  }
+
+  /**
+   * @return The interval in milliseconds in which the file from
+   *         {@link #getSMMMappingFile()} is checked for modifications. Default
+   *         is {@link #DEFAULT_SMM_MAPPING_CHECK_INTERVAL_MS}.
+   * @since 0.10.9
+   */
+  public static long getSMMMappingCheckIntervalMS ()
+  {
+    return getConfigFile ().getAsLong ("toop.smm.mapping.check.interval", DEFAULT_SMM_MAPPING_CHECK_INTERVAL_MS);
+  }
+
+  /**
+   * @return The URL of the central semantic mapping service. If it is set,
+   *         the service is used instead of a mapping file. May be
+   *         <code>null</code>.
+   * @since 0.10.9
+   */
+  @Nullable
+  public static String getSMMRemoteURL ()
+  {
+    return getConfigFile ().getAsString ("toop.smm.remote.url");
+  }
+
+  /**
+   * @return The milliseconds the mappings fetched from the semantic mapping
+   *         service are used without refreshing. Default is
+   *         {@link #DEFAULT_SMM_REMOTE_TTL_MS}.
+   * @since 0.10.9
+   */
+  public static long getSMMRemoteTTLMS ()
+  {
+    return getConfigFile ().getAsLong ("toop.smm.remote.ttl", DEFAULT_SMM_REMOTE_TTL_MS);
+  }
+
+  /**
+   * @return The milliseconds after the TTL in which the fetched mappings are
+   *         still used while they are refreshed in the background. Default is
+   *         {@link #DEFAULT_SMM_REMOTE_STALE_MS}.
+   * @since 0.10.9
+   */
+  public static long getSMMRemoteStaleMS ()
+  {
+    return getConfigFile ().getAsLong ("toop.smm.remote.stale", DEFAULT_SMM_REMOTE_STALE_MS);
+  }
+
+  /**
+   * @return The maximum number of namespace pairs for which the fetched
+   *         mappings are cached. Default is
+   *         {@link #DEFAULT_SMM_REMOTE_MAX_ENTRIES}.
+   * @since 0.10.9
+   */
+  public static int getSMMRemoteMaxEntries ()
+  {
+    return getConfigFile ().getAsInt ("toop.smm.remote.maxentries", DEFAULT_SMM_REMOTE_MAX_ENTRIES);
+  }
+
+  /**
+   * @return The namespace pairs to be fetched from the semantic mapping service
+   *         on startup, each in the form <code>source|destination</code>. The
+   *         pairs for DP incoming mappings are added automatically. Never
+   *         <code>null</code> but maybe empty.
+   * @since 0.10.9
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <String> getAllSMMRemotePrefetchPairs ()
+  {
+    return StringHelper.getExploded (',', getConfigFile ().getAsString ("toop.smm.remote.prefetch", ""))
+                       .getAllMapped (StringHelper::hasText, String::trim);
+  }
+
   /**
    * @return The TOOP Directory base URL for R2D2. Should never end with a
    *         slash.
@@ -214,6 +337,20 @@ public final class TCConfig
     return getConfigFile ().getAsString ("toop.r2d2.directory.baseurl");
   }
 
+  /**
+   * @return The maximum number of TOOP Directory result pages fetched in
+   *         parallel for a single participant lookup. Always &gt; 0. Default
+   *         is {@link #DEFAULT_R2D2_DIRECTORY_MAX_CONCURRENCY}.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getR2D2DirectoryMaxConcurrency ()
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.r2d2.directory.maxconcurrency",
+                                               DEFAULT_R2D2_DIRECTORY_MAX_CONCURRENCY);
+    return ret > 0 ? ret : DEFAULT_R2D2_DIRECTORY_MAX_CONCURRENCY;
+  }
+
   /**
    * @return <code>true</code> to use SML lookup, <code>false</code> to not do
    *         it.
@@ -276,6 +413,157 @@ public final class TCConfig
     return URLHelper.getAsURI (sURI);
   }
 
+  /**
+   * @return The maximum number of SMP lookups performed in parallel for a
+   *         single multi participant lookup. Always &gt; 0. Default is
+   *         {@link #DEFAULT_R2D2_SMP_MAX_CONCURRENCY}.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getR2D2SMPMaxConcurrency ()
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.r2d2.smp.maxconcurrency", DEFAULT_R2D2_SMP_MAX_CONCURRENCY);
+    return ret > 0 ? ret : DEFAULT_R2D2_SMP_MAX_CONCURRENCY;
+  }
+
+  /**
+   * @return The maximum number of SMP lookups performed in parallel against a
+   *         single SMP host, over all requests. Always &gt; 0. Default is
+   *         {@link #DEFAULT_R2D2_SMP_MAX_CONCURRENCY_PER_HOST}.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getR2D2SMPMaxConcurrencyPerHost ()
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.r2d2.smp.maxconcurrencyperhost",
+                                               DEFAULT_R2D2_SMP_MAX_CONCURRENCY_PER_HOST);
+    return ret > 0 ? ret : DEFAULT_R2D2_SMP_MAX_CONCURRENCY_PER_HOST;
+  }
+
+  /**
+   * @return The maximum milliseconds all SMP lookups of a single multi
+   *         participant lookup may take. Default is
+   *         {@link #DEFAULT_R2D2_SMP_DEADLINE_MS}.
+   * @since 0.10.9
+   */
+  public static long getR2D2SMPDeadlineMS ()
+  {
+    return getConfigFile ().getAsLong ("toop.r2d2.smp.deadline", DEFAULT_R2D2_SMP_DEADLINE_MS);
+  }
+
+  /**
+   * @return <code>true</code> if the SMP endpoint lookup results should be
+   *         cached. If enabled, outdated endpoints may be returned for up to
+   *         TTL plus stale period. Default is
+   *         {@link #DEFAULT_R2D2_ENDPOINT_CACHE_ENABLED}.
+   * @since 0.10.9
+   */
+  public static boolean isR2D2EndpointCacheEnabled ()
+  {
+    return getConfigFile ().getAsBoolean ("toop.r2d2.endpoint.cache.enabled", DEFAULT_R2D2_ENDPOINT_CACHE_ENABLED);
+  }
+
+  /**
+   * @return The milliseconds cached SMP endpoints are used without refreshing.
+   *         Default is {@link #DEFAULT_R2D2_ENDPOINT_CACHE_TTL_MS}.
+   * @since 0.10.9
+   */
+  public static long getR2D2EndpointCacheTTLMS ()
+  {
+    return getConfigFile ().getAsLong ("toop.r2d2.endpoint.cache.ttl", DEFAULT_R2D2_ENDPOINT_CACHE_TTL_MS);
+  }
+
+  /**
+   * @return The milliseconds after the TTL in which cached SMP endpoints are
+   *         still used while they are refreshed in the background. Default is
+   *         {@link #DEFAULT_R2D2_ENDPOINT_CACHE_STALE_MS}.
+   * @since 0.10.9
+   */
+  public static long getR2D2EndpointCacheStaleMS ()
+  {
+    return getConfigFile ().getAsLong ("toop.r2d2.endpoint.cache.stale", DEFAULT_R2D2_ENDPOINT_CACHE_STALE_MS);
+  }
+
+  /**
+   * @return The milliseconds an SMP lookup without any endpoint is cached.
+   *         Default is {@link #DEFAULT_R2D2_ENDPOINT_CACHE_NEGATIVE_TTL_MS}.
+   * @since 0.10.9
+   */
+  public static long getR2D2EndpointCacheNegativeTTLMS ()
+  {
+    return getConfigFile ().getAsLong ("toop.r2d2.endpoint.cache.negative.ttl",
+                                       DEFAULT_R2D2_ENDPOINT_CACHE_NEGATIVE_TTL_MS);
+  }
+
+  /**
+   * @return The maximum number of cached SMP lookups. Default is
+   *         {@link #DEFAULT_R2D2_ENDPOINT_CACHE_MAX_ENTRIES}.
+   * @since 0.10.9
+   */
+  public static int getR2D2EndpointCacheMaxEntries ()
+  {
+    return getConfigFile ().getAsInt ("toop.r2d2.endpoint.cache.maxentries", DEFAULT_R2D2_ENDPOINT_CACHE_MAX_ENTRIES);
+  }
+
+  /**
+   * @return <code>true</code> if the TOOP Directory participant lookup results
+   *         should be cached. If enabled, outdated participants may be returned
+   *         for up to TTL plus stale period. Default is
+   *         {@link #DEFAULT_R2D2_PARTICIPANT_CACHE_ENABLED}.
+   * @since 0.10.9
+   */
+  public static boolean isR2D2ParticipantCacheEnabled ()
+  {
+    return getConfigFile ().getAsBoolean ("toop.r2d2.participant.cache.enabled",
+                                          DEFAULT_R2D2_PARTICIPANT_CACHE_ENABLED);
+  }
+
+  /**
+   * @return The milliseconds cached TOOP Directory participants are used
+   *         without refreshing. Default is
+   *         {@link #DEFAULT_R2D2_PARTICIPANT_CACHE_TTL_MS}.
+   * @since 0.10.9
+   */
+  public static long getR2D2ParticipantCacheTTLMS ()
+  {
+    return getConfigFile ().getAsLong ("toop.r2d2.participant.cache.ttl", DEFAULT_R2D2_PARTICIPANT_CACHE_TTL_MS);
+  }
+
+  /**
+   * @return The milliseconds after the TTL in which cached TOOP Directory
+   *         participants are still used while they are refreshed in the
+   *         background. Default is
+   *         {@link #DEFAULT_R2D2_PARTICIPANT_CACHE_STALE_MS}.
+   * @since 0.10.9
+   */
+  public static long getR2D2ParticipantCacheStaleMS ()
+  {
+    return getConfigFile ().getAsLong ("toop.r2d2.participant.cache.stale", DEFAULT_R2D2_PARTICIPANT_CACHE_STALE_MS);
+  }
+
+  /**
+   * @return The milliseconds a TOOP Directory lookup without participants is
+   *         cached. Default is
+   *         {@link #DEFAULT_R2D2_PARTICIPANT_CACHE_NEGATIVE_TTL_MS}.
+   * @since 0.10.9
+   */
+  public static long getR2D2ParticipantCacheNegativeTTLMS ()
+  {
+    return getConfigFile ().getAsLong ("toop.r2d2.participant.cache.negative.ttl",
+                                       DEFAULT_R2D2_PARTICIPANT_CACHE_NEGATIVE_TTL_MS);
+  }
+
+  /**
+   * @return The maximum number of cached TOOP Directory lookups. Default is
+   *         {@link #DEFAULT_R2D2_PARTICIPANT_CACHE_MAX_ENTRIES}.
+   * @since 0.10.9
+   */
+  public static int getR2D2ParticipantCacheMaxEntries ()
+  {
+    return getConfigFile ().getAsInt ("toop.r2d2.participant.cache.maxentries",
+                                      DEFAULT_R2D2_PARTICIPANT_CACHE_MAX_ENTRIES);
+  }
+
   /**
    * @return The MEM implementation ID or the default value. Never
    *         <code>null</code>.
@@ -338,6 +626,409 @@ public final class TCConfig
     return getConfigFile ().getAsBoolean ("toop.mp.schematron.enabled", true);
   }
 
+  /**
+   * @return The Schematron validation mode to use in steps 1/4 and 3/4. If
+   *         no mode is configured, it is derived from
+   *         {@link #isMPSchematronValidationEnabled()}. Never
+   *         <code>null</code>.
+   * @since 0.10.9
+   */
+  @Nonnull
+  public static ETCSchematronMode getMPSchematronMode ()
+  {
+    final String sID = getConfigFile ().getAsString ("toop.mp.schematron.mode");
+    if (StringHelper.hasNoText (sID))
+      return isMPSchematronValidationEnabled () ? ETCSchematronMode.SYNC : ETCSchematronMode.OFF;
+
+    final ETCSchematronMode eMode = ETCSchematronMode.getFromIDOrNull (sID);
+    if (eMode == null)
+    {
+      throw new IllegalStateException ("Failed to resolve Schematron mode with ID '" + sID + "'");
+    }
+    return eMode;
+  }
+
+  /**
+   * @return The percentage of messages to validate in the Schematron modes
+   *         "sampled" and "shadow". Always between 0 and 100. Default is 100.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static double getMPSchematronSamplePercentage ()
+  {
+    final double ret = getConfigFile ().getAsDouble ("toop.mp.schematron.sample.percentage", 100);
+    return ret < 0 ? 0 : ret > 100 ? 100 : ret;
+  }
+
+  /**
+   * @return The maximum number of messages waiting for the background
+   *         validation in the Schematron mode "shadow". Further messages are
+   *         not validated. Always &gt; 0. Default is 1000.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getMPSchematronShadowQueueSize ()
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.mp.schematron.shadow.queue.size", -1);
+    return ret > 0 ? ret : DEFAULT_MP_SCHEMATRON_SHADOW_QUEUE_SIZE;
+  }
+
+  /**
+   * @return The maximum number of pooled Schematron transformers and
+   *         therefore the maximum number of concurrent Schematron validations
+   *         in steps 1/4 and 3/4. Always &gt; 0. Default is the number of
+   *         available processors.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getMPSchematronPoolSize ()
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.mp.schematron.pool.size", -1);
+    return ret > 0 ? ret : Runtime.getRuntime ().availableProcessors ();
+  }
+
+  /**
+   * Get the number of worker threads of a single message processor stage.
+   *
+   * @param sStageID
+   *        The ID of the stage. One of <code>dc-outgoing</code>,
+   *        <code>dp-incoming</code>, <code>dp-outgoing</code> or
+   *        <code>dc-incoming</code>. May neither be <code>null</code> nor
+   *        empty.
+   * @return The number of worker threads for the stage. Always &gt; 0.
+   *         Default is {@link #DEFAULT_MP_WORKER_COUNT}.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getMPWorkerCount (@Nonnull @Nonempty final String sStageID)
+  {
+    return getMPWorkerCount (sStageID, DEFAULT_MP_WORKER_COUNT);
+  }
+
+  /**
+   * Get the number of worker threads of a single message processor stage.
+   *
+   * @param sStageID
+   *        The ID of the stage. May neither be <code>null</code> nor empty.
+   * @param nDefault
+   *        The default number of worker threads of the stage. Must be &gt; 0.
+   * @return The number of worker threads for the stage. Always &gt; 0.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getMPWorkerCount (@Nonnull @Nonempty final String sStageID, @Nonnegative final int nDefault)
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.mp." + sStageID + ".workers", nDefault);
+    return ret > 0 ? ret : nDefault;
+  }
+
+  /**
+   * @return The ID of the execution mode of the message processor stages. One
+   *         of <code>pool</code> (default) or <code>thread-per-task</code>.
+   *         May be <code>null</code>.
+   * @since 0.10.9
+   */
+  @Nullable
+  public static String getMPExecutionMode ()
+  {
+    return getConfigFile ().getAsString ("toop.mp.execution.mode");
+  }
+
+  /**
+   * @return The maximum number of objects that are processed concurrently
+   *         over all message processor stages. Only used in execution mode
+   *         <code>thread-per-task</code>. Always &gt; 0. Default is
+   *         {@link #DEFAULT_MP_MAX_CONCURRENCY}.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getMPMaxConcurrency ()
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.mp.execution.maxconcurrency", DEFAULT_MP_MAX_CONCURRENCY);
+    return ret > 0 ? ret : DEFAULT_MP_MAX_CONCURRENCY;
+  }
+
+  /**
+   * Get the high watermark of the queue of a single message processor stage.
+   * If the queue length reaches this value, new messages from
+   * <code>toop-interface</code> are rejected until the queue length drops to
+   * the low watermark.
+   *
+   * @param sStageID
+   *        The ID of the stage. May neither be <code>null</code> nor empty.
+   * @return The high watermark. 0 means the queue is unbounded. Default is 0.
+   * @since 0.10.9
+   * @see #getMPQueueLowWatermark(String)
+   */
+  @Nonnegative
+  public static int getMPQueueHighWatermark (@Nonnull @Nonempty final String sStageID)
+  {
+    return Math.max (getConfigFile ().getAsInt ("toop.mp." + sStageID + ".queue.high", 0), 0);
+  }
+
+  /**
+   * Get the low watermark of the queue of a single message processor stage.
+   *
+   * @param sStageID
+   *        The ID of the stage. May neither be <code>null</code> nor empty.
+   * @return The low watermark. Always &ge; 0 and lower than the high watermark
+   *         if the queue is bounded. Default is half of the high watermark.
+   * @since 0.10.9
+   * @see #getMPQueueHighWatermark(String)
+   */
+  @Nonnegative
+  public static int getMPQueueLowWatermark (@Nonnull @Nonempty final String sStageID)
+  {
+    final int nHigh = getMPQueueHighWatermark (sStageID);
+    final int ret = getConfigFile ().getAsInt ("toop.mp." + sStageID + ".queue.low", nHigh / 2);
+    if (ret < 0)
+      return 0;
+    return nHigh > 0 && ret >= nHigh ? nHigh - 1 : ret;
+  }
+
+  /**
+   * @return <code>true</code> if the message processor queues should be
+   *         backed by a persistent journal, <code>false</code> if not. Default
+   *         is false.
+   * @since 0.10.9
+   */
+  public static boolean isMPJournalEnabled ()
+  {
+    return getConfigFile ().getAsBoolean ("toop.mp.journal.enabled", false);
+  }
+
+  /**
+   * @return The directory in which the message processor journal segments are
+   *         stored. May be <code>null</code>.
+   * @since 0.10.9
+   */
+  @Nullable
+  public static File getMPJournalPath ()
+  {
+    final String sPath = getConfigFile ().getAsString ("toop.mp.journal.path");
+    return sPath == null ? null : new File (sPath);
+  }
+
+  /**
+   * @return The size of a single journal segment file in bytes. Always &gt; 0.
+   *         Default is {@link #DEFAULT_MP_JOURNAL_SEGMENT_SIZE}.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getMPJournalSegmentSize ()
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.mp.journal.segmentsize", DEFAULT_MP_JOURNAL_SEGMENT_SIZE);
+    return ret > 0 ? ret : DEFAULT_MP_JOURNAL_SEGMENT_SIZE;
+  }
+
+  /**
+   * @return <code>true</code> if a journal record must be forced to disk
+   *         before the enqueue call returns, <code>false</code> if writing to
+   *         the memory mapped segment is sufficient (survives a process crash
+   *         but not an OS crash). Default is true.
+   * @since 0.10.9
+   */
+  public static boolean isMPJournalSync ()
+  {
+    return getConfigFile ().getAsBoolean ("toop.mp.journal.sync", true);
+  }
+
+  /**
+   * @return The maximum number of milliseconds to wait on shutdown for the
+   *         message processor to finish all queued messages. Messages that are
+   *         not finished afterwards are kept for the next start, either in the
+   *         journal or in the snapshot file. 0 means to wait until all messages
+   *         are finished. Default is 0.
+   * @since 0.10.9
+   * @see #getMPSnapshotPath()
+   */
+  @Nonnegative
+  public static long getMPShutdownDrainTimeoutMS ()
+  {
+    final long ret = getConfigFile ().getAsLong ("toop.mp.shutdown.drain.timeout", 0);
+    return ret > 0 ? ret : 0;
+  }
+
+  /**
+   * @return The file in which the messages that were not finished within the
+   *         shutdown drain timeout are stored, if no journal is used. The file
+   *         is read and deleted on the next start. May be <code>null</code>.
+   * @since 0.10.9
+   */
+  @Nullable
+  public static File getMPSnapshotPath ()
+  {
+    final String sPath = getConfigFile ().getAsString ("toop.mp.snapshot.path");
+    return sPath == null ? null : new File (sPath);
+  }
+
+  /**
+   * @return The size in bytes above which attachments received on
+   *         <code>/from-dc</code> and <code>/from-dp</code> are stored in a
+   *         temporary file instead of the heap. A negative value keeps all
+   *         attachments in memory. Default is
+   *         {@link #DEFAULT_MP_INTAKE_SPILL_THRESHOLD}.
+   * @since 0.10.9
+   * @see #getMPIntakeSpillPath()
+   */
+  public static long getMPIntakeSpillThreshold ()
+  {
+    return getConfigFile ().getAsLong ("toop.mp.intake.spill.threshold", DEFAULT_MP_INTAKE_SPILL_THRESHOLD);
+  }
+
+  /**
+   * @return The directory in which the temporary files of large attachments
+   *         are created. If a journal is used, it should not be cleaned on
+   *         restart. <code>null</code> means the default temporary directory.
+   * @since 0.10.9
+   */
+  @Nullable
+  public static File getMPIntakeSpillPath ()
+  {
+    final String sPath = getConfigFile ().getAsString ("toop.mp.intake.spill.path");
+    return sPath == null ? null : new File (sPath);
+  }
+
+  /**
+   * @return <code>true</code> if messages that are resent to
+   *         <code>/from-dc</code> or <code>/from-dp</code> with the same
+   *         identifier should be acknowledged without processing them again,
+   *         <code>false</code> if every message should be processed. Default
+   *         is true.
+   * @since 0.10.9
+   */
+  public static boolean isMPDeduplicationEnabled ()
+  {
+    return getConfigFile ().getAsBoolean ("toop.mp.dedup.enabled", true);
+  }
+
+  /**
+   * @return The number of milliseconds a message identifier is remembered for
+   *         deduplication. Always &gt; 0. Default is
+   *         {@link #DEFAULT_MP_DEDUPLICATION_TTL_MS}.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static long getMPDeduplicationTTLMS ()
+  {
+    final long ret = getConfigFile ().getAsLong ("toop.mp.dedup.ttl", DEFAULT_MP_DEDUPLICATION_TTL_MS);
+    return ret > 0 ? ret : DEFAULT_MP_DEDUPLICATION_TTL_MS;
+  }
+
+  /**
+   * @return The maximum number of message identifiers remembered for
+   *         deduplication per servlet. Always &gt; 0. Default is
+   *         {@link #DEFAULT_MP_DEDUPLICATION_MAX_ENTRIES}.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getMPDeduplicationMaxEntries ()
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.mp.dedup.maxentries", DEFAULT_MP_DEDUPLICATION_MAX_ENTRIES);
+    return ret > 0 ? ret : DEFAULT_MP_DEDUPLICATION_MAX_ENTRIES;
+  }
+
+  /**
+   * @return The number of times in a row a message processor queue lane with
+   *         a low priority (e.g. new requests) may be skipped in favour of a
+   *         lane with a higher priority (e.g. error responses), before it is
+   *         served. Always &gt; 0. Default is
+   *         {@link #DEFAULT_MP_PRIORITY_STARVATION_LIMIT}.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getMPPriorityStarvationLimit ()
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.mp.priority.starvation.limit",
+                                               DEFAULT_MP_PRIORITY_STARVATION_LIMIT);
+    return ret > 0 ? ret : DEFAULT_MP_PRIORITY_STARVATION_LIMIT;
+  }
+
+  /**
+   * @return <code>true</code> if step 1/4 should be processed as a pipeline of
+   *         phases that each run on their own worker threads,
+   *         <code>false</code> if all phases of a request are processed one
+   *         after the other on the same thread. Default is false.
+   * @since 0.10.9
+   */
+  public static boolean isMPDCOutgoingPipelineEnabled ()
+  {
+    return getConfigFile ().getAsBoolean ("toop.mp.dc-outgoing.pipeline.enabled", false);
+  }
+
+  /**
+   * Get the number of worker threads of a single phase of the step 1/4
+   * pipeline.
+   *
+   * @param sPhaseID
+   *        The ID of the phase. One of <code>validate</code>,
+   *        <code>semantic-map</code>, <code>discover</code>,
+   *        <code>package</code> or <code>transmit</code>. May neither be
+   *        <code>null</code> nor empty.
+   * @param nDefault
+   *        The default value to be used if nothing is configured. Must be &gt;
+   *        0.
+   * @return The number of worker threads for the phase. Always &gt; 0.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getMPDCOutgoingPipelineWorkerCount (@Nonnull @Nonempty final String sPhaseID,
+                                                        @Nonnegative final int nDefault)
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.mp.dc-outgoing." + sPhaseID + ".workers", nDefault);
+    return ret > 0 ? ret : nDefault;
+  }
+
+  /**
+   * Get the capacity of the hand-off queue in front of a single phase of the
+   * step 1/4 pipeline. If the queue is full, the previous phase waits until
+   * there is room again.
+   *
+   * @param sPhaseID
+   *        The ID of the phase. May neither be <code>null</code> nor empty.
+   * @return The queue capacity. Always &gt; 0. Default is
+   *         {@link #DEFAULT_MP_PIPELINE_QUEUE_CAPACITY}.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getMPDCOutgoingPipelineQueueCapacity (@Nonnull @Nonempty final String sPhaseID)
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.mp.dc-outgoing." + sPhaseID + ".queue.capacity",
+                                               DEFAULT_MP_PIPELINE_QUEUE_CAPACITY);
+    return ret > 0 ? ret : DEFAULT_MP_PIPELINE_QUEUE_CAPACITY;
+  }
+
+  /**
+   * @return The maximum number of requests that share a single Directory and
+   *         SMP lookup in step 1/4. The discovery phase of the step 1/4
+   *         pipeline drains batches of this size, and requests of a batch with
+   *         the same discovery parameters share a lookup. Without the pipeline,
+   *         requests with the same discovery parameters that are processed
+   *         concurrently join the running lookup. 1 disables batching. Always
+   *         &gt; 0. Default is {@link #DEFAULT_MP_DISCOVER_BATCH_SIZE}.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getMPDCOutgoingDiscoverBatchSize ()
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.mp.dc-outgoing.discover.batch.size", DEFAULT_MP_DISCOVER_BATCH_SIZE);
+    return ret > 0 ? ret : DEFAULT_MP_DISCOVER_BATCH_SIZE;
+  }
+
+  /**
+   * @return The maximum number of milliseconds the discovery phase of the step
+   *         1/4 pipeline waits for a batch to fill up. 0 means that only the
+   *         requests that are already waiting form a batch. Always &ge; 0.
+   *         Default is 0.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static long getMPDCOutgoingDiscoverBatchLingerMS ()
+  {
+    final long ret = getConfigFile ().getAsLong ("toop.mp.dc-outgoing.discover.batch.linger", 0);
+    return ret > 0 ? ret : 0;
+  }
+
   /**
    * Override the toop-interface DP URL with the custom URL. This URL has
    * precedence over the value in the configuration file.
@@ -503,6 +1194,17 @@ public final class TCConfig
     return getConfigFile ().getAsBoolean ("toop.status.enabled", true);
   }
 
+  /**
+   * @return <code>true</code> if the metrics servlet at
+   *         <code>/tc-metrics/</code> is enabled, <code>false</code> if it is
+   *         disabled. By default it is enabled.
+   * @since 0.10.9
+   */
+  public static boolean isMetricsEnabled ()
+  {
+    return getConfigFile ().getAsBoolean ("toop.metrics.enabled", true);
+  }
+
   // Servlet "/from-dc", step 1/4:
 
   public static boolean isDebugFromDCDumpEnabled ()
@@ -617,4 +1319,43 @@ public final class TCConfig
   {
     return getConfigFile ().getAsBoolean ("toop.tls.trustall", false);
   }
+
+  /**
+   * @return The maximum number of connections of the shared HTTP connection
+   *         pool. Always &gt; 0. Default is
+   *         {@link #DEFAULT_HTTP_POOL_MAX_TOTAL}.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getHttpPoolMaxTotal ()
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.http.pool.maxtotal", DEFAULT_HTTP_POOL_MAX_TOTAL);
+    return ret > 0 ? ret : DEFAULT_HTTP_POOL_MAX_TOTAL;
+  }
+
+  /**
+   * @return The maximum number of connections of the shared HTTP connection
+   *         pool to a single host. Always &gt; 0. Default is
+   *         {@link #DEFAULT_HTTP_POOL_MAX_PER_ROUTE}.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int getHttpPoolMaxPerRoute ()
+  {
+    final int ret = getConfigFile ().getAsInt ("toop.http.pool.maxperroute", DEFAULT_HTTP_POOL_MAX_PER_ROUTE);
+    return ret > 0 ? ret : DEFAULT_HTTP_POOL_MAX_PER_ROUTE;
+  }
+
+  /**
+   * @return The milliseconds after which an unused connection of the shared
+   *         HTTP connection pool is closed. Always &gt; 0. Default is
+   *         {@link #DEFAULT_HTTP_POOL_IDLE_MS}.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static long getHttpPoolIdleMS ()
+  {
+    final long ret = getConfigFile ().getAsLong ("toop.http.pool.idle", DEFAULT_HTTP_POOL_IDLE_MS);
+    return ret > 0 ? ret : DEFAULT_HTTP_POOL_IDLE_MS;
+  }
 }
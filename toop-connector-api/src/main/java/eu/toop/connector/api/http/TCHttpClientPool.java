@@ -0,0 +1,307 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.api.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientManager;
+import com.helger.httpclient.HttpClientSettings;
+
+import eu.toop.connector.api.TCConfig;
+
+/**
+ * The long-living HTTP client that is shared by all outgoing TOOP Connector
+ * calls. It is configured once from {@link TCHttpClientSettings} and keeps the
+ * connections (including the TLS sessions) open between calls. Idle and
+ * expired connections are closed in the background. Don't close the object
+ * returned by {@link #getInstance()} - use {@link #shutdown()} instead.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@ThreadSafe
+public final class TCHttpClientPool implements Closeable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (TCHttpClientPool.class);
+
+  private static final SimpleReadWriteLock s_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("s_aRWLock")
+  private static TCHttpClientPool s_aInstance;
+
+  /**
+   * The HTTP client factory that configures the connection pool and the idle
+   * connection eviction.
+   *
+   * @author Philip Helger
+   */
+  private static final class PoolingHttpClientFactory extends HttpClientFactory
+  {
+    private final int m_nMaxTotal;
+    private final int m_nMaxPerRoute;
+    private final long m_nIdleMS;
+    private PoolingHttpClientConnectionManager m_aConnMgr;
+
+    PoolingHttpClientFactory (@Nonnull final HttpClientSettings aSettings,
+                              @Nonnegative final int nMaxTotal,
+                              @Nonnegative final int nMaxPerRoute,
+                              @Nonnegative final long nIdleMS)
+    {
+      super (aSettings);
+      m_nMaxTotal = nMaxTotal;
+      m_nMaxPerRoute = nMaxPerRoute;
+      m_nIdleMS = nIdleMS;
+    }
+
+    @Override
+    public HttpClientConnectionManager createConnectionManager (@Nonnull final LayeredConnectionSocketFactory aSSLFactory)
+    {
+      final HttpClientConnectionManager ret = super.createConnectionManager (aSSLFactory);
+      if (ret instanceof PoolingHttpClientConnectionManager)
+      {
+        m_aConnMgr = (PoolingHttpClientConnectionManager) ret;
+        m_aConnMgr.setMaxTotal (m_nMaxTotal);
+        m_aConnMgr.setDefaultMaxPerRoute (m_nMaxPerRoute);
+      }
+      return ret;
+    }
+
+    @Override
+    public HttpClientBuilder createHttpClientBuilder ()
+    {
+      return super.createHttpClientBuilder ()
+                  .setKeepAliveStrategy ( (aResponse, aContext) -> {
+                    // Never keep a connection longer than the idle time
+                    final long nKeepAliveMS = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration (aResponse,
+                                                                                                              aContext);
+                    return nKeepAliveMS > 0 ? Math.min (nKeepAliveMS, m_nIdleMS) : m_nIdleMS;
+                  })
+                  .evictExpiredConnections ()
+                  .evictIdleConnections (m_nIdleMS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private final PoolingHttpClientConnectionManager m_aConnMgr;
+  private final HttpClientManager m_aMgr;
+
+  /**
+   * Constructor
+   *
+   * @param aSettings
+   *        The HTTP settings to use. May not be <code>null</code>.
+   * @param nMaxTotal
+   *        The maximum number of connections. Must be &gt; 0.
+   * @param nMaxPerRoute
+   *        The maximum number of connections to a single host. Must be &gt; 0.
+   * @param nIdleMS
+   *        Milliseconds after which an unused connection is closed. Must be
+   *        &gt; 0.
+   */
+  public TCHttpClientPool (@Nonnull final HttpClientSettings aSettings,
+                           @Nonnegative final int nMaxTotal,
+                           @Nonnegative final int nMaxPerRoute,
+                           @Nonnegative final long nIdleMS)
+  {
+    ValueEnforcer.notNull (aSettings, "Settings");
+    ValueEnforcer.isGT0 (nMaxTotal, "MaxTotal");
+    ValueEnforcer.isGT0 (nMaxPerRoute, "MaxPerRoute");
+    ValueEnforcer.isGT0 (nIdleMS, "IdleMS");
+
+    final PoolingHttpClientFactory aFactory = new PoolingHttpClientFactory (aSettings,
+                                                                            nMaxTotal,
+                                                                            nMaxPerRoute,
+                                                                            nIdleMS);
+    m_aMgr = new HttpClientManager (aFactory);
+    m_aConnMgr = aFactory.m_aConnMgr;
+  }
+
+  /**
+   * Execute the provided request with the pooled connections. The returned
+   * response must be closed by the caller, to release the connection.
+   *
+   * @param aRequest
+   *        The request to execute. May not be <code>null</code>.
+   * @return The HTTP response. Never <code>null</code>.
+   * @throws IOException
+   *         In case of error
+   */
+  @Nonnull
+  public CloseableHttpResponse execute (@Nonnull final HttpUriRequest aRequest) throws IOException
+  {
+    return m_aMgr.execute (aRequest);
+  }
+
+  /**
+   * Execute the provided request with the pooled connections.
+   *
+   * @param aRequest
+   *        The request to execute. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The response handler to use. May not be <code>null</code>.
+   * @return The result of the response handler. May be <code>null</code>.
+   * @throws IOException
+   *         In case of error
+   * @param <T>
+   *        Response type
+   */
+  @Nullable
+  public <T> T execute (@Nonnull final HttpUriRequest aRequest,
+                        @Nonnull final ResponseHandler <T> aResponseHandler) throws IOException
+  {
+    return m_aMgr.execute (aRequest, aResponseHandler);
+  }
+
+  /**
+   * Execute the provided request with the pooled connections.
+   *
+   * @param aRequest
+   *        The request to execute. May not be <code>null</code>.
+   * @param aHttpContext
+   *        The optional HTTP context for request specific settings. May be
+   *        <code>null</code>.
+   * @param aResponseHandler
+   *        The response handler to use. May not be <code>null</code>.
+   * @return The result of the response handler. May be <code>null</code>.
+   * @throws IOException
+   *         In case of error
+   * @param <T>
+   *        Response type
+   */
+  @Nullable
+  public <T> T execute (@Nonnull final HttpUriRequest aRequest,
+                        @Nullable final HttpContext aHttpContext,
+                        @Nonnull final ResponseHandler <T> aResponseHandler) throws IOException
+  {
+    return m_aMgr.execute (aRequest, aHttpContext, aResponseHandler);
+  }
+
+  /**
+   * @return The statistics over all connections of this pool. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public PoolStats getTotalStats ()
+  {
+    if (m_aConnMgr == null)
+      return new PoolStats (0, 0, 0, 0);
+    return m_aConnMgr.getTotalStats ();
+  }
+
+  /**
+   * @return The number of different hosts for which connections are pooled.
+   */
+  @Nonnegative
+  public int getRouteCount ()
+  {
+    return m_aConnMgr == null ? 0 : m_aConnMgr.getRoutes ().size ();
+  }
+
+  public boolean isClosed ()
+  {
+    return m_aMgr.isClosed ();
+  }
+
+  public void close ()
+  {
+    m_aMgr.close ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("TotalStats", getTotalStats ()).getToString ();
+  }
+
+  /**
+   * @return The global instance that is lazily created from the
+   *         configuration. Never <code>null</code>. Don't close it.
+   */
+  @Nonnull
+  public static TCHttpClientPool getInstance ()
+  {
+    TCHttpClientPool ret = s_aRWLock.readLocked ( () -> s_aInstance);
+    if (ret == null)
+    {
+      ret = s_aRWLock.writeLocked ( () -> {
+        if (s_aInstance == null)
+        {
+          s_aInstance = new TCHttpClientPool (new TCHttpClientSettings (),
+                                              TCConfig.getHttpPoolMaxTotal (),
+                                              TCConfig.getHttpPoolMaxPerRoute (),
+                                              TCConfig.getHttpPoolIdleMS ());
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug ("Created the shared HTTP client pool");
+        }
+        return s_aInstance;
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * @return The global instance, if it was already created, <code>null</code>
+   *         otherwise.
+   */
+  @Nullable
+  public static TCHttpClientPool getInstanceIfCreated ()
+  {
+    return s_aRWLock.readLocked ( () -> s_aInstance);
+  }
+
+  /**
+   * Close the global instance, if it was created. The next call to
+   * {@link #getInstance()} creates a new instance from the current
+   * configuration.
+   */
+  public static void shutdown ()
+  {
+    final TCHttpClientPool aInstance = s_aRWLock.writeLocked ( () -> {
+      final TCHttpClientPool ret = s_aInstance;
+      s_aInstance = null;
+      return ret;
+    });
+    if (aInstance != null)
+    {
+      aInstance.close ();
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Closed the shared HTTP client pool");
+    }
+  }
+}
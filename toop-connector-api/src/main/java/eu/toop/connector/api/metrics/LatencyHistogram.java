@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.api.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A lock-free latency histogram with logarithmic buckets similar to
+ * HdrHistogram. All values are recorded in microseconds with a relative
+ * precision of approximately 3%. Recording a value does not allocate any
+ * memory, so it is safe to be used on hot paths.<br>
+ * Values below 64 are stored exactly. Larger values are stored in 32 linear
+ * sub-buckets per power of two. Values larger than {@link #MAX_VALUE} are
+ * clamped.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@ThreadSafe
+public final class LatencyHistogram
+{
+  /** The maximum trackable value in microseconds (about 12.7 days) */
+  public static final long MAX_VALUE = (1L << 40) - 1;
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int LINEAR_COUNT = SUB_BUCKET_COUNT * 2;
+  private static final int BUCKET_COUNT = LINEAR_COUNT + (40 - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT;
+
+  private final String m_sName;
+  private final AtomicLongArray m_aCounts = new AtomicLongArray (BUCKET_COUNT);
+  private final AtomicLong m_aTotalCount = new AtomicLong (0);
+  private final AtomicLong m_aTotalSum = new AtomicLong (0);
+  private final AtomicLong m_aMax = new AtomicLong (0);
+
+  /**
+   * Constructor
+   *
+   * @param sName
+   *        The name of the histogram. May neither be <code>null</code> nor
+   *        empty.
+   */
+  public LatencyHistogram (@Nonnull @Nonempty final String sName)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    m_sName = sName;
+  }
+
+  /**
+   * @return The name as provided in the constructor. Neither <code>null</code>
+   *         nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getName ()
+  {
+    return m_sName;
+  }
+
+  static int getBucketIndex (@Nonnegative final long nValue)
+  {
+    if (nValue < LINEAR_COUNT)
+      return (int) nValue;
+    final int nMSB = 63 - Long.numberOfLeadingZeros (nValue);
+    final int nShift = nMSB - SUB_BUCKET_BITS;
+    final int nSubBucket = (int) (nValue >>> nShift) - SUB_BUCKET_COUNT;
+    return LINEAR_COUNT + (nShift - 1) * SUB_BUCKET_COUNT + nSubBucket;
+  }
+
+  static long getHighestValueInBucket (@Nonnegative final int nIndex)
+  {
+    if (nIndex < LINEAR_COUNT)
+      return nIndex;
+    final int nShift = (nIndex - LINEAR_COUNT) / SUB_BUCKET_COUNT + 1;
+    final long nSubBucket = (nIndex - LINEAR_COUNT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+    return ((nSubBucket + 1) << nShift) - 1;
+  }
+
+  /**
+   * Record a single value.
+   *
+   * @param nMicros
+   *        The value in microseconds. Negative values are treated as 0.
+   */
+  public void recordMicros (final long nMicros)
+  {
+    final long nValue = nMicros < 0 ? 0 : nMicros > MAX_VALUE ? MAX_VALUE : nMicros;
+    m_aCounts.incrementAndGet (getBucketIndex (nValue));
+    m_aTotalCount.incrementAndGet ();
+    m_aTotalSum.addAndGet (nValue);
+
+    long nOldMax = m_aMax.get ();
+    while (nValue > nOldMax && !m_aMax.compareAndSet (nOldMax, nValue))
+      nOldMax = m_aMax.get ();
+  }
+
+  /**
+   * Record the time elapsed since the provided start time.
+   *
+   * @param nStartNanos
+   *        The start time as returned by {@link System#nanoTime()}.
+   */
+  public void recordSince (final long nStartNanos)
+  {
+    recordMicros (TimeUnit.NANOSECONDS.toMicros (System.nanoTime () - nStartNanos));
+  }
+
+  /**
+   * @return The number of recorded values. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getTotalCount ()
+  {
+    return m_aTotalCount.get ();
+  }
+
+  /**
+   * @return The largest recorded value in microseconds. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getMaxMicros ()
+  {
+    return m_aMax.get ();
+  }
+
+  /**
+   * @return The arithmetic mean of all recorded values in microseconds or 0 if
+   *         no value was recorded.
+   */
+  @Nonnegative
+  public double getMeanMicros ()
+  {
+    final long nCount = m_aTotalCount.get ();
+    return nCount == 0 ? 0 : (double) m_aTotalSum.get () / nCount;
+  }
+
+  /**
+   * Get the value at the provided percentile. As values are recorded
+   * concurrently, the result is only an approximation.
+   *
+   * @param dPercentile
+   *        The percentile to query. Must be between 0 and 100.
+   * @return The highest value in microseconds that is equivalent to the value
+   *         at the provided percentile. 0 if no value was recorded.
+   */
+  @Nonnegative
+  public long getValueAtPercentile (final double dPercentile)
+  {
+    ValueEnforcer.isBetweenInclusive (dPercentile, "Percentile", 0, 100);
+
+    final long nTotal = m_aTotalCount.get ();
+    if (nTotal == 0)
+      return 0;
+    final long nTarget = Math.max (1, (long) Math.ceil (dPercentile / 100 * nTotal));
+    long nSum = 0;
+    for (int i = 0; i < BUCKET_COUNT; ++i)
+    {
+      nSum += m_aCounts.get (i);
+      if (nSum >= nTarget)
+        return Math.min (getHighestValueInBucket (i), m_aMax.get ());
+    }
+    return m_aMax.get ();
+  }
+
+  /**
+   * Remove all recorded values.
+   */
+  public void reset ()
+  {
+    for (int i = 0; i < BUCKET_COUNT; ++i)
+      m_aCounts.set (i, 0);
+    m_aTotalCount.set (0);
+    m_aTotalSum.set (0);
+    m_aMax.set (0);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Name", m_sName)
+                                       .append ("TotalCount", m_aTotalCount.get ())
+                                       .append ("Max", m_aMax.get ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.api.metrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+
+/**
+ * Global registry for all runtime metrics of the TOOP Connector. The metrics
+ * are published via the "/tc-metrics" servlet.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@ThreadSafe
+public final class TCMetrics
+{
+  private static final SimpleReadWriteLock s_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("s_aRWLock")
+  private static final ICommonsOrderedMap <String, LatencyHistogram> s_aHistograms = new CommonsLinkedHashMap <> ();
+
+  private TCMetrics ()
+  {}
+
+  /**
+   * Get or create the latency histogram with the provided name. The returned
+   * object should be stored in a constant by the caller.
+   *
+   * @param sName
+   *        The name of the histogram. Should be in the form
+   *        <code>area.subarea.phase</code>. May neither be <code>null</code>
+   *        nor empty.
+   * @return The histogram. Never <code>null</code>.
+   */
+  @Nonnull
+  public static LatencyHistogram getHistogram (@Nonnull @Nonempty final String sName)
+  {
+    final LatencyHistogram ret = s_aRWLock.readLocked ( () -> s_aHistograms.get (sName));
+    if (ret != null)
+      return ret;
+    return s_aRWLock.writeLocked ( () -> s_aHistograms.computeIfAbsent (sName, LatencyHistogram::new));
+  }
+
+  /**
+   * @return All registered histograms in registration order. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsOrderedMap <String, LatencyHistogram> getAllHistograms ()
+  {
+    return s_aRWLock.readLocked (s_aHistograms::getClone);
+  }
+
+  /**
+   * Reset all registered histograms.
+   */
+  public static void resetAll ()
+  {
+    s_aRWLock.readLocked ( () -> s_aHistograms.forEach ( (k, v) -> v.reset ()));
+  }
+}
@@ -21,6 +21,7 @@ import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.collection.impl.ICommonsIterable;
 import com.helger.commons.lang.IHasSize;
@@ -50,4 +51,36 @@ public interface IMappedValueList extends IHasSize, ICommonsIterable <MappedValu
   @Nonnull
   @ReturnsMutableObject
   IMappedValueList getAllByDestination (@Nonnull final Predicate <? super ConceptValue> aFilter);
+
+  /**
+   * Get all mapped values with the provided source.
+   *
+   * @param aSource
+   *        The source concept to search. May not be <code>null</code>.
+   * @return The non-<code>null</code> but maybe empty list of matches.
+   * @since 0.10.9
+   */
+  @Nonnull
+  @ReturnsMutableObject
+  default IMappedValueList getAllBySource (@Nonnull final ConceptValue aSource)
+  {
+    ValueEnforcer.notNull (aSource, "Source");
+    return getAllBySource (aSource::equals);
+  }
+
+  /**
+   * Get all mapped values with the provided destination.
+   *
+   * @param aDest
+   *        The destination concept to search. May not be <code>null</code>.
+   * @return The non-<code>null</code> but maybe empty list of matches.
+   * @since 0.10.9
+   */
+  @Nonnull
+  @ReturnsMutableObject
+  default IMappedValueList getAllByDestination (@Nonnull final ConceptValue aDest)
+  {
+    ValueEnforcer.notNull (aDest, "Dest");
+    return getAllByDestination (aDest::equals);
+  }
 }
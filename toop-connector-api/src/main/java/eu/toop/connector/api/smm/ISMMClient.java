@@ -24,6 +24,7 @@ import javax.annotation.Nullable;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
 
 import eu.toop.commons.concept.ConceptValue;
 
@@ -94,4 +95,34 @@ public interface ISMMClient extends Serializable
                                    @Nonnull @Nonempty String sDestNamespace,
                                    @Nonnull ISMMConceptProvider aConceptProvider,
                                    @Nullable ISMMUnmappableCallback aUnmappableCallback);
+
+  /**
+   * Perform a mapping of all provided source values to the provided destination
+   * namespace and return the result per source value. Source values that were
+   * added more than once are only mapped once.
+   *
+   * @param sLogPrefix
+   *        Logging prefix to easily fit together what belongs together. May not
+   *        be <code>null</code> but may be empty.
+   * @param sDestNamespace
+   *        Destination namespace to map the concepts to. May neither be
+   *        <code>null</code> nor empty.
+   * @param aConceptProvider
+   *        The concept provider implementation to use. May not be
+   *        <code>null</code>.
+   * @param aUnmappableCallback
+   *        Callback to be invoked if a non-mappable entry was found. May be
+   *        <code>null</code>.
+   * @return A non-<code>null</code> map from source value to the mapped values
+   *         in the order the source values were added. Unmappable source values
+   *         are contained with an empty list. The contained lists may be
+   *         read-only.
+   * @since 0.10.9
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsOrderedMap <ConceptValue, IMappedValueList> performBulkMapping (@Nonnull String sLogPrefix,
+                                                                          @Nonnull @Nonempty String sDestNamespace,
+                                                                          @Nonnull ISMMConceptProvider aConceptProvider,
+                                                                          @Nullable ISMMUnmappableCallback aUnmappableCallback);
 }
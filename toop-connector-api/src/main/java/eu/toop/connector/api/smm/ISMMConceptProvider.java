@@ -40,6 +40,8 @@ public interface ISMMConceptProvider extends Serializable
    * @param sDestNamespace
    *        Target namespace to map to. May not be <code>null</code>.
    * @return The non-<code>null</code> but maybe empty list of mapped values.
+   *         Since 0.10.9 the returned list may be shared and read-only (see
+   *         {@link MappedValueList#isReadOnly()}).
    */
   @Nonnull
   MappedValueList getAllMappedValues (@Nonnull String sLogPrefix,
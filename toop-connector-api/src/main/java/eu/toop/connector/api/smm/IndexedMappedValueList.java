@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.api.smm;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+
+import eu.toop.commons.concept.ConceptValue;
+
+/**
+ * A {@link MappedValueList} that additionally indexes all values by source and
+ * by destination, so that {@link #getAllBySource(ConceptValue)} and
+ * {@link #getAllByDestination(ConceptValue)} don't need to scan the whole
+ * list. The lookups with a predicate still scan the list.<br>
+ * After {@link #setReadOnly()} the lookups by concept return shared read-only
+ * lists and don't allocate anything.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@NotThreadSafe
+public class IndexedMappedValueList extends MappedValueList
+{
+  private final ICommonsMap <ConceptValue, MappedValueList> m_aBySource = new CommonsHashMap <> ();
+  private final ICommonsMap <ConceptValue, MappedValueList> m_aByDest = new CommonsHashMap <> ();
+
+  public IndexedMappedValueList ()
+  {}
+
+  public IndexedMappedValueList (@Nonnull final IMappedValueList aValues)
+  {
+    addAllMappedValues (aValues);
+  }
+
+  @Override
+  public void addAllMappedValues (@Nonnull final IMappedValueList aValues)
+  {
+    ValueEnforcer.notNull (aValues, "Values");
+    for (final MappedValue aValue : aValues)
+      addMappedValue (aValue);
+  }
+
+  @Override
+  public void addMappedValue (@Nonnull final MappedValue aValue)
+  {
+    super.addMappedValue (aValue);
+    m_aBySource.computeIfAbsent (aValue.getSource (), k -> new MappedValueList ()).addMappedValue (aValue);
+    m_aByDest.computeIfAbsent (aValue.getDestination (), k -> new MappedValueList ()).addMappedValue (aValue);
+  }
+
+  @Override
+  public void setReadOnly ()
+  {
+    super.setReadOnly ();
+    for (final MappedValueList aList : m_aBySource.values ())
+      aList.setReadOnly ();
+    for (final MappedValueList aList : m_aByDest.values ())
+      aList.setReadOnly ();
+  }
+
+  @Nonnull
+  private MappedValueList _get (@Nonnull final ICommonsMap <ConceptValue, MappedValueList> aIndex,
+                                @Nonnull final ConceptValue aKey)
+  {
+    final MappedValueList aValues = aIndex.get (aKey);
+    if (isReadOnly ())
+    {
+      // Nothing can be modified - return the shared objects
+      return aValues == null ? EMPTY_READ_ONLY : aValues;
+    }
+
+    final MappedValueList ret = new MappedValueList ();
+    if (aValues != null)
+      ret.addAllMappedValues (aValues);
+    return ret;
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableObject
+  public MappedValueList getAllBySource (@Nonnull final ConceptValue aSource)
+  {
+    ValueEnforcer.notNull (aSource, "Source");
+    return _get (m_aBySource, aSource);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableObject
+  public MappedValueList getAllByDestination (@Nonnull final ConceptValue aDest)
+  {
+    ValueEnforcer.notNull (aDest, "Dest");
+    return _get (m_aByDest, aDest);
+  }
+
+  /**
+   * @return A new {@link IndexedMappedValueList} with the same amount of
+   *         {@link MappedValue} entries but for each value the Source and
+   *         Destination parts are swapped
+   */
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public IndexedMappedValueList getSwappedSourceAndDest ()
+  {
+    return new IndexedMappedValueList (super.getSwappedSourceAndDest ());
+  }
+}
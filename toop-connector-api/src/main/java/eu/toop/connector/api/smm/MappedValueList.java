@@ -15,6 +15,7 @@
  */
 package eu.toop.connector.api.smm;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.function.Predicate;
 
@@ -36,7 +37,19 @@ import eu.toop.commons.concept.ConceptValue;
 @NotThreadSafe
 public class MappedValueList implements IMappedValueList
 {
+  /**
+   * A shared empty and read-only list.
+   *
+   * @since 0.10.9
+   */
+  public static final MappedValueList EMPTY_READ_ONLY = new MappedValueList ();
+  static
+  {
+    EMPTY_READ_ONLY.setReadOnly ();
+  }
+
   private final ICommonsList <MappedValue> m_aList;
+  private boolean m_bReadOnly = false;
 
   public MappedValueList ()
   {
@@ -55,15 +68,44 @@ public class MappedValueList implements IMappedValueList
     m_aList = ValueEnforcer.notNull (aValues, "Values");
   }
 
+  /**
+   * @return <code>true</code> if this list was made read-only via
+   *         {@link #setReadOnly()} and may therefore be shared.
+   * @since 0.10.9
+   */
+  public final boolean isReadOnly ()
+  {
+    return m_bReadOnly;
+  }
+
+  /**
+   * Make this list read-only. All subsequent modifications fail with an
+   * {@link IllegalStateException}. This cannot be undone.
+   *
+   * @since 0.10.9
+   */
+  public void setReadOnly ()
+  {
+    m_bReadOnly = true;
+  }
+
+  protected final void checkWritable ()
+  {
+    if (m_bReadOnly)
+      throw new IllegalStateException ("This MappedValueList is read-only");
+  }
+
   public void addAllMappedValues (@Nonnull final IMappedValueList aValues)
   {
     ValueEnforcer.notNull (aValues, "Values");
+    checkWritable ();
     m_aList.addAll (aValues);
   }
 
   public void addMappedValue (@Nonnull final MappedValue aValue)
   {
     ValueEnforcer.notNull (aValue, "Value");
+    checkWritable ();
     m_aList.add (aValue);
   }
 
@@ -79,6 +121,8 @@ public class MappedValueList implements IMappedValueList
   @Nonnull
   public Iterator <MappedValue> iterator ()
   {
+    if (m_bReadOnly)
+      return Collections.unmodifiableList (m_aList).iterator ();
     return m_aList.iterator ();
   }
 
@@ -115,6 +159,24 @@ public class MappedValueList implements IMappedValueList
     return new MappedValueList (m_aList.getAll (x -> aFilter.test (x.getDestination ())));
   }
 
+  @Override
+  @Nonnull
+  @ReturnsMutableObject
+  public MappedValueList getAllBySource (@Nonnull final ConceptValue aSource)
+  {
+    ValueEnforcer.notNull (aSource, "Source");
+    return getAllBySource (aSource::equals);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableObject
+  public MappedValueList getAllByDestination (@Nonnull final ConceptValue aDest)
+  {
+    ValueEnforcer.notNull (aDest, "Dest");
+    return getAllByDestination (aDest::equals);
+  }
+
   /**
    * @return A new {@link MappedValueList} with the same amount of
    *         {@link MappedValue} entries but for each value the Source and
@@ -131,6 +193,6 @@ public class MappedValueList implements IMappedValueList
   @Override
   public String toString ()
   {
-    return new ToStringGenerator (this).append ("List", m_aList).getToString ();
+    return new ToStringGenerator (this).append ("List", m_aList).append ("ReadOnly", m_bReadOnly).getToString ();
   }
 }
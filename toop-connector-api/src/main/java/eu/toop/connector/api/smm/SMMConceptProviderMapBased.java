@@ -105,7 +105,7 @@ public class SMMConceptProviderMapBased implements ISMMConceptProvider
                  sDestNamespace +
                  "'");
 
-    final MappedValueList ret = new MappedValueList ();
+    final MappedValueList ret = new IndexedMappedValueList ();
     if (m_sSourceNamespace.equals (sSourceNamespace) && m_sDestNamespace.equals (sDestNamespace))
     {
       // Namespace match
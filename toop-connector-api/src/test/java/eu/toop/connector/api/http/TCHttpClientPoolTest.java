@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.api.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.pool.PoolStats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsConcurrentHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.httpclient.HttpClientSettings;
+import com.helger.httpclient.response.ResponseHandlerString;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test class for class {@link TCHttpClientPool}. Uses a local HTTP server.
+ *
+ * @author Philip Helger
+ */
+public final class TCHttpClientPoolTest
+{
+  private HttpServer m_aServer;
+  private final ICommonsMap <Integer, Integer> m_aClientPorts = new CommonsConcurrentHashMap <> ();
+
+  @Before
+  public void before () throws IOException
+  {
+    m_aServer = HttpServer.create (new InetSocketAddress ("localhost", 0), 0);
+    m_aServer.createContext ("/", aExchange -> {
+      // Remember the client port, to detect new connections
+      m_aClientPorts.put (Integer.valueOf (aExchange.getRemoteAddress ().getPort ()), Integer.valueOf (0));
+      final byte [] aBytes = "ok".getBytes (StandardCharsets.UTF_8);
+      aExchange.sendResponseHeaders (200, aBytes.length);
+      try (final OutputStream aOS = aExchange.getResponseBody ())
+      {
+        aOS.write (aBytes);
+      }
+    });
+    m_aServer.start ();
+  }
+
+  @After
+  public void after ()
+  {
+    m_aServer.stop (0);
+  }
+
+  @Test
+  public void testConnectionReuse () throws IOException
+  {
+    final String sURL = "http://localhost:" + m_aServer.getAddress ().getPort () + "/test";
+    try (final TCHttpClientPool aPool = new TCHttpClientPool (new HttpClientSettings (), 10, 2, 10_000))
+    {
+      for (int i = 0; i < 10; ++i)
+        assertEquals ("ok", aPool.execute (new HttpGet (sURL), new ResponseHandlerString ()));
+
+      // All requests were sent over the same connection
+      assertEquals (1, m_aClientPorts.size ());
+
+      final PoolStats aStats = aPool.getTotalStats ();
+      assertEquals (0, aStats.getLeased ());
+      assertEquals (1, aStats.getAvailable ());
+      assertEquals (10, aStats.getMax ());
+      assertEquals (1, aPool.getRouteCount ());
+
+      assertFalse (aPool.isClosed ());
+      aPool.close ();
+      assertTrue (aPool.isClosed ());
+    }
+  }
+
+  @Test
+  public void testGlobalInstance ()
+  {
+    TCHttpClientPool.shutdown ();
+    assertNull (TCHttpClientPool.getInstanceIfCreated ());
+
+    final TCHttpClientPool aPool = TCHttpClientPool.getInstance ();
+    assertNotNull (aPool);
+    assertSame (aPool, TCHttpClientPool.getInstance ());
+    assertSame (aPool, TCHttpClientPool.getInstanceIfCreated ());
+
+    TCHttpClientPool.shutdown ();
+    assertTrue (aPool.isClosed ());
+    assertNull (TCHttpClientPool.getInstanceIfCreated ());
+
+    // Recreated on demand
+    final TCHttpClientPool aPool2 = TCHttpClientPool.getInstance ();
+    assertNotSame (aPool, aPool2);
+    TCHttpClientPool.shutdown ();
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.api.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link LatencyHistogram}.
+ *
+ * @author Philip Helger
+ */
+public final class LatencyHistogramTest
+{
+  @Test
+  public void testBucketIndex ()
+  {
+    // Index and value must be monotonic
+    int nLastIndex = -1;
+    for (long nValue = 0; nValue < 100_000; ++nValue)
+    {
+      final int nIndex = LatencyHistogram.getBucketIndex (nValue);
+      assertTrue (nIndex == nLastIndex || nIndex == nLastIndex + 1);
+      assertTrue (LatencyHistogram.getHighestValueInBucket (nIndex) >= nValue);
+      // Relative precision
+      assertTrue (LatencyHistogram.getHighestValueInBucket (nIndex) - nValue <= Math.max (1, nValue / 32));
+      nLastIndex = nIndex;
+    }
+    assertEquals (LatencyHistogram.MAX_VALUE,
+                  LatencyHistogram.getHighestValueInBucket (LatencyHistogram.getBucketIndex (LatencyHistogram.MAX_VALUE)));
+  }
+
+  @Test
+  public void testPercentiles ()
+  {
+    final LatencyHistogram aHisto = new LatencyHistogram ("test");
+    assertEquals (0, aHisto.getValueAtPercentile (50));
+
+    for (int i = 1; i <= 1000; ++i)
+      aHisto.recordMicros (i);
+    assertEquals (1000, aHisto.getTotalCount ());
+    assertEquals (1000, aHisto.getMaxMicros ());
+    assertEquals (500.5, aHisto.getMeanMicros (), 0.001);
+
+    final long nP50 = aHisto.getValueAtPercentile (50);
+    assertTrue (Long.toString (nP50), nP50 >= 500 && nP50 <= 516);
+    final long nP99 = aHisto.getValueAtPercentile (99);
+    assertTrue (Long.toString (nP99), nP99 >= 990 && nP99 <= 1000);
+    assertEquals (1000, aHisto.getValueAtPercentile (100));
+
+    // Clamping
+    aHisto.recordMicros (-5);
+    aHisto.recordMicros (Long.MAX_VALUE);
+    assertEquals (LatencyHistogram.MAX_VALUE, aHisto.getMaxMicros ());
+
+    aHisto.reset ();
+    assertEquals (0, aHisto.getTotalCount ());
+    assertEquals (0, aHisto.getValueAtPercentile (99.9));
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.api.smm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+
+import eu.toop.commons.concept.ConceptValue;
+
+/**
+ * Test class for class {@link IndexedMappedValueList}.
+ *
+ * @author Philip Helger
+ */
+public final class IndexedMappedValueListTest
+{
+  private static final String NS_SRC = "urn:src";
+  private static final String NS_DST = "urn:dst";
+
+  @Test
+  public void testLookup ()
+  {
+    final IndexedMappedValueList aList = new IndexedMappedValueList ();
+    assertTrue (aList.getAllBySource (new ConceptValue (NS_SRC, "a")).isEmpty ());
+
+    aList.addMappedValue (NS_SRC, "a", NS_DST, "A");
+    aList.addMappedValue (NS_SRC, "b", NS_DST, "B");
+    aList.addMappedValue (NS_SRC, "b", NS_DST, "B2");
+    assertEquals (3, aList.size ());
+
+    IMappedValueList aRes = aList.getAllBySource (new ConceptValue (NS_SRC, "a"));
+    assertEquals (1, aRes.size ());
+    assertEquals ("A", aRes.getFirst ().getDestination ().getValue ());
+
+    aRes = aList.getAllBySource (new ConceptValue (NS_SRC, "b"));
+    assertEquals (2, aRes.size ());
+
+    // Other namespace
+    assertTrue (aList.getAllBySource (new ConceptValue (NS_DST, "a")).isEmpty ());
+
+    aRes = aList.getAllByDestination (new ConceptValue (NS_DST, "B2"));
+    assertEquals (1, aRes.size ());
+    assertEquals ("b", aRes.getFirst ().getSource ().getValue ());
+
+    // Result is a copy
+    final MappedValueList aCopy = aList.getAllBySource (new ConceptValue (NS_SRC, "b"));
+    aCopy.addMappedValue (NS_SRC, "b", NS_DST, "B3");
+    assertEquals (2, aList.getAllBySource (new ConceptValue (NS_SRC, "b")).size ());
+  }
+
+  @Test
+  public void testSameResultAsLinearLookup ()
+  {
+    final MappedValueList aLinear = new MappedValueList ();
+    for (int i = 0; i < 100; ++i)
+      aLinear.addMappedValue (NS_SRC, "s" + (i % 37), NS_DST, "d" + i);
+
+    final IndexedMappedValueList aIndexed = new IndexedMappedValueList (aLinear);
+    assertEquals (aLinear.size (), aIndexed.size ());
+    for (int i = 0; i < 40; ++i)
+    {
+      final ConceptValue aSrc = new ConceptValue (NS_SRC, "s" + i);
+      assertEquals (new CommonsArrayList <> (aLinear.getAllBySource (aSrc)),
+                    new CommonsArrayList <> (aIndexed.getAllBySource (aSrc)));
+      final ConceptValue aDst = new ConceptValue (NS_DST, "d" + i);
+      assertEquals (new CommonsArrayList <> (aLinear.getAllByDestination (aDst)),
+                    new CommonsArrayList <> (aIndexed.getAllByDestination (aDst)));
+    }
+
+    // Swapped list is indexed as well
+    final IndexedMappedValueList aSwapped = aIndexed.getSwappedSourceAndDest ();
+    assertNotNull (aSwapped);
+    final IMappedValueList aRes = aSwapped.getAllBySource (new ConceptValue (NS_DST, "d5"));
+    assertEquals (1, aRes.size ());
+    assertEquals (new ConceptValue (NS_SRC, "s5"), aRes.getFirst ().getDestination ());
+    assertSame (IndexedMappedValueList.class, aSwapped.getClass ());
+  }
+
+  @Test
+  public void testReadOnly ()
+  {
+    final IndexedMappedValueList aList = new IndexedMappedValueList ();
+    aList.addMappedValue (NS_SRC, "a", NS_DST, "A");
+    aList.setReadOnly ();
+    assertTrue (aList.isReadOnly ());
+
+    // Lookups return shared objects
+    final ConceptValue aSrc = new ConceptValue (NS_SRC, "a");
+    final MappedValueList aRes = aList.getAllBySource (aSrc);
+    assertEquals (1, aRes.size ());
+    assertTrue (aRes.isReadOnly ());
+    assertSame (aRes, aList.getAllBySource (aSrc));
+    assertSame (MappedValueList.EMPTY_READ_ONLY, aList.getAllBySource (new ConceptValue (NS_SRC, "b")));
+
+    try
+    {
+      aList.addMappedValue (NS_SRC, "b", NS_DST, "B");
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    try
+    {
+      aRes.addMappedValue (NS_SRC, "b", NS_DST, "B");
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    assertEquals (1, aList.size ());
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.api.smm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.timing.StopWatch;
+
+import eu.toop.commons.concept.ConceptValue;
+
+/**
+ * Simple manual micro benchmark comparing the lookup by source in a
+ * {@link MappedValueList} with the lookup in an {@link IndexedMappedValueList}.
+ * Not run as part of the build.
+ *
+ * @author Philip Helger
+ */
+public final class MainIndexedMappedValueListBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainIndexedMappedValueListBenchmark.class);
+  private static final int LOOKUPS = 100_000;
+
+  private static long _run (final IMappedValueList aList, final int nSize)
+  {
+    long nFound = 0;
+    for (int i = 0; i < LOOKUPS; ++i)
+      nFound += aList.getAllBySource (new ConceptValue ("urn:src", "s" + (i % nSize))).size ();
+    return nFound;
+  }
+
+  public static void main (final String [] args)
+  {
+    // Sum of all results, so that the JIT cannot remove the lookups
+    long nTotalFound = 0;
+    for (final int nSize : new int [] { 10, 100, 1_000, 10_000 })
+    {
+      final MappedValueList aLinear = new MappedValueList ();
+      for (int i = 0; i < nSize; ++i)
+        aLinear.addMappedValue ("urn:src", "s" + i, "urn:dst", "d" + i);
+      final IndexedMappedValueList aIndexed = new IndexedMappedValueList (aLinear);
+
+      // Warm up
+      nTotalFound += _run (aLinear, nSize);
+      nTotalFound += _run (aIndexed, nSize);
+
+      final int nLinearLookups = nSize >= 10_000 ? LOOKUPS / 10 : LOOKUPS;
+      StopWatch aSW = StopWatch.createdStarted ();
+      for (int i = 0; i < nLinearLookups; ++i)
+        nTotalFound += aLinear.getAllBySource (new ConceptValue ("urn:src", "s" + (i % nSize))).size ();
+      final double dLinear = aSW.stopAndGetNanos () / (double) nLinearLookups;
+
+      aSW = StopWatch.createdStarted ();
+      nTotalFound += _run (aIndexed, nSize);
+      final double dIndexed = aSW.stopAndGetNanos () / (double) LOOKUPS;
+
+      LOGGER.info (String.format ("%6d entries: linear %10.1f ns/lookup, indexed %8.1f ns/lookup",
+                                  Integer.valueOf (nSize),
+                                  Double.valueOf (dLinear),
+                                  Double.valueOf (dIndexed)));
+    }
+    LOGGER.info ("Found " + nTotalFound + " mapped values in total");
+  }
+}
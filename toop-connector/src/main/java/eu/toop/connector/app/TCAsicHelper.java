@@ -0,0 +1,373 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.asic.AsicReaderFactory;
+import com.helger.asic.IAsicReader;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FileOperations;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.WrappedInputStream;
+
+import eu.toop.commons.dataexchange.v140.TDETOOPRequestType;
+import eu.toop.commons.dataexchange.v140.TDETOOPResponseType;
+import eu.toop.commons.exchange.AsicReadEntry;
+import eu.toop.commons.exchange.ToopMessageBuilder140;
+import eu.toop.commons.jaxb.ToopReader;
+import eu.toop.connector.api.TCConfig;
+
+/**
+ * ASiC helper functions. The parsing works like in
+ * {@link ToopMessageBuilder140}, but the archive is processed as a stream:
+ * <ul>
+ * <li>The TOOP message is parsed while it is read from the archive. The XML is
+ * still handed to the caller as received, so that it can be validated without
+ * serializing the parsed message again.</li>
+ * <li>Attachments larger than {@link TCConfig#getMPIntakeSpillThreshold()}
+ * bytes are written to a temporary file and returned as
+ * {@link TCFileBackedAsicReadEntry}. The temporary files must be deleted with
+ * {@link #deleteSpilledAttachments(Iterable)} once the attachments are no
+ * longer needed.</li>
+ * </ul>
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@Immutable
+public final class TCAsicHelper
+{
+  /** The ASiC entry name of a TOOP request (as in ToopMessageBuilder140) */
+  public static final String ENTRY_NAME_TOOP_DATA_REQUEST = "TOOPRequest";
+  /** The ASiC entry name of a TOOP response (as in ToopMessageBuilder140) */
+  public static final String ENTRY_NAME_TOOP_DATA_RESPONSE = "TOOPResponse";
+
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  /**
+   * Copies everything that is read and ignores close, as the stream of an ASiC
+   * entry is the stream of the whole archive.
+   */
+  private static final class CopyingEntryInputStream extends WrappedInputStream
+  {
+    private final OutputStream m_aCopyOS;
+
+    CopyingEntryInputStream (@Nonnull final InputStream aIS, @Nonnull final OutputStream aCopyOS)
+    {
+      super (aIS);
+      m_aCopyOS = aCopyOS;
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      final int ret = super.read ();
+      if (ret >= 0)
+        m_aCopyOS.write (ret);
+      return ret;
+    }
+
+    @Override
+    public int read (final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      final int ret = super.read (aBuf, nOfs, nLen);
+      if (ret > 0)
+        m_aCopyOS.write (aBuf, nOfs, ret);
+      return ret;
+    }
+
+    @Override
+    public long skip (final long n) throws IOException
+    {
+      // Read instead, so that nothing is missing in the copy
+      final byte [] aBuf = new byte [(int) Math.min (n, BUFFER_SIZE)];
+      final int ret = read (aBuf, 0, aBuf.length);
+      return ret < 0 ? 0 : ret;
+    }
+
+    @Override
+    public boolean markSupported ()
+    {
+      return false;
+    }
+
+    @Override
+    public void close ()
+    {
+      // Don't close the archive
+    }
+  }
+
+  private TCAsicHelper ()
+  {}
+
+  @Nullable
+  private static Serializable _readMessage (@Nonnull @WillNotClose final InputStream aEntryIS,
+                                            final boolean bRequest,
+                                            @Nonnull final Consumer <? super byte []> aXMLPayloadConsumer) throws IOException
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      final CopyingEntryInputStream aCopyIS = new CopyingEntryInputStream (aEntryIS, aBAOS);
+
+      // Parse while reading
+      final Serializable ret = bRequest ? ToopReader.request140 ().read (aCopyIS)
+                                        : ToopReader.response140 ().read (aCopyIS);
+
+      // Consume the rest of the entry (e.g. trailing whitespaces) so that the
+      // copy is complete and the ASiC digest can be verified
+      final byte [] aBuf = new byte [BUFFER_SIZE];
+      while (aCopyIS.read (aBuf, 0, aBuf.length) >= 0)
+      {
+        // just read
+      }
+
+      if (ret != null)
+        aXMLPayloadConsumer.accept (aBAOS.toByteArray ());
+      return ret;
+    }
+  }
+
+  @Nonnull
+  private static AsicReadEntry _readAttachment (@Nonnull final String sEntryName,
+                                                @Nonnull @WillNotClose final InputStream aEntryIS,
+                                                final long nSpillThreshold,
+                                                @Nullable final File aSpillDir) throws IOException
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      final byte [] aBuf = new byte [BUFFER_SIZE];
+      int nRead;
+      while ((nRead = aEntryIS.read (aBuf, 0, aBuf.length)) >= 0)
+      {
+        if (nSpillThreshold >= 0 && aBAOS.size () + (long) nRead > nSpillThreshold)
+        {
+          // Too large for the heap - continue in a file
+          if (aSpillDir != null)
+            FileOperations.createDirRecursiveIfNotExisting (aSpillDir);
+          final File aFile = File.createTempFile ("toop-asic-", ".bin", aSpillDir);
+          boolean bSuccess = false;
+          try
+          {
+            long nSize = aBAOS.size () + (long) nRead;
+            try (final OutputStream aOS = new BufferedOutputStream (new FileOutputStream (aFile), BUFFER_SIZE))
+            {
+              aBAOS.writeTo (aOS);
+              aOS.write (aBuf, 0, nRead);
+              while ((nRead = aEntryIS.read (aBuf, 0, aBuf.length)) >= 0)
+              {
+                aOS.write (aBuf, 0, nRead);
+                nSize += nRead;
+              }
+            }
+            bSuccess = true;
+            return new TCFileBackedAsicReadEntry (sEntryName, aFile, nSize);
+          }
+          finally
+          {
+            if (!bSuccess)
+              FileOperations.deleteFileIfExisting (aFile);
+          }
+        }
+        aBAOS.write (aBuf, 0, nRead);
+      }
+      return new AsicReadEntry (sEntryName, aBAOS.toByteArray ());
+    }
+  }
+
+  /**
+   * Parse the first TOOP request or response contained in an ASiC archive,
+   * using the spill settings from {@link TCConfig}.
+   *
+   * @param aArchiveIS
+   *        The input stream of the ASiC archive. May not be <code>null</code>.
+   * @param aAttachmentConsumer
+   *        The consumer for all other entries of the archive. May not be
+   *        <code>null</code>.
+   * @param aXMLPayloadConsumer
+   *        The consumer for the XML bytes of the TOOP message. Only invoked if
+   *        the message could be parsed. May not be <code>null</code>.
+   * @return The parsed {@link TDETOOPRequestType} or
+   *         {@link TDETOOPResponseType} or <code>null</code> if the archive
+   *         contains no valid TOOP message.
+   * @throws IOException
+   *         In case of an error reading the archive
+   */
+  @Nullable
+  public static Serializable parseRequestOrResponse (@Nonnull final InputStream aArchiveIS,
+                                                     @Nonnull final Consumer <? super AsicReadEntry> aAttachmentConsumer,
+                                                     @Nonnull final Consumer <? super byte []> aXMLPayloadConsumer) throws IOException
+  {
+    return parseRequestOrResponse (aArchiveIS,
+                                   aAttachmentConsumer,
+                                   aXMLPayloadConsumer,
+                                   TCConfig.getMPIntakeSpillThreshold (),
+                                   TCConfig.getMPIntakeSpillPath ());
+  }
+
+  /**
+   * Parse the first TOOP request or response contained in an ASiC archive.
+   *
+   * @param aArchiveIS
+   *        The input stream of the ASiC archive. May not be <code>null</code>.
+   * @param aAttachmentConsumer
+   *        The consumer for all other entries of the archive. May not be
+   *        <code>null</code>.
+   * @param aXMLPayloadConsumer
+   *        The consumer for the XML bytes of the TOOP message. Only invoked if
+   *        the message could be parsed. May not be <code>null</code>.
+   * @param nSpillThreshold
+   *        The size in bytes above which attachments are stored in a file. A
+   *        negative value keeps all attachments in memory.
+   * @param aSpillDir
+   *        The directory for the attachment files. May be <code>null</code>
+   *        to use the default temporary directory.
+   * @return The parsed {@link TDETOOPRequestType} or
+   *         {@link TDETOOPResponseType} or <code>null</code> if the archive
+   *         contains no valid TOOP message.
+   * @throws IOException
+   *         In case of an error reading the archive. Attachment files that
+   *         were already created are deleted in that case.
+   */
+  @Nullable
+  public static Serializable parseRequestOrResponse (@Nonnull final InputStream aArchiveIS,
+                                                     @Nonnull final Consumer <? super AsicReadEntry> aAttachmentConsumer,
+                                                     @Nonnull final Consumer <? super byte []> aXMLPayloadConsumer,
+                                                     final long nSpillThreshold,
+                                                     @Nullable final File aSpillDir) throws IOException
+  {
+    ValueEnforcer.notNull (aArchiveIS, "ArchiveIS");
+    ValueEnforcer.notNull (aAttachmentConsumer, "AttachmentConsumer");
+    ValueEnforcer.notNull (aXMLPayloadConsumer, "XMLPayloadConsumer");
+
+    final ICommonsList <AsicReadEntry> aReadAttachments = new CommonsArrayList <> ();
+    Serializable ret = null;
+    boolean bLookForMessage = true;
+    boolean bSuccess = false;
+    try (final IAsicReader aAsicReader = AsicReaderFactory.newFactory ().open (aArchiveIS))
+    {
+      String sEntryName;
+      while ((sEntryName = aAsicReader.getNextFile ()) != null)
+      {
+        // Must not be closed - it is the stream of the archive
+        final InputStream aEntryIS = aAsicReader.inputStream ();
+        if (bLookForMessage && ENTRY_NAME_TOOP_DATA_REQUEST.equals (sEntryName))
+        {
+          ret = _readMessage (aEntryIS, true, aXMLPayloadConsumer);
+          bLookForMessage = false;
+        }
+        else
+          if (bLookForMessage && ENTRY_NAME_TOOP_DATA_RESPONSE.equals (sEntryName))
+          {
+            ret = _readMessage (aEntryIS, false, aXMLPayloadConsumer);
+            bLookForMessage = false;
+          }
+          else
+          {
+            final AsicReadEntry aEntry = _readAttachment (sEntryName, aEntryIS, nSpillThreshold, aSpillDir);
+            aReadAttachments.add (aEntry);
+            aAttachmentConsumer.accept (aEntry);
+          }
+      }
+      bSuccess = true;
+    }
+    finally
+    {
+      if (!bSuccess)
+        deleteSpilledAttachments (aReadAttachments);
+    }
+    return ret;
+  }
+
+  /**
+   * Parse a TOOP request from an ASiC archive.
+   *
+   * @param aArchiveIS
+   *        The input stream of the ASiC archive. May not be <code>null</code>.
+   * @param aAttachmentConsumer
+   *        The consumer for all other entries of the archive. May not be
+   *        <code>null</code>.
+   * @param aXMLPayloadConsumer
+   *        The consumer for the XML bytes of the TOOP request. May not be
+   *        <code>null</code>.
+   * @return The parsed request or <code>null</code>. A
+   *         {@link TDETOOPResponseType} is also a request.
+   * @throws IOException
+   *         In case of an error reading the archive
+   */
+  @Nullable
+  public static TDETOOPRequestType parseRequestMessage (@Nonnull final InputStream aArchiveIS,
+                                                        @Nonnull final Consumer <? super AsicReadEntry> aAttachmentConsumer,
+                                                        @Nonnull final Consumer <? super byte []> aXMLPayloadConsumer) throws IOException
+  {
+    final Serializable ret = parseRequestOrResponse (aArchiveIS, aAttachmentConsumer, aXMLPayloadConsumer);
+    return ret instanceof TDETOOPRequestType ? (TDETOOPRequestType) ret : null;
+  }
+
+  /**
+   * Parse a TOOP response from an ASiC archive.
+   *
+   * @param aArchiveIS
+   *        The input stream of the ASiC archive. May not be <code>null</code>.
+   * @param aAttachmentConsumer
+   *        The consumer for all other entries of the archive. May not be
+   *        <code>null</code>.
+   * @param aXMLPayloadConsumer
+   *        The consumer for the XML bytes of the TOOP response. May not be
+   *        <code>null</code>.
+   * @return The parsed response or <code>null</code>.
+   * @throws IOException
+   *         In case of an error reading the archive
+   */
+  @Nullable
+  public static TDETOOPResponseType parseResponseMessage (@Nonnull final InputStream aArchiveIS,
+                                                          @Nonnull final Consumer <? super AsicReadEntry> aAttachmentConsumer,
+                                                          @Nonnull final Consumer <? super byte []> aXMLPayloadConsumer) throws IOException
+  {
+    final Serializable ret = parseRequestOrResponse (aArchiveIS, aAttachmentConsumer, aXMLPayloadConsumer);
+    return ret instanceof TDETOOPResponseType ? (TDETOOPResponseType) ret : null;
+  }
+
+  /**
+   * Delete the temporary files of all attachments that were stored in a file
+   * while reading.
+   *
+   * @param aAttachments
+   *        The attachments to check. May be <code>null</code>.
+   */
+  public static void deleteSpilledAttachments (@Nullable final Iterable <? extends AsicReadEntry> aAttachments)
+  {
+    if (aAttachments != null)
+      for (final AsicReadEntry aEntry : aAttachments)
+        if (aEntry instanceof TCFileBackedAsicReadEntry)
+          ((TCFileBackedAsicReadEntry) aEntry).delete ();
+  }
+}
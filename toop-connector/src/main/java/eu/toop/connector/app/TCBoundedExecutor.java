@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A lazily created executor with a limited number of threads, that is shared
+ * by all callers of one kind of parallel lookup. Tasks exceeding the thread
+ * limit are queued. Idle threads are stopped after a minute. After
+ * {@link #shutdown()} the next call to {@link #getExecutor()} creates a new
+ * executor, so that the TOOP Connector can be initialized again.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@ThreadSafe
+public final class TCBoundedExecutor
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (TCBoundedExecutor.class);
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private final String m_sName;
+  private final IntSupplier m_aMaxThreads;
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private ExecutorService m_aExecutor;
+
+  /**
+   * Constructor
+   *
+   * @param sName
+   *        The name used for the threads. May neither be <code>null</code> nor
+   *        empty.
+   * @param aMaxThreads
+   *        The supplier for the maximum number of threads. It is evaluated
+   *        every time a new executor is created. May not be <code>null</code>.
+   */
+  public TCBoundedExecutor (@Nonnull @Nonempty final String sName, @Nonnull final IntSupplier aMaxThreads)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.notNull (aMaxThreads, "MaxThreads");
+    m_sName = sName;
+    m_aMaxThreads = aMaxThreads;
+  }
+
+  /**
+   * @return The name of this executor. Neither <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getName ()
+  {
+    return m_sName;
+  }
+
+  /**
+   * @return The executor to use. It is created on the first call. Never
+   *         <code>null</code>. Don't shut it down - use {@link #shutdown()}
+   *         instead.
+   */
+  @Nonnull
+  public ExecutorService getExecutor ()
+  {
+    ExecutorService ret = m_aRWLock.readLocked ( () -> m_aExecutor);
+    if (ret == null)
+    {
+      ret = m_aRWLock.writeLocked ( () -> {
+        if (m_aExecutor == null)
+        {
+          final int nMaxThreads = Math.max (1, m_aMaxThreads.getAsInt ());
+          final ThreadPoolExecutor aExecutor = new ThreadPoolExecutor (nMaxThreads,
+                                                                       nMaxThreads,
+                                                                       KEEP_ALIVE_SECONDS,
+                                                                       TimeUnit.SECONDS,
+                                                                       new LinkedBlockingQueue <> (),
+                                                                       new BasicThreadFactory.Builder ().setNamingPattern ("TC-" +
+                                                                                                                           m_sName +
+                                                                                                                           "-%d")
+                                                                                                        .setDaemon (true)
+                                                                                                        .build ());
+          aExecutor.allowCoreThreadTimeOut (true);
+          m_aExecutor = aExecutor;
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug ("Created the " + m_sName + " executor with " + nMaxThreads + " threads");
+        }
+        return m_aExecutor;
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * Shutdown the executor, if it was created, and wait until all submitted
+   * tasks are finished.
+   */
+  public void shutdown ()
+  {
+    final ExecutorService aExecutor = m_aRWLock.writeLocked ( () -> {
+      final ExecutorService ret = m_aExecutor;
+      m_aExecutor = null;
+      return ret;
+    });
+    if (aExecutor != null)
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aExecutor);
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Shut down the " + m_sName + " executor");
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Name", m_sName).getToString ();
+  }
+}
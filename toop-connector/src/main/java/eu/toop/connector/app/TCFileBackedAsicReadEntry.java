@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app;
+
+import java.io.File;
+import java.io.InputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.ArrayHelper;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FileOperations;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.string.ToStringGenerator;
+
+import eu.toop.commons.exchange.AsicReadEntry;
+
+/**
+ * An {@link AsicReadEntry} whose payload is stored in a file instead of the
+ * heap. It is used for large attachments received on <code>/from-dc</code> and
+ * <code>/from-dp</code>. The payload is only read into memory if
+ * {@link #payload()} is called. When serialized, only the file reference is
+ * written.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+public class TCFileBackedAsicReadEntry extends AsicReadEntry
+{
+  private final File m_aFile;
+  private final long m_nSize;
+
+  public TCFileBackedAsicReadEntry (@Nonnull @Nonempty final String sEntryName,
+                                    @Nonnull final File aFile,
+                                    @Nonnegative final long nSize)
+  {
+    super (sEntryName, ArrayHelper.EMPTY_BYTE_ARRAY);
+    ValueEnforcer.notNull (aFile, "File");
+    ValueEnforcer.isGE0 (nSize, "Size");
+    m_aFile = aFile;
+    m_nSize = nSize;
+  }
+
+  /**
+   * @return The file containing the payload. Never <code>null</code>.
+   */
+  @Nonnull
+  public File getFile ()
+  {
+    return m_aFile;
+  }
+
+  /**
+   * @return The payload size in bytes.
+   */
+  @Nonnegative
+  public long getSize ()
+  {
+    return m_nSize;
+  }
+
+  /**
+   * @return A new input stream on the payload or <code>null</code> if the file
+   *         does not exist (anymore).
+   */
+  @Nullable
+  public InputStream getInputStream ()
+  {
+    return FileHelper.getInputStream (m_aFile);
+  }
+
+  /**
+   * Read the whole payload into memory. Prefer {@link #getInputStream()} if
+   * possible.
+   *
+   * @return The payload. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the file cannot be read
+   */
+  @Override
+  @Nonnull
+  public byte [] payload ()
+  {
+    final byte [] ret = SimpleFileIO.getAllFileBytes (m_aFile);
+    if (ret == null)
+      throw new IllegalStateException ("Failed to read the payload of ASiC entry '" +
+                                       getEntryName () +
+                                       "' from " +
+                                       m_aFile.getAbsolutePath ());
+    return ret;
+  }
+
+  /**
+   * Delete the file containing the payload. Afterwards the payload is no
+   * longer accessible.
+   */
+  public void delete ()
+  {
+    FileOperations.deleteFileIfExisting (m_aFile);
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final TCFileBackedAsicReadEntry rhs = (TCFileBackedAsicReadEntry) o;
+    return getEntryName ().equals (rhs.getEntryName ()) && EqualsHelper.equals (m_aFile, rhs.m_aFile);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (getEntryName ()).append (m_aFile).getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("EntryName", getEntryName ())
+                                       .append ("File", m_aFile)
+                                       .append ("Size", m_nSize)
+                                       .getToString ();
+  }
+}
@@ -15,6 +15,9 @@
  */
 package eu.toop.connector.app;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
@@ -26,22 +29,44 @@ import javax.servlet.ServletContext;
 
 import org.apache.kafka.clients.producer.ProducerConfig;
 
+import com.helger.commons.collection.impl.CommonsLinkedHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedSet;
 import com.helger.commons.debug.GlobalDebug;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.exception.InitializationException;
 import com.helger.commons.id.factory.GlobalIDFactory;
 import com.helger.commons.id.factory.StringIDFromGlobalPersistentLongIDFactory;
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.url.IURLProtocol;
 import com.helger.commons.url.URLProtocolRegistry;
 
 import eu.toop.commons.exchange.ToopRequestWithAttachments140;
 import eu.toop.commons.exchange.ToopResponseWithAttachments140;
+import eu.toop.commons.usecase.SMMDocumentTypeMapping;
 import eu.toop.connector.api.TCConfig;
 import eu.toop.connector.api.as4.IMEIncomingHandler;
 import eu.toop.connector.api.as4.MEException;
 import eu.toop.connector.api.as4.MessageExchangeManager;
+import eu.toop.connector.api.http.TCHttpClientPool;
+import eu.toop.connector.api.r2d2.IR2D2EndpointProvider;
+import eu.toop.connector.api.r2d2.IR2D2ParticipantIDProvider;
+import eu.toop.connector.api.smm.ISMMConceptProvider;
+import eu.toop.connector.app.mp.MPConfig;
+import eu.toop.connector.app.mp.MPJournal;
+import eu.toop.connector.app.mp.MPSchematronSampler;
+import eu.toop.connector.app.mp.MPSchematronValidator;
 import eu.toop.connector.app.mp.MPTrigger;
+import eu.toop.connector.app.r2d2.R2D2Client;
+import eu.toop.connector.app.r2d2.R2D2EndpointProviderCaching;
+import eu.toop.connector.app.r2d2.R2D2ParticipantIDProviderCaching;
+import eu.toop.connector.app.r2d2.R2D2ParticipantIDProviderTOOPDirectory;
+import eu.toop.connector.app.r2d2.R2D2SMPHttpClientPool;
+import eu.toop.connector.app.smm.SMMCompactMappings;
+import eu.toop.connector.app.smm.SMMConceptProviderCompact;
+import eu.toop.connector.app.smm.SMMConceptProviderFileWatching;
+import eu.toop.connector.app.smm.SMMConceptProviderRemote;
 import eu.toop.kafkaclient.ToopKafkaClient;
 import eu.toop.kafkaclient.ToopKafkaSettings;
 
@@ -144,6 +169,93 @@ public class TCInit
     ToopKafkaClient.send (EErrorLevel.INFO,
                           () -> s_sLogPrefix + "TOOP Connector WebApp " + CTC.getVersionNumber () + " startup");
 
+    if (TCConfig.getMPSchematronMode ().isEnabled ())
+    {
+      // Compile the Schematron while the rest is initialized
+      MPSchematronValidator.getInstance ().warmUpInBackground ();
+    }
+
+    final String sSMMRemoteURL = TCConfig.getSMMRemoteURL ();
+    final File aSMMFile = TCConfig.getSMMMappingFile ();
+    if (StringHelper.hasText (sSMMRemoteURL))
+    {
+      // Use the central semantic mapping service
+      final SMMConceptProviderRemote aCP = new SMMConceptProviderRemote (sSMMRemoteURL,
+                                                                         TCConfig.getSMMRemoteTTLMS (),
+                                                                         TCConfig.getSMMRemoteStaleMS (),
+                                                                         TCConfig.getSMMRemoteMaxEntries ());
+      MPConfig.setSMMConceptProvider (aCP);
+
+      // Fetch the namespace pairs known to be used in the background
+      final ICommonsOrderedSet <String> aPairs = new CommonsLinkedHashSet <> (TCConfig.getAllSMMRemotePrefetchPairs ());
+      final String sDPNamespace = TCConfig.getSMMMappingNamespaceURIForDP ();
+      if (StringHelper.hasText (sDPNamespace))
+        for (final String sToopNamespace : SMMDocumentTypeMapping.getAllMappings ().values ())
+          aPairs.add (sToopNamespace + '|' + sDPNamespace);
+      for (final String sPair : aPairs)
+      {
+        final ICommonsList <String> aParts = StringHelper.getExploded ('|', sPair, 2);
+        if (aParts.size () != 2)
+          throw new InitializationException ("Invalid semantic mapping prefetch pair '" +
+                                             sPair +
+                                             "' - expected 'source|destination'");
+        aCP.prefetch (s_sLogPrefix, aParts.get (0).trim (), aParts.get (1).trim ());
+      }
+      ToopKafkaClient.send (EErrorLevel.INFO,
+                            () -> s_sLogPrefix +
+                                  "Using semantic mapping service '" +
+                                  sSMMRemoteURL +
+                                  "' - prefetching " +
+                                  aPairs.size () +
+                                  " namespace pair(s)");
+    }
+    else
+      if (aSMMFile != null)
+      {
+        if (SMMCompactMappings.isCompactFile (aSMMFile))
+        {
+          // Memory-mapped, so the file cannot be reloaded
+          try
+          {
+            MPConfig.setSMMConceptProvider (new SMMConceptProviderCompact (SMMCompactMappings.readFromFile (aSMMFile)));
+          }
+          catch (final IOException ex)
+          {
+            throw new InitializationException ("Failed to read the compact semantic mapping file '" +
+                                               aSMMFile.getAbsolutePath () +
+                                               "'",
+                                               ex);
+          }
+        }
+        else
+        {
+          // Use the configured mapping file and apply changes without restart
+          MPConfig.setSMMConceptProvider (new SMMConceptProviderFileWatching (aSMMFile,
+                                                                              TCConfig.getSMMMappingCheckIntervalMS ()));
+        }
+        ToopKafkaClient.send (EErrorLevel.INFO,
+                              () -> s_sLogPrefix + "Using semantic mapping file '" + aSMMFile.getAbsolutePath () + "'");
+      }
+
+    if (TCConfig.isR2D2ParticipantCacheEnabled ())
+    {
+      // Avoid a TOOP Directory query for every request
+      MPConfig.setParticipantIDProvider (new R2D2ParticipantIDProviderCaching (MPConfig.getParticipantIDProvider (),
+                                                                               TCConfig.getR2D2ParticipantCacheTTLMS (),
+                                                                               TCConfig.getR2D2ParticipantCacheStaleMS (),
+                                                                               TCConfig.getR2D2ParticipantCacheNegativeTTLMS (),
+                                                                               TCConfig.getR2D2ParticipantCacheMaxEntries ()));
+    }
+    if (TCConfig.isR2D2EndpointCacheEnabled ())
+    {
+      // Avoid an SMP lookup for every message
+      MPConfig.setEndpointProvider (new R2D2EndpointProviderCaching (MPConfig.getEndpointProvider (),
+                                                                     TCConfig.getR2D2EndpointCacheTTLMS (),
+                                                                     TCConfig.getR2D2EndpointCacheStaleMS (),
+                                                                     TCConfig.getR2D2EndpointCacheNegativeTTLMS (),
+                                                                     TCConfig.getR2D2EndpointCacheMaxEntries ()));
+    }
+
     // Init incoming message handler
     MessageExchangeManager.getConfiguredImplementation ()
                           .registerIncomingHandler (aServletContext, new IMEIncomingHandler ()
@@ -169,6 +281,53 @@ public class TCInit
                             }
                           });
 
+    if (TCConfig.isMPJournalEnabled ())
+    {
+      // Open the journal and replay everything that was not processed before
+      // the last shutdown
+      final File aJournalPath = TCConfig.getMPJournalPath ();
+      if (aJournalPath == null)
+        throw new InitializationException ("If the MP journal is enabled, the journal path MUST be provided in the configuration file!");
+      final MPJournal aJournal;
+      try
+      {
+        aJournal = MPJournal.open (aJournalPath, TCConfig.getMPJournalSegmentSize (), TCConfig.isMPJournalSync ());
+      }
+      catch (final IOException ex)
+      {
+        throw new InitializationException ("Failed to open the MP journal in '" + aJournalPath.getAbsolutePath () + "'",
+                                           ex);
+      }
+      MPConfig.setJournal (aJournal);
+
+      final int nReplayed = MPTrigger.replayJournal (aJournal);
+      if (nReplayed > 0)
+        ToopKafkaClient.send (EErrorLevel.INFO,
+                              () -> s_sLogPrefix + "Replayed " + nReplayed + " pending message(s) from the MP journal");
+    }
+
+    // Queue everything that was not finished within the drain timeout of the
+    // last shutdown
+    final File aSnapshotFile = TCConfig.getMPSnapshotPath ();
+    if (aSnapshotFile != null)
+    {
+      final int nReplayed;
+      try
+      {
+        nReplayed = MPTrigger.replaySnapshot (aSnapshotFile);
+      }
+      catch (final IOException ex)
+      {
+        throw new InitializationException ("Failed to replay the MP snapshot file '" +
+                                           aSnapshotFile.getAbsolutePath () +
+                                           "'",
+                                           ex);
+      }
+      if (nReplayed > 0)
+        ToopKafkaClient.send (EErrorLevel.INFO,
+                              () -> s_sLogPrefix + "Replayed " + nReplayed + " unfinished message(s) from the MP snapshot");
+    }
+
     ToopKafkaClient.send (EErrorLevel.INFO, () -> s_sLogPrefix + "TOOP Connector started");
   }
 
@@ -199,9 +358,52 @@ public class TCInit
 
     ToopKafkaClient.send (EErrorLevel.INFO, () -> s_sLogPrefix + "TOOP Connector shutting down");
 
+    // Finish all queued messages while the message exchange is still available
+    MPTrigger.shutdownAll ();
+
+    // Only statistics are lost
+    MPSchematronSampler.getInstance ().shutdown ();
+
+    // Stop watching the semantic mapping file or the remote calls
+    final ISMMConceptProvider aCP = MPConfig.getSMMConceptProvider ();
+    if (aCP instanceof Closeable)
+      StreamHelper.close ((Closeable) aCP);
+
+    // Stop the TOOP Directory and SMP cache refresh
+    final IR2D2ParticipantIDProvider aPIDP = MPConfig.getParticipantIDProvider ();
+    if (aPIDP instanceof R2D2ParticipantIDProviderCaching)
+    {
+      final R2D2ParticipantIDProviderCaching aCachingPIDP = (R2D2ParticipantIDProviderCaching) aPIDP;
+      MPConfig.setParticipantIDProvider (aCachingPIDP.getDelegate ());
+      aCachingPIDP.close ();
+    }
+    final IR2D2EndpointProvider aEPP = MPConfig.getEndpointProvider ();
+    if (aEPP instanceof R2D2EndpointProviderCaching)
+    {
+      final R2D2EndpointProviderCaching aCachingEPP = (R2D2EndpointProviderCaching) aEPP;
+      MPConfig.setEndpointProvider (aCachingEPP.getDelegate ());
+      aCachingEPP.close ();
+    }
+
+    // Close the journal after all messages are finished
+    final MPJournal aJournal = MPConfig.getJournal ();
+    if (aJournal != null)
+    {
+      MPConfig.setJournal (null);
+      aJournal.close ();
+    }
+
     // Shutdown message exchange
     MessageExchangeManager.getConfiguredImplementation ().shutdown (aServletContext);
 
+    // Stop the parallel lookup threads before closing the HTTP connections
+    R2D2ParticipantIDProviderTOOPDirectory.shutdownExecutor ();
+    R2D2Client.shutdownExecutor ();
+
+    // Close all pooled HTTP connections
+    R2D2SMPHttpClientPool.shutdown ();
+    TCHttpClientPool.shutdown ();
+
     // Shutdown tracker
     ToopKafkaClient.close ();
 
@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.apache.http.pool.PoolStats;
+
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.datetime.PDTWebDateHelper;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+import com.helger.web.scope.singleton.AbstractGlobalWebSingleton;
+
+import eu.toop.connector.api.http.TCHttpClientPool;
+import eu.toop.connector.api.metrics.LatencyHistogram;
+import eu.toop.connector.api.metrics.TCMetrics;
+import eu.toop.connector.api.r2d2.IR2D2EndpointProvider;
+import eu.toop.connector.api.r2d2.IR2D2ParticipantIDProvider;
+import eu.toop.connector.api.smm.ISMMConceptProvider;
+import eu.toop.connector.app.mp.EMPPriority;
+import eu.toop.connector.app.mp.EMPStage;
+import eu.toop.connector.app.mp.IMPPipelinePhaseStatistics;
+import eu.toop.connector.app.mp.IMPStageStatistics;
+import eu.toop.connector.app.mp.MPConfig;
+import eu.toop.connector.app.mp.MPDeduplicationIndex;
+import eu.toop.connector.app.mp.MPSchematronSampler;
+import eu.toop.connector.app.mp.MPSchematronValidator;
+import eu.toop.connector.app.mp.MPTrigger;
+import eu.toop.connector.app.mp.MessageProcessorDCOutgoing;
+import eu.toop.connector.app.r2d2.R2D2EndpointProviderCaching;
+import eu.toop.connector.app.r2d2.R2D2ParticipantIDProviderCaching;
+import eu.toop.connector.app.r2d2.R2D2SMPHttpClientPool;
+import eu.toop.connector.app.smm.SMMConceptProviderRemote;
+
+/**
+ * Helper to create the TOOP Connector metrics reachable via the "/tc-metrics/"
+ * servlet.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@Immutable
+public final class TCMetricsHelper
+{
+  private TCMetricsHelper ()
+  {}
+
+  /**
+   * Add the runtime statistics of all message processor stages that are in
+   * use, including the phases of the step 1/4 pipeline.
+   *
+   * @param aTarget
+   *        The JSON object to add the data to. May not be <code>null</code>.
+   */
+  public static void addMPStageStatistics (@Nonnull final IJsonObject aTarget)
+  {
+    for (final EMPStage eStage : EMPStage.values ())
+    {
+      final IMPStageStatistics aStats = MPTrigger.getStageStatisticsIfInstantiated (eStage);
+      if (aStats != null)
+      {
+        final String sPrefix = "mp." + eStage.getID () + ".";
+        aTarget.add (sPrefix + "workers.active", aStats.getActiveCount ());
+        aTarget.add (sPrefix + "queue.length", aStats.getQueueLength ());
+        for (final EMPPriority ePriority : EMPPriority.values ())
+          aTarget.add (sPrefix + "queue." + ePriority.getID () + ".length", aStats.getQueueLength (ePriority));
+        aTarget.add (sPrefix + "queue.saturated", aStats.isSaturated ());
+        aTarget.add (sPrefix + "queue.rejected", aStats.getRejectedCount ());
+        aTarget.add (sPrefix + "completed", aStats.getCompletedCount ());
+        aTarget.add (sPrefix + "drainrate", aStats.getDrainRatePerSecond ());
+      }
+    }
+
+    final MessageProcessorDCOutgoing aDCOut = AbstractGlobalWebSingleton.getGlobalSingletonIfInstantiated (MessageProcessorDCOutgoing.class);
+    if (aDCOut != null)
+      for (final IMPPipelinePhaseStatistics aStats : aDCOut.getAllPipelinePhaseStatistics ())
+      {
+        final String sPrefix = "mp." + EMPStage.DC_OUTGOING.getID () + "." + aStats.getPhaseID () + ".";
+        aTarget.add (sPrefix + "workers", aStats.getWorkerCount ());
+        aTarget.add (sPrefix + "workers.active", aStats.getActiveCount ());
+        aTarget.add (sPrefix + "queue.length", aStats.getQueueLength ());
+        aTarget.add (sPrefix + "queue.capacity", aStats.getQueueCapacity ());
+      }
+  }
+
+  private static void _addDeduplicationStatistics (@Nonnull final IJsonObject aTarget,
+                                                   @Nonnull final String sPrefix,
+                                                   @Nullable final MPDeduplicationIndex aIndex)
+  {
+    if (aIndex != null)
+    {
+      aTarget.add (sPrefix + "hits", aIndex.getHitCount ());
+      aTarget.add (sPrefix + "misses", aIndex.getMissCount ());
+      aTarget.add (sPrefix + "size", aIndex.size ());
+    }
+  }
+
+  /**
+   * Add the statistics of the deduplication of resent messages.
+   *
+   * @param aTarget
+   *        The JSON object to add the data to. May not be <code>null</code>.
+   */
+  public static void addDeduplicationStatistics (@Nonnull final IJsonObject aTarget)
+  {
+    _addDeduplicationStatistics (aTarget, "mp.dedup.from-dc.", MPTrigger.getFromDCDeduplicationIndex ());
+    _addDeduplicationStatistics (aTarget, "mp.dedup.from-dp.", MPTrigger.getFromDPDeduplicationIndex ());
+  }
+
+  /**
+   * Add the statistics of the pooled Schematron validator and of the sampling.
+   *
+   * @param aTarget
+   *        The JSON object to add the data to. May not be <code>null</code>.
+   */
+  public static void addSchematronStatistics (@Nonnull final IJsonObject aTarget)
+  {
+    final MPSchematronValidator aValidator = MPSchematronValidator.getInstance ();
+    aTarget.add ("schematron.compiled", aValidator.isCompiled ());
+    aTarget.add ("schematron.compile.millis", aValidator.getCompileMillis ());
+    aTarget.add ("schematron.pool.size", aValidator.getPoolSize ());
+    aTarget.add ("schematron.pool.created", aValidator.getCreatedTransformerCount ());
+    aTarget.add ("schematron.active", aValidator.getActiveCount ());
+    aTarget.add ("schematron.validations", aValidator.getValidationCount ());
+
+    final MPSchematronSampler aSampler = MPSchematronSampler.getInstance ();
+    aTarget.add ("schematron.mode", aSampler.getMode ().getID ());
+    aTarget.add ("schematron.sample.percentage", aSampler.getSamplePercentage ());
+    aTarget.add ("schematron.selected", aSampler.getSelectedCount ());
+    aTarget.add ("schematron.skipped", aSampler.getSkippedCount ());
+    aTarget.add ("schematron.shadow.queued", aSampler.getShadowQueueLength ());
+    aTarget.add ("schematron.shadow.dropped", aSampler.getShadowDroppedCount ());
+    aTarget.add ("schematron.shadow.validated", aSampler.getShadowValidatedCount ());
+    aTarget.add ("schematron.shadow.failed", aSampler.getShadowFailedCount ());
+    aTarget.add ("schematron.shadow.violations", aSampler.getShadowViolationCount ());
+    aTarget.add ("schematron.shadow.errors", aSampler.getShadowErrorCount ());
+  }
+
+  /**
+   * Add the statistics of the semantic mapping service cache, if the remote
+   * semantic mapping provider is in use.
+   *
+   * @param aTarget
+   *        The JSON object to add the data to. May not be <code>null</code>.
+   */
+  public static void addSMMStatistics (@Nonnull final IJsonObject aTarget)
+  {
+    final ISMMConceptProvider aCP = MPConfig.getSMMConceptProvider ();
+    if (aCP instanceof SMMConceptProviderRemote)
+      addCacheStatistics (aTarget, "smm.remote.cache.", ((SMMConceptProviderRemote) aCP).getCache ());
+  }
+
+  /**
+   * Add the statistics of a lookup cache.
+   *
+   * @param aTarget
+   *        The JSON object to add the data to. May not be <code>null</code>.
+   * @param sPrefix
+   *        The prefix for all keys. May not be <code>null</code>.
+   * @param aCache
+   *        The cache to add the statistics of. May not be <code>null</code>.
+   */
+  public static void addCacheStatistics (@Nonnull final IJsonObject aTarget,
+                                         @Nonnull final String sPrefix,
+                                         @Nonnull final TCRefreshingCache <?> aCache)
+  {
+    aTarget.add (sPrefix + "size", aCache.size ());
+    aTarget.add (sPrefix + "hits", aCache.getHitCount ());
+    aTarget.add (sPrefix + "hits.stale", aCache.getStaleHitCount ());
+    aTarget.add (sPrefix + "hits.negative", aCache.getNegativeHitCount ());
+    aTarget.add (sPrefix + "misses", aCache.getMissCount ());
+    aTarget.add (sPrefix + "joined", aCache.getJoinedCount ());
+    aTarget.add (sPrefix + "refreshes", aCache.getRefreshCount ());
+    aTarget.add (sPrefix + "lookups", aCache.getLookupCount ());
+    aTarget.add (sPrefix + "lookups.failed", aCache.getLookupErrorCount ());
+  }
+
+  /**
+   * Add the statistics of the R2D2 caches that are in use.
+   *
+   * @param aTarget
+   *        The JSON object to add the data to. May not be <code>null</code>.
+   */
+  public static void addR2D2Statistics (@Nonnull final IJsonObject aTarget)
+  {
+    final IR2D2ParticipantIDProvider aPIDP = MPConfig.getParticipantIDProvider ();
+    if (aPIDP instanceof R2D2ParticipantIDProviderCaching)
+      addCacheStatistics (aTarget,
+                          "r2d2.participant.cache.",
+                          ((R2D2ParticipantIDProviderCaching) aPIDP).getCache ().getCache ());
+    final IR2D2EndpointProvider aEPP = MPConfig.getEndpointProvider ();
+    if (aEPP instanceof R2D2EndpointProviderCaching)
+      addCacheStatistics (aTarget, "r2d2.endpoint.cache.", ((R2D2EndpointProviderCaching) aEPP).getCache ().getCache ());
+  }
+
+  private static void _addHttpPoolStatistics (@Nonnull final IJsonObject aTarget,
+                                              @Nonnull final String sPrefix,
+                                              @Nullable final TCHttpClientPool aPool)
+  {
+    if (aPool != null)
+    {
+      final PoolStats aStats = aPool.getTotalStats ();
+      aTarget.add (sPrefix + "leased", aStats.getLeased ());
+      aTarget.add (sPrefix + "available", aStats.getAvailable ());
+      aTarget.add (sPrefix + "pending", aStats.getPending ());
+      aTarget.add (sPrefix + "max", aStats.getMax ());
+      aTarget.add (sPrefix + "routes", aPool.getRouteCount ());
+    }
+  }
+
+  /**
+   * Add the statistics of the shared HTTP connection pool and of the SMP HTTP
+   * connection pool, if they are in use.
+   *
+   * @param aTarget
+   *        The JSON object to add the data to. May not be <code>null</code>.
+   */
+  public static void addHttpPoolStatistics (@Nonnull final IJsonObject aTarget)
+  {
+    _addHttpPoolStatistics (aTarget, "http.pool.", TCHttpClientPool.getInstanceIfCreated ());
+    _addHttpPoolStatistics (aTarget, "http.smp.pool.", R2D2SMPHttpClientPool.getInstanceIfCreated ());
+  }
+
+  @Nonnull
+  public static IJsonObject getAsJson (@Nonnull final LatencyHistogram aHistogram)
+  {
+    final IJsonObject ret = new JsonObject ();
+    ret.add ("count", aHistogram.getTotalCount ());
+    ret.add ("mean", aHistogram.getMeanMicros ());
+    ret.add ("p50", aHistogram.getValueAtPercentile (50));
+    ret.add ("p99", aHistogram.getValueAtPercentile (99));
+    ret.add ("p999", aHistogram.getValueAtPercentile (99.9));
+    ret.add ("max", aHistogram.getMaxMicros ());
+    return ret;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public static IJsonObject getDefaultMetricsData ()
+  {
+    final IJsonObject aMetricsData = new JsonObject ();
+    aMetricsData.add ("metrics.datetime", PDTWebDateHelper.getAsStringXSD (PDTFactory.getCurrentZonedDateTimeUTC ()));
+
+    // All latencies are in microseconds
+    final IJsonObject aLatencies = new JsonObject ();
+    for (final Map.Entry <String, LatencyHistogram> aEntry : TCMetrics.getAllHistograms ().entrySet ())
+      aLatencies.add (aEntry.getKey (), getAsJson (aEntry.getValue ()));
+    aMetricsData.add ("latency.micros", aLatencies);
+
+    addMPStageStatistics (aMetricsData);
+    addDeduplicationStatistics (aMetricsData);
+    addSchematronStatistics (aMetricsData);
+    addSMMStatistics (aMetricsData);
+    addR2D2Statistics (aMetricsData);
+    addHttpPoolStatistics (aMetricsData);
+    return aMetricsData;
+  }
+}
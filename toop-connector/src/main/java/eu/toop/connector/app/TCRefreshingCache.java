@@ -0,0 +1,528 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.functional.IThrowingSupplier;
+import com.helger.commons.string.ToStringGenerator;
+
+import eu.toop.kafkaclient.ToopKafkaClient;
+
+/**
+ * A cache for the results of slow lookups (e.g. remote calls). The results are
+ * cached per key:
+ * <ul>
+ * <li>Within the TTL the cached result is used.</li>
+ * <li>Within the stale period after the TTL the cached result is used and is
+ * refreshed in the background, so that frequently used results never expire on
+ * the request path.</li>
+ * <li>Afterwards the lookup is performed again. If that fails, the last result
+ * is used if available.</li>
+ * </ul>
+ * Negative results (e.g. "nothing found") are cached with a separate, usually
+ * shorter, TTL and are not served stale. Failed lookups are never cached. A
+ * lookup fails if it throws an exception or if its result is not
+ * {@link #isCacheable(Object) cacheable}. Concurrent lookups for the same key
+ * are only performed once. The number of cached keys is limited and the least
+ * recently used ones are evicted.
+ *
+ * @author Philip Helger
+ * @param <VALUETYPE>
+ *        The cached result type.
+ * @since 0.10.9
+ */
+@ThreadSafe
+public class TCRefreshingCache <VALUETYPE> implements Closeable
+{
+  @Immutable
+  private static final class CacheEntry <VALUETYPE>
+  {
+    private final VALUETYPE m_aValue;
+    private final boolean m_bNegative;
+    private final long m_nLookupTime;
+
+    CacheEntry (@Nonnull final VALUETYPE aValue, final boolean bNegative, final long nLookupTime)
+    {
+      m_aValue = aValue;
+      m_bNegative = bNegative;
+      m_nLookupTime = nLookupTime;
+    }
+  }
+
+  private final String m_sName;
+  private final long m_nTTLMS;
+  private final long m_nStaleMS;
+  private final long m_nNegativeTTLMS;
+  private final Predicate <? super VALUETYPE> m_aNegativeFilter;
+  private final LongSupplier m_aClock;
+  private final ExecutorService m_aExecutor;
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final LRUMap <String, CacheEntry <VALUETYPE>> m_aCache;
+  // The running lookups per key
+  private final ConcurrentHashMap <String, CompletableFuture <VALUETYPE>> m_aInFlight = new ConcurrentHashMap <> ();
+
+  private final LongAdder m_aHitCount = new LongAdder ();
+  private final LongAdder m_aStaleHitCount = new LongAdder ();
+  private final LongAdder m_aNegativeHitCount = new LongAdder ();
+  private final LongAdder m_aMissCount = new LongAdder ();
+  private final LongAdder m_aJoinedCount = new LongAdder ();
+  private final LongAdder m_aRefreshCount = new LongAdder ();
+  private final LongAdder m_aLookupCount = new LongAdder ();
+  private final LongAdder m_aLookupErrorCount = new LongAdder ();
+
+  /**
+   * Constructor
+   *
+   * @param sName
+   *        The name of the cache used for logging and thread names. May
+   *        neither be <code>null</code> nor empty.
+   * @param nTTLMS
+   *        Milliseconds a result is used without refreshing. Must be &gt; 0.
+   * @param nStaleMS
+   *        Milliseconds after the TTL in which a result is still used while it
+   *        is refreshed in the background. Must be &ge; 0.
+   * @param nNegativeTTLMS
+   *        Milliseconds a negative result is used. 0 to not cache negative
+   *        results. Must be &ge; 0.
+   * @param nMaxEntries
+   *        Maximum number of cached keys. Must be &gt; 0.
+   * @param aNegativeFilter
+   *        The filter that determines whether a result is negative. May not be
+   *        <code>null</code>.
+   * @param aClock
+   *        The milliseconds clock to be used. May not be <code>null</code>.
+   */
+  public TCRefreshingCache (@Nonnull @Nonempty final String sName,
+                            final long nTTLMS,
+                            final long nStaleMS,
+                            final long nNegativeTTLMS,
+                            final int nMaxEntries,
+                            @Nonnull final Predicate <? super VALUETYPE> aNegativeFilter,
+                            @Nonnull final LongSupplier aClock)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.isGT0 (nTTLMS, "TTL");
+    ValueEnforcer.isGE0 (nStaleMS, "Stale");
+    ValueEnforcer.isGE0 (nNegativeTTLMS, "NegativeTTL");
+    ValueEnforcer.isGT0 (nMaxEntries, "MaxEntries");
+    ValueEnforcer.notNull (aNegativeFilter, "NegativeFilter");
+    ValueEnforcer.notNull (aClock, "Clock");
+    m_sName = sName;
+    m_nTTLMS = nTTLMS;
+    m_nStaleMS = nStaleMS;
+    m_nNegativeTTLMS = nNegativeTTLMS;
+    m_aNegativeFilter = aNegativeFilter;
+    m_aClock = aClock;
+    m_aCache = new LRUMap <> (nMaxEntries);
+    m_aExecutor = Executors.newFixedThreadPool (2,
+                                                new BasicThreadFactory.Builder ().setNamingPattern ("TC-" +
+                                                                                                   sName +
+                                                                                                   "-Cache-%d")
+                                                                                 .setDaemon (true)
+                                                                                 .build ());
+  }
+
+  /**
+   * Check if a looked up result may be cached. Results that are not cacheable
+   * are treated as failed lookups, but are still handed to the callers that
+   * waited for the lookup, unless an expired result is available.
+   *
+   * @param aValue
+   *        The looked up result. Never <code>null</code>.
+   * @return <code>true</code> by default.
+   */
+  protected boolean isCacheable (@Nonnull final VALUETYPE aValue)
+  {
+    return true;
+  }
+
+  /**
+   * Get the value to be stored in the cache for a cacheable result. The
+   * callers that waited for the lookup always receive the original result.
+   *
+   * @param aValue
+   *        The looked up result. Never <code>null</code>.
+   * @return The provided value by default. May not be <code>null</code>.
+   */
+  @Nonnull
+  protected VALUETYPE getValueToCache (@Nonnull final VALUETYPE aValue)
+  {
+    return aValue;
+  }
+
+  /**
+   * Invoked if a result looked up in the background is not cacheable. Nobody
+   * waits for it, so this is the last chance to report it.
+   *
+   * @param sLogPrefix
+   *        Log prefix. Never <code>null</code>.
+   * @param sKey
+   *        The cache key. Never <code>null</code>.
+   * @param aValue
+   *        The looked up result. Never <code>null</code>.
+   */
+  protected void onBackgroundResultNotCached (@Nonnull final String sLogPrefix,
+                                              @Nonnull final String sKey,
+                                              @Nonnull final VALUETYPE aValue)
+  {}
+
+  @Nonnull
+  private VALUETYPE _lookup (@Nonnull final String sKey,
+                             @Nonnull final IThrowingSupplier <? extends VALUETYPE, ? extends Exception> aLookup) throws Exception
+  {
+    final VALUETYPE ret = aLookup.get ();
+    ValueEnforcer.notNull (ret, "LookupResult");
+    if (isCacheable (ret))
+    {
+      final boolean bNegative = m_aNegativeFilter.test (ret);
+      if (!bNegative || m_nNegativeTTLMS > 0)
+      {
+        final CacheEntry <VALUETYPE> aEntry = new CacheEntry <> (getValueToCache (ret),
+                                                                 bNegative,
+                                                                 m_aClock.getAsLong ());
+        m_aLock.locked ( () -> m_aCache.put (sKey, aEntry));
+      }
+      m_aLookupCount.increment ();
+    }
+    else
+    {
+      // Don't cache errors
+      m_aLookupErrorCount.increment ();
+    }
+    return ret;
+  }
+
+  /**
+   * Get the running lookup for the provided key or start a new one.
+   *
+   * @param bInBackground
+   *        <code>true</code> to start a new lookup in the background,
+   *        <code>false</code> to perform it in the calling thread.
+   */
+  @Nonnull
+  private CompletableFuture <VALUETYPE> _getOrStartLookup (@Nonnull final String sLogPrefix,
+                                                           @Nonnull final String sKey,
+                                                           @Nonnull final IThrowingSupplier <? extends VALUETYPE, ? extends Exception> aLookup,
+                                                           final boolean bInBackground)
+  {
+    final CompletableFuture <VALUETYPE> aFuture = new CompletableFuture <> ();
+    final CompletableFuture <VALUETYPE> aRunning = m_aInFlight.putIfAbsent (sKey, aFuture);
+    if (aRunning != null)
+    {
+      // Somebody else is already looking up
+      m_aJoinedCount.increment ();
+      return aRunning;
+    }
+
+    final Runnable aRunnable = () -> {
+      try
+      {
+        final VALUETYPE aResult = _lookup (sKey, aLookup);
+        if (bInBackground && !isCacheable (aResult))
+        {
+          // Nobody is waiting for the result
+          onBackgroundResultNotCached (sLogPrefix, sKey, aResult);
+        }
+        aFuture.complete (aResult);
+      }
+      catch (final Exception ex)
+      {
+        m_aLookupErrorCount.increment ();
+        if (bInBackground)
+          ToopKafkaClient.send (EErrorLevel.ERROR,
+                                () -> sLogPrefix + "Failed to refresh the " + m_sName + " cache in the background",
+                                ex);
+        aFuture.completeExceptionally (ex);
+      }
+      finally
+      {
+        m_aInFlight.remove (sKey, aFuture);
+      }
+    };
+    if (bInBackground)
+    {
+      try
+      {
+        m_aExecutor.execute (aRunnable);
+        m_aRefreshCount.increment ();
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // Closed
+        m_aInFlight.remove (sKey, aFuture);
+        aFuture.completeExceptionally (ex);
+      }
+    }
+    else
+      aRunnable.run ();
+    return aFuture;
+  }
+
+  @Nonnull
+  private VALUETYPE _useExpired (@Nonnull final String sLogPrefix,
+                                 @Nonnull final String sKey,
+                                 @Nonnull final CacheEntry <VALUETYPE> aEntry)
+  {
+    // Better an old result than none
+    ToopKafkaClient.send (EErrorLevel.WARN,
+                          () -> sLogPrefix +
+                                "Lookup failed - using the expired " +
+                                m_sName +
+                                " cache entry for '" +
+                                sKey +
+                                "'");
+    return aEntry.m_aValue;
+  }
+
+  /**
+   * Get the result for the provided key from the cache or perform the lookup.
+   *
+   * @param sLogPrefix
+   *        Log prefix. May not be <code>null</code> but may be empty.
+   * @param sKey
+   *        The cache key that must uniquely identify the lookup parameters.
+   *        May not be <code>null</code>.
+   * @param aLookup
+   *        The lookup to be performed. It must return a non-<code>null</code>
+   *        result and may be invoked in a background thread. May not be
+   *        <code>null</code>.
+   * @return The cached or looked up result. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the lookup failed with a checked exception and no expired result
+   *         is available. Unchecked exceptions are thrown as they are.
+   */
+  @Nonnull
+  public VALUETYPE get (@Nonnull final String sLogPrefix,
+                        @Nonnull final String sKey,
+                        @Nonnull final IThrowingSupplier <? extends VALUETYPE, ? extends Exception> aLookup)
+  {
+    ValueEnforcer.notNull (sLogPrefix, "LogPrefix");
+    ValueEnforcer.notNull (sKey, "Key");
+    ValueEnforcer.notNull (aLookup, "Lookup");
+
+    final CacheEntry <VALUETYPE> aEntry = m_aLock.locked ( () -> m_aCache.get (sKey));
+    if (aEntry != null)
+    {
+      final long nAge = m_aClock.getAsLong () - aEntry.m_nLookupTime;
+      if (aEntry.m_bNegative)
+      {
+        if (nAge < m_nNegativeTTLMS)
+        {
+          m_aNegativeHitCount.increment ();
+          return aEntry.m_aValue;
+        }
+      }
+      else
+      {
+        if (nAge < m_nTTLMS)
+        {
+          m_aHitCount.increment ();
+          return aEntry.m_aValue;
+        }
+        if (nAge < m_nTTLMS + m_nStaleMS)
+        {
+          // Use the old result and refresh in the background
+          m_aStaleHitCount.increment ();
+          _getOrStartLookup (sLogPrefix, sKey, aLookup, true);
+          return aEntry.m_aValue;
+        }
+      }
+    }
+
+    m_aMissCount.increment ();
+    final VALUETYPE aResult;
+    try
+    {
+      aResult = _getOrStartLookup (sLogPrefix, sKey, aLookup, false).join ();
+    }
+    catch (final CompletionException ex)
+    {
+      if (aEntry != null && !aEntry.m_bNegative)
+        return _useExpired (sLogPrefix, sKey, aEntry);
+      if (ex.getCause () instanceof RuntimeException)
+        throw (RuntimeException) ex.getCause ();
+      throw new IllegalStateException ("Failed to look up '" + sKey + "' for the " + m_sName + " cache",
+                                       ex.getCause ());
+    }
+
+    if (!isCacheable (aResult) && aEntry != null && !aEntry.m_bNegative)
+      return _useExpired (sLogPrefix, sKey, aEntry);
+    return aResult;
+  }
+
+  /**
+   * Perform the lookup for the provided key in the background, e.g. on
+   * startup. If a lookup for the key is already running, no new one is
+   * started.
+   *
+   * @param sLogPrefix
+   *        Log prefix. May not be <code>null</code> but may be empty.
+   * @param sKey
+   *        The cache key. May not be <code>null</code>.
+   * @param aLookup
+   *        The lookup to be performed. May not be <code>null</code>.
+   * @return The future that is completed with the looked up result. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public CompletableFuture <VALUETYPE> prefetch (@Nonnull final String sLogPrefix,
+                                                 @Nonnull final String sKey,
+                                                 @Nonnull final IThrowingSupplier <? extends VALUETYPE, ? extends Exception> aLookup)
+  {
+    ValueEnforcer.notNull (sLogPrefix, "LogPrefix");
+    ValueEnforcer.notNull (sKey, "Key");
+    ValueEnforcer.notNull (aLookup, "Lookup");
+    return _getOrStartLookup (sLogPrefix, sKey, aLookup, true);
+  }
+
+  /**
+   * Remove all cached results.
+   */
+  public void clear ()
+  {
+    m_aLock.locked ( () -> m_aCache.clear ());
+  }
+
+  @Nonnull
+  @Nonempty
+  public final String getName ()
+  {
+    return m_sName;
+  }
+
+  /**
+   * @return The number of cached keys.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.locked ( () -> m_aCache.size ());
+  }
+
+  /**
+   * @return The number of calls answered from the cache within the TTL.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aHitCount.sum ();
+  }
+
+  /**
+   * @return The number of calls answered from the cache after the TTL while
+   *         refreshing in the background.
+   */
+  @Nonnegative
+  public long getStaleHitCount ()
+  {
+    return m_aStaleHitCount.sum ();
+  }
+
+  /**
+   * @return The number of calls answered from a cached negative result.
+   */
+  @Nonnegative
+  public long getNegativeHitCount ()
+  {
+    return m_aNegativeHitCount.sum ();
+  }
+
+  /**
+   * @return The number of calls that had to wait for a lookup.
+   */
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aMissCount.sum ();
+  }
+
+  /**
+   * @return The number of calls and refreshes that used an already running
+   *         lookup.
+   */
+  @Nonnegative
+  public long getJoinedCount ()
+  {
+    return m_aJoinedCount.sum ();
+  }
+
+  /**
+   * @return The number of lookups started in the background.
+   */
+  @Nonnegative
+  public long getRefreshCount ()
+  {
+    return m_aRefreshCount.sum ();
+  }
+
+  /**
+   * @return The number of successful lookups.
+   */
+  @Nonnegative
+  public long getLookupCount ()
+  {
+    return m_aLookupCount.sum ();
+  }
+
+  /**
+   * @return The number of failed lookups.
+   */
+  @Nonnegative
+  public long getLookupErrorCount ()
+  {
+    return m_aLookupErrorCount.sum ();
+  }
+
+  public void close ()
+  {
+    m_aExecutor.shutdownNow ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Name", m_sName)
+                                       .append ("TTL", m_nTTLMS)
+                                       .append ("Stale", m_nStaleMS)
+                                       .append ("NegativeTTL", m_nNegativeTTLMS)
+                                       .append ("MaxEntries", m_aCache.getMaxSize ())
+                                       .getToString ();
+  }
+}
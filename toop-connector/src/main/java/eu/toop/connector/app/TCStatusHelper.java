@@ -65,6 +65,9 @@ public final class TCStatusHelper
         aStatusData.add (sKey, aEntry.getValue ());
     }
 
+    // Add the message processor queue statistics
+    TCMetricsHelper.addMPStageStatistics (aStatusData);
+
     return aStatusData;
   }
 
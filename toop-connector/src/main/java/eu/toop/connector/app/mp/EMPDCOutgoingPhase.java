@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * Contains the processing phases of step 1/4 in processing order. The ID is
+ * used as part of the configuration property names (e.g.
+ * <code>toop.mp.dc-outgoing.discover.workers</code>) and of the latency metric
+ * names.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+public enum EMPDCOutgoingPhase implements IHasID <String>
+{
+  /** Schematron validation and document type resolution */
+  VALIDATE ("validate", "MP-DC-Out-Validate", false),
+  /** Semantic mapping of the requested concepts */
+  SEMANTIC_MAP ("semantic-map", "MP-DC-Out-SMM", false),
+  /** Dynamic discovery of the receiving endpoints */
+  DISCOVER ("discover", "MP-DC-Out-Discover", true),
+  /** Creation of the signed ASiC container */
+  PACKAGE ("package", "MP-DC-Out-Package", false),
+  /** Sending via the message exchange module */
+  TRANSMIT ("transmit", "MP-DC-Out-Transmit", true);
+
+  /** Default number of worker threads for phases that mostly wait for I/O */
+  public static final int DEFAULT_IO_WORKER_COUNT = 8;
+
+  private final String m_sID;
+  private final String m_sThreadNamePrefix;
+  private final boolean m_bIOBound;
+
+  private EMPDCOutgoingPhase (@Nonnull @Nonempty final String sID,
+                              @Nonnull @Nonempty final String sThreadNamePrefix,
+                              final boolean bIOBound)
+  {
+    m_sID = sID;
+    m_sThreadNamePrefix = sThreadNamePrefix;
+    m_bIOBound = bIOBound;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  /**
+   * @return The prefix for the names of the worker threads. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getThreadNamePrefix ()
+  {
+    return m_sThreadNamePrefix;
+  }
+
+  /**
+   * @return <code>true</code> if the phase mostly waits for remote systems,
+   *         <code>false</code> if it is mostly CPU bound.
+   */
+  public boolean isIOBound ()
+  {
+    return m_bIOBound;
+  }
+
+  /**
+   * @return The number of worker threads to be used if nothing is configured.
+   *         Always &gt; 0.
+   */
+  @Nonnegative
+  public int getDefaultWorkerCount ()
+  {
+    return m_bIOBound ? DEFAULT_IO_WORKER_COUNT : Runtime.getRuntime ().availableProcessors ();
+  }
+
+  @Nullable
+  public static EMPDCOutgoingPhase getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EMPDCOutgoingPhase.class, sID);
+  }
+}
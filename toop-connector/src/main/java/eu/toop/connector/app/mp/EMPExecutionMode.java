@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * Defines how the message processor stages execute the queued objects.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+public enum EMPExecutionMode implements IHasID <String>
+{
+  /**
+   * Each stage has its own fixed number of worker threads (see
+   * <code>toop.mp.&lt;stage&gt;.workers</code>).
+   */
+  POOL ("pool"),
+  /**
+   * Each queued object is run on its own thread taken from an elastic pool
+   * that is shared by all stages. Only the total number of concurrently
+   * running objects is limited.
+   */
+  THREAD_PER_TASK ("thread-per-task");
+
+  public static final EMPExecutionMode DEFAULT = POOL;
+
+  private final String m_sID;
+
+  private EMPExecutionMode (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nullable
+  public static EMPExecutionMode getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EMPExecutionMode.class, sID);
+  }
+
+  @Nonnull
+  public static EMPExecutionMode getFromIDOrDefault (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrDefault (EMPExecutionMode.class, sID, DEFAULT);
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * The priority lanes of the message processor queues, from the highest to the
+ * lowest priority. Objects from a lane with a higher priority are processed
+ * first, as long as no lane with a lower priority is starving.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+public enum EMPPriority implements IHasID <String>
+{
+  /** Error responses that short-circuit the regular flow */
+  ERROR ("error"),
+  /** Regular responses */
+  RESPONSE ("response"),
+  /** New requests */
+  REQUEST ("request");
+
+  private final String m_sID;
+
+  private EMPPriority (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  /**
+   * @param ePriority
+   *        The priority to compare to. May not be <code>null</code>.
+   * @return <code>true</code> if this priority is higher than the passed one.
+   */
+  public boolean isHigherThan (@Nonnull final EMPPriority ePriority)
+  {
+    return ordinal () < ePriority.ordinal ();
+  }
+
+  @Nullable
+  public static EMPPriority getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EMPPriority.class, sID);
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+import eu.toop.connector.api.TCConfig;
+
+/**
+ * Contains the four message processor stages. The ID is used as part of the
+ * configuration property names (e.g. <code>toop.mp.dc-outgoing.workers</code>).
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+public enum EMPStage implements IHasID <String>
+{
+  /** DC to DP - step 1/4 */
+  DC_OUTGOING ("dc-outgoing", "1/4", "MP-DC-Out", EMPPriority.REQUEST, TCConfig.DEFAULT_MP_DC_OUTGOING_WORKER_COUNT),
+  /** DC to DP - step 2/4 */
+  DP_INCOMING ("dp-incoming", "2/4", "MP-DP-In", EMPPriority.REQUEST, TCConfig.DEFAULT_MP_WORKER_COUNT),
+  /** DP to DC - step 3/4 */
+  DP_OUTGOING ("dp-outgoing", "3/4", "MP-DP-Out", EMPPriority.RESPONSE, TCConfig.DEFAULT_MP_WORKER_COUNT),
+  /** DP to DC - step 4/4 */
+  DC_INCOMING ("dc-incoming", "4/4", "MP-DC-In", EMPPriority.RESPONSE, TCConfig.DEFAULT_MP_WORKER_COUNT);
+
+  private final String m_sID;
+  private final String m_sStep;
+  private final String m_sThreadNamePrefix;
+  private final EMPPriority m_eDefaultPriority;
+  private final int m_nDefaultWorkerCount;
+
+  private EMPStage (@Nonnull @Nonempty final String sID,
+                    @Nonnull @Nonempty final String sStep,
+                    @Nonnull @Nonempty final String sThreadNamePrefix,
+                    @Nonnull final EMPPriority eDefaultPriority,
+                    @Nonnegative final int nDefaultWorkerCount)
+  {
+    m_sID = sID;
+    m_sStep = sStep;
+    m_sThreadNamePrefix = sThreadNamePrefix;
+    m_eDefaultPriority = eDefaultPriority;
+    m_nDefaultWorkerCount = nDefaultWorkerCount;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  /**
+   * @return The step of the stage as in "1/4". Neither <code>null</code> nor
+   *         empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getStep ()
+  {
+    return m_sStep;
+  }
+
+  /**
+   * @return The prefix for the names of the worker threads. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getThreadNamePrefix ()
+  {
+    return m_sThreadNamePrefix;
+  }
+
+  /**
+   * @return The priority of the objects queued in this stage, if no explicit
+   *         priority is provided. Never <code>null</code>.
+   */
+  @Nonnull
+  public EMPPriority getDefaultPriority ()
+  {
+    return m_eDefaultPriority;
+  }
+
+  /**
+   * @return The number of worker threads of this stage, if none is
+   *         configured. Step 1/4 has more than one worker by default, so that
+   *         concurrent requests can share the discovery. Always &gt; 0.
+   */
+  @Nonnegative
+  public int getDefaultWorkerCount ()
+  {
+    return m_nDefaultWorkerCount;
+  }
+
+  @Nullable
+  public static EMPStage getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EMPStage.class, sID);
+  }
+}
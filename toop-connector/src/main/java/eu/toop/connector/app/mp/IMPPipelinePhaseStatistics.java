@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import com.helger.commons.annotation.Nonempty;
+
+/**
+ * Read-only runtime statistics of a single phase of a message processor
+ * pipeline.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+public interface IMPPipelinePhaseStatistics
+{
+  /**
+   * @return The ID of the phase. Neither <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  String getPhaseID ();
+
+  /**
+   * @return The number of worker threads. Always &gt; 0.
+   */
+  @Nonnegative
+  int getWorkerCount ();
+
+  /**
+   * @return The maximum number of objects waiting in front of this phase.
+   *         Always &gt; 0.
+   */
+  @Nonnegative
+  int getQueueCapacity ();
+
+  /**
+   * @return The number of objects that are waiting for this phase. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  int getQueueLength ();
+
+  /**
+   * @return The number of objects that are currently processed by this phase.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  int getActiveCount ();
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.collector.IConcurrentPerformer;
+
+/**
+ * The performer of a message processor stage that may finish the processing
+ * of an object asynchronously, e.g. because it hands the object over to a
+ * pipeline.
+ *
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The data type to be processed
+ * @since 0.10.9
+ */
+@FunctionalInterface
+interface IMPStagePerformer <DATATYPE>
+{
+  /**
+   * Start processing the provided object.
+   *
+   * @param aObject
+   *        The object to be processed. Never <code>null</code>.
+   * @param aDoneCallback
+   *        The callback to be invoked after the object was completely
+   *        processed. It may be invoked from any thread, also after this
+   *        method returned. If this method throws an exception, the callback
+   *        is invoked by the caller. Never <code>null</code>.
+   * @throws Exception
+   *         In case of error
+   */
+  void perform (@Nonnull DATATYPE aObject, @Nonnull Runnable aDoneCallback) throws Exception;
+
+  /**
+   * Create a stage performer that runs an additional action after an object
+   * was completely processed, and after the done callback of the caller was
+   * invoked.
+   *
+   * @param aDoneAction
+   *        The action to run exactly once per object. May not be
+   *        <code>null</code>.
+   * @return The new stage performer. Never <code>null</code>.
+   * @since 0.10.9
+   */
+  @Nonnull
+  default IMPStagePerformer <DATATYPE> withDoneAction (@Nonnull final Consumer <? super DATATYPE> aDoneAction)
+  {
+    ValueEnforcer.notNull (aDoneAction, "DoneAction");
+    return (aObject, aDoneCallback) -> {
+      final AtomicBoolean aDone = new AtomicBoolean (false);
+      final Runnable aDoneActionOnce = () -> {
+        if (aDone.compareAndSet (false, true))
+          aDoneAction.accept (aObject);
+      };
+      try
+      {
+        perform (aObject, () -> {
+          try
+          {
+            aDoneCallback.run ();
+          }
+          finally
+          {
+            aDoneActionOnce.run ();
+          }
+        });
+      }
+      catch (final Exception ex)
+      {
+        // The caller invokes the done callback in this case
+        aDoneActionOnce.run ();
+        throw ex;
+      }
+    };
+  }
+
+  /**
+   * Create a stage performer that processes the objects synchronously with the
+   * provided performer.
+   *
+   * @param aPerformer
+   *        The synchronous performer. May not be <code>null</code>.
+   * @return The stage performer. Never <code>null</code>.
+   * @param <T>
+   *        The data type to be processed
+   */
+  @Nonnull
+  static <T> IMPStagePerformer <T> createSynchronous (@Nonnull final IConcurrentPerformer <T> aPerformer)
+  {
+    ValueEnforcer.notNull (aPerformer, "Performer");
+    return (aObject, aDoneCallback) -> {
+      try
+      {
+        aPerformer.runAsync (aObject);
+      }
+      finally
+      {
+        aDoneCallback.run ();
+      }
+    };
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import javax.annotation.CheckForSigned;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Read-only runtime statistics of a single message processor stage.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+public interface IMPStageStatistics
+{
+  /**
+   * @return The stage the statistics belong to. Never <code>null</code>.
+   */
+  @Nonnull
+  EMPStage getStage ();
+
+  /**
+   * @return The number of worker threads. Always &gt; 0.
+   */
+  @Nonnegative
+  int getWorkerCount ();
+
+  /**
+   * @return The number of objects that are queued but not yet in processing.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  int getQueueLength ();
+
+  /**
+   * @param ePriority
+   *        The priority lane to query. May not be <code>null</code>.
+   * @return The number of objects with the provided priority that are queued
+   *         but not yet in processing. Always &ge; 0.
+   */
+  @Nonnegative
+  int getQueueLength (@Nonnull EMPPriority ePriority);
+
+  /**
+   * @return The number of objects that are currently processed. Always &ge; 0.
+   */
+  @Nonnegative
+  int getActiveCount ();
+
+  /**
+   * @return The queue length at which new external objects are rejected. Only
+   *         0 if the queue is unbounded.
+   */
+  @Nonnegative
+  int getHighWatermark ();
+
+  /**
+   * @return The queue length below which a saturated queue accepts external
+   *         objects again. Always &ge; 0.
+   */
+  @Nonnegative
+  int getLowWatermark ();
+
+  /**
+   * @return <code>true</code> if the high watermark was reached and the low
+   *         watermark was not yet reached again.
+   */
+  boolean isSaturated ();
+
+  /**
+   * @return The number of objects that were rejected because the queue was
+   *         saturated. Always &ge; 0.
+   */
+  @Nonnegative
+  long getRejectedCount ();
+
+  /**
+   * @return The number of objects that were completely processed. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  long getCompletedCount ();
+
+  /**
+   * @return The smoothed number of objects processed per second. Always &ge;
+   *         0.
+   */
+  @Nonnegative
+  double getDrainRatePerSecond ();
+
+  /**
+   * @return The estimated number of seconds until a saturated queue accepts
+   *         new objects again, or -1 if the queue is not saturated.
+   */
+  @CheckForSigned
+  long getRetryAfterSeconds ();
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.SimpleLock;
+
+/**
+ * Lets objects with the same key that are processed concurrently share a
+ * single expensive action (e.g. a discovery lookup). The first object of a key
+ * becomes the leader of a group and runs the action on its own thread. Objects
+ * with the same key that arrive while the action is running join the group and
+ * wait until the leader applied the result to all members. The leader closes
+ * the group when it needs the final list of members, so that objects arriving
+ * afterwards start a new group. This works without a pipeline, because every
+ * object is processed on its own thread anyway.
+ *
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The data type to be processed
+ * @since 0.10.9
+ */
+@ThreadSafe
+final class MPCoalescer <DATATYPE>
+{
+  private static final class Group <DATATYPE>
+  {
+    private final ICommonsList <DATATYPE> m_aMembers = new CommonsArrayList <> ();
+    private final CountDownLatch m_aDone = new CountDownLatch (1);
+    private boolean m_bClosed = false;
+    // Set by the leader before m_aDone is counted down
+    private RuntimeException m_aException;
+  }
+
+  private final IntSupplier m_aMaxGroupSize;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsMap <String, Group <DATATYPE>> m_aOpenGroups = new CommonsHashMap <> ();
+  private final LongAdder m_aActionCount = new LongAdder ();
+  private final LongAdder m_aJoinedCount = new LongAdder ();
+
+  /**
+   * Constructor
+   *
+   * @param aMaxGroupSize
+   *        The supplier for the maximum number of objects sharing one action.
+   *        Values &le; 1 disable the sharing. It is evaluated for every object.
+   *        May not be <code>null</code>.
+   */
+  MPCoalescer (@Nonnull final IntSupplier aMaxGroupSize)
+  {
+    ValueEnforcer.notNull (aMaxGroupSize, "MaxGroupSize");
+    m_aMaxGroupSize = aMaxGroupSize;
+  }
+
+  /**
+   * Run the action for the provided object, or wait until a running action for
+   * the same key applied its result to the object.
+   *
+   * @param sKey
+   *        The key of the object. Objects with the same key share the action.
+   *        May not be <code>null</code>.
+   * @param aObject
+   *        The object to be processed. May not be <code>null</code>.
+   * @param aAction
+   *        The action to run by the leader. It is called with the leader
+   *        object and a supplier that closes the group and returns all
+   *        members (including the leader). The action must call the supplier
+   *        exactly once and apply the result to all returned members. May not
+   *        be <code>null</code>.
+   * @throws RuntimeException
+   *         If the action of the leader failed. It is thrown for every member
+   *         of the group.
+   */
+  void perform (@Nonnull final String sKey,
+                @Nonnull final DATATYPE aObject,
+                @Nonnull final BiConsumer <DATATYPE, Supplier <ICommonsList <DATATYPE>>> aAction)
+  {
+    final int nMaxGroupSize = m_aMaxGroupSize.getAsInt ();
+    if (nMaxGroupSize <= 1)
+    {
+      // Sharing is disabled
+      m_aActionCount.increment ();
+      aAction.accept (aObject, () -> new CommonsArrayList <> (aObject));
+      return;
+    }
+
+    final Group <DATATYPE> aNewGroup = new Group <> ();
+    final Group <DATATYPE> aGroup = m_aLock.locked ( () -> {
+      final Group <DATATYPE> aOpenGroup = m_aOpenGroups.get (sKey);
+      if (aOpenGroup != null && aOpenGroup.m_aMembers.size () < nMaxGroupSize)
+      {
+        aOpenGroup.m_aMembers.add (aObject);
+        return aOpenGroup;
+      }
+      // Start a new group - a full group is no longer joined
+      aNewGroup.m_aMembers.add (aObject);
+      m_aOpenGroups.put (sKey, aNewGroup);
+      return aNewGroup;
+    });
+
+    if (aGroup != aNewGroup)
+    {
+      // Follower - the leader applies the result to this object
+      m_aJoinedCount.increment ();
+      _awaitUninterruptibly (aGroup.m_aDone);
+      if (aGroup.m_aException != null)
+        throw aGroup.m_aException;
+      return;
+    }
+
+    // Leader
+    m_aActionCount.increment ();
+    final Supplier <ICommonsList <DATATYPE>> aCloser = () -> m_aLock.locked ( () -> _close (sKey, aGroup));
+    try
+    {
+      aAction.accept (aObject, aCloser);
+    }
+    catch (final RuntimeException ex)
+    {
+      aGroup.m_aException = ex;
+      throw ex;
+    }
+    finally
+    {
+      // In case the action failed before closing the group
+      aCloser.get ();
+      aGroup.m_aDone.countDown ();
+    }
+  }
+
+  @Nonnull
+  @GuardedBy ("m_aLock")
+  private ICommonsList <DATATYPE> _close (@Nonnull final String sKey, @Nonnull final Group <DATATYPE> aGroup)
+  {
+    if (!aGroup.m_bClosed)
+    {
+      aGroup.m_bClosed = true;
+      // A full group may already be replaced by a new one
+      if (m_aOpenGroups.get (sKey) == aGroup)
+        m_aOpenGroups.remove (sKey);
+    }
+    return aGroup.m_aMembers.getClone ();
+  }
+
+  private static void _awaitUninterruptibly (@Nonnull final CountDownLatch aLatch)
+  {
+    // The leader writes to this object until the latch is counted down, so it
+    // must not be used earlier. The action of the leader has its own timeouts.
+    boolean bInterrupted = false;
+    while (true)
+    {
+      try
+      {
+        aLatch.await ();
+        break;
+      }
+      catch (final InterruptedException ex)
+      {
+        bInterrupted = true;
+      }
+    }
+    if (bInterrupted)
+      Thread.currentThread ().interrupt ();
+  }
+
+  /**
+   * @return The number of actions that were run. Always &ge; 0.
+   */
+  @Nonnegative
+  long getActionCount ()
+  {
+    return m_aActionCount.sum ();
+  }
+
+  /**
+   * @return The number of objects that joined the action of another object.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  long getJoinedCount ()
+  {
+    return m_aJoinedCount.sum ();
+  }
+}
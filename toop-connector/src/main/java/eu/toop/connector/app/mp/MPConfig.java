@@ -16,6 +16,7 @@
 package eu.toop.connector.app.mp;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -52,6 +53,8 @@ public final class MPConfig
   private static IToDP s_aToDP;
   @GuardedBy ("s_aRWLock")
   private static IToDC s_aToDC;
+  @GuardedBy ("s_aRWLock")
+  private static MPJournal s_aJournal;
 
   static
   {
@@ -70,6 +73,7 @@ public final class MPConfig
       s_aEPP = new R2D2EndpointProviderBDXRSMP1 ();
       s_aToDP = new ToDPViaToopInterfaceHttp ();
       s_aToDC = new ToDCViaToopInterfaceHttp ();
+      s_aJournal = null;
     });
   }
 
@@ -212,4 +216,26 @@ public final class MPConfig
     ValueEnforcer.notNull (aToDC, "ToDC");
     s_aRWLock.writeLocked ( () -> s_aToDC = aToDC);
   }
+
+  /**
+   * @return The journal that persists the queued objects of all message
+   *         processor stages. May be <code>null</code> if no journal is used.
+   * @since 0.10.9
+   */
+  @Nullable
+  public static MPJournal getJournal ()
+  {
+    return s_aRWLock.readLocked ( () -> s_aJournal);
+  }
+
+  /**
+   * @param aJournal
+   *        The journal that persists the queued objects of all message
+   *        processor stages. May be <code>null</code> to disable journaling.
+   * @since 0.10.9
+   */
+  public static void setJournal (@Nullable final MPJournal aJournal)
+  {
+    s_aRWLock.writeLocked ( () -> s_aJournal = aJournal);
+  }
 }
@@ -0,0 +1,330 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+import eu.toop.connector.api.TCConfig;
+
+/**
+ * A bounded index of recently accepted message IDs, used to detect messages
+ * that are resent by the caller (e.g. after a timeout). Each ID is remembered
+ * for a fixed time to live. If the maximum number of entries is reached, the
+ * oldest entries are dropped.<br>
+ * The index is split into independently locked stripes, so that concurrent
+ * callers with different IDs rarely block each other.<br>
+ * The index is not persisted. Only the IDs of messages that are replayed into
+ * the first stage of their direction after a restart are registered again.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@ThreadSafe
+public final class MPDeduplicationIndex
+{
+  public static final int DEFAULT_STRIPE_COUNT = 16;
+
+  /**
+   * A single stripe. All entries have the same time to live, so the insertion
+   * order is also the expiration order.
+   */
+  private static final class Stripe
+  {
+    @GuardedBy ("this")
+    private final LinkedHashMap <String, Long> m_aExpirations = new LinkedHashMap <> ();
+    // IDs that are currently being accepted
+    @GuardedBy ("this")
+    private final Map <String, CountDownLatch> m_aInFlight = new HashMap <> ();
+  }
+
+  private final long m_nTTLNanos;
+  private final int m_nMaxEntriesPerStripe;
+  private final Stripe [] m_aStripes;
+  private final LongAdder m_aHits = new LongAdder ();
+  private final LongAdder m_aMisses = new LongAdder ();
+
+  /**
+   * Constructor
+   *
+   * @param nTTLMillis
+   *        The time to live of each entry in milliseconds. Must be &gt; 0.
+   * @param nMaxEntries
+   *        The maximum number of entries in the index. Must be &gt; 0.
+   * @param nStripeCount
+   *        The number of independently locked stripes. Must be a power of 2.
+   */
+  public MPDeduplicationIndex (@Nonnegative final long nTTLMillis,
+                               @Nonnegative final int nMaxEntries,
+                               @Nonnegative final int nStripeCount)
+  {
+    ValueEnforcer.isGT0 (nTTLMillis, "TTLMillis");
+    ValueEnforcer.isGT0 (nMaxEntries, "MaxEntries");
+    ValueEnforcer.isGT0 (nStripeCount, "StripeCount");
+    ValueEnforcer.isTrue (Integer.bitCount (nStripeCount) == 1, "StripeCount must be a power of 2");
+    m_nTTLNanos = TimeUnit.MILLISECONDS.toNanos (nTTLMillis);
+    m_nMaxEntriesPerStripe = Math.max (1, nMaxEntries / nStripeCount);
+    m_aStripes = new Stripe [nStripeCount];
+    for (int i = 0; i < nStripeCount; ++i)
+      m_aStripes[i] = new Stripe ();
+  }
+
+  /**
+   * @return A new index with the settings from the configuration file, or
+   *         <code>null</code> if deduplication is disabled.
+   */
+  @Nullable
+  public static MPDeduplicationIndex createFromConfig ()
+  {
+    if (!TCConfig.isMPDeduplicationEnabled ())
+      return null;
+    return new MPDeduplicationIndex (TCConfig.getMPDeduplicationTTLMS (),
+                                     TCConfig.getMPDeduplicationMaxEntries (),
+                                     DEFAULT_STRIPE_COUNT);
+  }
+
+  @Nonnull
+  private Stripe _getStripe (@Nonnull final String sID)
+  {
+    // Spread the hash code, as for HashMap
+    final int nHash = sID.hashCode ();
+    return m_aStripes[(nHash ^ (nHash >>> 16)) & (m_aStripes.length - 1)];
+  }
+
+  // Must be called while holding the lock of the stripe
+  private static void _removeExpired (@Nonnull final Stripe aStripe, final long nNow)
+  {
+    final Iterator <Long> it = aStripe.m_aExpirations.values ().iterator ();
+    while (it.hasNext ())
+    {
+      if (it.next ().longValue () - nNow > 0)
+        break;
+      it.remove ();
+    }
+  }
+
+  /**
+   * Register the provided ID, if it is not yet contained.
+   *
+   * @param sID
+   *        The message ID to check. May be <code>null</code>.
+   * @return <code>true</code> if the ID was registered in the index,
+   *         <code>false</code> if the ID is already contained and not yet
+   *         expired. IDs without text are always registered.
+   * @see #acceptIfAbsent(String, Supplier, Runnable)
+   */
+  public boolean registerIfAbsent (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return true;
+
+    final long nNow = System.nanoTime ();
+    final Stripe aStripe = _getStripe (sID);
+    synchronized (aStripe)
+    {
+      _removeExpired (aStripe, nNow);
+      if (aStripe.m_aExpirations.containsKey (sID))
+      {
+        m_aHits.increment ();
+        return false;
+      }
+      _register (aStripe, sID, nNow);
+    }
+    m_aMisses.increment ();
+    return true;
+  }
+
+  // Must be called while holding the lock of the stripe
+  private void _register (@Nonnull final Stripe aStripe, @Nonnull final String sID, final long nNow)
+  {
+    aStripe.m_aExpirations.put (sID, Long.valueOf (nNow + m_nTTLNanos));
+
+    // Drop the oldest entry if the stripe is full
+    if (aStripe.m_aExpirations.size () > m_nMaxEntriesPerStripe)
+    {
+      final Iterator <Map.Entry <String, Long>> it = aStripe.m_aExpirations.entrySet ().iterator ();
+      it.next ();
+      it.remove ();
+    }
+  }
+
+  /**
+   * Accept a message with the provided ID, unless it was already accepted.
+   * The check and the acceptance are atomic per ID: a concurrent caller with
+   * the same ID waits until the first caller finished. The ID is only
+   * registered if the acceptor succeeded, so that a rejected message can be
+   * resent.
+   *
+   * @param sID
+   *        The message ID to check. May be <code>null</code>. Messages without
+   *        an ID are always accepted.
+   * @param aAcceptor
+   *        The acceptor that queues the message. May not be <code>null</code>.
+   * @param aDuplicateHandler
+   *        Invoked instead of the acceptor, if the ID was already accepted. May
+   *        not be <code>null</code>.
+   * @return The result of the acceptor, {@link ESuccess#SUCCESS} for a
+   *         duplicate, or {@link ESuccess#FAILURE} if the thread was
+   *         interrupted while waiting for a concurrent caller with the same ID.
+   */
+  @Nonnull
+  public ESuccess acceptIfAbsent (@Nullable final String sID,
+                                  @Nonnull final Supplier <ESuccess> aAcceptor,
+                                  @Nonnull final Runnable aDuplicateHandler)
+  {
+    ValueEnforcer.notNull (aAcceptor, "Acceptor");
+    ValueEnforcer.notNull (aDuplicateHandler, "DuplicateHandler");
+
+    if (StringHelper.hasNoText (sID))
+      return aAcceptor.get ();
+
+    final Stripe aStripe = _getStripe (sID);
+    final CountDownLatch aOwnLatch = new CountDownLatch (1);
+    boolean bDuplicate = false;
+    while (true)
+    {
+      final CountDownLatch aOtherLatch;
+      synchronized (aStripe)
+      {
+        _removeExpired (aStripe, System.nanoTime ());
+        if (aStripe.m_aExpirations.containsKey (sID))
+        {
+          bDuplicate = true;
+          break;
+        }
+        aOtherLatch = aStripe.m_aInFlight.putIfAbsent (sID, aOwnLatch);
+        if (aOtherLatch == null)
+          break;
+      }
+
+      // Another caller is accepting the same ID - wait for the outcome
+      try
+      {
+        aOtherLatch.await ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        return ESuccess.FAILURE;
+      }
+    }
+
+    if (bDuplicate)
+    {
+      m_aHits.increment ();
+      aDuplicateHandler.run ();
+      return ESuccess.SUCCESS;
+    }
+
+    m_aMisses.increment ();
+    ESuccess eSuccess = ESuccess.FAILURE;
+    try
+    {
+      eSuccess = aAcceptor.get ();
+    }
+    finally
+    {
+      synchronized (aStripe)
+      {
+        aStripe.m_aInFlight.remove (sID);
+        if (eSuccess.isSuccess ())
+          _register (aStripe, sID, System.nanoTime ());
+      }
+      aOwnLatch.countDown ();
+    }
+    return eSuccess;
+  }
+
+  /**
+   * Remove the provided ID from the index, e.g. because the message was
+   * registered but could not be accepted and a resend must be processed.
+   *
+   * @param sID
+   *        The message ID to remove. May be <code>null</code>.
+   */
+  public void remove (@Nullable final String sID)
+  {
+    if (StringHelper.hasText (sID))
+    {
+      final Stripe aStripe = _getStripe (sID);
+      synchronized (aStripe)
+      {
+        aStripe.m_aExpirations.remove (sID);
+      }
+    }
+  }
+
+  /**
+   * @return The number of entries in the index, including expired entries
+   *         that were not yet removed. Always &ge; 0.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    int ret = 0;
+    for (final Stripe aStripe : m_aStripes)
+      synchronized (aStripe)
+      {
+        ret += aStripe.m_aExpirations.size ();
+      }
+    return ret;
+  }
+
+  /**
+   * @return The number of IDs that were found in the index. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aHits.sum ();
+  }
+
+  /**
+   * @return The number of IDs that were not found in the index. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aMisses.sum ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("TTLNanos", m_nTTLNanos)
+                                       .append ("MaxEntriesPerStripe", m_nMaxEntriesPerStripe)
+                                       .append ("StripeCount", m_aStripes.length)
+                                       .getToString ();
+  }
+}
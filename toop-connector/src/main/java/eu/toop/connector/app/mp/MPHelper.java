@@ -16,6 +16,7 @@
 package eu.toop.connector.app.mp;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import com.helger.commons.error.level.EErrorLevel;
 
@@ -23,6 +24,7 @@ import eu.toop.commons.codelist.EPredefinedDocumentTypeIdentifier;
 import eu.toop.commons.dataexchange.v140.TDEAddressType;
 import eu.toop.commons.dataexchange.v140.TDEDataProviderType;
 import eu.toop.commons.dataexchange.v140.TDETOOPResponseType;
+import eu.toop.commons.exchange.ToopResponseWithAttachments140;
 import eu.toop.commons.jaxb.ToopXSDHelper140;
 import eu.toop.commons.usecase.ReverseDocumentTypeMapping;
 import eu.toop.connector.api.TCConfig;
@@ -34,6 +36,24 @@ public final class MPHelper
   private MPHelper ()
   {}
 
+  /**
+   * Get the key that determines the processing order of responses. All
+   * responses for the same data request are processed in the order they were
+   * queued.
+   *
+   * @param aResponse
+   *        The response to get the key from. May not be <code>null</code>.
+   * @return The <code>DataRequestIdentifier</code> value or <code>null</code>
+   *         if none is present.
+   * @since 0.10.9
+   */
+  @Nullable
+  public static String getResponseOrderingKey (@Nonnull final ToopResponseWithAttachments140 aResponse)
+  {
+    final IdentifierType aID = aResponse.getResponse ().getDataRequestIdentifier ();
+    return aID == null ? null : aID.getValue ();
+  }
+
   public static void fillDefaultResponseFields (@Nonnull final String sLogPrefix,
                                                 @Nonnull final TDETOOPResponseType aResponse)
   {
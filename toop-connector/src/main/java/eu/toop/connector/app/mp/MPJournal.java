@@ -0,0 +1,812 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.io.file.FileIOError;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.file.FileSystemIterator;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * An append-only journal that persists all objects queued in the message
+ * processor stages, so that they can be replayed after a restart or a crash.
+ * The journal consists of memory mapped segment files. Every queued object is
+ * stored as an "add" record and every finished object as an "ack" record. A
+ * segment file is deleted as soon as all add records in it and in all older
+ * segments are acknowledged.<br>
+ * If synchronous mode is enabled, {@link #append(EMPStage, Serializable)}
+ * returns only after the record was forced to disk. Concurrent appenders share
+ * a single force call (group commit), so that the cost of the disk sync is
+ * amortized over all records written in the meantime. Acknowledgements are
+ * never forced - a lost acknowledgement only leads to a repeated processing.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@ThreadSafe
+public final class MPJournal
+{
+  public static final String SEGMENT_FILENAME_PREFIX = "mp-journal-";
+  public static final String SEGMENT_FILENAME_SUFFIX = ".seg";
+  /**
+   * The suffix of the files containing records that could not be read during
+   * replay.
+   */
+  public static final String REJECTED_FILENAME_SUFFIX = ".rejected";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (MPJournal.class);
+
+  private static final byte RECORD_TYPE_ADD = 1;
+  private static final byte RECORD_TYPE_ACK = 2;
+  // Body length (int) + CRC32 of body (int) + record ID (long) + record type
+  // (byte)
+  private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 1;
+
+  /**
+   * A single segment file.
+   *
+   * @author Philip Helger
+   */
+  private static final class Segment
+  {
+    private final File m_aFile;
+    private final RandomAccessFile m_aRAF;
+    private final MappedByteBuffer m_aBuffer;
+    // Number of add records without ack
+    private int m_nPendingCount = 0;
+    @GuardedBy ("this")
+    private boolean m_bReleased = false;
+
+    Segment (@Nonnull final File aFile, @Nonnull final RandomAccessFile aRAF, @Nonnull final MappedByteBuffer aBuffer)
+    {
+      m_aFile = aFile;
+      m_aRAF = aRAF;
+      m_aBuffer = aBuffer;
+    }
+
+    /**
+     * Force the mapped content to disk. Synchronized with {@link #close()}, as
+     * the group commit forces outside of the journal lock and accessing an
+     * unmapped buffer crashes the VM.
+     */
+    synchronized void force ()
+    {
+      if (!m_bReleased)
+        m_aBuffer.force ();
+    }
+
+    synchronized void close ()
+    {
+      if (!m_bReleased)
+      {
+        m_bReleased = true;
+        _unmap (m_aBuffer);
+        StreamHelper.close (m_aRAF);
+      }
+    }
+
+    void closeAndDelete ()
+    {
+      close ();
+      final FileIOError aError = FileOperationManager.INSTANCE.deleteFileIfExisting (m_aFile);
+      if (aError.isFailure ())
+        LOGGER.warn ("Failed to delete journal segment '" + m_aFile + "': " + aError.getErrorCode ());
+    }
+  }
+
+  /**
+   * A pending add record read when opening the journal.
+   *
+   * @author Philip Helger
+   */
+  private static final class PendingRecord
+  {
+    private final EMPStage m_eStage;
+    private final byte [] m_aPayload;
+
+    PendingRecord (@Nonnull final EMPStage eStage, @Nonnull final byte [] aPayload)
+    {
+      m_eStage = eStage;
+      m_aPayload = aPayload;
+    }
+  }
+
+  private final File m_aDirectory;
+  private final int m_nSegmentSize;
+  private final boolean m_bSync;
+
+  // Write state, guarded by "this"
+  @GuardedBy ("this")
+  private final Deque <Segment> m_aSegments = new ArrayDeque <> ();
+  @GuardedBy ("this")
+  private final ICommonsMap <Long, Segment> m_aPendingIDs = new CommonsHashMap <> ();
+  @GuardedBy ("this")
+  private long m_nNextRecordID;
+  @GuardedBy ("this")
+  private long m_nNextSegmentNo;
+  @GuardedBy ("this")
+  private long m_nAppendSeq = 0;
+  @GuardedBy ("this")
+  private boolean m_bClosed = false;
+  @GuardedBy ("this")
+  private ICommonsOrderedMap <Long, PendingRecord> m_aPendingAtOpen;
+
+  // Group commit state
+  private final ReentrantLock m_aSyncLock = new ReentrantLock ();
+  private final Condition m_aSyncDone = m_aSyncLock.newCondition ();
+  @GuardedBy ("m_aSyncLock")
+  private long m_nDurableSeq = 0;
+  @GuardedBy ("m_aSyncLock")
+  private boolean m_bSyncRunning = false;
+
+  private MPJournal (@Nonnull final File aDirectory, @Nonnegative final int nSegmentSize, final boolean bSync)
+  {
+    m_aDirectory = aDirectory;
+    m_nSegmentSize = nSegmentSize;
+    m_bSync = bSync;
+  }
+
+  @Nonnull
+  private File _getSegmentFile (final long nSegmentNo)
+  {
+    return new File (m_aDirectory,
+                     SEGMENT_FILENAME_PREFIX +
+                                   StringHelper.getLeadingZero (nSegmentNo, 16) +
+                                   SEGMENT_FILENAME_SUFFIX);
+  }
+
+  @Nonnull
+  private File _getRejectedFile (final long nRecordID)
+  {
+    return new File (m_aDirectory,
+                     SEGMENT_FILENAME_PREFIX +
+                                   StringHelper.getLeadingZero (nRecordID, 16) +
+                                   REJECTED_FILENAME_SUFFIX);
+  }
+
+  private static long _getSegmentNo (@Nonnull final File aFile)
+  {
+    final String sName = aFile.getName ();
+    if (!sName.startsWith (SEGMENT_FILENAME_PREFIX) || !sName.endsWith (SEGMENT_FILENAME_SUFFIX))
+      return -1;
+    return StringParser.parseLong (sName.substring (SEGMENT_FILENAME_PREFIX.length (),
+                                                      sName.length () - SEGMENT_FILENAME_SUFFIX.length ()),
+                                     -1);
+  }
+
+  /**
+   * Release the mapping of the provided buffer right away instead of waiting
+   * for the garbage collector. Otherwise the address space stays occupied and
+   * on Windows the segment file cannot be deleted. There is no public API for
+   * this, so this is a best effort. The buffer must not be used afterwards.
+   */
+  private static void _unmap (@Nonnull final MappedByteBuffer aBuffer)
+  {
+    try
+    {
+      try
+      {
+        // Java 9+
+        final Class <?> aUnsafeClass = Class.forName ("sun.misc.Unsafe");
+        final Field aUnsafeField = aUnsafeClass.getDeclaredField ("theUnsafe");
+        aUnsafeField.setAccessible (true);
+        aUnsafeClass.getMethod ("invokeCleaner", ByteBuffer.class).invoke (aUnsafeField.get (null), aBuffer);
+      }
+      catch (final NoSuchMethodException ex)
+      {
+        // Java 8
+        final Method aCleanerMethod = aBuffer.getClass ().getMethod ("cleaner");
+        aCleanerMethod.setAccessible (true);
+        final Object aCleaner = aCleanerMethod.invoke (aBuffer);
+        if (aCleaner != null)
+          aCleaner.getClass ().getMethod ("clean").invoke (aCleaner);
+      }
+    }
+    catch (final ReflectiveOperationException | RuntimeException ex)
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Failed to unmap journal segment - relying on the garbage collector", ex);
+    }
+  }
+
+  @Nonnull
+  private static Segment _mapSegment (@Nonnull final File aFile, @Nonnegative final long nSize) throws IOException
+  {
+    final RandomAccessFile aRAF = new RandomAccessFile (aFile, "rw");
+    try
+    {
+      if (aRAF.length () < nSize)
+        aRAF.setLength (nSize);
+      final MappedByteBuffer aBuffer = aRAF.getChannel ().map (FileChannel.MapMode.READ_WRITE, 0, aRAF.length ());
+      return new Segment (aFile, aRAF, aBuffer);
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      StreamHelper.close (aRAF);
+      throw ex;
+    }
+  }
+
+  /**
+   * Read all records of an existing segment. The buffer position is afterwards
+   * directly after the last valid record.
+   */
+  @GuardedBy ("this")
+  private void _readSegment (@Nonnull final Segment aSegment)
+  {
+    final MappedByteBuffer aBuf = aSegment.m_aBuffer;
+    while (aBuf.remaining () >= RECORD_HEADER_SIZE)
+    {
+      final int nStartPos = aBuf.position ();
+      final int nBodyLen = aBuf.getInt ();
+      if (nBodyLen <= 0 && nBodyLen != -1)
+      {
+        // End of written data
+        aBuf.position (nStartPos);
+        break;
+      }
+      final int nCRC = aBuf.getInt ();
+      final long nRecordID = aBuf.getLong ();
+      final byte nType = aBuf.get ();
+      final int nRealBodyLen = Math.max (nBodyLen, 0);
+      if (nRealBodyLen > aBuf.remaining ())
+      {
+        LOGGER.warn ("Journal segment '" + aSegment.m_aFile + "' has a truncated record at position " + nStartPos);
+        aBuf.position (nStartPos);
+        break;
+      }
+      final byte [] aBody = new byte [nRealBodyLen];
+      try
+      {
+        aBuf.get (aBody);
+      }
+      catch (final BufferUnderflowException ex)
+      {
+        aBuf.position (nStartPos);
+        break;
+      }
+      if (_getCRC (nRecordID, nType, aBody) != nCRC)
+      {
+        LOGGER.warn ("Journal segment '" + aSegment.m_aFile + "' has a corrupt record at position " + nStartPos);
+        aBuf.position (nStartPos);
+        break;
+      }
+
+      m_nNextRecordID = Math.max (m_nNextRecordID, nRecordID + 1);
+      if (nType == RECORD_TYPE_ADD)
+      {
+        final PendingRecord aRecord = _parseAddBody (aBody);
+        if (aRecord == null)
+          LOGGER.warn ("Journal segment '" + aSegment.m_aFile + "' contains an unknown stage in record " + nRecordID);
+        else
+        {
+          m_aPendingAtOpen.put (Long.valueOf (nRecordID), aRecord);
+          m_aPendingIDs.put (Long.valueOf (nRecordID), aSegment);
+          aSegment.m_nPendingCount++;
+        }
+      }
+      else
+        if (nType == RECORD_TYPE_ACK)
+        {
+          m_aPendingAtOpen.remove (Long.valueOf (nRecordID));
+          final Segment aAddSegment = m_aPendingIDs.remove (Long.valueOf (nRecordID));
+          if (aAddSegment != null)
+            aAddSegment.m_nPendingCount--;
+        }
+    }
+  }
+
+  @Nullable
+  private static PendingRecord _parseAddBody (@Nonnull final byte [] aBody)
+  {
+    // Body: stage ID length (byte), stage ID (ASCII), serialized object
+    if (aBody.length < 1)
+      return null;
+    final int nStageIDLen = aBody[0] & 0xff;
+    if (aBody.length < 1 + nStageIDLen)
+      return null;
+    final EMPStage eStage = EMPStage.getFromIDOrNull (new String (aBody, 1, nStageIDLen, StandardCharsets.US_ASCII));
+    if (eStage == null)
+      return null;
+    final byte [] aPayload = new byte [aBody.length - 1 - nStageIDLen];
+    System.arraycopy (aBody, 1 + nStageIDLen, aPayload, 0, aPayload.length);
+    return new PendingRecord (eStage, aPayload);
+  }
+
+  private static int _getCRC (final long nRecordID, final byte nType, @Nonnull final byte [] aBody)
+  {
+    final CRC32 aCRC = new CRC32 ();
+    for (int i = 0; i < 8; ++i)
+      aCRC.update ((int) (nRecordID >>> (8 * i)));
+    aCRC.update (nType);
+    aCRC.update (aBody);
+    return (int) aCRC.getValue ();
+  }
+
+  @GuardedBy ("this")
+  private void _openNewSegment (@Nonnegative final int nMinSize) throws IOException
+  {
+    final Segment aOld = m_aSegments.peekLast ();
+    if (aOld != null)
+    {
+      // Make sure everything in the old segment is durable, as the group
+      // commit only forces the current segment
+      if (m_bSync)
+        aOld.force ();
+    }
+
+    final long nSegmentNo = m_nNextSegmentNo++;
+    final Segment aNew = _mapSegment (_getSegmentFile (nSegmentNo), Math.max (m_nSegmentSize, nMinSize));
+    m_aSegments.addLast (aNew);
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Opened new journal segment '" + aNew.m_aFile + "'");
+    _deleteObsoleteSegments ();
+  }
+
+  /**
+   * Delete all segments from the head that have no more pending records. Only
+   * head segments may be deleted, because younger segments contain the
+   * acknowledgements for records in older segments.
+   */
+  @GuardedBy ("this")
+  private void _deleteObsoleteSegments ()
+  {
+    while (m_aSegments.size () > 1)
+    {
+      final Segment aHead = m_aSegments.peekFirst ();
+      if (aHead.m_nPendingCount > 0)
+        break;
+      m_aSegments.removeFirst ();
+      aHead.closeAndDelete ();
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Deleted obsolete journal segment '" + aHead.m_aFile + "'");
+    }
+  }
+
+  /**
+   * Write a single record into the current segment.
+   *
+   * @return The append sequence number of the record
+   */
+  @GuardedBy ("this")
+  private long _writeRecord (final long nRecordID, final byte nType, @Nonnull final byte [] aBody) throws IOException
+  {
+    if (m_bClosed)
+      throw new IllegalStateException ("The MP journal is already closed");
+
+    final int nRecordSize = RECORD_HEADER_SIZE + aBody.length;
+    Segment aCurrent = m_aSegments.peekLast ();
+    // Keep space for the terminating zero length
+    if (aCurrent == null || aCurrent.m_aBuffer.remaining () < nRecordSize + 4)
+    {
+      _openNewSegment (nRecordSize + 4);
+      aCurrent = m_aSegments.peekLast ();
+    }
+
+    final MappedByteBuffer aBuf = aCurrent.m_aBuffer;
+    final int nStartPos = aBuf.position ();
+    // Write the length last, so that a partially written record is never
+    // considered valid
+    aBuf.position (nStartPos + 4);
+    aBuf.putInt (_getCRC (nRecordID, nType, aBody));
+    aBuf.putLong (nRecordID);
+    aBuf.put (nType);
+    aBuf.put (aBody);
+    // An ack has no body - use -1 to distinguish it from the end marker
+    aBuf.putInt (nStartPos, aBody.length == 0 ? -1 : aBody.length);
+
+    if (nType == RECORD_TYPE_ADD)
+    {
+      m_aPendingIDs.put (Long.valueOf (nRecordID), aCurrent);
+      aCurrent.m_nPendingCount++;
+    }
+    return ++m_nAppendSeq;
+  }
+
+  /**
+   * Wait until the record with the provided append sequence number was forced
+   * to disk. The first waiting thread performs the force on behalf of all
+   * other threads.
+   */
+  private void _awaitDurable (final long nSeq)
+  {
+    m_aSyncLock.lock ();
+    try
+    {
+      while (m_nDurableSeq < nSeq)
+      {
+        if (m_bSyncRunning)
+        {
+          // Another thread is forcing - wait for it
+          m_aSyncDone.awaitUninterruptibly ();
+          continue;
+        }
+
+        // This thread becomes the leader of the next group commit
+        m_bSyncRunning = true;
+        m_aSyncLock.unlock ();
+        long nTargetSeq = -1;
+        try
+        {
+          final Segment aCurrent;
+          synchronized (this)
+          {
+            nTargetSeq = m_nAppendSeq;
+            aCurrent = m_aSegments.peekLast ();
+          }
+          // Null if the journal was closed in the meantime
+          if (aCurrent != null)
+            aCurrent.force ();
+        }
+        finally
+        {
+          m_aSyncLock.lock ();
+          m_bSyncRunning = false;
+          if (nTargetSeq > m_nDurableSeq)
+            m_nDurableSeq = nTargetSeq;
+          m_aSyncDone.signalAll ();
+        }
+      }
+    }
+    finally
+    {
+      m_aSyncLock.unlock ();
+    }
+  }
+
+  /**
+   * Append a new object to the journal.
+   *
+   * @param eStage
+   *        The stage the object belongs to. May not be <code>null</code>.
+   * @param aObject
+   *        The object to be persisted. May not be <code>null</code>.
+   * @return The ID of the journal record, that must be passed to
+   *         {@link #acknowledge(long)} after processing finished.
+   * @throws IOException
+   *         If writing failed
+   * @throws IllegalStateException
+   *         If the journal is already closed
+   */
+  public long append (@Nonnull final EMPStage eStage, @Nonnull final Serializable aObject) throws IOException
+  {
+    ValueEnforcer.notNull (eStage, "Stage");
+    ValueEnforcer.notNull (aObject, "Object");
+
+    // Serialize outside of the lock
+    final byte [] aStageID = eStage.getID ().getBytes (StandardCharsets.US_ASCII);
+    final byte [] aBody;
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (4096))
+    {
+      aBAOS.write (aStageID.length);
+      aBAOS.write (aStageID);
+      try (final ObjectOutputStream aOOS = new ObjectOutputStream (aBAOS))
+      {
+        aOOS.writeObject (aObject);
+      }
+      aBody = aBAOS.toByteArray ();
+    }
+
+    final long nRecordID;
+    final long nSeq;
+    synchronized (this)
+    {
+      nRecordID = m_nNextRecordID++;
+      nSeq = _writeRecord (nRecordID, RECORD_TYPE_ADD, aBody);
+    }
+
+    if (m_bSync)
+      _awaitDurable (nSeq);
+    return nRecordID;
+  }
+
+  /**
+   * Mark a previously appended record as finished.
+   *
+   * @param nRecordID
+   *        The record ID as returned by
+   *        {@link #append(EMPStage, Serializable)}.
+   */
+  public void acknowledge (final long nRecordID)
+  {
+    synchronized (this)
+    {
+      if (m_bClosed)
+      {
+        // Will be replayed after the next start
+        LOGGER.warn ("Cannot acknowledge journal record " + nRecordID + " because the journal is already closed");
+        return;
+      }
+
+      final Segment aAddSegment = m_aPendingIDs.remove (Long.valueOf (nRecordID));
+      if (aAddSegment == null)
+      {
+        LOGGER.warn ("Journal record " + nRecordID + " is not pending");
+        return;
+      }
+
+      try
+      {
+        _writeRecord (nRecordID, RECORD_TYPE_ACK, new byte [0]);
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to write acknowledgement for journal record " + nRecordID, ex);
+      }
+      aAddSegment.m_nPendingCount--;
+      _deleteObsoleteSegments ();
+    }
+  }
+
+  /**
+   * @return The number of records that were appended but not yet
+   *         acknowledged. Always &ge; 0.
+   */
+  @Nonnegative
+  public synchronized int getPendingCount ()
+  {
+    return m_aPendingIDs.size ();
+  }
+
+  /**
+   * @return The number of segment files currently in use. Always &ge; 0.
+   */
+  @Nonnegative
+  public synchronized int getSegmentCount ()
+  {
+    return m_aSegments.size ();
+  }
+
+  /**
+   * Replay all records that were pending when the journal was opened. Every
+   * record is handed to the consumer, which is expected to queue the object
+   * again (which creates a new journal record). A record is only acknowledged
+   * if the consumer succeeded - otherwise it stays pending and is replayed
+   * again after the next start. A record that cannot be deserialized is moved
+   * aside into a separate file ending with {@link #REJECTED_FILENAME_SUFFIX}
+   * and acknowledged afterwards. This method should be called only once after
+   * opening.
+   *
+   * @param aConsumer
+   *        The consumer that takes the stage and the deserialized object and
+   *        returns whether the object was queued again. May not be
+   *        <code>null</code>.
+   * @return The number of successfully replayed records. Always &ge; 0.
+   */
+  @Nonnegative
+  public int replayPending (@Nonnull final BiFunction <? super EMPStage, ? super Serializable, ESuccess> aConsumer)
+  {
+    ValueEnforcer.notNull (aConsumer, "Consumer");
+
+    final ICommonsOrderedMap <Long, PendingRecord> aPending;
+    synchronized (this)
+    {
+      aPending = m_aPendingAtOpen;
+      m_aPendingAtOpen = new CommonsLinkedHashMap <> ();
+    }
+
+    int ret = 0;
+    for (final Map.Entry <Long, PendingRecord> aEntry : aPending.entrySet ())
+    {
+      final long nRecordID = aEntry.getKey ().longValue ();
+      final PendingRecord aRecord = aEntry.getValue ();
+      final Serializable aObject;
+      try (final ObjectInputStream aOIS = new ObjectInputStream (new NonBlockingByteArrayInputStream (aRecord.m_aPayload)))
+      {
+        aObject = (Serializable) aOIS.readObject ();
+      }
+      catch (final IOException | ClassNotFoundException | ClassCastException ex)
+      {
+        final File aRejectedFile = _getRejectedFile (nRecordID);
+        if (SimpleFileIO.writeFile (aRejectedFile, aRecord.m_aPayload).isSuccess ())
+        {
+          LOGGER.error ("Failed to read journal record " +
+                        nRecordID +
+                        " for step " +
+                        aRecord.m_eStage.getStep () +
+                        " - moved it to '" +
+                        aRejectedFile.getAbsolutePath () +
+                        "'",
+                        ex);
+          acknowledge (nRecordID);
+        }
+        else
+          LOGGER.error ("Failed to read journal record " +
+                        nRecordID +
+                        " for step " +
+                        aRecord.m_eStage.getStep () +
+                        " and failed to move it aside - it stays pending",
+                        ex);
+        continue;
+      }
+
+      ESuccess eSuccess;
+      try
+      {
+        eSuccess = aConsumer.apply (aRecord.m_eStage, aObject);
+      }
+      catch (final RuntimeException ex)
+      {
+        LOGGER.error ("Error replaying journal record " + nRecordID + " for step " + aRecord.m_eStage.getStep (), ex);
+        eSuccess = ESuccess.FAILURE;
+      }
+      if (eSuccess.isSuccess ())
+      {
+        // The object is queued again and has a new record
+        acknowledge (nRecordID);
+        ret++;
+      }
+      else
+        LOGGER.error ("Failed to queue journal record " +
+                      nRecordID +
+                      " for step " +
+                      aRecord.m_eStage.getStep () +
+                      " again - it stays pending and is replayed after the next start");
+    }
+    return ret;
+  }
+
+  /**
+   * Close the journal. Afterwards no more records can be appended. Pending
+   * records stay on disk and are replayed after the next start.
+   */
+  public void close ()
+  {
+    synchronized (this)
+    {
+      if (m_bClosed)
+        return;
+      m_bClosed = true;
+      final Segment aCurrent = m_aSegments.peekLast ();
+      if (aCurrent != null)
+        aCurrent.force ();
+      if (m_aPendingIDs.isEmpty ())
+      {
+        // Nothing left - no need to keep any segment
+        for (final Segment aSegment : m_aSegments)
+          aSegment.closeAndDelete ();
+      }
+      else
+        for (final Segment aSegment : m_aSegments)
+          aSegment.close ();
+      m_aSegments.clear ();
+    }
+    LOGGER.info ("Closed MP journal in '" + m_aDirectory.getAbsolutePath () + "'");
+  }
+
+  /**
+   * @return <code>true</code> if {@link #close()} was called.
+   */
+  public synchronized boolean isClosed ()
+  {
+    return m_bClosed;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Directory", m_aDirectory)
+                                       .append ("SegmentSize", m_nSegmentSize)
+                                       .append ("Sync", m_bSync)
+                                       .getToString ();
+  }
+
+  /**
+   * Open an existing journal or create a new one. All existing segments are
+   * read and the records that were not acknowledged are available via
+   * {@link #replayPending(BiFunction)}. New records are always written into a
+   * new segment.
+   *
+   * @param aDirectory
+   *        The directory containing the segment files. Is created if it does
+   *        not exist. May not be <code>null</code>.
+   * @param nSegmentSize
+   *        The size of a single segment file in bytes. Must be &gt; 0.
+   * @param bSync
+   *        <code>true</code> to force each appended record to disk before
+   *        {@link #append(EMPStage, Serializable)} returns.
+   * @return The opened journal. Never <code>null</code>.
+   * @throws IOException
+   *         In case the journal cannot be opened
+   */
+  @Nonnull
+  public static MPJournal open (@Nonnull final File aDirectory,
+                                @Nonnegative final int nSegmentSize,
+                                final boolean bSync) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.isGT0 (nSegmentSize, "SegmentSize");
+
+    if (FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aDirectory).isFailure ())
+      throw new IOException ("Failed to create journal directory '" + aDirectory.getAbsolutePath () + "'");
+
+    final MPJournal ret = new MPJournal (aDirectory, nSegmentSize, bSync);
+    synchronized (ret)
+    {
+      ret.m_aPendingAtOpen = new CommonsLinkedHashMap <> ();
+
+      // Read all existing segments in order
+      final ICommonsList <File> aFiles = new CommonsArrayList <> ();
+      for (final File aFile : new FileSystemIterator (aDirectory))
+        if (aFile.isFile () && _getSegmentNo (aFile) >= 0)
+          aFiles.add (aFile);
+      aFiles.sort ( (x, y) -> Long.compare (_getSegmentNo (x), _getSegmentNo (y)));
+
+      for (final File aFile : aFiles)
+      {
+        final long nSegmentNo = _getSegmentNo (aFile);
+        final Segment aSegment = _mapSegment (aFile, 0);
+        ret._readSegment (aSegment);
+        ret.m_aSegments.addLast (aSegment);
+        ret.m_nNextSegmentNo = nSegmentNo + 1;
+      }
+
+      // Write only into new segments
+      ret._openNewSegment (0);
+    }
+
+    LOGGER.info ("Opened MP journal in '" +
+                 aDirectory.getAbsolutePath () +
+                 "' with " +
+                 ret.m_aPendingAtOpen.size () +
+                 " pending record(s)");
+    return ret;
+  }
+}
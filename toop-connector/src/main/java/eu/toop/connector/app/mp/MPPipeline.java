@@ -0,0 +1,680 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A pipeline of processing phases that are connected by bounded hand-off
+ * queues. Each phase has its own worker threads, so that each phase can be
+ * sized according to its workload. If the queue of a phase is full, the
+ * worker of the previous phase waits until there is room again. So a slow
+ * phase slows down the whole pipeline instead of buffering an unlimited number
+ * of objects.<br>
+ * A phase either processes each object on its own, or it drains batches of
+ * objects from its queue, so that work can be shared between similar
+ * objects.<br>
+ * After the last phase, or after a phase signalled that no further processing
+ * is needed, the finisher is invoked exactly once per object.<br>
+ * All phases must be added before the first object is submitted.
+ *
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The data type to be processed
+ * @since 0.10.9
+ */
+@ThreadSafe
+final class MPPipeline <DATATYPE>
+{
+  /**
+   * The processing logic of a single phase.
+   *
+   * @param <T>
+   *        The data type to be processed
+   */
+  @FunctionalInterface
+  interface IPhaseFunction <T>
+  {
+    /**
+     * Process the object in this phase.
+     *
+     * @param aObject
+     *        The object to process. Never <code>null</code>.
+     * @return <code>true</code> to continue with the next phase,
+     *         <code>false</code> to directly invoke the finisher.
+     * @throws Exception
+     *         In case of error. Afterwards the exception handler and the
+     *         finisher are invoked.
+     */
+    boolean process (@Nonnull T aObject) throws Exception;
+  }
+
+  /**
+   * The processing logic of a phase that processes several objects at once.
+   *
+   * @param <T>
+   *        The data type to be processed
+   */
+  @FunctionalInterface
+  interface IBatchPhaseFunction <T>
+  {
+    /**
+     * Process all objects of the batch in this phase.
+     *
+     * @param aBatch
+     *        The objects to process in the order they were queued. Never
+     *        <code>null</code> nor empty.
+     * @throws Exception
+     *         In case of error. Afterwards the exception handler and the
+     *         finisher are invoked for all objects of the batch.
+     */
+    void process (@Nonnull ICommonsList <T> aBatch) throws Exception;
+  }
+
+  private abstract class AbstractPhase implements IMPPipelinePhaseStatistics
+  {
+    private final String m_sID;
+    private final int m_nWorkerCount;
+    private final int m_nQueueCapacity;
+    protected final ThreadFactory m_aThreadFactory;
+    private AbstractPhase m_aNext;
+
+    AbstractPhase (@Nonnull @Nonempty final String sID,
+                   @Nonnull @Nonempty final String sThreadNamePrefix,
+                   @Nonnegative final int nWorkerCount,
+                   @Nonnegative final int nQueueCapacity)
+    {
+      m_sID = sID;
+      m_nWorkerCount = nWorkerCount;
+      m_nQueueCapacity = nQueueCapacity;
+      m_aThreadFactory = new BasicThreadFactory.Builder ().setNamingPattern (sThreadNamePrefix + "-%d")
+                                                          .setDaemon (true)
+                                                          .build ();
+    }
+
+    @Nonnull
+    @Nonempty
+    public final String getPhaseID ()
+    {
+      return m_sID;
+    }
+
+    @Nonnegative
+    public final int getWorkerCount ()
+    {
+      return m_nWorkerCount;
+    }
+
+    @Nonnegative
+    public final int getQueueCapacity ()
+    {
+      return m_nQueueCapacity;
+    }
+
+    /**
+     * Add an object to the queue of this phase. Blocks until there is room in
+     * the queue.
+     *
+     * @param aObject
+     *        The object to add. Never <code>null</code>.
+     * @throws RejectedExecutionException
+     *         If the phase is shut down or if waiting was interrupted
+     */
+    abstract void handOver (@Nonnull DATATYPE aObject);
+
+    abstract void shutdownAndWaitUntilAllTasksAreFinished ();
+
+    abstract void abort ();
+  }
+
+  /**
+   * A phase that processes each object on its own.
+   */
+  private final class SinglePhase extends AbstractPhase
+  {
+    private final IPhaseFunction <DATATYPE> m_aFunction;
+    private final ThreadPoolExecutor m_aExecutor;
+
+    SinglePhase (@Nonnull @Nonempty final String sID,
+                 @Nonnull @Nonempty final String sThreadNamePrefix,
+                 @Nonnegative final int nWorkerCount,
+                 @Nonnegative final int nQueueCapacity,
+                 @Nonnull final IPhaseFunction <DATATYPE> aFunction)
+    {
+      super (sID, sThreadNamePrefix, nWorkerCount, nQueueCapacity);
+      m_aFunction = aFunction;
+      // Wait for room in the queue instead of rejecting
+      final RejectedExecutionHandler aBlockingHandler = (aTask, aExecutor) -> {
+        if (aExecutor.isShutdown ())
+          throw new RejectedExecutionException ("Pipeline phase '" + sID + "' is shut down");
+        try
+        {
+          aExecutor.getQueue ().put (aTask);
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+          throw new RejectedExecutionException ("Interrupted while waiting for pipeline phase '" + sID + "'", ex);
+        }
+      };
+      m_aExecutor = new ThreadPoolExecutor (nWorkerCount,
+                                            nWorkerCount,
+                                            0L,
+                                            TimeUnit.MILLISECONDS,
+                                            new ArrayBlockingQueue <> (nQueueCapacity),
+                                            m_aThreadFactory,
+                                            aBlockingHandler);
+    }
+
+    @Nonnegative
+    public int getQueueLength ()
+    {
+      return m_aExecutor.getQueue ().size ();
+    }
+
+    @Nonnegative
+    public int getActiveCount ()
+    {
+      return m_aExecutor.getActiveCount ();
+    }
+
+    @Override
+    void handOver (@Nonnull final DATATYPE aObject)
+    {
+      m_aExecutor.execute ( () -> _run (this, aObject));
+    }
+
+    @Override
+    void shutdownAndWaitUntilAllTasksAreFinished ()
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutor);
+    }
+
+    @Override
+    void abort ()
+    {
+      m_aExecutor.shutdownNow ();
+    }
+  }
+
+  /**
+   * A phase that drains batches of objects from its queue, similar to
+   * {@link com.helger.commons.concurrent.collector.ConcurrentCollectorMultiple}.
+   * A worker takes all objects that are queued up to the maximum batch size.
+   * If a linger time is configured, the worker waits up to that time for the
+   * batch to fill up.
+   */
+  private final class BatchPhase extends AbstractPhase
+  {
+    private static final long POLL_MILLIS = 100;
+
+    private final int m_nMaxBatchSize;
+    private final long m_nLingerNanos;
+    private final IBatchPhaseFunction <DATATYPE> m_aFunction;
+    private final Predicate <? super DATATYPE> m_aContinueCheck;
+    private final BlockingQueue <DATATYPE> m_aQueue;
+    private final AtomicInteger m_aActiveCount = new AtomicInteger (0);
+    private final ICommonsList <Thread> m_aThreads = new CommonsArrayList <> ();
+    private volatile boolean m_bShutdown = false;
+
+    BatchPhase (@Nonnull @Nonempty final String sID,
+                @Nonnull @Nonempty final String sThreadNamePrefix,
+                @Nonnegative final int nWorkerCount,
+                @Nonnegative final int nQueueCapacity,
+                @Nonnegative final int nMaxBatchSize,
+                @Nonnegative final long nLingerMillis,
+                @Nonnull final IBatchPhaseFunction <DATATYPE> aFunction,
+                @Nonnull final Predicate <? super DATATYPE> aContinueCheck)
+    {
+      super (sID, sThreadNamePrefix, nWorkerCount, nQueueCapacity);
+      m_nMaxBatchSize = nMaxBatchSize;
+      m_nLingerNanos = TimeUnit.MILLISECONDS.toNanos (nLingerMillis);
+      m_aFunction = aFunction;
+      m_aContinueCheck = aContinueCheck;
+      m_aQueue = new ArrayBlockingQueue <> (nQueueCapacity);
+      for (int i = 0; i < nWorkerCount; ++i)
+      {
+        final Thread aThread = m_aThreadFactory.newThread (this::_drainLoop);
+        m_aThreads.add (aThread);
+        aThread.start ();
+      }
+    }
+
+    @Nonnegative
+    public int getQueueLength ()
+    {
+      return m_aQueue.size ();
+    }
+
+    @Nonnegative
+    public int getActiveCount ()
+    {
+      return m_aActiveCount.get ();
+    }
+
+    private void _drainLoop ()
+    {
+      final ICommonsList <DATATYPE> aBatch = new CommonsArrayList <> (m_nMaxBatchSize);
+      boolean bInterrupted = false;
+      while (!bInterrupted)
+      {
+        try
+        {
+          final DATATYPE aFirst = m_aQueue.poll (POLL_MILLIS, TimeUnit.MILLISECONDS);
+          if (aFirst == null)
+          {
+            // Nothing can arrive after shutdown
+            if (m_bShutdown)
+              break;
+            continue;
+          }
+          aBatch.add (aFirst);
+
+          if (m_nLingerNanos > 0)
+          {
+            // Wait for the batch to fill up
+            final long nDeadline = System.nanoTime () + m_nLingerNanos;
+            while (aBatch.size () < m_nMaxBatchSize)
+            {
+              final long nRemaining = nDeadline - System.nanoTime ();
+              if (nRemaining <= 0)
+                break;
+              final DATATYPE aNext = m_aQueue.poll (nRemaining, TimeUnit.NANOSECONDS);
+              if (aNext == null)
+                break;
+              aBatch.add (aNext);
+            }
+          }
+          else
+          {
+            // Take only what is already waiting
+            m_aQueue.drainTo (aBatch, m_nMaxBatchSize - 1);
+          }
+        }
+        catch (final InterruptedException ex)
+        {
+          LOGGER.error ("Interrupted while draining pipeline phase '" + getPhaseID () + "'", ex);
+          Thread.currentThread ().interrupt ();
+          bInterrupted = true;
+        }
+
+        if (aBatch.isNotEmpty ())
+        {
+          m_aActiveCount.addAndGet (aBatch.size ());
+          try
+          {
+            _runBatch (this, aBatch);
+          }
+          finally
+          {
+            m_aActiveCount.addAndGet (-aBatch.size ());
+            aBatch.clear ();
+          }
+        }
+      }
+    }
+
+    @Override
+    void handOver (@Nonnull final DATATYPE aObject)
+    {
+      if (m_bShutdown)
+        throw new RejectedExecutionException ("Pipeline phase '" + getPhaseID () + "' is shut down");
+      try
+      {
+        m_aQueue.put (aObject);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new RejectedExecutionException ("Interrupted while waiting for pipeline phase '" + getPhaseID () + "'",
+                                              ex);
+      }
+    }
+
+    @Override
+    void shutdownAndWaitUntilAllTasksAreFinished ()
+    {
+      // The workers drain the queue before they end
+      m_bShutdown = true;
+      for (final Thread aThread : m_aThreads)
+        try
+        {
+          aThread.join ();
+        }
+        catch (final InterruptedException ex)
+        {
+          LOGGER.error ("Interrupted while waiting for pipeline phase '" + getPhaseID () + "'", ex);
+          Thread.currentThread ().interrupt ();
+          break;
+        }
+    }
+
+    @Override
+    void abort ()
+    {
+      m_bShutdown = true;
+      m_aQueue.clear ();
+      for (final Thread aThread : m_aThreads)
+        aThread.interrupt ();
+    }
+  }
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (MPPipeline.class);
+
+  private final Consumer <? super DATATYPE> m_aFinisher;
+  private final BiConsumer <? super DATATYPE, ? super Exception> m_aExceptionHandler;
+  private final ICommonsList <AbstractPhase> m_aPhases = new CommonsArrayList <> ();
+  private volatile boolean m_bAborted = false;
+
+  /**
+   * Constructor
+   *
+   * @param aFinisher
+   *        The consumer that is invoked exactly once per object after the
+   *        processing ended. It is invoked on the thread of the last phase and
+   *        must not throw an exception. May not be <code>null</code>.
+   * @param aExceptionHandler
+   *        The handler that is invoked if a phase throws an exception or if an
+   *        object could not be handed over to the next phase. The finisher is
+   *        invoked afterwards. May not be <code>null</code>.
+   */
+  MPPipeline (@Nonnull final Consumer <? super DATATYPE> aFinisher,
+              @Nonnull final BiConsumer <? super DATATYPE, ? super Exception> aExceptionHandler)
+  {
+    ValueEnforcer.notNull (aFinisher, "Finisher");
+    ValueEnforcer.notNull (aExceptionHandler, "ExceptionHandler");
+    m_aFinisher = aFinisher;
+    m_aExceptionHandler = aExceptionHandler;
+  }
+
+  /**
+   * Add a new phase at the end of the pipeline.
+   *
+   * @param sID
+   *        The ID of the phase. May neither be <code>null</code> nor empty.
+   * @param sThreadNamePrefix
+   *        The prefix for the names of the worker threads. May neither be
+   *        <code>null</code> nor empty.
+   * @param nWorkerCount
+   *        The number of worker threads. Must be &gt; 0.
+   * @param nQueueCapacity
+   *        The maximum number of objects waiting for this phase. Must be &gt;
+   *        0.
+   * @param aFunction
+   *        The processing logic of the phase. It is invoked concurrently and
+   *        must therefore be thread-safe. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  MPPipeline <DATATYPE> addPhase (@Nonnull @Nonempty final String sID,
+                                  @Nonnull @Nonempty final String sThreadNamePrefix,
+                                  @Nonnegative final int nWorkerCount,
+                                  @Nonnegative final int nQueueCapacity,
+                                  @Nonnull final IPhaseFunction <DATATYPE> aFunction)
+  {
+    ValueEnforcer.notEmpty (sID, "ID");
+    ValueEnforcer.notEmpty (sThreadNamePrefix, "ThreadNamePrefix");
+    ValueEnforcer.isGT0 (nWorkerCount, "WorkerCount");
+    ValueEnforcer.isGT0 (nQueueCapacity, "QueueCapacity");
+    ValueEnforcer.notNull (aFunction, "Function");
+
+    _addPhase (new SinglePhase (sID, sThreadNamePrefix, nWorkerCount, nQueueCapacity, aFunction));
+    return this;
+  }
+
+  /**
+   * Add a new phase at the end of the pipeline that processes batches of
+   * objects.
+   *
+   * @param sID
+   *        The ID of the phase. May neither be <code>null</code> nor empty.
+   * @param sThreadNamePrefix
+   *        The prefix for the names of the worker threads. May neither be
+   *        <code>null</code> nor empty.
+   * @param nWorkerCount
+   *        The number of worker threads. Must be &gt; 0.
+   * @param nQueueCapacity
+   *        The maximum number of objects waiting for this phase. Must be &gt;
+   *        0.
+   * @param nMaxBatchSize
+   *        The maximum number of objects per batch. Must be &gt; 0.
+   * @param nLingerMillis
+   *        The maximum number of milliseconds to wait for a batch to fill up.
+   *        0 means that only the objects that are already queued are part of
+   *        the batch. Must be &ge; 0.
+   * @param aFunction
+   *        The processing logic of the phase. It is invoked concurrently and
+   *        must therefore be thread-safe. May not be <code>null</code>.
+   * @param aContinueCheck
+   *        The check whether an object of a successfully processed batch
+   *        should continue with the next phase. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  MPPipeline <DATATYPE> addBatchPhase (@Nonnull @Nonempty final String sID,
+                                       @Nonnull @Nonempty final String sThreadNamePrefix,
+                                       @Nonnegative final int nWorkerCount,
+                                       @Nonnegative final int nQueueCapacity,
+                                       @Nonnegative final int nMaxBatchSize,
+                                       @Nonnegative final long nLingerMillis,
+                                       @Nonnull final IBatchPhaseFunction <DATATYPE> aFunction,
+                                       @Nonnull final Predicate <? super DATATYPE> aContinueCheck)
+  {
+    ValueEnforcer.notEmpty (sID, "ID");
+    ValueEnforcer.notEmpty (sThreadNamePrefix, "ThreadNamePrefix");
+    ValueEnforcer.isGT0 (nWorkerCount, "WorkerCount");
+    ValueEnforcer.isGT0 (nQueueCapacity, "QueueCapacity");
+    ValueEnforcer.isGT0 (nMaxBatchSize, "MaxBatchSize");
+    ValueEnforcer.isGE0 (nLingerMillis, "LingerMillis");
+    ValueEnforcer.notNull (aFunction, "Function");
+    ValueEnforcer.notNull (aContinueCheck, "ContinueCheck");
+
+    _addPhase (new BatchPhase (sID,
+                               sThreadNamePrefix,
+                               nWorkerCount,
+                               nQueueCapacity,
+                               nMaxBatchSize,
+                               nLingerMillis,
+                               aFunction,
+                               aContinueCheck));
+    return this;
+  }
+
+  private void _addPhase (@Nonnull final AbstractPhase aPhase)
+  {
+    final AbstractPhase aLast = m_aPhases.getLast ();
+    if (aLast != null)
+      aLast.m_aNext = aPhase;
+    m_aPhases.add (aPhase);
+  }
+
+  private void _finish (@Nonnull final DATATYPE aObject)
+  {
+    try
+    {
+      m_aFinisher.accept (aObject);
+    }
+    catch (final RuntimeException ex)
+    {
+      LOGGER.error ("Failed to finish pipeline processing of " + aObject, ex);
+    }
+  }
+
+  private void _handOver (@Nonnull final AbstractPhase aPhase, @Nonnull final DATATYPE aObject)
+  {
+    try
+    {
+      aPhase.handOver (aObject);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // Aborted objects are dropped silently
+      if (m_bAborted)
+        return;
+      m_aExceptionHandler.accept (aObject, ex);
+      _finish (aObject);
+    }
+  }
+
+  private void _continue (@Nonnull final AbstractPhase aPhase,
+                          @Nonnull final DATATYPE aObject,
+                          final boolean bContinue)
+  {
+    final AbstractPhase aNext = aPhase.m_aNext;
+    if (bContinue && aNext != null)
+      _handOver (aNext, aObject);
+    else
+      _finish (aObject);
+  }
+
+  private void _run (@Nonnull final SinglePhase aPhase, @Nonnull final DATATYPE aObject)
+  {
+    boolean bContinue;
+    try
+    {
+      bContinue = aPhase.m_aFunction.process (aObject);
+    }
+    catch (final Exception ex)
+    {
+      // Most likely interrupted by the abort
+      if (m_bAborted)
+        return;
+      m_aExceptionHandler.accept (aObject, ex);
+      bContinue = false;
+    }
+    _continue (aPhase, aObject, bContinue);
+  }
+
+  private void _runBatch (@Nonnull final BatchPhase aPhase, @Nonnull final ICommonsList <DATATYPE> aBatch)
+  {
+    boolean bSuccess;
+    try
+    {
+      aPhase.m_aFunction.process (aBatch);
+      bSuccess = true;
+    }
+    catch (final Exception ex)
+    {
+      // Most likely interrupted by the abort
+      if (m_bAborted)
+        return;
+      for (final DATATYPE aObject : aBatch)
+        m_aExceptionHandler.accept (aObject, ex);
+      bSuccess = false;
+    }
+    for (final DATATYPE aObject : aBatch)
+      _continue (aPhase, aObject, bSuccess && aPhase.m_aContinueCheck.test (aObject));
+  }
+
+  /**
+   * Submit a new object to the first phase of the pipeline. If the queue of the
+   * first phase is full, this method blocks until there is room.
+   *
+   * @param aObject
+   *        The object to be processed. May not be <code>null</code>.
+   * @throws IllegalStateException
+   *         If no phase was added
+   */
+  void submit (@Nonnull final DATATYPE aObject)
+  {
+    ValueEnforcer.notNull (aObject, "Object");
+    final AbstractPhase aFirst = m_aPhases.getFirst ();
+    if (aFirst == null)
+      throw new IllegalStateException ("The pipeline has no phases");
+    _handOver (aFirst, aObject);
+  }
+
+  /**
+   * @return The statistics of all phases in processing order. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <IMPPipelinePhaseStatistics> getAllPhaseStatistics ()
+  {
+    return new CommonsArrayList <> (m_aPhases);
+  }
+
+  /**
+   * @param sID
+   *        The phase ID to search. May be <code>null</code>.
+   * @return The statistics of the phase with the provided ID or
+   *         <code>null</code> if no such phase exists.
+   */
+  @Nullable
+  IMPPipelinePhaseStatistics getPhaseStatistics (@Nullable final String sID)
+  {
+    return m_aPhases.findFirst (x -> x.getPhaseID ().equals (sID));
+  }
+
+  /**
+   * Shutdown all phases in processing order and wait until all submitted
+   * objects are finished. No further objects may be submitted afterwards.
+   */
+  void shutdownAndWaitUntilAllTasksAreFinished ()
+  {
+    // A phase only hands over to later phases, so when a phase is terminated
+    // nothing new can arrive in the next phase
+    for (final AbstractPhase aPhase : m_aPhases)
+      aPhase.shutdownAndWaitUntilAllTasksAreFinished ();
+  }
+
+  /**
+   * Stop all phases without waiting. Queued objects are dropped and running
+   * phases are interrupted. Neither the exception handler nor the finisher is
+   * invoked for the objects that are dropped or that fail because of the
+   * interruption. No further objects may be submitted afterwards.
+   */
+  void abort ()
+  {
+    m_bAborted = true;
+    for (final AbstractPhase aPhase : m_aPhases)
+      aPhase.abort ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Phases", m_aPhases.getAllMapped (AbstractPhase::getPhaseID)).getToString ();
+  }
+}
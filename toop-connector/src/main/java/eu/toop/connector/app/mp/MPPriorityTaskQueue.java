@@ -0,0 +1,396 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * An unbounded task queue for thread pool executors with one FIFO lane per
+ * {@link EMPPriority}. Tasks are taken from the lane with the highest
+ * priority. To avoid starvation, a non-empty lane that was skipped the
+ * configured number of times in a row is served next, regardless of its
+ * priority.<br>
+ * Tasks that are not wrapped in a {@link PrioritizedRunnable} are put in the
+ * lane with the lowest priority.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@ThreadSafe
+final class MPPriorityTaskQueue extends AbstractQueue <Runnable> implements BlockingQueue <Runnable>
+{
+  /**
+   * A task together with its priority.
+   */
+  static final class PrioritizedRunnable implements Runnable
+  {
+    private final EMPPriority m_ePriority;
+    private final Runnable m_aTask;
+
+    PrioritizedRunnable (@Nonnull final EMPPriority ePriority, @Nonnull final Runnable aTask)
+    {
+      ValueEnforcer.notNull (ePriority, "Priority");
+      ValueEnforcer.notNull (aTask, "Task");
+      m_ePriority = ePriority;
+      m_aTask = aTask;
+    }
+
+    @Nonnull
+    EMPPriority getPriority ()
+    {
+      return m_ePriority;
+    }
+
+    @Nonnull
+    Runnable getTask ()
+    {
+      return m_aTask;
+    }
+
+    public void run ()
+    {
+      m_aTask.run ();
+    }
+  }
+
+  private static final EMPPriority [] LANES = EMPPriority.values ();
+  private static final EMPPriority DEFAULT_LANE = LANES[LANES.length - 1];
+
+  private final int m_nStarvationLimit;
+  private final ReentrantLock m_aLock = new ReentrantLock ();
+  private final Condition m_aNotEmpty = m_aLock.newCondition ();
+  @GuardedBy ("m_aLock")
+  private final Deque <Runnable> [] m_aLanes;
+  // Number of times in a row a non-empty lane was skipped
+  @GuardedBy ("m_aLock")
+  private final int [] m_aSkipCounts = new int [LANES.length];
+  @GuardedBy ("m_aLock")
+  private int m_nSize = 0;
+  @GuardedBy ("m_aLock")
+  private long m_nStarvationCount = 0;
+
+  /**
+   * Constructor
+   *
+   * @param nStarvationLimit
+   *        The number of times a non-empty lane may be skipped in favour of a
+   *        lane with a higher priority, before it is served. Must be &gt; 0.
+   */
+  @SuppressWarnings ("unchecked")
+  MPPriorityTaskQueue (@Nonnegative final int nStarvationLimit)
+  {
+    ValueEnforcer.isGT0 (nStarvationLimit, "StarvationLimit");
+    m_nStarvationLimit = nStarvationLimit;
+    m_aLanes = new Deque [LANES.length];
+    for (int i = 0; i < LANES.length; ++i)
+      m_aLanes[i] = new ArrayDeque <> ();
+  }
+
+  @Nonnull
+  private static EMPPriority _getLane (@Nonnull final Runnable aTask)
+  {
+    return aTask instanceof PrioritizedRunnable ? ((PrioritizedRunnable) aTask).getPriority () : DEFAULT_LANE;
+  }
+
+  @Nullable
+  @GuardedBy ("m_aLock")
+  private Runnable _dequeue ()
+  {
+    if (m_nSize == 0)
+      return null;
+
+    // A starving lane is served first
+    int nLane = -1;
+    for (int i = 0; i < LANES.length; ++i)
+      if (m_aSkipCounts[i] >= m_nStarvationLimit && !m_aLanes[i].isEmpty ())
+      {
+        nLane = i;
+        m_nStarvationCount++;
+        break;
+      }
+    if (nLane < 0)
+    {
+      // Highest priority first
+      for (int i = 0; i < LANES.length; ++i)
+        if (!m_aLanes[i].isEmpty ())
+        {
+          nLane = i;
+          break;
+        }
+    }
+
+    // All non-empty lanes with a lower priority were skipped
+    for (int i = nLane + 1; i < LANES.length; ++i)
+      if (!m_aLanes[i].isEmpty ())
+        m_aSkipCounts[i]++;
+    m_aSkipCounts[nLane] = 0;
+    m_nSize--;
+    return m_aLanes[nLane].pollFirst ();
+  }
+
+  public boolean offer (@Nonnull final Runnable aTask)
+  {
+    ValueEnforcer.notNull (aTask, "Task");
+    m_aLock.lock ();
+    try
+    {
+      m_aLanes[_getLane (aTask).ordinal ()].addLast (aTask);
+      m_nSize++;
+      m_aNotEmpty.signal ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+    return true;
+  }
+
+  public boolean offer (@Nonnull final Runnable aTask, final long nTimeout, @Nonnull final TimeUnit eUnit)
+  {
+    // Unbounded
+    return offer (aTask);
+  }
+
+  public void put (@Nonnull final Runnable aTask)
+  {
+    // Unbounded
+    offer (aTask);
+  }
+
+  @Nullable
+  public Runnable poll ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      return _dequeue ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Nullable
+  public Runnable poll (final long nTimeout, @Nonnull final TimeUnit eUnit) throws InterruptedException
+  {
+    long nNanos = eUnit.toNanos (nTimeout);
+    m_aLock.lockInterruptibly ();
+    try
+    {
+      Runnable ret;
+      while ((ret = _dequeue ()) == null)
+      {
+        if (nNanos <= 0)
+          return null;
+        nNanos = m_aNotEmpty.awaitNanos (nNanos);
+      }
+      return ret;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Nonnull
+  public Runnable take () throws InterruptedException
+  {
+    m_aLock.lockInterruptibly ();
+    try
+    {
+      Runnable ret;
+      while ((ret = _dequeue ()) == null)
+        m_aNotEmpty.await ();
+      return ret;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Nullable
+  public Runnable peek ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      for (final Deque <Runnable> aLane : m_aLanes)
+        if (!aLane.isEmpty ())
+          return aLane.peekFirst ();
+      return null;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Override
+  public boolean remove (@Nullable final Object aObj)
+  {
+    if (aObj == null)
+      return false;
+    m_aLock.lock ();
+    try
+    {
+      for (final Deque <Runnable> aLane : m_aLanes)
+        if (aLane.remove (aObj))
+        {
+          m_nSize--;
+          return true;
+        }
+      return false;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Nonnegative
+  public int remainingCapacity ()
+  {
+    return Integer.MAX_VALUE;
+  }
+
+  public int drainTo (@Nonnull final Collection <? super Runnable> aTarget)
+  {
+    return drainTo (aTarget, Integer.MAX_VALUE);
+  }
+
+  public int drainTo (@Nonnull final Collection <? super Runnable> aTarget, final int nMaxElements)
+  {
+    ValueEnforcer.notNull (aTarget, "Target");
+    m_aLock.lock ();
+    try
+    {
+      int ret = 0;
+      Runnable aTask;
+      while (ret < nMaxElements && (aTask = _dequeue ()) != null)
+      {
+        aTarget.add (aTask);
+        ret++;
+      }
+      return ret;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Nonnull
+  @Override
+  public Iterator <Runnable> iterator ()
+  {
+    // Snapshot in processing order of the lanes
+    final ICommonsList <Runnable> ret = new CommonsArrayList <> ();
+    m_aLock.lock ();
+    try
+    {
+      for (final Deque <Runnable> aLane : m_aLanes)
+        ret.addAll (aLane);
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+    return Collections.unmodifiableList (ret).iterator ();
+  }
+
+  @Override
+  @Nonnegative
+  public int size ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      return m_nSize;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @param ePriority
+   *        The lane to query. May not be <code>null</code>.
+   * @return The number of tasks waiting in the provided lane. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getLaneSize (@Nonnull final EMPPriority ePriority)
+  {
+    ValueEnforcer.notNull (ePriority, "Priority");
+    m_aLock.lock ();
+    try
+    {
+      return m_aLanes[ePriority.ordinal ()].size ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @return The number of times a lane was served because it was starving.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public long getStarvationCount ()
+  {
+    m_aLock.lock ();
+    try
+    {
+      return m_nStarvationCount;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("StarvationLimit", m_nStarvationLimit)
+                                       .append ("Size", size ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,322 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.schematron.svrl.AbstractSVRLMessage;
+
+import eu.toop.connector.api.ETCSchematronMode;
+import eu.toop.connector.api.TCConfig;
+import eu.toop.kafkaclient.ToopKafkaClient;
+
+/**
+ * Decides which messages are validated with Schematron in steps 1/4 and 3/4,
+ * and runs the validations of the {@link ETCSchematronMode#SHADOW} mode. The
+ * sampling is deterministic: with a percentage of e.g. 25 exactly every fourth
+ * message is selected. Shadow validations run on a single low priority thread
+ * with a bounded queue - if the queue is full, the message is not validated.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@ThreadSafe
+public final class MPSchematronSampler
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MPSchematronSampler.class);
+
+  /**
+   * Lazily created instance, as it depends on the configuration.
+   */
+  private static final class SingletonHolder
+  {
+    static final MPSchematronSampler INSTANCE = new MPSchematronSampler (TCConfig.getMPSchematronMode (),
+                                                                         TCConfig.getMPSchematronSamplePercentage (),
+                                                                         TCConfig.getMPSchematronShadowQueueSize ());
+  }
+
+  private final ETCSchematronMode m_eMode;
+  private final double m_dSamplePercentage;
+  private final AtomicLong m_aMessageCount = new AtomicLong (0);
+  private final LongAdder m_aSelectedCount = new LongAdder ();
+  private final LongAdder m_aSkippedCount = new LongAdder ();
+  // Only present in shadow mode
+  private final ThreadPoolExecutor m_aShadowExecutor;
+  private final LongAdder m_aShadowDroppedCount = new LongAdder ();
+  private final LongAdder m_aShadowValidatedCount = new LongAdder ();
+  private final LongAdder m_aShadowFailedCount = new LongAdder ();
+  private final LongAdder m_aShadowViolationCount = new LongAdder ();
+  private final LongAdder m_aShadowErrorCount = new LongAdder ();
+
+  public MPSchematronSampler (@Nonnull final ETCSchematronMode eMode,
+                              final double dSamplePercentage,
+                              @Nonnegative final int nShadowQueueSize)
+  {
+    ValueEnforcer.notNull (eMode, "Mode");
+    ValueEnforcer.isBetweenInclusive (dSamplePercentage, "SamplePercentage", 0, 100);
+    ValueEnforcer.isGT0 (nShadowQueueSize, "ShadowQueueSize");
+    m_eMode = eMode;
+    m_dSamplePercentage = eMode.isSampling () ? dSamplePercentage : 100;
+    if (eMode == ETCSchematronMode.SHADOW)
+    {
+      m_aShadowExecutor = new ThreadPoolExecutor (1,
+                                                  1,
+                                                  0,
+                                                  TimeUnit.MILLISECONDS,
+                                                  new ArrayBlockingQueue <> (nShadowQueueSize),
+                                                  new BasicThreadFactory.Builder ().setNamingPattern ("TC-Schematron-Shadow-%d")
+                                                                                   .setDaemon (true)
+                                                                                   .setPriority (Thread.MIN_PRIORITY)
+                                                                                   .build ());
+    }
+    else
+      m_aShadowExecutor = null;
+  }
+
+  /**
+   * @return The global instance configured via {@link TCConfig}. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static MPSchematronSampler getInstance ()
+  {
+    return SingletonHolder.INSTANCE;
+  }
+
+  /**
+   * @return The mode in use. Never <code>null</code>.
+   */
+  @Nonnull
+  public ETCSchematronMode getMode ()
+  {
+    return m_eMode;
+  }
+
+  /**
+   * @return The percentage of messages that are validated. Between 0 and 100.
+   */
+  public double getSamplePercentage ()
+  {
+    return m_dSamplePercentage;
+  }
+
+  /**
+   * Decide whether the next message should be validated. Must be called
+   * exactly once per message.
+   *
+   * @return <code>true</code> if the message should be validated.
+   */
+  public boolean isNextMessageSelected ()
+  {
+    if (!m_eMode.isEnabled ())
+      return false;
+
+    // Selected, if the number of messages to validate grows with this message
+    final long nMessage = m_aMessageCount.incrementAndGet ();
+    final boolean bSelected = (long) (nMessage * m_dSamplePercentage / 100) > (long) ((nMessage - 1) *
+                                                                                      m_dSamplePercentage /
+                                                                                      100);
+    if (bSelected)
+      m_aSelectedCount.increment ();
+    else
+      m_aSkippedCount.increment ();
+    return bSelected;
+  }
+
+  /**
+   * Run a validation in the background. Violations and errors are only
+   * reported to the tracker and the statistics, they have no effect on the
+   * message.
+   *
+   * @param sLogPrefix
+   *        The log prefix of the message. May not be <code>null</code>.
+   * @param aValidation
+   *        The validation to run. It may not access objects that are still
+   *        modified by the message processing. May not be <code>null</code>.
+   * @return <code>true</code> if the validation was queued, <code>false</code>
+   *         if the queue is full.
+   * @throws IllegalStateException
+   *         If the mode is not {@link ETCSchematronMode#SHADOW}
+   */
+  public boolean validateInShadow (@Nonnull final String sLogPrefix,
+                                   @Nonnull final Supplier <? extends ICommonsList <AbstractSVRLMessage>> aValidation)
+  {
+    ValueEnforcer.notNull (sLogPrefix, "LogPrefix");
+    ValueEnforcer.notNull (aValidation, "Validation");
+    if (m_aShadowExecutor == null)
+      throw new IllegalStateException ("Schematron mode " + m_eMode.getID () + " has no shadow validation");
+
+    try
+    {
+      m_aShadowExecutor.execute ( () -> _runShadowValidation (sLogPrefix, aValidation));
+      return true;
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // Queue is full or shutdown
+      m_aShadowDroppedCount.increment ();
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug (sLogPrefix + "Shadow Schematron validation queue is full - not validating");
+      return false;
+    }
+  }
+
+  private void _runShadowValidation (@Nonnull final String sLogPrefix,
+                                     @Nonnull final Supplier <? extends ICommonsList <AbstractSVRLMessage>> aValidation)
+  {
+    try
+    {
+      final ICommonsList <AbstractSVRLMessage> aMsgs = aValidation.get ();
+      m_aShadowValidatedCount.increment ();
+      if (aMsgs != null && aMsgs.isNotEmpty ())
+      {
+        m_aShadowFailedCount.increment ();
+        m_aShadowViolationCount.add (aMsgs.size ());
+        for (final AbstractSVRLMessage aMsg : aMsgs)
+          ToopKafkaClient.send (aMsg.getFlag ().isError () ? EErrorLevel.WARN : EErrorLevel.INFO,
+                                () -> sLogPrefix +
+                                      "[Shadow Schematron] [" +
+                                      aMsg.getLocation () +
+                                      "] [Test: " +
+                                      aMsg.getTest () +
+                                      "] " +
+                                      aMsg.getText ());
+      }
+    }
+    catch (final RuntimeException ex)
+    {
+      m_aShadowErrorCount.increment ();
+      ToopKafkaClient.send (EErrorLevel.WARN, () -> sLogPrefix + "Shadow Schematron validation failed", ex);
+    }
+  }
+
+  /**
+   * Stop the shadow validation. Queued validations are discarded, as they only
+   * serve statistical purposes.
+   */
+  public void shutdown ()
+  {
+    if (m_aShadowExecutor != null)
+    {
+      final int nDiscarded = m_aShadowExecutor.shutdownNow ().size ();
+      if (nDiscarded > 0)
+        LOGGER.info ("Discarded " + nDiscarded + " queued shadow Schematron validations");
+    }
+  }
+
+  /**
+   * @return The number of messages selected for validation.
+   */
+  @Nonnegative
+  public long getSelectedCount ()
+  {
+    return m_aSelectedCount.sum ();
+  }
+
+  /**
+   * @return The number of messages not selected for validation.
+   */
+  @Nonnegative
+  public long getSkippedCount ()
+  {
+    return m_aSkippedCount.sum ();
+  }
+
+  /**
+   * @return The number of shadow validations currently queued.
+   */
+  @Nonnegative
+  public int getShadowQueueLength ()
+  {
+    return m_aShadowExecutor == null ? 0 : m_aShadowExecutor.getQueue ().size ();
+  }
+
+  /**
+   * @return The number of shadow validations not performed because the queue
+   *         was full.
+   */
+  @Nonnegative
+  public long getShadowDroppedCount ()
+  {
+    return m_aShadowDroppedCount.sum ();
+  }
+
+  /**
+   * @return The number of completed shadow validations.
+   */
+  @Nonnegative
+  public long getShadowValidatedCount ()
+  {
+    return m_aShadowValidatedCount.sum ();
+  }
+
+  /**
+   * @return The number of messages with at least one violation in the shadow
+   *         validation.
+   */
+  @Nonnegative
+  public long getShadowFailedCount ()
+  {
+    return m_aShadowFailedCount.sum ();
+  }
+
+  /**
+   * @return The total number of violations found in the shadow validation.
+   */
+  @Nonnegative
+  public long getShadowViolationCount ()
+  {
+    return m_aShadowViolationCount.sum ();
+  }
+
+  /**
+   * @return The number of shadow validations that could not be performed
+   *         because of an error.
+   */
+  @Nonnegative
+  public long getShadowErrorCount ()
+  {
+    return m_aShadowErrorCount.sum ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Mode", m_eMode)
+                                       .append ("SamplePercentage", m_dSamplePercentage)
+                                       .append ("SelectedCount", getSelectedCount ())
+                                       .append ("SkippedCount", getSkippedCount ())
+                                       .getToString ();
+  }
+}
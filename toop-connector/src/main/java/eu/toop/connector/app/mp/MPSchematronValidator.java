@@ -0,0 +1,340 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.CheckForSigned;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.pool.ObjectPool;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.timing.StopWatch;
+import com.helger.schematron.svrl.AbstractSVRLMessage;
+import com.helger.schematron.svrl.SVRLHelper;
+import com.helger.schematron.svrl.SVRLMarshaller;
+import com.helger.schematron.svrl.jaxb.SchematronOutputType;
+import com.helger.schematron.xslt.SchematronProviderXSLTPrebuild;
+import com.helger.xml.EXMLParserFeature;
+import com.helger.xml.XMLFactory;
+import com.helger.xml.serialize.read.SAXReaderFactory;
+import com.helger.xml.transform.LoggingTransformErrorListener;
+
+import eu.toop.commons.schematron.TOOPSchematron140Validator;
+import eu.toop.connector.api.TCConfig;
+
+/**
+ * The Schematron validator used in steps 1/4 and 3/4. In contrast to
+ * {@link TOOPSchematron140Validator} the XSLT is compiled only once, and the
+ * transformers created from it are kept in a pool, so that a validation only
+ * costs the transformation itself. At most as many validations as the pool
+ * size run concurrently - further callers wait for a free transformer.<br>
+ * The XSLT is compiled on first use, or in advance via {@link #warmUp()}.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@ThreadSafe
+public final class MPSchematronValidator
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MPSchematronValidator.class);
+
+  /**
+   * Lazily created instance, as it depends on the configuration.
+   */
+  private static final class SingletonHolder
+  {
+    static final MPSchematronValidator INSTANCE = new MPSchematronValidator (TOOPSchematron140Validator.TOOP_140_SCHEMATRON_RES_XSLT,
+                                                                             TCConfig.getMPSchematronPoolSize ());
+  }
+
+  private final IReadableResource m_aXSLTRes;
+  private final int m_nPoolSize;
+  private volatile ObjectPool <Transformer> m_aPool;
+  private volatile long m_nCompileMillis = -1;
+  private final AtomicInteger m_aActiveCount = new AtomicInteger (0);
+  private final LongAdder m_aCreatedCount = new LongAdder ();
+  private final LongAdder m_aValidationCount = new LongAdder ();
+
+  /**
+   * Constructor
+   *
+   * @param aXSLTRes
+   *        The pre-built Schematron XSLT. May not be <code>null</code>.
+   * @param nPoolSize
+   *        The maximum number of transformers and therefore the maximum number
+   *        of concurrent validations. Must be &gt; 0.
+   */
+  public MPSchematronValidator (@Nonnull final IReadableResource aXSLTRes, @Nonnegative final int nPoolSize)
+  {
+    ValueEnforcer.notNull (aXSLTRes, "XSLTRes");
+    ValueEnforcer.isGT0 (nPoolSize, "PoolSize");
+    m_aXSLTRes = aXSLTRes;
+    m_nPoolSize = nPoolSize;
+  }
+
+  /**
+   * @return The validator for the TOOP 1.4.0 rules using the pool size from
+   *         the configuration. Never <code>null</code>.
+   */
+  @Nonnull
+  public static MPSchematronValidator getInstance ()
+  {
+    return SingletonHolder.INSTANCE;
+  }
+
+  @Nonnull
+  private Transformer _createTransformer (@Nonnull final SchematronProviderXSLTPrebuild aProvider)
+  {
+    try
+    {
+      final Transformer ret = aProvider.getXSLTTransformer ();
+      ret.setErrorListener (new LoggingTransformErrorListener (Locale.US));
+      m_aCreatedCount.increment ();
+      return ret;
+    }
+    catch (final TransformerConfigurationException ex)
+    {
+      throw new IllegalStateException ("Failed to create transformer for " + m_aXSLTRes.getPath (), ex);
+    }
+  }
+
+  @Nonnull
+  private ObjectPool <Transformer> _getPool ()
+  {
+    ObjectPool <Transformer> ret = m_aPool;
+    if (ret == null)
+    {
+      synchronized (this)
+      {
+        ret = m_aPool;
+        if (ret == null)
+        {
+          final StopWatch aSW = StopWatch.createdStarted ();
+          final SchematronProviderXSLTPrebuild aProvider = new SchematronProviderXSLTPrebuild (m_aXSLTRes, null, null);
+          if (!aProvider.isValidSchematron ())
+            throw new IllegalStateException ("Failed to compile Schematron/XSLT " + m_aXSLTRes.getPath ());
+          ret = new ObjectPool <> (m_nPoolSize, () -> _createTransformer (aProvider));
+          m_nCompileMillis = aSW.stopAndGetMillis ();
+          m_aPool = ret;
+          LOGGER.info ("Compiled Schematron/XSLT " + m_aXSLTRes.getPath () + " in " + m_nCompileMillis + " milliseconds");
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Compile the XSLT (if not yet done) and create all transformers of the
+   * pool.
+   */
+  public void warmUp ()
+  {
+    final ObjectPool <Transformer> aPool = _getPool ();
+    final ICommonsList <Transformer> aBorrowed = new CommonsArrayList <> (m_nPoolSize);
+    for (int i = 0; i < m_nPoolSize; ++i)
+      aBorrowed.add (aPool.borrowObject ());
+    aBorrowed.forEach (aPool::returnObject);
+  }
+
+  /**
+   * Run {@link #warmUp()} on a new daemon thread. Validations that are
+   * started in the meantime wait until the XSLT is compiled.
+   */
+  public void warmUpInBackground ()
+  {
+    final ThreadFactory aThreadFactory = new BasicThreadFactory.Builder ().setNamingPattern ("TC-Schematron-WarmUp-%d")
+                                                                          .setDaemon (true)
+                                                                          .build ();
+    aThreadFactory.newThread ( () -> {
+      try
+      {
+        warmUp ();
+      }
+      catch (final RuntimeException ex)
+      {
+        LOGGER.error ("Failed to warm up the Schematron validator", ex);
+      }
+    }).start ();
+  }
+
+  /**
+   * Validate the provided XML node.
+   *
+   * @param aNode
+   *        The node to validate. Usually a {@link Document}. May not be
+   *        <code>null</code>.
+   * @return All failed assertions and successful reports. Never
+   *         <code>null</code>.
+   * @throws IllegalStateException
+   *         If the XSLT cannot be compiled or the validation failed
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <AbstractSVRLMessage> validate (@Nonnull final Node aNode)
+  {
+    ValueEnforcer.notNull (aNode, "Node");
+    return _validate (new DOMSource (aNode));
+  }
+
+  /**
+   * Validate the provided serialized XML. The bytes are streamed into the
+   * transformation via SAX, so no DOM of the source is created. DOCTYPE
+   * declarations are not allowed.
+   *
+   * @param aXML
+   *        The XML bytes to validate. May not be <code>null</code>.
+   * @return All failed assertions and successful reports. Never
+   *         <code>null</code>.
+   * @throws IllegalStateException
+   *         If the XSLT cannot be compiled or the validation failed
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <AbstractSVRLMessage> validate (@Nonnull final byte [] aXML)
+  {
+    ValueEnforcer.notNull (aXML, "XML");
+
+    final XMLReader aXMLReader = SAXReaderFactory.createXMLReader ();
+    EXMLParserFeature.NAMESPACES.applyTo (aXMLReader, true);
+    EXMLParserFeature.DISALLOW_DOCTYPE_DECL.applyTo (aXMLReader, true);
+    return _validate (new SAXSource (aXMLReader, new InputSource (new NonBlockingByteArrayInputStream (aXML))));
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  private ICommonsList <AbstractSVRLMessage> _validate (@Nonnull final Source aSource)
+  {
+    final ObjectPool <Transformer> aPool = _getPool ();
+    final Transformer aTransformer = aPool.borrowObject ();
+    m_aActiveCount.incrementAndGet ();
+    try
+    {
+      final Document aSVRLDoc = XMLFactory.newDocument ();
+      aTransformer.transform (aSource, new DOMResult (aSVRLDoc));
+
+      // The SVRL is created by our own XSLT, so no need to validate it
+      final SchematronOutputType aSVRL = new SVRLMarshaller (false).read (aSVRLDoc);
+      if (aSVRL == null)
+        throw new IllegalStateException ("Failed to read the SVRL created by " + m_aXSLTRes.getPath ());
+      return SVRLHelper.getAllFailedAssertionsAndSuccessfulReports (aSVRL);
+    }
+    catch (final TransformerException ex)
+    {
+      throw new IllegalStateException ("Error applying SCH onto XML", ex);
+    }
+    finally
+    {
+      m_aValidationCount.increment ();
+      m_aActiveCount.decrementAndGet ();
+      // Don't leak parameters or output properties into the next validation.
+      // The error listener is not guaranteed to survive the reset.
+      aTransformer.reset ();
+      aTransformer.setErrorListener (new LoggingTransformErrorListener (Locale.US));
+      aPool.returnObject (aTransformer);
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the XSLT was already compiled.
+   */
+  public boolean isCompiled ()
+  {
+    return m_aPool != null;
+  }
+
+  /**
+   * @return The number of milliseconds it took to compile the XSLT or -1 if
+   *         it was not yet compiled.
+   */
+  @CheckForSigned
+  public long getCompileMillis ()
+  {
+    return m_nCompileMillis;
+  }
+
+  /**
+   * @return The maximum number of transformers. Always &gt; 0.
+   */
+  @Nonnegative
+  public int getPoolSize ()
+  {
+    return m_nPoolSize;
+  }
+
+  /**
+   * @return The number of transformers created so far. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getCreatedTransformerCount ()
+  {
+    return m_aCreatedCount.sum ();
+  }
+
+  /**
+   * @return The number of validations currently running. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getActiveCount ()
+  {
+    return m_aActiveCount.get ();
+  }
+
+  /**
+   * @return The number of validations performed so far, including the failed
+   *         ones. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getValidationCount ()
+  {
+    return m_aValidationCount.sum ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("XSLTRes", m_aXSLTRes)
+                                       .append ("PoolSize", m_nPoolSize)
+                                       .append ("Compiled", isCompiled ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The objects of all message processor stages that were not finished when the
+ * shutdown deadline was reached. The snapshot is written to a single file on
+ * shutdown and read on the next start, if no {@link MPJournal} is used. The
+ * file is written to a temporary file first and moved afterwards, so that a
+ * crash during writing never leaves a partial snapshot.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@NotThreadSafe
+public final class MPSnapshot
+{
+  private static final int FORMAT_VERSION = 1;
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+  private final ICommonsOrderedMap <EMPStage, ICommonsList <Serializable>> m_aObjects = new CommonsLinkedHashMap <> ();
+
+  public MPSnapshot ()
+  {}
+
+  /**
+   * Add objects of a stage.
+   *
+   * @param eStage
+   *        The stage the objects belong to. May not be <code>null</code>.
+   * @param aObjects
+   *        The objects to add in processing order. May not be
+   *        <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public MPSnapshot addAll (@Nonnull final EMPStage eStage, @Nonnull final Collection <? extends Serializable> aObjects)
+  {
+    ValueEnforcer.notNull (eStage, "Stage");
+    ValueEnforcer.notNull (aObjects, "Objects");
+    if (!aObjects.isEmpty ())
+      m_aObjects.computeIfAbsent (eStage, k -> new CommonsArrayList <> ()).addAll (aObjects);
+    return this;
+  }
+
+  /**
+   * @return The total number of objects in all stages. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getCount ()
+  {
+    int ret = 0;
+    for (final ICommonsList <Serializable> aList : m_aObjects.values ())
+      ret += aList.size ();
+    return ret;
+  }
+
+  public boolean isEmpty ()
+  {
+    return m_aObjects.isEmpty ();
+  }
+
+  /**
+   * Invoke the consumer for all objects, ordered by stage and within a stage
+   * in processing order.
+   *
+   * @param aConsumer
+   *        The consumer that takes the stage and the object. May not be
+   *        <code>null</code>.
+   */
+  public void forEach (@Nonnull final BiConsumer <? super EMPStage, ? super Serializable> aConsumer)
+  {
+    ValueEnforcer.notNull (aConsumer, "Consumer");
+    for (final Map.Entry <EMPStage, ICommonsList <Serializable>> aEntry : m_aObjects.entrySet ())
+      for (final Serializable aObject : aEntry.getValue ())
+        aConsumer.accept (aEntry.getKey (), aObject);
+  }
+
+  /**
+   * Write the snapshot to the provided file. An existing file is replaced.
+   *
+   * @param aFile
+   *        The file to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of an error
+   */
+  public void writeTo (@Nonnull final File aFile) throws IOException
+  {
+    ValueEnforcer.notNull (aFile, "File");
+
+    final File aTempFile = new File (aFile.getAbsolutePath () + TEMP_FILE_SUFFIX);
+    final File aParent = aTempFile.getParentFile ();
+    if (aParent != null)
+      Files.createDirectories (aParent.toPath ());
+    try (final ObjectOutputStream aOOS = new ObjectOutputStream (new BufferedOutputStream (Files.newOutputStream (aTempFile.toPath ()))))
+    {
+      aOOS.writeInt (FORMAT_VERSION);
+      aOOS.writeInt (m_aObjects.size ());
+      for (final Map.Entry <EMPStage, ICommonsList <Serializable>> aEntry : m_aObjects.entrySet ())
+      {
+        aOOS.writeUTF (aEntry.getKey ().getID ());
+        aOOS.writeInt (aEntry.getValue ().size ());
+        for (final Serializable aObject : aEntry.getValue ())
+          aOOS.writeObject (aObject);
+      }
+    }
+    Files.move (aTempFile.toPath (),
+                aFile.toPath (),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Read a snapshot from the provided file.
+   *
+   * @param aFile
+   *        The file to read from. May not be <code>null</code>.
+   * @return The read snapshot. Never <code>null</code>.
+   * @throws IOException
+   *         If the file cannot be read or is not a valid snapshot
+   */
+  @Nonnull
+  public static MPSnapshot readFrom (@Nonnull final File aFile) throws IOException
+  {
+    ValueEnforcer.notNull (aFile, "File");
+
+    final MPSnapshot ret = new MPSnapshot ();
+    try (final ObjectInputStream aOIS = new ObjectInputStream (new BufferedInputStream (Files.newInputStream (aFile.toPath ()))))
+    {
+      final int nVersion = aOIS.readInt ();
+      if (nVersion != FORMAT_VERSION)
+        throw new IOException ("Unsupported MP snapshot format version " + nVersion);
+      final int nStageCount = aOIS.readInt ();
+      for (int i = 0; i < nStageCount; ++i)
+      {
+        final String sStageID = aOIS.readUTF ();
+        final EMPStage eStage = EMPStage.getFromIDOrNull (sStageID);
+        if (eStage == null)
+          throw new IOException ("Unsupported MP stage '" + sStageID + "' in snapshot");
+        final int nObjectCount = aOIS.readInt ();
+        final ICommonsList <Serializable> aObjects = new CommonsArrayList <> (nObjectCount);
+        for (int j = 0; j < nObjectCount; ++j)
+          aObjects.add ((Serializable) aOIS.readObject ());
+        ret.addAll (eStage, aObjects);
+      }
+    }
+    catch (final ClassNotFoundException | ClassCastException ex)
+    {
+      throw new IOException ("Failed to read MP snapshot from '" + aFile.getAbsolutePath () + "'", ex);
+    }
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Objects", m_aObjects).getToString ();
+  }
+}
@@ -0,0 +1,813 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import javax.annotation.CheckForSigned;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.collector.IConcurrentPerformer;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+import eu.toop.connector.api.TCConfig;
+
+/**
+ * The executor of a single message processor stage. It runs the provided
+ * performer either on a configurable number of own worker threads or on a
+ * thread pool shared by all stages (see {@link EMPExecutionMode}). Objects
+ * that have the
+ * same ordering key are guaranteed to be performed one after the other in the
+ * order they were queued. Objects without an ordering key are performed in
+ * parallel without any ordering guarantee.<br>
+ * If an {@link MPJournal} is configured in {@link MPConfig}, every object is
+ * persisted before it is queued and acknowledged after it was performed.<br>
+ * The performer may finish an object asynchronously (see
+ * {@link IMPStagePerformer}). In that case the ordering guarantee only covers
+ * the start of processing, and an object counts as performed when the
+ * performer invoked the done callback.<br>
+ * Objects from external callers can be queued via
+ * {@link #queueObjectBounded(Serializable)} which rejects objects while the
+ * queue is saturated. The queue is saturated when the high watermark is
+ * reached, and it stays saturated until the queue length drops to the low
+ * watermark.<br>
+ * Every object is queued with an {@link EMPPriority}. Waiting objects with a
+ * higher priority are started first (see {@link MPPriorityTaskQueue}). For
+ * objects with an ordering key the priority of the first object of a key
+ * applies to all objects of that key that are queued while it is processed.<br>
+ * On shutdown the executor can wait for a deadline (see
+ * {@link #shutdownAndWaitUntil(long)}). Objects that are not performed until
+ * then are returned to the caller, so that they can be kept for the next
+ * start.
+ *
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The data type to be processed
+ * @since 0.10.9
+ */
+@ThreadSafe
+final class MPStageExecutor <DATATYPE extends Serializable> implements IMPStageStatistics
+{
+  /** The maximum value returned by {@link #getRetryAfterSeconds()} */
+  public static final long MAX_RETRY_AFTER_SECONDS = 120;
+
+  /** The deadline value to wait until all objects are performed */
+  public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (MPStageExecutor.class);
+  private static final long DRAIN_RATE_SAMPLE_NANOS = TimeUnit.SECONDS.toNanos (1);
+
+  @GuardedBy ("MPStageExecutor.class")
+  private static ExecutorService s_aSharedExecutorPool;
+
+  private final EMPStage m_eStage;
+  private final int m_nWorkerCount;
+  private final int m_nHighWatermark;
+  private final int m_nLowWatermark;
+  private final Function <? super DATATYPE, String> m_aOrderingKeyFct;
+  private final IMPStagePerformer <DATATYPE> m_aPerformer;
+  private final ExecutorService m_aExecutorPool;
+  private final boolean m_bSharedExecutorPool;
+  private final AtomicInteger m_aQueuedCount = new AtomicInteger (0);
+  private final AtomicInteger m_aActiveCount = new AtomicInteger (0);
+  // Number of queued but not yet started objects per priority
+  private final AtomicInteger [] m_aQueuedCountPerPriority;
+  // Accepted but not yet performed objects by their sequence number
+  @GuardedBy ("m_aOutstandingLock")
+  private final ICommonsOrderedMap <Long, DATATYPE> m_aOutstanding = new CommonsLinkedHashMap <> ();
+  private final Object m_aOutstandingLock = new Object ();
+  private final AtomicLong m_aSequence = new AtomicLong (0);
+  private final AtomicBoolean m_aStopped = new AtomicBoolean (false);
+  private final AtomicBoolean m_aAborted = new AtomicBoolean (false);
+  private final AtomicBoolean m_aSaturated = new AtomicBoolean (false);
+  private final AtomicLong m_aRejectedCount = new AtomicLong (0);
+  private final AtomicLong m_aCompletedCount = new AtomicLong (0);
+
+  // Drain rate sampling
+  @GuardedBy ("m_aDrainRateLock")
+  private long m_nDrainRateSampleNanos = System.nanoTime ();
+  @GuardedBy ("m_aDrainRateLock")
+  private long m_nDrainRateSampleCompleted = 0;
+  @GuardedBy ("m_aDrainRateLock")
+  private double m_dDrainRate = 0;
+  private final Object m_aDrainRateLock = new Object ();
+
+  // Map from ordering key to the objects waiting for the currently running one
+  @GuardedBy ("m_aKeyedQueues")
+  private final ICommonsMap <String, Deque <Runnable>> m_aKeyedQueues = new CommonsHashMap <> ();
+  @GuardedBy ("m_aKeyedQueues")
+  private int m_nKeyedWaitingCount = 0;
+
+  /**
+   * Constructor
+   *
+   * @param eStage
+   *        The stage this executor belongs to. May not be <code>null</code>.
+   * @param nWorkerCount
+   *        The number of worker threads to use. If a shared executor is
+   *        provided, this is the maximum concurrency of the shared executor.
+   *        Must be &gt; 0.
+   * @param nHighWatermark
+   *        The queue length at which bounded queuing is rejected. Use 0 for an
+   *        unbounded queue. Must be &ge; 0.
+   * @param nLowWatermark
+   *        The queue length at which a saturated queue accepts bounded queuing
+   *        again. Must be &ge; 0 and &lt; the high watermark if the high
+   *        watermark is &gt; 0.
+   * @param aOrderingKeyFct
+   *        The function to extract the ordering key from an object. May not be
+   *        <code>null</code>. If the function returns <code>null</code> or an
+   *        empty string, the object is performed without ordering guarantee.
+   * @param aPerformer
+   *        The performer that does the main work. It is invoked concurrently
+   *        and must therefore be thread-safe. May not be <code>null</code>.
+   * @param aSharedExecutorPool
+   *        The executor shared by all stages. If <code>null</code> an own
+   *        fixed pool with the provided number of worker threads is created.
+   */
+  MPStageExecutor (@Nonnull final EMPStage eStage,
+                   @Nonnegative final int nWorkerCount,
+                   @Nonnegative final int nHighWatermark,
+                   @Nonnegative final int nLowWatermark,
+                   @Nonnull final Function <? super DATATYPE, String> aOrderingKeyFct,
+                   @Nonnull final IConcurrentPerformer <DATATYPE> aPerformer,
+                   @Nullable final ExecutorService aSharedExecutorPool)
+  {
+    this (eStage,
+          nWorkerCount,
+          nHighWatermark,
+          nLowWatermark,
+          aOrderingKeyFct,
+          IMPStagePerformer.createSynchronous (aPerformer),
+          aSharedExecutorPool);
+  }
+
+  /**
+   * Constructor for a performer that may finish the processing
+   * asynchronously.
+   *
+   * @param eStage
+   *        The stage this executor belongs to. May not be <code>null</code>.
+   * @param nWorkerCount
+   *        The number of worker threads to use. Must be &gt; 0.
+   * @param nHighWatermark
+   *        The queue length at which bounded queuing is rejected. Use 0 for an
+   *        unbounded queue. Must be &ge; 0.
+   * @param nLowWatermark
+   *        The queue length at which a saturated queue accepts bounded queuing
+   *        again. Must be &ge; 0.
+   * @param aOrderingKeyFct
+   *        The function to extract the ordering key from an object. May not be
+   *        <code>null</code>.
+   * @param aPerformer
+   *        The performer that does the main work. It is invoked concurrently
+   *        and must therefore be thread-safe. May not be <code>null</code>.
+   * @param aSharedExecutorPool
+   *        The executor shared by all stages. May be <code>null</code>.
+   */
+  MPStageExecutor (@Nonnull final EMPStage eStage,
+                   @Nonnegative final int nWorkerCount,
+                   @Nonnegative final int nHighWatermark,
+                   @Nonnegative final int nLowWatermark,
+                   @Nonnull final Function <? super DATATYPE, String> aOrderingKeyFct,
+                   @Nonnull final IMPStagePerformer <DATATYPE> aPerformer,
+                   @Nullable final ExecutorService aSharedExecutorPool)
+  {
+    ValueEnforcer.notNull (eStage, "Stage");
+    ValueEnforcer.isGT0 (nWorkerCount, "WorkerCount");
+    ValueEnforcer.isGE0 (nHighWatermark, "HighWatermark");
+    ValueEnforcer.isGE0 (nLowWatermark, "LowWatermark");
+    if (nHighWatermark > 0)
+      ValueEnforcer.isTrue (nLowWatermark < nHighWatermark, "LowWatermark must be lower than HighWatermark");
+    ValueEnforcer.notNull (aOrderingKeyFct, "OrderingKeyFct");
+    ValueEnforcer.notNull (aPerformer, "Performer");
+    m_eStage = eStage;
+    m_nWorkerCount = nWorkerCount;
+    m_nHighWatermark = nHighWatermark;
+    m_nLowWatermark = nLowWatermark;
+    m_aOrderingKeyFct = aOrderingKeyFct;
+    m_aPerformer = aPerformer;
+    m_aQueuedCountPerPriority = new AtomicInteger [EMPPriority.values ().length];
+    for (int i = 0; i < m_aQueuedCountPerPriority.length; ++i)
+      m_aQueuedCountPerPriority[i] = new AtomicInteger (0);
+
+    if (aSharedExecutorPool != null)
+    {
+      m_aExecutorPool = aSharedExecutorPool;
+      m_bSharedExecutorPool = true;
+    }
+    else
+    {
+      // Just to have custom named threads....
+      final ThreadFactory aThreadFactory = new BasicThreadFactory.Builder ().setNamingPattern (eStage.getThreadNamePrefix () +
+                                                                                             "-%d")
+                                                                            .setDaemon (true)
+                                                                            .build ();
+      m_aExecutorPool = new ThreadPoolExecutor (nWorkerCount,
+                                                nWorkerCount,
+                                                0L,
+                                                TimeUnit.MILLISECONDS,
+                                                new MPPriorityTaskQueue (TCConfig.getMPPriorityStarvationLimit ()),
+                                                aThreadFactory);
+      m_bSharedExecutorPool = false;
+    }
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Created MP stage executor for step " +
+                    eStage.getStep () +
+                    " with " +
+                    nWorkerCount +
+                    (m_bSharedExecutorPool ? " shared" : "") +
+                    " worker(s) and high watermark " +
+                    nHighWatermark);
+  }
+
+  /**
+   * Get the executor that is shared by all stages in execution mode
+   * {@link EMPExecutionMode#THREAD_PER_TASK}. It creates threads on demand up
+   * to the configured maximum concurrency and lets idle threads die.
+   *
+   * @return The shared executor. Never <code>null</code>.
+   */
+  @Nonnull
+  static synchronized ExecutorService getSharedExecutorPool ()
+  {
+    if (s_aSharedExecutorPool == null)
+    {
+      final int nMaxConcurrency = TCConfig.getMPMaxConcurrency ();
+      final ThreadFactory aThreadFactory = new BasicThreadFactory.Builder ().setNamingPattern ("MP-Task-%d")
+                                                                            .setDaemon (true)
+                                                                            .build ();
+      final ThreadPoolExecutor aTPE = new ThreadPoolExecutor (nMaxConcurrency,
+                                                              nMaxConcurrency,
+                                                              60L,
+                                                              TimeUnit.SECONDS,
+                                                              new MPPriorityTaskQueue (TCConfig.getMPPriorityStarvationLimit ()),
+                                                              aThreadFactory);
+      aTPE.allowCoreThreadTimeOut (true);
+      s_aSharedExecutorPool = aTPE;
+    }
+    return s_aSharedExecutorPool;
+  }
+
+  /**
+   * Create a new stage executor using the settings from the configuration
+   * file.
+   *
+   * @param eStage
+   *        The stage to create the executor for. May not be <code>null</code>.
+   * @param aOrderingKeyFct
+   *        The function to extract the ordering key from an object. May not be
+   *        <code>null</code>.
+   * @param aPerformer
+   *        The performer that does the main work. May not be
+   *        <code>null</code>.
+   * @return The new executor. Never <code>null</code>.
+   * @param <T>
+   *        The data type to be processed
+   */
+  @Nonnull
+  static <T extends Serializable> MPStageExecutor <T> createFromConfig (@Nonnull final EMPStage eStage,
+                                                                        @Nonnull final Function <? super T, String> aOrderingKeyFct,
+                                                                        @Nonnull final IConcurrentPerformer <T> aPerformer)
+  {
+    return createFromConfig (eStage, aOrderingKeyFct, IMPStagePerformer.createSynchronous (aPerformer));
+  }
+
+  /**
+   * Create a new stage executor for a performer that may finish the
+   * processing asynchronously, using the settings from the configuration file.
+   *
+   * @param eStage
+   *        The stage to create the executor for. May not be <code>null</code>.
+   * @param aOrderingKeyFct
+   *        The function to extract the ordering key from an object. May not be
+   *        <code>null</code>.
+   * @param aPerformer
+   *        The performer that does the main work. May not be
+   *        <code>null</code>.
+   * @return The new executor. Never <code>null</code>.
+   * @param <T>
+   *        The data type to be processed
+   */
+  @Nonnull
+  static <T extends Serializable> MPStageExecutor <T> createFromConfig (@Nonnull final EMPStage eStage,
+                                                                        @Nonnull final Function <? super T, String> aOrderingKeyFct,
+                                                                        @Nonnull final IMPStagePerformer <T> aPerformer)
+  {
+    final String sStageID = eStage.getID ();
+    final EMPExecutionMode eMode = EMPExecutionMode.getFromIDOrDefault (TCConfig.getMPExecutionMode ());
+    final boolean bShared = eMode == EMPExecutionMode.THREAD_PER_TASK;
+    return new MPStageExecutor <> (eStage,
+                                   bShared ? TCConfig.getMPMaxConcurrency ()
+                                           : TCConfig.getMPWorkerCount (sStageID, eStage.getDefaultWorkerCount ()),
+                                   TCConfig.getMPQueueHighWatermark (sStageID),
+                                   TCConfig.getMPQueueLowWatermark (sStageID),
+                                   aOrderingKeyFct,
+                                   aPerformer,
+                                   bShared ? getSharedExecutorPool () : null);
+  }
+
+  @Nonnull
+  public EMPStage getStage ()
+  {
+    return m_eStage;
+  }
+
+  @Nonnegative
+  public int getWorkerCount ()
+  {
+    return m_nWorkerCount;
+  }
+
+  @Nonnegative
+  public int getHighWatermark ()
+  {
+    return m_nHighWatermark;
+  }
+
+  @Nonnegative
+  public int getLowWatermark ()
+  {
+    return m_nLowWatermark;
+  }
+
+  private void _updateDrainRate ()
+  {
+    synchronized (m_aDrainRateLock)
+    {
+      final long nNow = System.nanoTime ();
+      final long nElapsed = nNow - m_nDrainRateSampleNanos;
+      if (nElapsed >= DRAIN_RATE_SAMPLE_NANOS)
+      {
+        final long nCompleted = m_aCompletedCount.get ();
+        final double dCurrentRate = (nCompleted - m_nDrainRateSampleCompleted) *
+                                    (double) TimeUnit.SECONDS.toNanos (1) /
+                                    nElapsed;
+        // Exponential smoothing
+        m_dDrainRate = (m_dDrainRate + dCurrentRate) / 2;
+        m_nDrainRateSampleNanos = nNow;
+        m_nDrainRateSampleCompleted = nCompleted;
+      }
+    }
+  }
+
+  private void _onPerformed (@Nullable final MPJournal aJournal, final long nRecordID, final long nSequence)
+  {
+    // The performers handle all errors themselves, so the object is done in
+    // any case. After an abort the object was already handed to the caller of
+    // the shutdown, so it stays pending in the journal.
+    m_aCompletedCount.incrementAndGet ();
+    _updateDrainRate ();
+    synchronized (m_aOutstandingLock)
+    {
+      // Checked and acknowledged inside the lock, so that an object is either
+      // acknowledged or copied by the shutdown but never both
+      if (aJournal != null && !m_aAborted.get ())
+        aJournal.acknowledge (nRecordID);
+      m_aOutstanding.remove (Long.valueOf (nSequence));
+      if (m_aOutstanding.isEmpty ())
+        m_aOutstandingLock.notifyAll ();
+    }
+  }
+
+  private void _perform (@Nonnull final DATATYPE aObject,
+                         @Nullable final MPJournal aJournal,
+                         final long nRecordID,
+                         final long nSequence)
+  {
+    // Objects that were not started before the deadline stay outstanding
+    if (m_aAborted.get ())
+      return;
+
+    // Ensure the object is only counted once
+    final AtomicBoolean aDone = new AtomicBoolean (false);
+    final Runnable aDoneCallback = () -> {
+      if (aDone.compareAndSet (false, true))
+        _onPerformed (aJournal, nRecordID, nSequence);
+    };
+    try
+    {
+      m_aPerformer.perform (aObject, aDoneCallback);
+    }
+    catch (final Exception ex)
+    {
+      // After an abort the worker threads are interrupted
+      if (!m_aAborted.get ())
+        LOGGER.error ("Failed to perform step " + m_eStage.getStep () + " on " + aObject, ex);
+      aDoneCallback.run ();
+    }
+  }
+
+  private boolean _waitUntilAllObjectsArePerformed (final long nDeadlineNanos)
+  {
+    synchronized (m_aOutstandingLock)
+    {
+      while (m_aOutstanding.isNotEmpty ())
+      {
+        long nWaitMillis = 0;
+        if (nDeadlineNanos != NO_DEADLINE)
+        {
+          nWaitMillis = TimeUnit.NANOSECONDS.toMillis (nDeadlineNanos - System.nanoTime ());
+          if (nWaitMillis <= 0)
+            return false;
+        }
+        try
+        {
+          m_aOutstandingLock.wait (nWaitMillis);
+        }
+        catch (final InterruptedException ex)
+        {
+          LOGGER.error ("Interrupted while waiting for step " + m_eStage.getStep () + " to finish", ex);
+          Thread.currentThread ().interrupt ();
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private void _execute (@Nonnull final Runnable aTask, @Nonnull final EMPPriority ePriority)
+  {
+    m_aQueuedCount.incrementAndGet ();
+    m_aExecutorPool.execute (new MPPriorityTaskQueue.PrioritizedRunnable (ePriority, () -> {
+      m_aQueuedCount.decrementAndGet ();
+      m_aActiveCount.incrementAndGet ();
+      try
+      {
+        aTask.run ();
+      }
+      finally
+      {
+        m_aActiveCount.decrementAndGet ();
+      }
+    }));
+  }
+
+  private void _performKeyed (@Nonnull final String sKey, @Nonnull final Runnable aFirstTask)
+  {
+    Runnable aCurrent = aFirstTask;
+    while (aCurrent != null)
+    {
+      aCurrent.run ();
+
+      // Continue with the next object of the same key (if any)
+      synchronized (m_aKeyedQueues)
+      {
+        final Deque <Runnable> aWaiting = m_aKeyedQueues.get (sKey);
+        aCurrent = aWaiting.pollFirst ();
+        if (aCurrent == null)
+          m_aKeyedQueues.remove (sKey);
+        else
+          m_nKeyedWaitingCount--;
+      }
+    }
+  }
+
+  /**
+   * Queue a new object for asynchronous processing with the default priority
+   * of the stage.
+   *
+   * @param aObject
+   *        The object to be queued. May not be <code>null</code>.
+   * @return {@link ESuccess#FAILURE} if the object could not be persisted in
+   *         the journal. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If {@link #stopQueuingNewObjects()} was already called
+   */
+  @Nonnull
+  public ESuccess queueObject (@Nonnull final DATATYPE aObject)
+  {
+    return queueObject (aObject, m_eStage.getDefaultPriority ());
+  }
+
+  /**
+   * Queue a new object for asynchronous processing.
+   *
+   * @param aObject
+   *        The object to be queued. May not be <code>null</code>.
+   * @param ePriority
+   *        The priority of the object. May not be <code>null</code>.
+   * @return {@link ESuccess#FAILURE} if the object could not be persisted in
+   *         the journal. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If {@link #stopQueuingNewObjects()} was already called
+   */
+  @Nonnull
+  public ESuccess queueObject (@Nonnull final DATATYPE aObject, @Nonnull final EMPPriority ePriority)
+  {
+    ValueEnforcer.notNull (aObject, "Object");
+    ValueEnforcer.notNull (ePriority, "Priority");
+    if (m_aStopped.get ())
+      throw new IllegalStateException ("The MP stage executor for step " +
+                                       m_eStage.getStep () +
+                                       " is stopped and cannot queue new objects");
+
+    // Persist before queuing
+    final MPJournal aJournal = MPConfig.getJournal ();
+    final long nRecordID;
+    if (aJournal != null)
+    {
+      try
+      {
+        nRecordID = aJournal.append (m_eStage, aObject);
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to persist object for step " + m_eStage.getStep () + " in the journal", ex);
+        return ESuccess.FAILURE;
+      }
+    }
+    else
+      nRecordID = -1;
+    final long nSequence = m_aSequence.incrementAndGet ();
+    final AtomicInteger aQueuedCount = m_aQueuedCountPerPriority[ePriority.ordinal ()];
+    final Runnable aTask = () -> {
+      aQueuedCount.decrementAndGet ();
+      _perform (aObject, aJournal, nRecordID, nSequence);
+    };
+    synchronized (m_aOutstandingLock)
+    {
+      m_aOutstanding.put (Long.valueOf (nSequence), aObject);
+    }
+    aQueuedCount.incrementAndGet ();
+
+    final String sKey = m_aOrderingKeyFct.apply (aObject);
+    if (StringHelper.hasNoText (sKey))
+    {
+      // No ordering needed
+      _execute (aTask, ePriority);
+      return ESuccess.SUCCESS;
+    }
+
+    synchronized (m_aKeyedQueues)
+    {
+      final Deque <Runnable> aWaiting = m_aKeyedQueues.get (sKey);
+      if (aWaiting != null)
+      {
+        // Another object with the same key is currently processed
+        aWaiting.addLast (aTask);
+        m_nKeyedWaitingCount++;
+        return ESuccess.SUCCESS;
+      }
+      m_aKeyedQueues.put (sKey, new ArrayDeque <> ());
+    }
+    _execute ( () -> _performKeyed (sKey, aTask), ePriority);
+    return ESuccess.SUCCESS;
+  }
+
+  /**
+   * Queue a new object for asynchronous processing, unless the queue is
+   * saturated. This is meant for objects from external callers that are able
+   * to retry later.
+   *
+   * @param aObject
+   *        The object to be queued. May not be <code>null</code>.
+   * @return {@link ESuccess#FAILURE} if the queue is saturated or if the object
+   *         could not be persisted in the journal. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If {@link #stopQueuingNewObjects()} was already called
+   */
+  @Nonnull
+  public ESuccess queueObjectBounded (@Nonnull final DATATYPE aObject)
+  {
+    if (rejectIfSaturated ())
+      return ESuccess.FAILURE;
+    return queueObject (aObject);
+  }
+
+  /**
+   * Check if an object from an external caller would be rejected right now,
+   * because the queue is saturated. This allows to reject an object before it
+   * is read at all. A rejection is counted like in
+   * {@link #queueObjectBounded(Object)}.
+   *
+   * @return <code>true</code> if the queue is saturated and the caller was
+   *         rejected.
+   */
+  public boolean rejectIfSaturated ()
+  {
+    if (!isSaturated ())
+      return false;
+    m_aRejectedCount.incrementAndGet ();
+    return true;
+  }
+
+  @Nonnegative
+  public int getQueueLength ()
+  {
+    final int nKeyed;
+    synchronized (m_aKeyedQueues)
+    {
+      nKeyed = m_nKeyedWaitingCount;
+    }
+    return m_aQueuedCount.get () + nKeyed;
+  }
+
+  @Nonnegative
+  public int getQueueLength (@Nonnull final EMPPriority ePriority)
+  {
+    return m_aQueuedCountPerPriority[ePriority.ordinal ()].get ();
+  }
+
+  @Nonnegative
+  public int getActiveCount ()
+  {
+    return m_aActiveCount.get ();
+  }
+
+  public boolean isSaturated ()
+  {
+    if (m_nHighWatermark == 0)
+      return false;
+
+    final int nQueueLength = getQueueLength ();
+    if (m_aSaturated.get ())
+    {
+      if (nQueueLength <= m_nLowWatermark)
+        m_aSaturated.set (false);
+    }
+    else
+      if (nQueueLength >= m_nHighWatermark)
+      {
+        if (m_aSaturated.compareAndSet (false, true))
+          LOGGER.warn ("The queue of step " + m_eStage.getStep () + " is saturated with " + nQueueLength + " objects");
+      }
+    return m_aSaturated.get ();
+  }
+
+  @Nonnegative
+  public long getRejectedCount ()
+  {
+    return m_aRejectedCount.get ();
+  }
+
+  @Nonnegative
+  public long getCompletedCount ()
+  {
+    return m_aCompletedCount.get ();
+  }
+
+  @Nonnegative
+  public double getDrainRatePerSecond ()
+  {
+    _updateDrainRate ();
+    synchronized (m_aDrainRateLock)
+    {
+      return m_dDrainRate;
+    }
+  }
+
+  @CheckForSigned
+  public long getRetryAfterSeconds ()
+  {
+    if (!isSaturated ())
+      return -1;
+
+    // Time needed to drain the queue down to the low watermark
+    final int nToDrain = Math.max (getQueueLength () - m_nLowWatermark, 1);
+    final double dDrainRate = getDrainRatePerSecond ();
+    if (dDrainRate <= 0)
+      return MAX_RETRY_AFTER_SECONDS;
+    final long nSeconds = (long) Math.ceil (nToDrain / dDrainRate);
+    return Math.max (1, Math.min (nSeconds, MAX_RETRY_AFTER_SECONDS));
+  }
+
+  /**
+   * Avoid further objects from being queued. Already queued objects are still
+   * processed.
+   */
+  public void stopQueuingNewObjects ()
+  {
+    m_aStopped.set (true);
+  }
+
+  /**
+   * @return <code>true</code> if {@link #stopQueuingNewObjects()} was called.
+   */
+  public boolean isStopped ()
+  {
+    return m_aStopped.get ();
+  }
+
+  /**
+   * Shutdown the worker threads and wait until all queued objects are
+   * processed, including the objects that are finished asynchronously. A
+   * shared executor is not shut down.
+   */
+  public void shutdownAndWaitUntilAllTasksAreFinished ()
+  {
+    // The remaining objects of an aborted executor are never performed
+    if (m_aAborted.get ())
+      return;
+    if (!m_bSharedExecutorPool)
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutorPool);
+    _waitUntilAllObjectsArePerformed (NO_DEADLINE);
+  }
+
+  /**
+   * Shutdown the worker threads and wait until all queued objects are
+   * processed or until the deadline is reached. If the deadline is reached,
+   * queued objects are no longer performed and the worker threads are
+   * interrupted. These objects are not acknowledged in the journal, even if
+   * they finish later on. A shared executor is not shut down. Calling this
+   * method again after the deadline was reached returns immediately.
+   *
+   * @param nDeadlineNanos
+   *        The deadline in the scale of {@link System#nanoTime()} or
+   *        {@link #NO_DEADLINE}.
+   * @return All objects that were queued or in flight when the deadline was
+   *         reached, in the order they were queued. Never <code>null</code>
+   *         but empty if all objects were performed.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <DATATYPE> shutdownAndWaitUntil (final long nDeadlineNanos)
+  {
+    if (!m_bSharedExecutorPool)
+      m_aExecutorPool.shutdown ();
+    if (!m_aAborted.get () && _waitUntilAllObjectsArePerformed (nDeadlineNanos))
+    {
+      if (!m_bSharedExecutorPool)
+        ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutorPool);
+      return new CommonsArrayList <> ();
+    }
+
+    final ICommonsList <DATATYPE> ret;
+    synchronized (m_aOutstandingLock)
+    {
+      // Set inside the lock, so that no object is acknowledged in the journal
+      // after it was copied (see _onPerformed)
+      m_aAborted.set (true);
+      ret = m_aOutstanding.copyOfValues ();
+    }
+    if (!m_bSharedExecutorPool)
+      m_aExecutorPool.shutdownNow ();
+    LOGGER.warn ("Step " + m_eStage.getStep () + " did not finish " + ret.size () + " object(s) until the deadline");
+    return ret;
+  }
+
+  /**
+   * @return <code>true</code> if the deadline of
+   *         {@link #shutdownAndWaitUntil(long)} was reached.
+   */
+  public boolean isAborted ()
+  {
+    return m_aAborted.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Stage", m_eStage)
+                                       .append ("WorkerCount", m_nWorkerCount)
+                                       .append ("SharedExecutorPool", m_bSharedExecutorPool)
+                                       .append ("HighWatermark", m_nHighWatermark)
+                                       .append ("LowWatermark", m_nLowWatermark)
+                                       .append ("Stopped", m_aStopped.get ())
+                                       .getToString ();
+  }
+}
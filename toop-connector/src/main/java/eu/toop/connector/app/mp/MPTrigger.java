@@ -15,16 +15,33 @@
  */
 package eu.toop.connector.app.mp;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.state.ESuccess;
+import com.helger.web.scope.singleton.AbstractGlobalWebSingleton;
 
 import eu.toop.commons.dataexchange.v140.TDETOOPRequestType;
 import eu.toop.commons.dataexchange.v140.TDETOOPResponseType;
 import eu.toop.commons.exchange.AsicReadEntry;
 import eu.toop.commons.exchange.ToopRequestWithAttachments140;
 import eu.toop.commons.exchange.ToopResponseWithAttachments140;
+import eu.toop.connector.api.TCConfig;
+import eu.toop.connector.app.TCAsicHelper;
+import eu.toop.kafkaclient.ToopKafkaClient;
 
 /**
  * This is the central public class that allows access to the Message Processor
@@ -35,14 +52,132 @@ import eu.toop.commons.exchange.ToopResponseWithAttachments140;
 @Immutable
 public final class MPTrigger
 {
+  /**
+   * The Retry-After value used if a message was rejected for another reason
+   * than a saturated queue.
+   *
+   * @since 0.10.9
+   */
+  public static final long DEFAULT_RETRY_AFTER_SECONDS = 60;
+
+  /**
+   * Lazily created deduplication indices, as they depend on the
+   * configuration.
+   */
+  private static final class DeduplicationHolder
+  {
+    static final MPDeduplicationIndex FROM_DC = MPDeduplicationIndex.createFromConfig ();
+    static final MPDeduplicationIndex FROM_DP = MPDeduplicationIndex.createFromConfig ();
+  }
+
   private MPTrigger ()
   {}
 
-  public static void fromDC_1_of_4 (@Nonnull final TDETOOPRequestType aRequestMsg,
-                                    @Nonnull final ICommonsList <AsicReadEntry> aAttachments)
+  /**
+   * @return The index that detects requests resent to <code>/from-dc</code>
+   *         based on the document UUID. <code>null</code> if deduplication is
+   *         disabled.
+   * @since 0.10.9
+   */
+  @Nullable
+  public static MPDeduplicationIndex getFromDCDeduplicationIndex ()
+  {
+    return DeduplicationHolder.FROM_DC;
+  }
+
+  /**
+   * @return The index that detects responses resent to <code>/from-dp</code>
+   *         based on the data request identifier. <code>null</code> if
+   *         deduplication is disabled.
+   * @since 0.10.9
+   */
+  @Nullable
+  public static MPDeduplicationIndex getFromDPDeduplicationIndex ()
+  {
+    return DeduplicationHolder.FROM_DP;
+  }
+
+  /**
+   * Queue a request received from the DC.
+   *
+   * @param aRequestMsg
+   *        The request. May not be <code>null</code>.
+   * @param aAttachments
+   *        The attachments. May not be <code>null</code>.
+   * @return {@link ESuccess#FAILURE} if the request was not accepted, e.g.
+   *         because the queue is saturated. In that case the caller should
+   *         retry after {@link #getRetryAfterSeconds(EMPStage)} seconds. A
+   *         request with a document UUID that was recently accepted is not
+   *         processed again, but {@link ESuccess#SUCCESS} is returned.
+   */
+  @Nonnull
+  public static ESuccess fromDC_1_of_4 (@Nonnull final TDETOOPRequestType aRequestMsg,
+                                        @Nonnull final ICommonsList <AsicReadEntry> aAttachments)
+  {
+    return fromDC_1_of_4 (aRequestMsg, aAttachments, null);
+  }
+
+  /**
+   * Queue a request received from the DC together with the XML it was read
+   * from. If present, the Schematron validation uses this XML.
+   *
+   * @param aRequestMsg
+   *        The request. May not be <code>null</code>.
+   * @param aAttachments
+   *        The attachments. May not be <code>null</code>.
+   * @param aXMLPayload
+   *        The XML bytes of the request as received. May be <code>null</code>.
+   * @return {@link ESuccess#FAILURE} if the request was not accepted.
+   * @see #fromDC_1_of_4(TDETOOPRequestType, ICommonsList)
+   */
+  @Nonnull
+  public static ESuccess fromDC_1_of_4 (@Nonnull final TDETOOPRequestType aRequestMsg,
+                                        @Nonnull final ICommonsList <AsicReadEntry> aAttachments,
+                                        @Nullable final byte [] aXMLPayload)
   {
-    final ToopRequestWithAttachments140 aRequest = new ToopRequestWithAttachments140 (aRequestMsg, aAttachments);
-    MessageProcessorDCOutgoing.getInstance ().enqueue (aRequest);
+    final ToopRequestWithAttachments140 aRequest = aXMLPayload == null ? new ToopRequestWithAttachments140 (aRequestMsg,
+                                                                                                            aAttachments)
+                                                                       : new ToopRequestWithPayload140 (aRequestMsg,
+                                                                                                        aAttachments,
+                                                                                                        aXMLPayload);
+    final Supplier <ESuccess> aAcceptor = () -> {
+      final ESuccess eSuccess = MessageProcessorDCOutgoing.getInstance ().enqueueBounded (aRequest);
+      if (eSuccess.isFailure ())
+      {
+        // The caller sends everything again
+        TCAsicHelper.deleteSpilledAttachments (aAttachments);
+      }
+      return eSuccess;
+    };
+
+    final MPDeduplicationIndex aIndex = getFromDCDeduplicationIndex ();
+    if (aIndex == null)
+      return aAcceptor.get ();
+
+    // Only registered if the request was accepted, so that a resend of a
+    // rejected request is processed
+    final String sID = _getDocumentUUID (aRequestMsg);
+    return aIndex.acceptIfAbsent (sID, aAcceptor, () -> {
+      ToopKafkaClient.send (EErrorLevel.INFO,
+                            () -> "Ignoring resent request with document UUID '" + sID + "' as it was already accepted");
+      TCAsicHelper.deleteSpilledAttachments (aAttachments);
+    });
+  }
+
+  /**
+   * Check if a request received from the DC would be rejected right now,
+   * because the queue is saturated. Call this before reading the request, so
+   * that a saturated queue does not cost the parsing of every rejected
+   * request.
+   *
+   * @return <code>true</code> if the request was rejected. In that case the
+   *         caller should retry after
+   *         {@link #getRetryAfterSeconds(EMPStage)} seconds.
+   * @since 0.10.9
+   */
+  public static boolean rejectFromDCIfSaturated ()
+  {
+    return MessageProcessorDCOutgoing.getInstance ().rejectIfSaturated ();
   }
 
   public static void incomingGatewayDP_2_of_4 (@Nonnull final ToopRequestWithAttachments140 aRequest)
@@ -50,15 +185,340 @@ public final class MPTrigger
     MessageProcessorDPIncoming.getInstance ().enqueue (aRequest);
   }
 
-  public static void fromDP_3_of_4 (@Nonnull final TDETOOPResponseType aResponseMsg,
-                                    @Nonnull final ICommonsList <AsicReadEntry> aAttachments)
+  /**
+   * Queue a response received from the DP.
+   *
+   * @param aResponseMsg
+   *        The response. May not be <code>null</code>.
+   * @param aAttachments
+   *        The attachments. May not be <code>null</code>.
+   * @return {@link ESuccess#FAILURE} if the response was not accepted, e.g.
+   *         because the queue is saturated. In that case the caller should
+   *         retry after {@link #getRetryAfterSeconds(EMPStage)} seconds. A
+   *         response with a data request identifier that was recently accepted
+   *         is not processed again, but {@link ESuccess#SUCCESS} is returned.
+   */
+  @Nonnull
+  public static ESuccess fromDP_3_of_4 (@Nonnull final TDETOOPResponseType aResponseMsg,
+                                        @Nonnull final ICommonsList <AsicReadEntry> aAttachments)
+  {
+    return fromDP_3_of_4 (aResponseMsg, aAttachments, null);
+  }
+
+  /**
+   * Queue a response received from the DP together with the XML it was read
+   * from. If present, the Schematron validation uses this XML.
+   *
+   * @param aResponseMsg
+   *        The response. May not be <code>null</code>.
+   * @param aAttachments
+   *        The attachments. May not be <code>null</code>.
+   * @param aXMLPayload
+   *        The XML bytes of the response as received. May be
+   *        <code>null</code>.
+   * @return {@link ESuccess#FAILURE} if the response was not accepted.
+   * @see #fromDP_3_of_4(TDETOOPResponseType, ICommonsList)
+   */
+  @Nonnull
+  public static ESuccess fromDP_3_of_4 (@Nonnull final TDETOOPResponseType aResponseMsg,
+                                        @Nonnull final ICommonsList <AsicReadEntry> aAttachments,
+                                        @Nullable final byte [] aXMLPayload)
+  {
+    final ToopResponseWithAttachments140 aResponse = aXMLPayload == null ? new ToopResponseWithAttachments140 (aResponseMsg,
+                                                                                                              aAttachments)
+                                                                         : new ToopResponseWithPayload140 (aResponseMsg,
+                                                                                                           aAttachments,
+                                                                                                           aXMLPayload);
+    final Supplier <ESuccess> aAcceptor = () -> {
+      final ESuccess eSuccess = MessageProcessorDPOutgoing.getInstance ().enqueueBounded (aResponse);
+      if (eSuccess.isFailure ())
+      {
+        // The caller sends everything again
+        TCAsicHelper.deleteSpilledAttachments (aAttachments);
+      }
+      return eSuccess;
+    };
+
+    final MPDeduplicationIndex aIndex = getFromDPDeduplicationIndex ();
+    if (aIndex == null)
+      return aAcceptor.get ();
+
+    // Only registered if the response was accepted, so that a resend of a
+    // rejected response is processed
+    final String sID = MPHelper.getResponseOrderingKey (aResponse);
+    return aIndex.acceptIfAbsent (sID, aAcceptor, () -> {
+      ToopKafkaClient.send (EErrorLevel.INFO,
+                            () -> "Ignoring resent response with data request identifier '" +
+                                  sID +
+                                  "' as it was already accepted");
+      TCAsicHelper.deleteSpilledAttachments (aAttachments);
+    });
+  }
+
+  /**
+   * Check if a response received from the DP would be rejected right now,
+   * because the queue is saturated. Call this before reading the response, so
+   * that a saturated queue does not cost the parsing of every rejected
+   * response.
+   *
+   * @return <code>true</code> if the response was rejected. In that case the
+   *         caller should retry after
+   *         {@link #getRetryAfterSeconds(EMPStage)} seconds.
+   * @since 0.10.9
+   */
+  public static boolean rejectFromDPIfSaturated ()
   {
-    final ToopResponseWithAttachments140 aResponse = new ToopResponseWithAttachments140 (aResponseMsg, aAttachments);
-    MessageProcessorDPOutgoing.getInstance ().enqueue (aResponse);
+    return MessageProcessorDPOutgoing.getInstance ().rejectIfSaturated ();
   }
 
   public static void incomingGatewayDC_4_of_4 (@Nonnull final ToopResponseWithAttachments140 aResponse)
   {
     MessageProcessorDCIncoming.getInstance ().enqueue (aResponse);
   }
+
+  /**
+   * Get the statistics of a single stage.
+   *
+   * @param eStage
+   *        The stage to query. May not be <code>null</code>.
+   * @return <code>null</code> if the message processor of the stage was not
+   *         yet used.
+   * @since 0.10.9
+   */
+  @Nullable
+  public static IMPStageStatistics getStageStatisticsIfInstantiated (@Nonnull final EMPStage eStage)
+  {
+    ValueEnforcer.notNull (eStage, "Stage");
+    switch (eStage)
+    {
+      case DC_OUTGOING:
+      {
+        final MessageProcessorDCOutgoing aMP = AbstractGlobalWebSingleton.getGlobalSingletonIfInstantiated (MessageProcessorDCOutgoing.class);
+        return aMP == null ? null : aMP.getStatistics ();
+      }
+      case DP_INCOMING:
+      {
+        final MessageProcessorDPIncoming aMP = AbstractGlobalWebSingleton.getGlobalSingletonIfInstantiated (MessageProcessorDPIncoming.class);
+        return aMP == null ? null : aMP.getStatistics ();
+      }
+      case DP_OUTGOING:
+      {
+        final MessageProcessorDPOutgoing aMP = AbstractGlobalWebSingleton.getGlobalSingletonIfInstantiated (MessageProcessorDPOutgoing.class);
+        return aMP == null ? null : aMP.getStatistics ();
+      }
+      case DC_INCOMING:
+      {
+        final MessageProcessorDCIncoming aMP = AbstractGlobalWebSingleton.getGlobalSingletonIfInstantiated (MessageProcessorDCIncoming.class);
+        return aMP == null ? null : aMP.getStatistics ();
+      }
+      default:
+        throw new IllegalStateException ("Unsupported stage " + eStage);
+    }
+  }
+
+  /**
+   * Get the number of seconds a caller should wait before resending a message
+   * that was rejected by the provided stage.
+   *
+   * @param eStage
+   *        The stage that rejected the message. May not be <code>null</code>.
+   * @return The number of seconds based on the current drain rate of the
+   *         stage. Always &gt; 0. If the stage is not saturated (e.g. because
+   *         it is shutting down) {@link #DEFAULT_RETRY_AFTER_SECONDS} is
+   *         returned.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static long getRetryAfterSeconds (@Nonnull final EMPStage eStage)
+  {
+    final IMPStageStatistics aStats = getStageStatisticsIfInstantiated (eStage);
+    final long ret = aStats == null ? -1 : aStats.getRetryAfterSeconds ();
+    return ret > 0 ? ret : DEFAULT_RETRY_AFTER_SECONDS;
+  }
+
+  @Nullable
+  private static String _getDocumentUUID (@Nonnull final TDETOOPRequestType aRequestMsg)
+  {
+    return aRequestMsg.getDocumentUniversalUniqueIdentifier () == null ? null
+                                                                       : aRequestMsg.getDocumentUniversalUniqueIdentifier ()
+                                                                                    .getValue ();
+  }
+
+  @Nonnull
+  private static ESuccess _requeue (@Nonnull final EMPStage eStage, @Nonnull final Serializable aObject)
+  {
+    switch (eStage)
+    {
+      case DC_OUTGOING:
+      {
+        final ToopRequestWithAttachments140 aRequest = (ToopRequestWithAttachments140) aObject;
+        final ESuccess eSuccess = MessageProcessorDCOutgoing.getInstance ().enqueue (aRequest);
+        final MPDeduplicationIndex aIndex = getFromDCDeduplicationIndex ();
+        if (eSuccess.isSuccess () && aIndex != null)
+        {
+          // It was accepted before the restart, so a resend must be ignored
+          aIndex.registerIfAbsent (_getDocumentUUID (aRequest.getRequest ()));
+        }
+        return eSuccess;
+      }
+      case DP_INCOMING:
+        return MessageProcessorDPIncoming.getInstance ().enqueue ((ToopRequestWithAttachments140) aObject);
+      case DP_OUTGOING:
+      {
+        final ToopResponseWithAttachments140 aResponse = (ToopResponseWithAttachments140) aObject;
+        final ESuccess eSuccess = MessageProcessorDPOutgoing.getInstance ().enqueue (aResponse);
+        final MPDeduplicationIndex aIndex = getFromDPDeduplicationIndex ();
+        if (eSuccess.isSuccess () && aIndex != null)
+        {
+          // It was accepted before the restart, so a resend must be ignored
+          aIndex.registerIfAbsent (MPHelper.getResponseOrderingKey (aResponse));
+        }
+        return eSuccess;
+      }
+      case DC_INCOMING:
+        return MessageProcessorDCIncoming.getInstance ().enqueue ((ToopResponseWithAttachments140) aObject);
+      default:
+        throw new IllegalStateException ("Unsupported stage " + eStage);
+    }
+  }
+
+  /**
+   * Replay all objects that were pending in the provided journal by queuing
+   * them again into the respective message processor. Objects that cannot be
+   * queued stay pending in the journal. The IDs of replayed messages received
+   * from the DC or DP are registered in the deduplication indices again.
+   *
+   * @param aJournal
+   *        The journal to replay. May not be <code>null</code>.
+   * @return The number of replayed objects. Always &ge; 0.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int replayJournal (@Nonnull final MPJournal aJournal)
+  {
+    ValueEnforcer.notNull (aJournal, "Journal");
+    return aJournal.replayPending (MPTrigger::_requeue);
+  }
+
+  /**
+   * Queue all objects from the provided snapshot file again into the
+   * respective message processor and delete the file afterwards. If some
+   * objects cannot be queued, the file is overwritten with these objects
+   * instead. The IDs of replayed messages received from the DC or DP are
+   * registered in the deduplication indices again.
+   *
+   * @param aSnapshotFile
+   *        The snapshot file written on the last shutdown. May not be
+   *        <code>null</code>. If the file does not exist, nothing happens.
+   * @return The number of replayed objects. Always &ge; 0.
+   * @throws IOException
+   *         If the snapshot file could not be read, written or deleted
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public static int replaySnapshot (@Nonnull final File aSnapshotFile) throws IOException
+  {
+    ValueEnforcer.notNull (aSnapshotFile, "SnapshotFile");
+    if (!aSnapshotFile.exists ())
+      return 0;
+
+    final MPSnapshot aSnapshot = MPSnapshot.readFrom (aSnapshotFile);
+    final MPSnapshot aFailed = new MPSnapshot ();
+    aSnapshot.forEach ( (eStage, aObject) -> {
+      if (_requeue (eStage, aObject).isFailure ())
+        aFailed.addAll (eStage, new CommonsArrayList <> (aObject));
+    });
+    if (aFailed.isEmpty ())
+      Files.delete (aSnapshotFile.toPath ());
+    else
+    {
+      // Keep them for the next start
+      ToopKafkaClient.send (EErrorLevel.ERROR,
+                            () -> "Failed to queue " +
+                                  aFailed.getCount () +
+                                  " message(s) from the MP snapshot again - keeping them in '" +
+                                  aSnapshotFile.getAbsolutePath () +
+                                  "'");
+      aFailed.writeTo (aSnapshotFile);
+    }
+    return aSnapshot.getCount () - aFailed.getCount ();
+  }
+
+  /**
+   * Stop all message processors that were instantiated and wait until all
+   * queued objects are processed. The stages are stopped in processing order,
+   * because earlier stages may forward errors to later stages.<br>
+   * If a drain timeout is configured, the wait ends at the latest after that
+   * time. The objects that are not finished until then stay pending in the
+   * journal or, if no journal is used, are written to the snapshot file. If
+   * neither a journal nor a snapshot file is configured, the drain timeout is
+   * ignored, so that no object is lost.
+   *
+   * @since 0.10.9
+   * @see TCConfig#getMPShutdownDrainTimeoutMS()
+   */
+  public static void shutdownAll ()
+  {
+    final long nDrainTimeoutMS = TCConfig.getMPShutdownDrainTimeoutMS ();
+    final boolean bUseJournal = MPConfig.getJournal () != null;
+    final File aSnapshotFile = TCConfig.getMPSnapshotPath ();
+    long nDeadlineNanos = MPStageExecutor.NO_DEADLINE;
+    if (nDrainTimeoutMS > 0)
+    {
+      if (bUseJournal || aSnapshotFile != null)
+        nDeadlineNanos = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (nDrainTimeoutMS);
+      else
+        ToopKafkaClient.send (EErrorLevel.WARN,
+                              () -> "Ignoring the MP shutdown drain timeout, because neither the journal nor a snapshot file is configured");
+    }
+
+    // Each stage gets the time that is left
+    final MPSnapshot aSnapshot = new MPSnapshot ();
+    final MessageProcessorDCOutgoing aDCOut = AbstractGlobalWebSingleton.getGlobalSingletonIfInstantiated (MessageProcessorDCOutgoing.class);
+    if (aDCOut != null)
+      aSnapshot.addAll (EMPStage.DC_OUTGOING, aDCOut.shutdown (nDeadlineNanos));
+    final MessageProcessorDPIncoming aDPIn = AbstractGlobalWebSingleton.getGlobalSingletonIfInstantiated (MessageProcessorDPIncoming.class);
+    if (aDPIn != null)
+      aSnapshot.addAll (EMPStage.DP_INCOMING, aDPIn.shutdown (nDeadlineNanos));
+    final MessageProcessorDPOutgoing aDPOut = AbstractGlobalWebSingleton.getGlobalSingletonIfInstantiated (MessageProcessorDPOutgoing.class);
+    if (aDPOut != null)
+      aSnapshot.addAll (EMPStage.DP_OUTGOING, aDPOut.shutdown (nDeadlineNanos));
+    final MessageProcessorDCIncoming aDCIn = AbstractGlobalWebSingleton.getGlobalSingletonIfInstantiated (MessageProcessorDCIncoming.class);
+    if (aDCIn != null)
+      aSnapshot.addAll (EMPStage.DC_INCOMING, aDCIn.shutdown (nDeadlineNanos));
+
+    if (aSnapshot.isEmpty ())
+      return;
+
+    final int nCount = aSnapshot.getCount ();
+    if (bUseJournal)
+    {
+      // Unfinished objects are not acknowledged
+      ToopKafkaClient.send (EErrorLevel.WARN,
+                            () -> nCount + " unfinished message(s) stay pending in the MP journal for the next start");
+    }
+    else
+    {
+      try
+      {
+        aSnapshot.writeTo (aSnapshotFile);
+        ToopKafkaClient.send (EErrorLevel.WARN,
+                              () -> "Wrote " +
+                                    nCount +
+                                    " unfinished message(s) to the MP snapshot file '" +
+                                    aSnapshotFile.getAbsolutePath () +
+                                    "'");
+      }
+      catch (final IOException ex)
+      {
+        ToopKafkaClient.send (EErrorLevel.ERROR,
+                              () -> "Failed to write " +
+                                    nCount +
+                                    " unfinished message(s) to the MP snapshot file '" +
+                                    aSnapshotFile.getAbsolutePath () +
+                                    "' - they are lost",
+                              ex);
+      }
+    }
+  }
 }
@@ -15,26 +15,22 @@
  */
 package eu.toop.connector.app.mp;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-
 import javax.annotation.Nonnull;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.annotation.UsedViaReflection;
-import com.helger.commons.concurrent.BasicThreadFactory;
-import com.helger.commons.concurrent.ExecutorServiceHelper;
-import com.helger.commons.concurrent.collector.ConcurrentCollectorSingle;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.state.ESuccess;
 import com.helger.scope.IScope;
 import com.helger.web.scope.singleton.AbstractGlobalWebSingleton;
 
 import eu.toop.commons.exchange.ToopResponseWithAttachments140;
+import eu.toop.connector.app.TCAsicHelper;
 import eu.toop.kafkaclient.ToopKafkaClient;
 
 /**
@@ -48,20 +44,25 @@ public final class MessageProcessorDCIncoming extends AbstractGlobalWebSingleton
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (MessageProcessorDCIncoming.class);
 
-  // Just to have custom named threads....
-  private static final ThreadFactory s_aThreadFactory = new BasicThreadFactory.Builder ().setNamingPattern ("MP-DC-In-%d")
-                                                                                         .setDaemon (true)
-                                                                                         .build ();
-  private final ConcurrentCollectorSingle <ToopResponseWithAttachments140> m_aCollector = new ConcurrentCollectorSingle <> ();
-  private final ExecutorService m_aExecutorPool;
+  private final MPStageExecutor <ToopResponseWithAttachments140> m_aExecutor;
 
   @Deprecated
   @UsedViaReflection
   public MessageProcessorDCIncoming ()
   {
-    m_aCollector.setPerformer (new MessageProcessorDCIncomingPerformer ());
-    m_aExecutorPool = Executors.newSingleThreadExecutor (s_aThreadFactory);
-    m_aExecutorPool.submit (m_aCollector::collect);
+    // Keep the order per data request
+    m_aExecutor = MPStageExecutor.createFromConfig (EMPStage.DC_INCOMING,
+                                                    MPHelper::getResponseOrderingKey,
+                                                    IMPStagePerformer.createSynchronous (new MessageProcessorDCIncomingPerformer ())
+                                                                     .withDoneAction (this::_releaseAttachments));
+  }
+
+  private void _releaseAttachments (@Nonnull final ToopResponseWithAttachments140 aResponseWA)
+  {
+    // Error responses of step 1/4 own the spilled attachments of the request.
+    // The attachments of unfinished messages are needed on the next start
+    if (!m_aExecutor.isAborted ())
+      TCAsicHelper.deleteSpilledAttachments (aResponseWA.attachments ());
   }
 
   /**
@@ -75,18 +76,57 @@ public final class MessageProcessorDCIncoming extends AbstractGlobalWebSingleton
     return getGlobalSingleton (MessageProcessorDCIncoming.class);
   }
 
-  @Override
-  protected void onDestroy (@Nonnull final IScope aScopeInDestruction) throws Exception
+  /**
+   * Stop accepting new objects and wait until all queued objects are
+   * processed. Calling this method more than once has no effect.
+   *
+   * @since 0.10.9
+   */
+  void shutdown ()
+  {
+    shutdown (MPStageExecutor.NO_DEADLINE);
+  }
+
+  /**
+   * Stop accepting new objects and wait until all queued objects are
+   * processed or until the deadline is reached.
+   *
+   * @param nDeadlineNanos
+   *        The deadline in the scale of {@link System#nanoTime()} or
+   *        {@link MPStageExecutor#NO_DEADLINE}.
+   * @return The messages that were not finished until the deadline. Never
+   *         <code>null</code> but maybe empty.
+   * @since 0.10.9
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <ToopResponseWithAttachments140> shutdown (final long nDeadlineNanos)
   {
     // Avoid another enqueue call
-    m_aCollector.stopQueuingNewObjects ();
+    m_aExecutor.stopQueuingNewObjects ();
 
     // Shutdown executor service
-    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutorPool);
+    return m_aExecutor.shutdownAndWaitUntil (nDeadlineNanos);
   }
 
   /**
-   * Queue a new Toop Response message.
+   * @return The runtime statistics of this stage. Never <code>null</code>.
+   * @since 0.10.9
+   */
+  @Nonnull
+  public IMPStageStatistics getStatistics ()
+  {
+    return m_aExecutor;
+  }
+
+  @Override
+  protected void onDestroy (@Nonnull final IScope aScopeInDestruction) throws Exception
+  {
+    shutdown ();
+  }
+
+  /**
+   * Queue a new Toop Response message with the default priority.
    *
    * @param aMsg
    *        The data to be queued. May not be <code>null</code>.
@@ -94,16 +134,34 @@ public final class MessageProcessorDCIncoming extends AbstractGlobalWebSingleton
    */
   @Nonnull
   public ESuccess enqueue (@Nonnull final ToopResponseWithAttachments140 aMsg)
+  {
+    return enqueue (aMsg, EMPStage.DC_INCOMING.getDefaultPriority ());
+  }
+
+  /**
+   * Queue a new Toop Response message with the provided priority. Error
+   * responses that short-circuit the regular flow should use
+   * {@link EMPPriority#ERROR}.
+   *
+   * @param aMsg
+   *        The data to be queued. May not be <code>null</code>.
+   * @param ePriority
+   *        The priority of the message. May not be <code>null</code>.
+   * @return {@link ESuccess}. Never <code>null</code>.
+   * @since 0.10.9
+   */
+  @Nonnull
+  public ESuccess enqueue (@Nonnull final ToopResponseWithAttachments140 aMsg, @Nonnull final EMPPriority ePriority)
   {
     ValueEnforcer.notNull (aMsg, "Msg");
+    ValueEnforcer.notNull (ePriority, "Priority");
 
     if (LOGGER.isDebugEnabled ())
-      LOGGER.debug ("Enqueueing new object for step 4/4: " + aMsg);
+      LOGGER.debug ("Enqueueing new " + ePriority.getID () + " object for step 4/4: " + aMsg);
 
     try
     {
-      m_aCollector.queueObject (aMsg);
-      return ESuccess.SUCCESS;
+      return m_aExecutor.queueObject (aMsg, ePriority);
     }
     catch (final IllegalStateException ex)
     {
@@ -15,26 +15,23 @@
  */
 package eu.toop.connector.app.mp;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-
 import javax.annotation.Nonnull;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.annotation.UsedViaReflection;
-import com.helger.commons.concurrent.BasicThreadFactory;
-import com.helger.commons.concurrent.ExecutorServiceHelper;
-import com.helger.commons.concurrent.collector.ConcurrentCollectorSingle;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.state.ESuccess;
 import com.helger.scope.IScope;
 import com.helger.web.scope.singleton.AbstractGlobalWebSingleton;
 
 import eu.toop.commons.exchange.ToopRequestWithAttachments140;
+import eu.toop.connector.api.TCConfig;
+import eu.toop.connector.app.TCAsicHelper;
 import eu.toop.kafkaclient.ToopKafkaClient;
 
 /**
@@ -47,20 +44,25 @@ import eu.toop.kafkaclient.ToopKafkaClient;
 public final class MessageProcessorDCOutgoing extends AbstractGlobalWebSingleton
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (MessageProcessorDCOutgoing.class);
-  // Just to have custom named threads....
-  private static final ThreadFactory s_aThreadFactory = new BasicThreadFactory.Builder ().setNamingPattern ("MP-DC-Out-%d")
-                                                                                         .setDaemon (true)
-                                                                                         .build ();
-  private final ConcurrentCollectorSingle <ToopRequestWithAttachments140> m_aCollector = new ConcurrentCollectorSingle <> ();
-  private final ExecutorService m_aExecutorPool;
+  private final MessageProcessorDCOutgoingPerformer m_aPerformer;
+  private final MPStageExecutor <ToopRequestWithAttachments140> m_aExecutor;
 
   @Deprecated
   @UsedViaReflection
   public MessageProcessorDCOutgoing ()
   {
-    m_aCollector.setPerformer (new MessageProcessorDCOutgoingPerformer ());
-    m_aExecutorPool = Executors.newSingleThreadExecutor (s_aThreadFactory);
-    m_aExecutorPool.submit (m_aCollector::collect);
+    m_aPerformer = new MessageProcessorDCOutgoingPerformer (TCConfig.isMPDCOutgoingPipelineEnabled ());
+    // Requests are independent from each other
+    m_aExecutor = MPStageExecutor.createFromConfig (EMPStage.DC_OUTGOING,
+                                                    x -> null,
+                                                    m_aPerformer.withDoneAction (this::_releaseAttachments));
+  }
+
+  private void _releaseAttachments (@Nonnull final ToopRequestWithAttachments140 aRequestWA)
+  {
+    // The attachments of unfinished messages are needed on the next start
+    if (!m_aExecutor.isAborted ())
+      TCAsicHelper.deleteSpilledAttachments (aRequestWA.attachments ());
   }
 
   /**
@@ -74,14 +76,74 @@ public final class MessageProcessorDCOutgoing extends AbstractGlobalWebSingleton
     return getGlobalSingleton (MessageProcessorDCOutgoing.class);
   }
 
-  @Override
-  protected void onDestroy (@Nonnull final IScope aScopeInDestruction) throws Exception
+  /**
+   * Stop accepting new objects and wait until all queued objects are
+   * processed. Calling this method more than once has no effect.
+   *
+   * @since 0.10.9
+   */
+  void shutdown ()
+  {
+    shutdown (MPStageExecutor.NO_DEADLINE);
+  }
+
+  /**
+   * Stop accepting new objects and wait until all queued objects are
+   * processed or until the deadline is reached.
+   *
+   * @param nDeadlineNanos
+   *        The deadline in the scale of {@link System#nanoTime()} or
+   *        {@link MPStageExecutor#NO_DEADLINE}.
+   * @return The messages that were not finished until the deadline. Never
+   *         <code>null</code> but maybe empty.
+   * @since 0.10.9
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <ToopRequestWithAttachments140> shutdown (final long nDeadlineNanos)
   {
     // Avoid another enqueue call
-    m_aCollector.stopQueuingNewObjects ();
+    m_aExecutor.stopQueuingNewObjects ();
 
     // Shutdown executor service
-    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutorPool);
+    final ICommonsList <ToopRequestWithAttachments140> ret = m_aExecutor.shutdownAndWaitUntil (nDeadlineNanos);
+
+    if (ret.isEmpty ())
+    {
+      // All requests are finished, so the pipeline is idle
+      m_aPerformer.shutdown ();
+    }
+    else
+      m_aPerformer.abort ();
+    return ret;
+  }
+
+  /**
+   * @return The runtime statistics of this stage. Never <code>null</code>.
+   * @since 0.10.9
+   */
+  @Nonnull
+  public IMPStageStatistics getStatistics ()
+  {
+    return m_aExecutor;
+  }
+
+  /**
+   * @return The statistics of all pipeline phases of this stage in processing
+   *         order. Empty if the pipeline is disabled. Never <code>null</code>.
+   * @since 0.10.9
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IMPPipelinePhaseStatistics> getAllPipelinePhaseStatistics ()
+  {
+    return m_aPerformer.getAllPipelinePhaseStatistics ();
+  }
+
+  @Override
+  protected void onDestroy (@Nonnull final IScope aScopeInDestruction) throws Exception
+  {
+    shutdown ();
   }
 
   /**
@@ -101,8 +163,7 @@ public final class MessageProcessorDCOutgoing extends AbstractGlobalWebSingleton
 
     try
     {
-      m_aCollector.queueObject (aMsg);
-      return ESuccess.SUCCESS;
+      return m_aExecutor.queueObject (aMsg);
     }
     catch (final IllegalStateException ex)
     {
@@ -111,4 +172,50 @@ public final class MessageProcessorDCOutgoing extends AbstractGlobalWebSingleton
       return ESuccess.FAILURE;
     }
   }
+
+  /**
+   * Queue a new Toop Request message, unless the queue of this stage is
+   * saturated. This is meant for messages from <code>toop-interface</code>,
+   * that can be resent later on.
+   *
+   * @param aMsg
+   *        The data to be queued. May not be <code>null</code>.
+   * @return {@link ESuccess#FAILURE} if the message was rejected. Never
+   *         <code>null</code>.
+   * @since 0.10.9
+   * @see #getStatistics()
+   */
+  @Nonnull
+  public ESuccess enqueueBounded (@Nonnull final ToopRequestWithAttachments140 aMsg)
+  {
+    ValueEnforcer.notNull (aMsg, "Msg");
+
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Enqueueing new bounded object for step 1/4: " + aMsg);
+
+    try
+    {
+      return m_aExecutor.queueObjectBounded (aMsg);
+    }
+    catch (final IllegalStateException ex)
+    {
+      // Queue is stopped!
+      ToopKafkaClient.send (EErrorLevel.ERROR, () -> "Cannot enqueue " + aMsg, ex);
+      return ESuccess.FAILURE;
+    }
+  }
+
+  /**
+   * Check if a new message would be rejected by
+   * {@link #enqueueBounded(ToopRequestWithAttachments140)} right now, because
+   * the queue of this stage is saturated. This allows to reject a message
+   * before it is read.
+   *
+   * @return <code>true</code> if the message was rejected.
+   * @since 0.10.9
+   */
+  public boolean rejectIfSaturated ()
+  {
+    return m_aExecutor.rejectIfSaturated ();
+  }
 }
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Locale;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -28,9 +29,11 @@ import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 
 import com.helger.asic.AsicUtils;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
 import com.helger.commons.collection.impl.ICommonsList;
-import com.helger.commons.concurrent.collector.IConcurrentPerformer;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
 import com.helger.commons.error.IError;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.error.level.IErrorLevel;
@@ -41,6 +44,7 @@ import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.lang.StackTraceHelper;
 import com.helger.commons.mutable.MutableInt;
 import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
 import com.helger.commons.text.MultilingualText;
 import com.helger.jaxb.validation.WrappedCollectingValidationEventHandler;
 import com.helger.peppolid.IDocumentTypeIdentifier;
@@ -69,8 +73,8 @@ import eu.toop.commons.exchange.ToopRequestWithAttachments140;
 import eu.toop.commons.exchange.ToopResponseWithAttachments140;
 import eu.toop.commons.jaxb.ToopWriter;
 import eu.toop.commons.jaxb.ToopXSDHelper140;
-import eu.toop.commons.schematron.TOOPSchematron140Validator;
 import eu.toop.commons.usecase.SMMDocumentTypeMapping;
+import eu.toop.connector.api.ETCSchematronMode;
 import eu.toop.connector.api.TCConfig;
 import eu.toop.connector.api.TCSettings;
 import eu.toop.connector.api.as4.MEException;
@@ -78,28 +82,153 @@ import eu.toop.connector.api.as4.MEMessage;
 import eu.toop.connector.api.as4.MEPayload;
 import eu.toop.connector.api.as4.MERoutingInformation;
 import eu.toop.connector.api.as4.MessageExchangeManager;
+import eu.toop.connector.api.metrics.LatencyHistogram;
+import eu.toop.connector.api.metrics.TCMetrics;
 import eu.toop.connector.api.r2d2.IR2D2Endpoint;
 import eu.toop.connector.api.r2d2.IR2D2ErrorHandler;
 import eu.toop.connector.api.smm.IMappedValueList;
 import eu.toop.connector.api.smm.ISMMClient;
 import eu.toop.connector.api.smm.ISMMUnmappableCallback;
 import eu.toop.connector.api.smm.MappedValue;
-import eu.toop.connector.api.smm.MappedValueList;
 import eu.toop.connector.app.TCDumpHelper;
 import eu.toop.connector.app.r2d2.R2D2Client;
 import eu.toop.connector.app.smm.SMMClient;
 import eu.toop.kafkaclient.ToopKafkaClient;
+import oasis.names.specification.ubl.schema.xsd.unqualifieddatatypes_21.CodeType;
 import oasis.names.specification.ubl.schema.xsd.unqualifieddatatypes_21.IdentifierType;
 
 /**
- * The nested performer class that does the hard work in step 1/4.
+ * The nested performer class that does the hard work in step 1/4. The work is
+ * split into the phases defined in {@link EMPDCOutgoingPhase}. The phases are
+ * either performed one after the other on the calling thread, or each phase
+ * runs on its own worker threads and the phases are connected via bounded
+ * hand-off queues (see {@link MPPipeline}). In the pipeline the discovery
+ * phase drains batches of requests, and requests with the same discovery
+ * parameters share a single discovery call. Otherwise concurrently processed
+ * requests with the same discovery parameters share a single discovery call
+ * (see {@link MPCoalescer}).
  *
  * @author Philip Helger
  */
-final class MessageProcessorDCOutgoingPerformer implements IConcurrentPerformer <ToopRequestWithAttachments140>
+final class MessageProcessorDCOutgoingPerformer implements IMPStagePerformer <ToopRequestWithAttachments140>
 {
+  /**
+   * The state of a single request while it passes through the phases. The
+   * phases of one request never run concurrently, and the hand-over between
+   * the phases is done via an executor, so no further synchronization is
+   * needed.
+   */
+  private static final class DCOutgoingContext
+  {
+    private final ToopRequestWithAttachments140 m_aRequestWA;
+    private final TDETOOPRequestType m_aRequest;
+    private final String m_sRequestID;
+    private final String m_sLogPrefix;
+    private final Runnable m_aDoneCallback;
+    private final long m_nStartNanos;
+    private final ICommonsList <TDEErrorType> m_aErrors = new CommonsArrayList <> ();
+
+    // Set in phase "validate"
+    private IIdentifierFactory m_aIF;
+    private TDERoutingInformationType m_aRoutingInfo;
+    private IParticipantIdentifier m_aSenderID;
+    private IDocumentTypeIdentifier m_aDocTypeID;
+    private IProcessIdentifier m_aProcessID;
+    private EPredefinedDocumentTypeIdentifier m_eDocType;
+    // Set in phase "discover"
+    private ICommonsList <IR2D2Endpoint> m_aEndpoints;
+    // Set in phase "package"
+    private ByteArrayWrapper m_aPayloadBytes;
+
+    DCOutgoingContext (@Nonnull final ToopRequestWithAttachments140 aRequestWA, @Nonnull final Runnable aDoneCallback)
+    {
+      m_nStartNanos = System.nanoTime ();
+      m_aRequestWA = aRequestWA;
+      m_aRequest = aRequestWA.getRequest ();
+
+      /*
+       * This is the unique ID of this request message and must be used
+       * throughout the whole process for identification
+       */
+      m_sRequestID = m_aRequest.getDocumentUniversalUniqueIdentifier () != null ? m_aRequest.getDocumentUniversalUniqueIdentifier ()
+                                                                                            .getValue ()
+                                                                                  : "temp-tc1-id-" +
+                                                                                    GlobalIDFactory.getNewIntID ();
+      m_sLogPrefix = "[" + m_sRequestID + "] ";
+      m_aDoneCallback = aDoneCallback;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (this).append ("RequestID", m_sRequestID)
+                                         .append ("ErrorCount", m_aErrors.size ())
+                                         .getToString ();
+    }
+  }
+
   private static final Logger LOGGER = LoggerFactory.getLogger (MessageProcessorDCOutgoingPerformer.class);
 
+  // Latency per processing phase
+  private static final LatencyHistogram LATENCY_VALIDATE = TCMetrics.getHistogram ("mp.dc-outgoing.validate");
+  private static final LatencyHistogram LATENCY_SEMANTIC_MAP = TCMetrics.getHistogram ("mp.dc-outgoing.semantic-map");
+  private static final LatencyHistogram LATENCY_DISCOVER = TCMetrics.getHistogram ("mp.dc-outgoing.discover");
+  private static final LatencyHistogram LATENCY_PACKAGE = TCMetrics.getHistogram ("mp.dc-outgoing.package");
+  private static final LatencyHistogram LATENCY_TRANSMIT = TCMetrics.getHistogram ("mp.dc-outgoing.transmit");
+  private static final LatencyHistogram LATENCY_TOTAL = TCMetrics.getHistogram ("mp.dc-outgoing.total");
+
+  // Concurrent requests with the same discovery parameters share the lookup
+  private static final MPCoalescer <DCOutgoingContext> DISCOVERY_COALESCER = new MPCoalescer <> (TCConfig::getMPDCOutgoingDiscoverBatchSize);
+
+  private static final String ERROR_NO_DESTINATION_COUNTRY_CODE = "Failed to find destination country code to query!";
+
+  private final MPPipeline <DCOutgoingContext> m_aPipeline;
+
+  /**
+   * Constructor
+   *
+   * @param bPipelined
+   *        <code>true</code> to run each phase on its own worker threads,
+   *        <code>false</code> to run all phases on the calling thread.
+   * @since 0.10.9
+   */
+  MessageProcessorDCOutgoingPerformer (final boolean bPipelined)
+  {
+    if (bPipelined)
+    {
+      m_aPipeline = new MPPipeline <> (MessageProcessorDCOutgoingPerformer::_finish,
+                                       MessageProcessorDCOutgoingPerformer::_onException);
+      final int nDiscoverBatchSize = TCConfig.getMPDCOutgoingDiscoverBatchSize ();
+      for (final EMPDCOutgoingPhase ePhase : EMPDCOutgoingPhase.values ())
+      {
+        final String sPhaseID = ePhase.getID ();
+        final int nWorkerCount = TCConfig.getMPDCOutgoingPipelineWorkerCount (sPhaseID,
+                                                                              ePhase.getDefaultWorkerCount ());
+        final int nQueueCapacity = TCConfig.getMPDCOutgoingPipelineQueueCapacity (sPhaseID);
+        if (ePhase == EMPDCOutgoingPhase.DISCOVER && nDiscoverBatchSize > 1)
+        {
+          // Share the discovery between similar requests
+          m_aPipeline.addBatchPhase (sPhaseID,
+                                     ePhase.getThreadNamePrefix (),
+                                     nWorkerCount,
+                                     nQueueCapacity,
+                                     nDiscoverBatchSize,
+                                     TCConfig.getMPDCOutgoingDiscoverBatchLingerMS (),
+                                     MessageProcessorDCOutgoingPerformer::_discoverBatch,
+                                     aCtx -> aCtx.m_aErrors.isEmpty ());
+        }
+        else
+          m_aPipeline.addPhase (sPhaseID,
+                                ePhase.getThreadNamePrefix (),
+                                nWorkerCount,
+                                nQueueCapacity,
+                                aCtx -> _runPhase (ePhase, aCtx));
+      }
+    }
+    else
+      m_aPipeline = null;
+  }
+
   @Nonnull
   private static TDEErrorType _createError (@Nonnull final IErrorLevel aErrorLevel,
                                             @Nonnull final String sLogPrefix,
@@ -152,87 +281,130 @@ final class MessageProcessorDCOutgoingPerformer implements IConcurrentPerformer
     }
   }
 
-  public void runAsync (@Nonnull final ToopRequestWithAttachments140 aRequestWA)
+  private static void _validate (@Nonnull final DCOutgoingContext aCtx)
   {
-    final TDETOOPRequestType aRequest = aRequestWA.getRequest ();
-
-    /*
-     * This is the unique ID of this request message and must be used throughout
-     * the whole process for identification
-     */
-    final String sRequestID = aRequest.getDocumentUniversalUniqueIdentifier () != null ? aRequest.getDocumentUniversalUniqueIdentifier ()
-                                                                                                 .getValue ()
-                                                                                       : "temp-tc1-id-" +
-                                                                                         GlobalIDFactory.getNewIntID ();
-    final String sLogPrefix = "[" + sRequestID + "] ";
-    final ICommonsList <TDEErrorType> aErrors = new CommonsArrayList <> ();
-
-    ToopKafkaClient.send (EErrorLevel.INFO, () -> "Created new unique request ID [" + sRequestID + "]");
-    ToopKafkaClient.send (EErrorLevel.INFO, () -> sLogPrefix + "Received DC Request (1/4)");
+    final TDETOOPRequestType aRequest = aCtx.m_aRequest;
+    final String sLogPrefix = aCtx.m_sLogPrefix;
+    final ICommonsList <TDEErrorType> aErrors = aCtx.m_aErrors;
 
     // Schematron validation
-    if (TCConfig.isMPSchematronValidationEnabled ())
+    final MPSchematronSampler aSampler = MPSchematronSampler.getInstance ();
+    final ETCSchematronMode eSchematronMode = aSampler.getMode ();
+    if (!eSchematronMode.isEnabled ())
     {
-      if (LOGGER.isDebugEnabled ())
-        LOGGER.debug (sLogPrefix + "Performing Schematron validation on incoming TOOP request");
-
-      final ErrorList aErrorList = new ErrorList ();
-      // XML creation
-      final Document aDoc = ToopWriter.request140 ()
-                                      .setValidationEventHandler (new WrappedCollectingValidationEventHandler (aErrorList))
-                                      .getAsDocument (aRequest);
-      if (aDoc == null)
+      ToopKafkaClient.send (EErrorLevel.INFO, () -> sLogPrefix + "Schematron validation was explicitly disabled.");
+    }
+    else
+      if (!aSampler.isNextMessageSelected ())
       {
-        for (final IError aError : aErrorList)
-          aErrors.add (_createError (aError.getErrorLevel (),
-                                     sLogPrefix,
-                                     EToopErrorCategory.PARSING,
-                                     EToopErrorCode.IF_001,
-                                     aError.getErrorText (Locale.US),
-                                     aError.getLinkedException ()));
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug (sLogPrefix + "TOOP request was not selected for Schematron validation");
       }
       else
       {
-        // Schematron validation
-        final TOOPSchematron140Validator aValidator = new TOOPSchematron140Validator ();
-        final ICommonsList <AbstractSVRLMessage> aMsgs = aValidator.validateTOOPMessage (aDoc);
-        for (final AbstractSVRLMessage aMsg : aMsgs)
+        final long nPhaseStart = System.nanoTime ();
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug (sLogPrefix + "Performing Schematron validation on incoming TOOP request (" + eSchematronMode.getID () + ")");
+
+        final ErrorList aErrorList = new ErrorList ();
+        Supplier <ICommonsList <AbstractSVRLMessage>> aValidation = null;
+        if (aCtx.m_aRequestWA instanceof ToopRequestWithPayload140)
         {
-          aErrors.add (_createError (aMsg.getFlag (),
-                                     sLogPrefix,
-                                     EToopErrorCategory.PARSING,
-                                     EToopErrorCode.IF_001,
-                                     "[" + aMsg.getLocation () + "] [Test: " + aMsg.getTest () + "] " + aMsg.getText (),
-                                     null));
+          // Validate the XML as received - no need to serialize the request again
+          final byte [] aXML = ((ToopRequestWithPayload140) aCtx.m_aRequestWA).getXMLPayload ();
+          aValidation = () -> MPSchematronValidator.getInstance ().validate (aXML);
         }
+        else
+          if (eSchematronMode.isRejecting ())
+          {
+            // XML creation - must happen here, as the request may be modified later
+            final Document aDoc = ToopWriter.request140 ()
+                                            .setValidationEventHandler (new WrappedCollectingValidationEventHandler (aErrorList))
+                                            .getAsDocument (aRequest);
+            if (aDoc == null)
+            {
+              for (final IError aError : aErrorList)
+                aErrors.add (_createError (aError.getErrorLevel (),
+                                           sLogPrefix,
+                                           EToopErrorCategory.PARSING,
+                                           EToopErrorCode.IF_001,
+                                           aError.getErrorText (Locale.US),
+                                           aError.getLinkedException ()));
+            }
+            else
+            {
+              // Schematron validation with the pre-compiled XSLT
+              aValidation = () -> MPSchematronValidator.getInstance ().validate (aDoc);
+            }
+          }
+          else
+          {
+            // Only copy the request here, as it may be modified later - the XML
+            // creation is part of the shadow task and stays off this thread
+            final TDETOOPRequestType aRequestCopy = aRequest.clone ();
+            aValidation = () -> {
+              final ErrorList aShadowErrorList = new ErrorList ();
+              final Document aDoc = ToopWriter.request140 ()
+                                              .setValidationEventHandler (new WrappedCollectingValidationEventHandler (aShadowErrorList))
+                                              .getAsDocument (aRequestCopy);
+              if (aDoc == null)
+              {
+                for (final IError aError : aShadowErrorList)
+                  ToopKafkaClient.send (EErrorLevel.WARN,
+                                        () -> sLogPrefix + "[Shadow Schematron] " + aError.getErrorText (Locale.US),
+                                        aError.getLinkedException ());
+                throw new IllegalStateException ("Failed to create the XML of the TOOP request");
+              }
+              return MPSchematronValidator.getInstance ().validate (aDoc);
+            };
+          }
+
+        if (aValidation != null)
+        {
+          if (eSchematronMode.isRejecting ())
+          {
+            for (final AbstractSVRLMessage aMsg : aValidation.get ())
+            {
+              aErrors.add (_createError (aMsg.getFlag (),
+                                         sLogPrefix,
+                                         EToopErrorCategory.PARSING,
+                                         EToopErrorCode.IF_001,
+                                         "[" + aMsg.getLocation () + "] [Test: " + aMsg.getTest () + "] " + aMsg.getText (),
+                                         null));
+            }
+          }
+          else
+          {
+            // Violations are only reported
+            aSampler.validateInShadow (sLogPrefix, aValidation);
+          }
+        }
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug (sLogPrefix + "Finished Schematron validation with the following results: " + aErrorList);
+        LATENCY_VALIDATE.recordSince (nPhaseStart);
       }
-      if (LOGGER.isDebugEnabled ())
-        LOGGER.debug (sLogPrefix + "Finished Schematron validation with the following results: " + aErrorList);
-    }
-    else
-    {
-      ToopKafkaClient.send (EErrorLevel.INFO, () -> sLogPrefix + "Schematron validation was explicitly disabled.");
-    }
 
     if (aErrors.isEmpty ())
     {
       final IIdentifierFactory aIF = TCSettings.getIdentifierFactory ();
       final TDERoutingInformationType aRoutingInfo = aRequest.getRoutingInformation ();
-      final IParticipantIdentifier aSenderID = aRoutingInfo == null ? null
-                                                                    : aIF.createParticipantIdentifier (aRoutingInfo.getDataConsumerElectronicAddressIdentifier ()
-                                                                                                                   .getSchemeID (),
-                                                                                                       aRoutingInfo.getDataConsumerElectronicAddressIdentifier ()
-                                                                                                                   .getValue ());
-      final IDocumentTypeIdentifier aDocTypeID = aRoutingInfo == null ? null
-                                                                      : aIF.createDocumentTypeIdentifier (aRoutingInfo.getDocumentTypeIdentifier ()
-                                                                                                                      .getSchemeID (),
-                                                                                                          aRoutingInfo.getDocumentTypeIdentifier ()
-                                                                                                                      .getValue ());
-      final IProcessIdentifier aProcessID = aRoutingInfo == null ? null
-                                                                 : aIF.createProcessIdentifier (aRoutingInfo.getProcessIdentifier ()
-                                                                                                            .getSchemeID (),
-                                                                                                aRoutingInfo.getProcessIdentifier ()
-                                                                                                            .getValue ());
+      aCtx.m_aIF = aIF;
+      aCtx.m_aRoutingInfo = aRoutingInfo;
+      aCtx.m_aSenderID = aRoutingInfo == null ? null
+                                              : aIF.createParticipantIdentifier (aRoutingInfo.getDataConsumerElectronicAddressIdentifier ()
+                                                                                             .getSchemeID (),
+                                                                                 aRoutingInfo.getDataConsumerElectronicAddressIdentifier ()
+                                                                                             .getValue ());
+      aCtx.m_aDocTypeID = aRoutingInfo == null ? null
+                                               : aIF.createDocumentTypeIdentifier (aRoutingInfo.getDocumentTypeIdentifier ()
+                                                                                               .getSchemeID (),
+                                                                                   aRoutingInfo.getDocumentTypeIdentifier ()
+                                                                                               .getValue ());
+      aCtx.m_aProcessID = aRoutingInfo == null ? null
+                                               : aIF.createProcessIdentifier (aRoutingInfo.getProcessIdentifier ()
+                                                                                          .getSchemeID (),
+                                                                              aRoutingInfo.getProcessIdentifier ()
+                                                                                          .getValue ());
 
       // Select document type
       final EPredefinedDocumentTypeIdentifier eDocType = aRoutingInfo == null ? null
@@ -253,6 +425,7 @@ final class MessageProcessorDCOutgoingPerformer implements IConcurrentPerformer
       {
         if (LOGGER.isDebugEnabled ())
           LOGGER.debug (sLogPrefix + "Selected document type: " + eDocType);
+        aCtx.m_eDocType = eDocType;
 
         // Don't do this:
         // DataRequestIdentifier: "A reference to the universally unique
@@ -261,343 +434,643 @@ final class MessageProcessorDCOutgoingPerformer implements IConcurrentPerformer
         if (false)
         {
           // Remember request ID
-          aRequest.setDataRequestIdentifier (ToopXSDHelper140.createIdentifier (sRequestID));
+          aRequest.setDataRequestIdentifier (ToopXSDHelper140.createIdentifier (aCtx.m_sRequestID));
         }
+      }
+    }
+  }
 
-        // 1. invoke SMM
-        // Map to TOOP concepts
-        final ISMMClient aSMMClient = new SMMClient ();
-        _iterateNonTCConcepts (aRequest, c -> aSMMClient.addConceptToBeMapped (ConceptValue.create (c)));
-        final int nConceptsToBeMapped = aSMMClient.getTotalCountConceptsToBeMapped ();
+  private static void _semanticMap (@Nonnull final DCOutgoingContext aCtx)
+  {
+    final TDETOOPRequestType aRequest = aCtx.m_aRequest;
+    final String sLogPrefix = aCtx.m_sLogPrefix;
+    final ICommonsList <TDEErrorType> aErrors = aCtx.m_aErrors;
+    final EPredefinedDocumentTypeIdentifier eDocType = aCtx.m_eDocType;
 
-        if (LOGGER.isDebugEnabled ())
-          LOGGER.debug (sLogPrefix + "A total of " + nConceptsToBeMapped + " concepts need to be mapped");
+    // 1. invoke SMM
+    // Map to TOOP concepts
+    final ISMMClient aSMMClient = new SMMClient ();
+    _iterateNonTCConcepts (aRequest, c -> aSMMClient.addConceptToBeMapped (ConceptValue.create (c)));
+    final int nConceptsToBeMapped = aSMMClient.getTotalCountConceptsToBeMapped ();
 
-        // 0.10.3 - invoke SMM only when concepts are present
-        if (nConceptsToBeMapped > 0)
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug (sLogPrefix + "A total of " + nConceptsToBeMapped + " concepts need to be mapped");
+
+    // 0.10.3 - invoke SMM only when concepts are present
+    if (nConceptsToBeMapped > 0)
+    {
+      final long nPhaseStart = System.nanoTime ();
+
+      // Main mapping
+      ICommonsOrderedMap <ConceptValue, IMappedValueList> aMappedValues = null;
+      try
+      {
+        // send back error if some value could not be mapped
+        final String sSMMDomain = SMMDocumentTypeMapping.getToopSMDomainOrNull (eDocType);
+        if (sSMMDomain == null)
         {
-          // Main mapping
-          IMappedValueList aMappedValues = null;
-          try
-          {
-            // send back error if some value could not be mapped
-            final String sSMMDomain = SMMDocumentTypeMapping.getToopSMDomainOrNull (eDocType);
-            if (sSMMDomain == null)
-            {
-              // No SMM mapping for this document type
-              aMappedValues = new MappedValueList ();
-              ToopKafkaClient.send (EErrorLevel.INFO,
-                                    () -> sLogPrefix +
-                                          "Found no SMM document type mapping for document type " +
-                                          eDocType);
-            }
-            else
-            {
-              final ISMMUnmappableCallback aUnmappableCallback = (sLogPrefix1,
-                                                                  sSourceNamespace,
-                                                                  sSourceValue,
-                                                                  sDestNamespace) -> {
-                final String sErrorMsg = "Found no mapping for '" +
-                                         sSourceNamespace +
-                                         '#' +
-                                         sSourceValue +
-                                         "' to destination namespace '" +
-                                         sDestNamespace +
-                                         "'";
-                aErrors.add (_createError (sLogPrefix1,
-                                           EToopErrorCategory.SEMANTIC_MAPPING,
-                                           EToopErrorCode.SM_002,
-                                           sErrorMsg,
-                                           null));
-              };
-
-              ToopKafkaClient.send (EErrorLevel.INFO,
-                                    () -> sLogPrefix +
-                                          "SMM client is mapping " +
-                                          aSMMClient.getTotalCountConceptsToBeMapped () +
-                                          " concept(s) to namespace '" +
-                                          sSMMDomain +
-                                          "'");
-
-              aMappedValues = aSMMClient.performMapping (sLogPrefix,
+          // No SMM mapping for this document type
+          aMappedValues = new CommonsLinkedHashMap <> ();
+          ToopKafkaClient.send (EErrorLevel.INFO,
+                                () -> sLogPrefix + "Found no SMM document type mapping for document type " + eDocType);
+        }
+        else
+        {
+          final ISMMUnmappableCallback aUnmappableCallback = (sLogPrefix1,
+                                                              sSourceNamespace,
+                                                              sSourceValue,
+                                                              sDestNamespace) -> {
+            final String sErrorMsg = "Found no mapping for '" +
+                                     sSourceNamespace +
+                                     '#' +
+                                     sSourceValue +
+                                     "' to destination namespace '" +
+                                     sDestNamespace +
+                                     "'";
+            aErrors.add (_createError (sLogPrefix1,
+                                       EToopErrorCategory.SEMANTIC_MAPPING,
+                                       EToopErrorCode.SM_002,
+                                       sErrorMsg,
+                                       null));
+          };
+
+          ToopKafkaClient.send (EErrorLevel.INFO,
+                                () -> sLogPrefix +
+                                      "SMM client is mapping " +
+                                      aSMMClient.getTotalCountConceptsToBeMapped () +
+                                      " concept(s) to namespace '" +
+                                      sSMMDomain +
+                                      "'");
+
+          aMappedValues = aSMMClient.performBulkMapping (sLogPrefix,
                                                          sSMMDomain,
                                                          MPConfig.getSMMConceptProvider (),
                                                          aUnmappableCallback);
 
-              ToopKafkaClient.send (EErrorLevel.INFO,
-                                    sLogPrefix + "SMM client mapping found " + aMappedValues.size () + " mapping(s)");
+          final int nMappings = aMappedValues.values ().stream ().mapToInt (IMappedValueList::size).sum ();
+          ToopKafkaClient.send (EErrorLevel.INFO, sLogPrefix + "SMM client mapping found " + nMappings + " mapping(s)");
+        }
+      }
+      catch (final Exception ex)
+      {
+        // send back async error
+        final String sErrorMsg = "Failed to invoke semantic mapping";
+        aErrors.add (_createError (sLogPrefix,
+                                   EToopErrorCategory.SEMANTIC_MAPPING,
+                                   EToopErrorCode.SM_001,
+                                   sErrorMsg,
+                                   ex));
+      }
+
+      if (aErrors.isEmpty ())
+      {
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug (sLogPrefix + "Starting to add mapped SMM concepts to the TOOP request");
+
+        final ICommonsOrderedMap <ConceptValue, IMappedValueList> aFinalMappedValues = aMappedValues;
+
+        // add all the mapped values in the request
+        final MutableInt aCounter = new MutableInt (0);
+        _iterateNonTCConcepts (aRequest, c -> {
+          aCounter.inc ();
+
+          boolean bFoundMapping = false;
+          final ConceptValue aSrcCV = ConceptValue.create (c);
+          final IMappedValueList aMatching = aFinalMappedValues.get (aSrcCV);
+          if (aMatching != null)
+            for (final MappedValue aMV : aMatching)
+            {
+              final TDEConceptRequestType aToopConcept = new TDEConceptRequestType ();
+              aToopConcept.setConceptTypeCode (ToopXSDHelper140.createCode (EConceptType.TC.getID ()));
+              aToopConcept.setSemanticMappingExecutionIndicator (ToopXSDHelper140.createIndicator (false));
+              aToopConcept.setConceptNamespace (ToopXSDHelper140.createIdentifier (aMV.getDestination ()
+                                                                                      .getNamespace ()));
+              aToopConcept.setConceptName (ToopXSDHelper140.createText (aMV.getDestination ().getValue ()));
+              c.addConceptRequest (aToopConcept);
+              bFoundMapping = true;
             }
+
+          if (bFoundMapping)
+          {
+            // Now the source was mapped
+            c.getSemanticMappingExecutionIndicator ().setValue (true);
           }
-          catch (final Exception ex)
+          else
           {
-            // send back async error
-            final String sErrorMsg = "Failed to invoke semantic mapping";
-            aErrors.add (_createError (sLogPrefix,
-                                       EToopErrorCategory.SEMANTIC_MAPPING,
-                                       EToopErrorCode.SM_001,
-                                       sErrorMsg,
-                                       ex));
+            ToopKafkaClient.send (EErrorLevel.WARN,
+                                  () -> sLogPrefix + "Found no source mapping of " + aSrcCV + " in " + aFinalMappedValues);
           }
+        });
 
-          if (aErrors.isEmpty ())
-          {
-            if (LOGGER.isDebugEnabled ())
-              LOGGER.debug (sLogPrefix + "Starting to add mapped SMM concepts to the TOOP request");
+        ToopKafkaClient.send (EErrorLevel.INFO,
+                              () -> sLogPrefix +
+                                    "Finished mapping to shared concept with " +
+                                    aCounter.intValue () +
+                                    " invocations");
+      }
+      LATENCY_SEMANTIC_MAP.recordSince (nPhaseStart);
+    }
+  }
 
-            final IMappedValueList aFinalMappedValues = aMappedValues;
+  /**
+   * Get the key of all parameters the dynamic discovery depends on. Requests
+   * with the same key yield the same endpoints.
+   *
+   * @param aCtx
+   *        The request context. May not be <code>null</code>.
+   * @param sTransportProfileID
+   *        The transport profile to be used. May not be <code>null</code>.
+   * @return The discovery key or <code>null</code> if the request contains
+   *         neither a DP participant identifier nor a DP country code.
+   */
+  @Nullable
+  private static String _getDiscoveryKey (@Nonnull final DCOutgoingContext aCtx,
+                                          @Nonnull final String sTransportProfileID)
+  {
+    final TDERoutingInformationType aRoutingInfo = aCtx.m_aRoutingInfo;
+    final IdentifierType aExplicitQueryAddress = aRoutingInfo.getDataProviderElectronicAddressIdentifier ();
+    final String sReceiver;
+    if (aExplicitQueryAddress != null)
+      sReceiver = "participant:" + aExplicitQueryAddress.getSchemeID () + "::" + aExplicitQueryAddress.getValue ();
+    else
+    {
+      final String sDestinationCountryCode = _getDestinationCountryCode (aRoutingInfo);
+      if (StringHelper.hasNoText (sDestinationCountryCode))
+        return null;
+      sReceiver = "country:" + sDestinationCountryCode;
+    }
+    return sReceiver +
+           "\n" +
+           aCtx.m_aDocTypeID.getURIEncoded () +
+           "\n" +
+           aCtx.m_aProcessID.getURIEncoded () +
+           "\n" +
+           sTransportProfileID;
+  }
 
-            // add all the mapped values in the request
-            final MutableInt aCounter = new MutableInt (0);
-            _iterateNonTCConcepts (aRequest, c -> {
-              aCounter.inc ();
+  @Nullable
+  private static String _getDestinationCountryCode (@Nonnull final TDERoutingInformationType aRoutingInfo)
+  {
+    final CodeType aCountryCode = aRoutingInfo.getDataProviderCountryCode ();
+    return aCountryCode == null ? null : aCountryCode.getValue ();
+  }
 
-              boolean bFoundMapping = false;
-              final ConceptValue aSrcCV = ConceptValue.create (c);
-              for (final MappedValue aMV : aFinalMappedValues.getAllBySource (x -> x.equals (aSrcCV)))
-              {
-                final TDEConceptRequestType aToopConcept = new TDEConceptRequestType ();
-                aToopConcept.setConceptTypeCode (ToopXSDHelper140.createCode (EConceptType.TC.getID ()));
-                aToopConcept.setSemanticMappingExecutionIndicator (ToopXSDHelper140.createIndicator (false));
-                aToopConcept.setConceptNamespace (ToopXSDHelper140.createIdentifier (aMV.getDestination ()
-                                                                                        .getNamespace ()));
-                aToopConcept.setConceptName (ToopXSDHelper140.createText (aMV.getDestination ().getValue ()));
-                c.addConceptRequest (aToopConcept);
-                bFoundMapping = true;
-              }
+  /**
+   * Perform the dynamic discovery once for a group of requests that have the
+   * same discovery key. The leader request is used for the lookup, and the
+   * endpoints and discovery errors are applied to all requests of the group.
+   *
+   * @param aLeader
+   *        The request used for the lookup. May not be <code>null</code>.
+   * @param aGroupCloser
+   *        Returns all requests of the group, including the leader. It is
+   *        called once after the lookup, so that requests can join the group
+   *        while the lookup is running. May not be <code>null</code>.
+   * @param sTransportProfileID
+   *        The transport profile to be used. May not be <code>null</code>.
+   */
+  private static void _discoverGroup (@Nonnull final DCOutgoingContext aLeader,
+                                      @Nonnull final Supplier <ICommonsList <DCOutgoingContext>> aGroupCloser,
+                                      @Nonnull final String sTransportProfileID)
+  {
+    final String sLogPrefix = aLeader.m_sLogPrefix;
+    final TDERoutingInformationType aRoutingInfo = aLeader.m_aRoutingInfo;
+    final long nPhaseStart = System.nanoTime ();
+    ICommonsList <IR2D2Endpoint> aEndpoints = null;
 
-              if (bFoundMapping)
-              {
-                // Now the source was mapped
-                c.getSemanticMappingExecutionIndicator ().setValue (true);
-              }
-              else
-              {
-                ToopKafkaClient.send (EErrorLevel.WARN,
-                                      () -> sLogPrefix +
-                                            "Found no source mapping of " +
-                                            aSrcCV +
-                                            " in " +
-                                            aFinalMappedValues);
-              }
-            });
+    // 2. invoke R2D2 client
+    // The R2D2 error handler that remembers R2D2 errors, so that they can be
+    // converted into response errors for every request of the group
+    final ICommonsList <Consumer <DCOutgoingContext>> aDiscoveryErrors = new CommonsArrayList <> ();
+    final IR2D2ErrorHandler aErrHdl = (eErrorLevel,
+                                       sMsg,
+                                       aCause,
+                                       eErrorCode) -> aDiscoveryErrors.add (aCtx -> aCtx.m_aErrors.add (_createError (eErrorLevel,
+                                                                                                                      aCtx.m_sLogPrefix,
+                                                                                                                      EToopErrorCategory.DYNAMIC_DISCOVERY,
+                                                                                                                      eErrorCode,
+                                                                                                                      sMsg,
+                                                                                                                      aCause)));
 
-            ToopKafkaClient.send (EErrorLevel.INFO,
-                                  () -> sLogPrefix +
-                                        "Finished mapping to shared concept with " +
-                                        aCounter.intValue () +
-                                        " invocations");
-          }
-        }
+    final IdentifierType aExplicitQueryAddress = aRoutingInfo.getDataProviderElectronicAddressIdentifier ();
+    final boolean bIsExplicitParticipant = aExplicitQueryAddress != null;
+    if (bIsExplicitParticipant)
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug (sLogPrefix +
+                      "Starting SMP lookup for an explicit participant: " +
+                      aExplicitQueryAddress.toString ());
 
-        ICommonsList <IR2D2Endpoint> aEndpoints = null;
+      // Query one participant only
+      final IParticipantIdentifier aRecipientID = aLeader.m_aIF.createParticipantIdentifier (aExplicitQueryAddress.getSchemeID (),
+                                                                                             aExplicitQueryAddress.getValue ());
 
-        if (aErrors.isEmpty ())
-        {
-          // 2. invoke R2D2 client
-          final String sTransportProfileID = TCConfig.getMEMProtocol ().getTransportProfileID ();
-
-          // The R2D2 error handler that converts R2D2 errors into response
-          // errors
-          final IR2D2ErrorHandler aErrHdl = (eErrorLevel,
-                                             sMsg,
-                                             aCause,
-                                             eErrorCode) -> aErrors.add (_createError (eErrorLevel,
-                                                                                       sLogPrefix,
-                                                                                       EToopErrorCategory.DYNAMIC_DISCOVERY,
-                                                                                       eErrorCode,
-                                                                                       sMsg,
-                                                                                       aCause));
-
-          final IdentifierType aExplicitQueryAddress = aRoutingInfo.getDataProviderElectronicAddressIdentifier ();
-          final boolean bIsExplicitParticipant = aExplicitQueryAddress != null;
-          if (bIsExplicitParticipant)
-          {
-            if (LOGGER.isDebugEnabled ())
-              LOGGER.debug (sLogPrefix +
-                            "Starting SMP lookup for an explicit participant: " +
-                            aExplicitQueryAddress.toString ());
-
-            // Query one participant only
-            final IParticipantIdentifier aRecipientID = aIF.createParticipantIdentifier (aExplicitQueryAddress.getSchemeID (),
-                                                                                         aExplicitQueryAddress.getValue ());
-
-            // Find all endpoints of recipient
-            aEndpoints = MPConfig.getEndpointProvider ()
-                                 .getEndpoints (sLogPrefix,
-                                                aRecipientID,
-                                                aDocTypeID,
-                                                aProcessID,
-                                                sTransportProfileID,
-                                                aErrHdl);
-          }
-          else
-          {
-            if (LOGGER.isDebugEnabled ())
-              LOGGER.debug (sLogPrefix + "Starting SMP lookup with country code and document type");
+      // Find all endpoints of recipient
+      aEndpoints = MPConfig.getEndpointProvider ()
+                           .getEndpoints (sLogPrefix,
+                                          aRecipientID,
+                                          aLeader.m_aDocTypeID,
+                                          aLeader.m_aProcessID,
+                                          sTransportProfileID,
+                                          aErrHdl);
+    }
+    else
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug (sLogPrefix + "Starting SMP lookup with country code and document type");
 
-            // Find destination country code
-            final String sDestinationCountryCode = aRoutingInfo.getDataProviderCountryCode ().getValue ();
-            if (StringHelper.hasNoText (sDestinationCountryCode))
-            {
-              aErrors.add (_createError (sLogPrefix,
-                                         EToopErrorCategory.DYNAMIC_DISCOVERY,
-                                         EToopErrorCode.IF_001,
-                                         "Failed to find destination country code to query!",
-                                         null));
-            }
+      // Find destination country code
+      final String sDestinationCountryCode = _getDestinationCountryCode (aRoutingInfo);
+      if (StringHelper.hasNoText (sDestinationCountryCode))
+      {
+        aErrHdl.onError (ERROR_NO_DESTINATION_COUNTRY_CODE, EToopErrorCode.IF_001);
+      }
+      else
+      {
+        // Find all endpoints by country
+        aEndpoints = R2D2Client.getParticipantIDsAndEndpoints (sLogPrefix,
+                                                               sDestinationCountryCode,
+                                                               aLeader.m_aDocTypeID,
+                                                               MPConfig.getParticipantIDProvider (),
+                                                               aLeader.m_aProcessID,
+                                                               sTransportProfileID,
+                                                               MPConfig.getEndpointProvider (),
+                                                               aErrHdl);
+      }
+    }
 
-            if (aErrors.isEmpty ())
-            {
-              // Find all endpoints by country
-              aEndpoints = R2D2Client.getParticipantIDsAndEndpoints (sLogPrefix,
-                                                                     sDestinationCountryCode,
-                                                                     aDocTypeID,
-                                                                     MPConfig.getParticipantIDProvider (),
-                                                                     aProcessID,
-                                                                     sTransportProfileID,
-                                                                     MPConfig.getEndpointProvider (),
-                                                                     aErrHdl);
-            }
-          }
+    // No more requests can join from here on
+    final ICommonsList <DCOutgoingContext> aGroup = aGroupCloser.get ();
+    if (aGroup.size () > 1)
+      ToopKafkaClient.send (EErrorLevel.INFO,
+                            () -> sLogPrefix +
+                                  "Performed a single discovery for " +
+                                  aGroup.size () +
+                                  " requests: " +
+                                  aGroup.getAllMapped (x -> x.m_sRequestID));
 
-          if (aErrors.isEmpty ())
-          {
-            final int nEndpointCount = aEndpoints == null ? 0 : aEndpoints.size ();
-            ToopKafkaClient.send (EErrorLevel.INFO,
-                                  () -> sLogPrefix +
-                                        "R2D2 found " +
-                                        nEndpointCount +
-                                        " endpoints for " +
-                                        (bIsExplicitParticipant ? "single participant" : "multi participant") +
-                                        " lookup");
-            if (LOGGER.isDebugEnabled ())
-              LOGGER.debug (sLogPrefix + "Endpoint details: " + aEndpoints);
-
-            if (nEndpointCount == 0)
-            {
-              aErrors.add (_createError (sLogPrefix,
-                                         EToopErrorCategory.DYNAMIC_DISCOVERY,
-                                         EToopErrorCode.DD_006,
-                                         "Found no endpoints for transport profile '" +
-                                                                sTransportProfileID +
-                                                                "' by querying Directory and SMP",
-                                         null));
-            }
-          }
-        }
+    for (final DCOutgoingContext aCtx : aGroup)
+    {
+      for (final Consumer <DCOutgoingContext> aDiscoveryError : aDiscoveryErrors)
+        aDiscoveryError.accept (aCtx);
 
-        if (aErrors.isEmpty ())
-        {
-          if (LOGGER.isDebugEnabled ())
-            LOGGER.debug (sLogPrefix + "Started creating TOOP request ASIC container");
-
-          // 3. start message exchange to DC
-          // Combine MS data and TOOP data into a single ASiC message
-          // Do this only once and not for every endpoint
-          ByteArrayWrapper aPayloadBytes = null;
-          try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
-          {
-            // Ensure flush/close of DumpOS!
-            try (
-                final OutputStream aDumpOS = TCDumpHelper.getDumpOutputStream (aBAOS,
-                                                                               TCConfig.getDebugToDPDumpPathIfEnabled (),
-                                                                               "to-dp.asic"))
-            {
-              ToopMessageBuilder140.createRequestMessageAsic (aRequest, aDumpOS, MPConfig.getSignatureHelper ());
-            }
-            catch (final ToopErrorException ex)
-            {
-              aErrors.add (_createError (sLogPrefix,
-                                         EToopErrorCategory.E_DELIVERY,
-                                         ex.getErrorCode (),
-                                         ex.getMessage (),
-                                         ex.getCause ()));
-            }
-            catch (final IOException ex)
-            {
-              aErrors.add (_createGenericError (sLogPrefix, ex));
-            }
+      if (aCtx.m_aErrors.isEmpty ())
+      {
+        final String sCtxLogPrefix = aCtx.m_sLogPrefix;
+        final int nEndpointCount = aEndpoints == null ? 0 : aEndpoints.size ();
+        ToopKafkaClient.send (EErrorLevel.INFO,
+                              () -> sCtxLogPrefix +
+                                    "R2D2 found " +
+                                    nEndpointCount +
+                                    " endpoints for " +
+                                    (bIsExplicitParticipant ? "single participant" : "multi participant") +
+                                    " lookup");
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug (sCtxLogPrefix + "Endpoint details: " + aEndpoints);
 
-            aPayloadBytes = ByteArrayWrapper.create (aBAOS, false);
+        if (nEndpointCount == 0)
+        {
+          aCtx.m_aErrors.add (_createError (sCtxLogPrefix,
+                                            EToopErrorCategory.DYNAMIC_DISCOVERY,
+                                            EToopErrorCode.DD_006,
+                                            "Found no endpoints for transport profile '" +
+                                                                   sTransportProfileID +
+                                                                   "' by querying Directory and SMP",
+                                            null));
+        }
+      }
+      // Each request gets its own list
+      aCtx.m_aEndpoints = aEndpoints == null ? null : aEndpoints.getClone ();
+    }
+    // Once per discovery call and not per request of the group
+    LATENCY_DISCOVER.recordSince (nPhaseStart);
+  }
 
-            if (LOGGER.isDebugEnabled ())
-              LOGGER.debug (sLogPrefix + "Created TOOP request ASIC container has " + aPayloadBytes.size () + " bytes");
-          }
+  /**
+   * Perform the dynamic discovery for a single request. Requests with the same
+   * discovery parameters that are processed concurrently share a single
+   * discovery call.
+   *
+   * @param aCtx
+   *        The request to be processed. May not be <code>null</code>.
+   */
+  private static void _discover (@Nonnull final DCOutgoingContext aCtx)
+  {
+    final String sTransportProfileID = TCConfig.getMEMProtocol ().getTransportProfileID ();
+    final String sKey = _getDiscoveryKey (aCtx, sTransportProfileID);
+    if (sKey == null)
+    {
+      // Reported by the discovery
+      _discoverGroup (aCtx, () -> new CommonsArrayList <> (aCtx), sTransportProfileID);
+    }
+    else
+      DISCOVERY_COALESCER.perform (sKey,
+                                   aCtx,
+                                   (aLeader, aGroupCloser) -> _discoverGroup (aLeader,
+                                                                              aGroupCloser,
+                                                                              sTransportProfileID));
+  }
 
-          if (aErrors.isEmpty ())
-          {
-            // build MEM once
-            final MEPayload aPayload = new MEPayload (AsicUtils.MIMETYPE_ASICE, sRequestID, aPayloadBytes);
-            final MEMessage aMEMessage = MEMessage.create (aPayload);
+  /**
+   * Perform the dynamic discovery for a batch of requests. Requests with the
+   * same discovery parameters share a single discovery call.
+   *
+   * @param aBatch
+   *        The requests to be processed. May not be <code>null</code>.
+   */
+  private static void _discoverBatch (@Nonnull final ICommonsList <DCOutgoingContext> aBatch)
+  {
+    final String sTransportProfileID = TCConfig.getMEMProtocol ().getTransportProfileID ();
 
-            // For all matching endpoints
-            for (final IR2D2Endpoint aEP : aEndpoints)
-            {
-              ToopKafkaClient.send (EErrorLevel.INFO,
-                                    () -> sLogPrefix +
-                                          "Sending MEM message to '" +
-                                          aEP.getEndpointURL () +
-                                          "' using transport protocol '" +
-                                          aEP.getTransportProtocol () +
-                                          "'");
-
-              // Message exchange information
-              final MERoutingInformation aMERoutingInfo = new MERoutingInformation (aSenderID,
-                                                                                    aEP.getParticipantID (),
-                                                                                    aDocTypeID,
-                                                                                    aProcessID,
-                                                                                    aEP.getTransportProtocol (),
-                                                                                    aEP.getEndpointURL (),
-                                                                                    aEP.getCertificate ());
-              try
-              {
-                // Main message exchange
-                MessageExchangeManager.getConfiguredImplementation ().sendDCOutgoing (aMERoutingInfo, aMEMessage);
+    // Keep the order of the requests
+    final ICommonsOrderedMap <String, ICommonsList <DCOutgoingContext>> aGroups = new CommonsLinkedHashMap <> ();
+    for (final DCOutgoingContext aCtx : aBatch)
+    {
+      // Don't let one broken request fail the whole batch
+      try
+      {
+        final String sKey = _getDiscoveryKey (aCtx, sTransportProfileID);
+        if (sKey == null)
+          aCtx.m_aErrors.add (_createError (aCtx.m_sLogPrefix,
+                                            EToopErrorCategory.DYNAMIC_DISCOVERY,
+                                            EToopErrorCode.IF_001,
+                                            ERROR_NO_DESTINATION_COUNTRY_CODE,
+                                            null));
+        else
+          aGroups.computeIfAbsent (sKey, k -> new CommonsArrayList <> ()).add (aCtx);
+      }
+      catch (final RuntimeException ex)
+      {
+        _onException (aCtx, ex);
+      }
+    }
 
-                if (LOGGER.isDebugEnabled ())
-                  LOGGER.debug (sLogPrefix + "sendDCOutgoing returned without exception");
-              }
-              catch (final MEException ex)
-              {
-                aErrors.add (_createError (sLogPrefix,
-                                           EToopErrorCategory.E_DELIVERY,
-                                           EToopErrorCode.ME_001,
-                                           "Error sending message",
-                                           ex));
-              }
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Discovering " + aBatch.size () + " request(s) with " + aGroups.size () + " discovery call(s)");
 
-              /*
-               * XXX just send to the first one, to mimic, that this is how it
-               * will be in the final version (where step 4/4 will aggregate)
-               */
-              break;
-            }
-          }
-        }
+    for (final ICommonsList <DCOutgoingContext> aGroup : aGroups.values ())
+    {
+      try
+      {
+        _discoverGroup (aGroup.getFirst (), () -> aGroup, sTransportProfileID);
+      }
+      catch (final RuntimeException ex)
+      {
+        // Don't let one group fail the other groups
+        for (final DCOutgoingContext aCtx : aGroup)
+          _onException (aCtx, ex);
       }
     }
+  }
 
-    final int nErrorCount = aErrors.size ();
-    if (nErrorCount > 0)
+  private static void _package (@Nonnull final DCOutgoingContext aCtx)
+  {
+    final String sLogPrefix = aCtx.m_sLogPrefix;
+    final ICommonsList <TDEErrorType> aErrors = aCtx.m_aErrors;
+    final long nPhaseStart = System.nanoTime ();
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug (sLogPrefix + "Started creating TOOP request ASIC container");
+
+    // 3. start message exchange to DC
+    // Combine MS data and TOOP data into a single ASiC message
+    // Do this only once and not for every endpoint
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
     {
-      // We have errors
+      // Ensure flush/close of DumpOS!
+      try (
+          final OutputStream aDumpOS = TCDumpHelper.getDumpOutputStream (aBAOS,
+                                                                         TCConfig.getDebugToDPDumpPathIfEnabled (),
+                                                                         "to-dp.asic"))
+      {
+        ToopMessageBuilder140.createRequestMessageAsic (aCtx.m_aRequest, aDumpOS, MPConfig.getSignatureHelper ());
+      }
+      catch (final ToopErrorException ex)
+      {
+        aErrors.add (_createError (sLogPrefix,
+                                   EToopErrorCategory.E_DELIVERY,
+                                   ex.getErrorCode (),
+                                   ex.getMessage (),
+                                   ex.getCause ()));
+      }
+      catch (final IOException ex)
+      {
+        aErrors.add (_createGenericError (sLogPrefix, ex));
+      }
 
+      aCtx.m_aPayloadBytes = ByteArrayWrapper.create (aBAOS, false);
+
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug (sLogPrefix +
+                      "Created TOOP request ASIC container has " +
+                      aCtx.m_aPayloadBytes.size () +
+                      " bytes");
+    }
+    LATENCY_PACKAGE.recordSince (nPhaseStart);
+  }
+
+  private static void _transmit (@Nonnull final DCOutgoingContext aCtx)
+  {
+    final String sLogPrefix = aCtx.m_sLogPrefix;
+    final long nPhaseStart = System.nanoTime ();
+
+    // build MEM once
+    final MEPayload aPayload = new MEPayload (AsicUtils.MIMETYPE_ASICE, aCtx.m_sRequestID, aCtx.m_aPayloadBytes);
+    final MEMessage aMEMessage = MEMessage.create (aPayload);
+
+    // For all matching endpoints
+    for (final IR2D2Endpoint aEP : aCtx.m_aEndpoints)
+    {
       ToopKafkaClient.send (EErrorLevel.INFO,
-                            () -> sLogPrefix + nErrorCount + " error(s) were found - directly pushing to queue 4/4.");
+                            () -> sLogPrefix +
+                                  "Sending MEM message to '" +
+                                  aEP.getEndpointURL () +
+                                  "' using transport protocol '" +
+                                  aEP.getTransportProtocol () +
+                                  "'");
 
-      final TDETOOPResponseType aResponseMsg = ToopMessageBuilder140.createResponse (aRequest);
-      MPHelper.fillDefaultResponseFields (sLogPrefix, aResponseMsg);
+      // Message exchange information
+      final MERoutingInformation aMERoutingInfo = new MERoutingInformation (aCtx.m_aSenderID,
+                                                                            aEP.getParticipantID (),
+                                                                            aCtx.m_aDocTypeID,
+                                                                            aCtx.m_aProcessID,
+                                                                            aEP.getTransportProtocol (),
+                                                                            aEP.getEndpointURL (),
+                                                                            aEP.getCertificate ());
+      try
+      {
+        // Main message exchange
+        MessageExchangeManager.getConfiguredImplementation ().sendDCOutgoing (aMERoutingInfo, aMEMessage);
 
-      // Wrap with source attachments
-      aResponseMsg.getError ().addAll (aErrors);
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug (sLogPrefix + "sendDCOutgoing returned without exception");
+      }
+      catch (final MEException ex)
+      {
+        aCtx.m_aErrors.add (_createError (sLogPrefix,
+                                          EToopErrorCategory.E_DELIVERY,
+                                          EToopErrorCode.ME_001,
+                                          "Error sending message",
+                                          ex));
+      }
 
-      final ToopResponseWithAttachments140 aResponse = new ToopResponseWithAttachments140 (aResponseMsg,
-                                                                                           aRequestWA.attachments ());
-      // Put the error in queue 4/4
-      MessageProcessorDCIncoming.getInstance ().enqueue (aResponse);
+      /*
+       * XXX just send to the first one, to mimic, that this is how it will be
+       * in the final version (where step 4/4 will aggregate)
+       */
+      break;
     }
+    LATENCY_TRANSMIT.recordSince (nPhaseStart);
+  }
 
-    if (LOGGER.isDebugEnabled ())
-      LOGGER.debug (sLogPrefix + "End of processing");
+  /**
+   * Run a single phase on the provided request.
+   *
+   * @param ePhase
+   *        The phase to run. May not be <code>null</code>.
+   * @param aCtx
+   *        The request context. May not be <code>null</code>.
+   * @return <code>true</code> if the next phase should be run,
+   *         <code>false</code> if errors occurred.
+   */
+  private static boolean _runPhase (@Nonnull final EMPDCOutgoingPhase ePhase, @Nonnull final DCOutgoingContext aCtx)
+  {
+    switch (ePhase)
+    {
+      case VALIDATE:
+        _validate (aCtx);
+        break;
+      case SEMANTIC_MAP:
+        _semanticMap (aCtx);
+        break;
+      case DISCOVER:
+        _discover (aCtx);
+        break;
+      case PACKAGE:
+        _package (aCtx);
+        break;
+      case TRANSMIT:
+        _transmit (aCtx);
+        break;
+      default:
+        throw new IllegalStateException ("Unsupported phase " + ePhase);
+    }
+    return aCtx.m_aErrors.isEmpty ();
+  }
+
+  private static void _onException (@Nonnull final DCOutgoingContext aCtx, @Nonnull final Exception ex)
+  {
+    aCtx.m_aErrors.add (_createGenericError (aCtx.m_sLogPrefix, ex));
+  }
+
+  private static void _finish (@Nonnull final DCOutgoingContext aCtx)
+  {
+    final String sLogPrefix = aCtx.m_sLogPrefix;
+    try
+    {
+      final int nErrorCount = aCtx.m_aErrors.size ();
+      if (nErrorCount > 0)
+      {
+        // We have errors
+
+        ToopKafkaClient.send (EErrorLevel.INFO,
+                              () -> sLogPrefix + nErrorCount + " error(s) were found - directly pushing to queue 4/4.");
+
+        final TDETOOPResponseType aResponseMsg = ToopMessageBuilder140.createResponse (aCtx.m_aRequest);
+        MPHelper.fillDefaultResponseFields (sLogPrefix, aResponseMsg);
+
+        // Wrap with source attachments
+        aResponseMsg.getError ().addAll (aCtx.m_aErrors);
+
+        final ToopResponseWithAttachments140 aResponse = new ToopResponseWithAttachments140 (aResponseMsg,
+                                                                                             aCtx.m_aRequestWA.attachments ());
+        // Put the error in queue 4/4
+        if (MessageProcessorDCIncoming.getInstance ().enqueue (aResponse, EMPPriority.ERROR).isSuccess ())
+        {
+          // The response owns the attachments now, so step 4/4 deletes the
+          // spilled files after they were passed on to the DC
+          aCtx.m_aRequestWA.attachments ().clear ();
+        }
+      }
+
+      LATENCY_TOTAL.recordSince (aCtx.m_nStartNanos);
+
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug (sLogPrefix + "End of processing");
+    }
+    finally
+    {
+      aCtx.m_aDoneCallback.run ();
+    }
+  }
+
+  public void perform (@Nonnull final ToopRequestWithAttachments140 aRequestWA, @Nonnull final Runnable aDoneCallback)
+  {
+    final DCOutgoingContext aCtx = new DCOutgoingContext (aRequestWA, aDoneCallback);
+    final String sRequestID = aCtx.m_sRequestID;
+    final String sLogPrefix = aCtx.m_sLogPrefix;
+
+    ToopKafkaClient.send (EErrorLevel.INFO, () -> "Created new unique request ID [" + sRequestID + "]");
+    ToopKafkaClient.send (EErrorLevel.INFO, () -> sLogPrefix + "Received DC Request (1/4)");
+
+    if (m_aPipeline != null)
+    {
+      // Blocks if the first phase is saturated
+      m_aPipeline.submit (aCtx);
+    }
+    else
+    {
+      for (final EMPDCOutgoingPhase ePhase : EMPDCOutgoingPhase.values ())
+      {
+        boolean bContinue;
+        try
+        {
+          bContinue = _runPhase (ePhase, aCtx);
+        }
+        catch (final RuntimeException ex)
+        {
+          _onException (aCtx, ex);
+          bContinue = false;
+        }
+        if (!bContinue)
+          break;
+      }
+      _finish (aCtx);
+    }
+  }
+
+  /**
+   * @return The statistics of all pipeline phases in processing order. Empty
+   *         if the phases are not pipelined. Never <code>null</code>.
+   * @since 0.10.9
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <IMPPipelinePhaseStatistics> getAllPipelinePhaseStatistics ()
+  {
+    return m_aPipeline == null ? new CommonsArrayList <> () : m_aPipeline.getAllPhaseStatistics ();
+  }
+
+  /**
+   * Wait until all submitted requests are finished and stop the pipeline
+   * worker threads (if any).
+   *
+   * @since 0.10.9
+   */
+  void shutdown ()
+  {
+    if (m_aPipeline != null)
+      m_aPipeline.shutdownAndWaitUntilAllTasksAreFinished ();
+  }
+
+  /**
+   * Stop the pipeline worker threads (if any) without waiting for the
+   * submitted requests. Used when the shutdown deadline was reached.
+   *
+   * @since 0.10.9
+   */
+  void abort ()
+  {
+    if (m_aPipeline != null)
+      m_aPipeline.abort ();
   }
 }
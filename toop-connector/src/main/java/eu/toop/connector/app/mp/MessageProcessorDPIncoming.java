@@ -15,20 +15,15 @@
  */
 package eu.toop.connector.app.mp;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-
 import javax.annotation.Nonnull;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.annotation.UsedViaReflection;
-import com.helger.commons.concurrent.BasicThreadFactory;
-import com.helger.commons.concurrent.ExecutorServiceHelper;
-import com.helger.commons.concurrent.collector.ConcurrentCollectorSingle;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.state.ESuccess;
 import com.helger.scope.IScope;
@@ -47,20 +42,16 @@ import eu.toop.kafkaclient.ToopKafkaClient;
 public final class MessageProcessorDPIncoming extends AbstractGlobalWebSingleton
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (MessageProcessorDPIncoming.class);
-  // Just to have custom named threads....
-  private static final ThreadFactory s_aThreadFactory = new BasicThreadFactory.Builder ().setNamingPattern ("MP-DP-In-%d")
-                                                                                         .setDaemon (true)
-                                                                                         .build ();
-  private final ConcurrentCollectorSingle <ToopRequestWithAttachments140> m_aCollector = new ConcurrentCollectorSingle <> ();
-  private final ExecutorService m_aExecutorPool;
+  private final MPStageExecutor <ToopRequestWithAttachments140> m_aExecutor;
 
   @Deprecated
   @UsedViaReflection
   public MessageProcessorDPIncoming ()
   {
-    m_aCollector.setPerformer (new MessageProcessorDPIncomingPerformer ());
-    m_aExecutorPool = Executors.newSingleThreadExecutor (s_aThreadFactory);
-    m_aExecutorPool.submit (m_aCollector::collect);
+    // Requests are independent from each other
+    m_aExecutor = MPStageExecutor.createFromConfig (EMPStage.DP_INCOMING,
+                                                    x -> null,
+                                                    new MessageProcessorDPIncomingPerformer ());
   }
 
   /**
@@ -74,14 +65,53 @@ public final class MessageProcessorDPIncoming extends AbstractGlobalWebSingleton
     return getGlobalSingleton (MessageProcessorDPIncoming.class);
   }
 
-  @Override
-  protected void onDestroy (@Nonnull final IScope aScopeInDestruction) throws Exception
+  /**
+   * Stop accepting new objects and wait until all queued objects are
+   * processed. Calling this method more than once has no effect.
+   *
+   * @since 0.10.9
+   */
+  void shutdown ()
+  {
+    shutdown (MPStageExecutor.NO_DEADLINE);
+  }
+
+  /**
+   * Stop accepting new objects and wait until all queued objects are
+   * processed or until the deadline is reached.
+   *
+   * @param nDeadlineNanos
+   *        The deadline in the scale of {@link System#nanoTime()} or
+   *        {@link MPStageExecutor#NO_DEADLINE}.
+   * @return The messages that were not finished until the deadline. Never
+   *         <code>null</code> but maybe empty.
+   * @since 0.10.9
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <ToopRequestWithAttachments140> shutdown (final long nDeadlineNanos)
   {
     // Avoid another enqueue call
-    m_aCollector.stopQueuingNewObjects ();
+    m_aExecutor.stopQueuingNewObjects ();
 
     // Shutdown executor service
-    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutorPool);
+    return m_aExecutor.shutdownAndWaitUntil (nDeadlineNanos);
+  }
+
+  /**
+   * @return The runtime statistics of this stage. Never <code>null</code>.
+   * @since 0.10.9
+   */
+  @Nonnull
+  public IMPStageStatistics getStatistics ()
+  {
+    return m_aExecutor;
+  }
+
+  @Override
+  protected void onDestroy (@Nonnull final IScope aScopeInDestruction) throws Exception
+  {
+    shutdown ();
   }
 
   /**
@@ -101,8 +131,7 @@ public final class MessageProcessorDPIncoming extends AbstractGlobalWebSingleton
 
     try
     {
-      m_aCollector.queueObject (aMsg);
-      return ESuccess.SUCCESS;
+      return m_aExecutor.queueObject (aMsg);
     }
     catch (final IllegalStateException ex)
     {
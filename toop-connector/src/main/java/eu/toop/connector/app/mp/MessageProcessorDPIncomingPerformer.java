@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
 import com.helger.commons.concurrent.collector.IConcurrentPerformer;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.error.level.IErrorLevel;
@@ -191,13 +192,14 @@ final class MessageProcessorDPIncomingPerformer implements IConcurrentPerformer
           }
         };
 
-        final IMappedValueList aMappedValues = aSMMClient.performMapping (sLogPrefix,
-                                                                          sDestinationMappingURI,
-                                                                          MPConfig.getSMMConceptProvider (),
-                                                                          aUnmappableCallback);
+        final ICommonsOrderedMap <ConceptValue, IMappedValueList> aMappedValues = aSMMClient.performBulkMapping (sLogPrefix,
+                                                                                                                 sDestinationMappingURI,
+                                                                                                                 MPConfig.getSMMConceptProvider (),
+                                                                                                                 aUnmappableCallback);
 
+        final int nMappings = aMappedValues.values ().stream ().mapToInt (IMappedValueList::size).sum ();
         ToopKafkaClient.send (EErrorLevel.INFO,
-                              () -> sLogPrefix + "SMM client mapping found " + aMappedValues.size () + " mapping(s)");
+                              () -> sLogPrefix + "SMM client mapping found " + nMappings + " mapping(s)");
 
         // add all the mapped values in the request
         _iterateTCConcepts (aRequest, c -> {
@@ -206,15 +208,17 @@ final class MessageProcessorDPIncomingPerformer implements IConcurrentPerformer
 
           // Add all mapped values as child concepts
           final ConceptValue aToopCV = ConceptValue.create (c);
-          for (final MappedValue aMV : aMappedValues.getAllBySource (x -> x.equals (aToopCV)))
-          {
-            final TDEConceptRequestType aDstConcept = new TDEConceptRequestType ();
-            aDstConcept.setConceptTypeCode (ToopXSDHelper140.createCode (EConceptType.DP.getID ()));
-            aDstConcept.setSemanticMappingExecutionIndicator (ToopXSDHelper140.createIndicator (false));
-            aDstConcept.setConceptNamespace (ToopXSDHelper140.createIdentifier (aMV.getDestination ().getNamespace ()));
-            aDstConcept.setConceptName (ToopXSDHelper140.createText (aMV.getDestination ().getValue ()));
-            c.addConceptRequest (aDstConcept);
-          }
+          final IMappedValueList aMatching = aMappedValues.get (aToopCV);
+          if (aMatching != null)
+            for (final MappedValue aMV : aMatching)
+            {
+              final TDEConceptRequestType aDstConcept = new TDEConceptRequestType ();
+              aDstConcept.setConceptTypeCode (ToopXSDHelper140.createCode (EConceptType.DP.getID ()));
+              aDstConcept.setSemanticMappingExecutionIndicator (ToopXSDHelper140.createIndicator (false));
+              aDstConcept.setConceptNamespace (ToopXSDHelper140.createIdentifier (aMV.getDestination ().getNamespace ()));
+              aDstConcept.setConceptName (ToopXSDHelper140.createText (aMV.getDestination ().getValue ()));
+              c.addConceptRequest (aDstConcept);
+            }
         });
         ToopKafkaClient.send (EErrorLevel.INFO,
                               () -> sLogPrefix +
@@ -264,7 +268,7 @@ final class MessageProcessorDPIncomingPerformer implements IConcurrentPerformer
       final ToopResponseWithAttachments140 aResponse = new ToopResponseWithAttachments140 (aResponseMsg,
                                                                                            aRequestWA.attachments ());
       // Put the error in queue 3/4
-      MessageProcessorDPOutgoing.getInstance ().enqueue (aResponse);
+      MessageProcessorDPOutgoing.getInstance ().enqueue (aResponse, EMPPriority.ERROR);
     }
 
     if (LOGGER.isDebugEnabled ())
@@ -18,6 +18,7 @@ package eu.toop.connector.app.mp;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Locale;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -61,7 +62,7 @@ import eu.toop.commons.exchange.AsicWriteEntry;
 import eu.toop.commons.exchange.ToopMessageBuilder140;
 import eu.toop.commons.exchange.ToopResponseWithAttachments140;
 import eu.toop.commons.jaxb.ToopWriter;
-import eu.toop.commons.schematron.TOOPSchematron140Validator;
+import eu.toop.connector.api.ETCSchematronMode;
 import eu.toop.connector.api.TCConfig;
 import eu.toop.connector.api.TCSettings;
 import eu.toop.connector.api.as4.MEException;
@@ -133,49 +134,99 @@ final class MessageProcessorDPOutgoingPerformer implements IConcurrentPerformer
     final ICommonsList <TDEErrorType> aErrors = new CommonsArrayList <> ();
 
     // Schematron validation
-    if (TCConfig.isMPSchematronValidationEnabled ())
+    final MPSchematronSampler aSampler = MPSchematronSampler.getInstance ();
+    final ETCSchematronMode eSchematronMode = aSampler.getMode ();
+    if (!eSchematronMode.isEnabled ())
     {
-      if (LOGGER.isDebugEnabled ())
-        LOGGER.debug (sLogPrefix + "Performing Schematron validation on incoming TOOP response");
-
-      final ErrorList aErrorList = new ErrorList ();
-      // XML creation
-      final Document aDoc = ToopWriter.response140 ()
-                                      .setValidationEventHandler (new WrappedCollectingValidationEventHandler (aErrorList))
-                                      .getAsDocument (aResponse);
-      if (aDoc == null)
+      ToopKafkaClient.send (EErrorLevel.INFO, () -> sLogPrefix + "Schematron validation was explicitly disabled.");
+    }
+    else
+      if (!aSampler.isNextMessageSelected ())
       {
-        for (final IError aError : aErrorList)
-          aErrors.add (_createError (aError.getErrorLevel (),
-                                     sLogPrefix,
-                                     EToopErrorCategory.PARSING,
-                                     EToopErrorCode.IF_001,
-                                     aError.getErrorText (Locale.US),
-                                     aError.getLinkedException ()));
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug (sLogPrefix + "TOOP response was not selected for Schematron validation");
       }
       else
       {
-        // Schematron validation
-        final TOOPSchematron140Validator aValidator = new TOOPSchematron140Validator ();
-        final ICommonsList <AbstractSVRLMessage> aMsgs = aValidator.validateTOOPMessage (aDoc);
-        for (final AbstractSVRLMessage aMsg : aMsgs)
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug (sLogPrefix + "Performing Schematron validation on incoming TOOP response (" + eSchematronMode.getID () + ")");
+
+        final ErrorList aErrorList = new ErrorList ();
+        Supplier <ICommonsList <AbstractSVRLMessage>> aValidation = null;
+        if (aResponseWA instanceof ToopResponseWithPayload140)
         {
-          aErrors.add (_createError (aMsg.getFlag (),
-                                     sLogPrefix,
-                                     EToopErrorCategory.PARSING,
-                                     EToopErrorCode.IF_001,
-                                     "[" + aMsg.getLocation () + "] [Test: " + aMsg.getTest () + "] " + aMsg.getText (),
-                                     null));
+          // Validate the XML as received - no need to serialize the response again
+          final byte [] aXML = ((ToopResponseWithPayload140) aResponseWA).getXMLPayload ();
+          aValidation = () -> MPSchematronValidator.getInstance ().validate (aXML);
         }
-      }
+        else
+          if (eSchematronMode.isRejecting ())
+          {
+            // XML creation - must happen here, as the response may be modified later
+            final Document aDoc = ToopWriter.response140 ()
+                                            .setValidationEventHandler (new WrappedCollectingValidationEventHandler (aErrorList))
+                                            .getAsDocument (aResponse);
+            if (aDoc == null)
+            {
+              for (final IError aError : aErrorList)
+                aErrors.add (_createError (aError.getErrorLevel (),
+                                           sLogPrefix,
+                                           EToopErrorCategory.PARSING,
+                                           EToopErrorCode.IF_001,
+                                           aError.getErrorText (Locale.US),
+                                           aError.getLinkedException ()));
+            }
+            else
+            {
+              // Schematron validation with the pre-compiled XSLT
+              aValidation = () -> MPSchematronValidator.getInstance ().validate (aDoc);
+            }
+          }
+          else
+          {
+            // Only copy the response here, as it may be modified later - the XML
+            // creation is part of the shadow task and stays off this thread
+            final TDETOOPResponseType aResponseCopy = aResponse.clone ();
+            aValidation = () -> {
+              final ErrorList aShadowErrorList = new ErrorList ();
+              final Document aDoc = ToopWriter.response140 ()
+                                              .setValidationEventHandler (new WrappedCollectingValidationEventHandler (aShadowErrorList))
+                                              .getAsDocument (aResponseCopy);
+              if (aDoc == null)
+              {
+                for (final IError aError : aShadowErrorList)
+                  ToopKafkaClient.send (EErrorLevel.WARN,
+                                        () -> sLogPrefix + "[Shadow Schematron] " + aError.getErrorText (Locale.US),
+                                        aError.getLinkedException ());
+                throw new IllegalStateException ("Failed to create the XML of the TOOP response");
+              }
+              return MPSchematronValidator.getInstance ().validate (aDoc);
+            };
+          }
 
-      if (LOGGER.isDebugEnabled ())
-        LOGGER.debug (sLogPrefix + "Finished Schematron validation with the following results: " + aErrorList);
-    }
-    else
-    {
-      ToopKafkaClient.send (EErrorLevel.INFO, () -> sLogPrefix + "Schematron validation was explicitly disabled.");
-    }
+        if (aValidation != null)
+        {
+          if (eSchematronMode.isRejecting ())
+          {
+            for (final AbstractSVRLMessage aMsg : aValidation.get ())
+            {
+              aErrors.add (_createError (aMsg.getFlag (),
+                                         sLogPrefix,
+                                         EToopErrorCategory.PARSING,
+                                         EToopErrorCode.IF_001,
+                                         "[" + aMsg.getLocation () + "] [Test: " + aMsg.getTest () + "] " + aMsg.getText (),
+                                         null));
+            }
+          }
+          else
+          {
+            // Violations are only reported
+            aSampler.validateInShadow (sLogPrefix, aValidation);
+          }
+        }
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug (sLogPrefix + "Finished Schematron validation with the following results: " + aErrorList);
+      }
 
     if (aErrors.isEmpty ())
     {
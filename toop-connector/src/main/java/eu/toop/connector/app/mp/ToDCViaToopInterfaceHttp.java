@@ -27,14 +27,13 @@ import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.state.ESuccess;
-import com.helger.httpclient.HttpClientManager;
 
 import eu.toop.commons.exchange.AsicReadEntry;
 import eu.toop.commons.exchange.AsicWriteEntry;
 import eu.toop.commons.exchange.ToopMessageBuilder140;
 import eu.toop.commons.exchange.ToopResponseWithAttachments140;
 import eu.toop.connector.api.TCConfig;
-import eu.toop.connector.api.http.TCHttpClientSettings;
+import eu.toop.connector.api.http.TCHttpClientPool;
 import eu.toop.kafkaclient.ToopKafkaClient;
 
 /**
@@ -64,21 +63,19 @@ public class ToDCViaToopInterfaceHttp implements IToDC
                                                        MPConfig.getSignatureHelper (),
                                                        aWriteAttachments);
 
-      try (final HttpClientManager aMgr = HttpClientManager.create (new TCHttpClientSettings ()))
-      {
-        ToopKafkaClient.send (EErrorLevel.INFO,
-                              () -> "Start posting signed ASiC response to '" + sDestinationUrl + "'");
-
-        final HttpPost aHttpPost = new HttpPost (sDestinationUrl);
-        aHttpPost.setEntity (new InputStreamEntity (aBAOS.getAsInputStream ()));
-        try (final CloseableHttpResponse aHttpResponse = aMgr.execute (aHttpPost))
-        {
-          EntityUtils.consume (aHttpResponse.getEntity ());
-        }
+      final TCHttpClientPool aMgr = TCHttpClientPool.getInstance ();
+      ToopKafkaClient.send (EErrorLevel.INFO,
+                            () -> "Start posting signed ASiC response to '" + sDestinationUrl + "'");
 
-        ToopKafkaClient.send (EErrorLevel.INFO, () -> "Done posting signed ASiC response to '" + sDestinationUrl + "'");
-        return ESuccess.SUCCESS;
+      final HttpPost aHttpPost = new HttpPost (sDestinationUrl);
+      aHttpPost.setEntity (new InputStreamEntity (aBAOS.getAsInputStream ()));
+      try (final CloseableHttpResponse aHttpResponse = aMgr.execute (aHttpPost))
+      {
+        EntityUtils.consume (aHttpResponse.getEntity ());
       }
+
+      ToopKafkaClient.send (EErrorLevel.INFO, () -> "Done posting signed ASiC response to '" + sDestinationUrl + "'");
+      return ESuccess.SUCCESS;
     }
     catch (final Exception ex)
     {
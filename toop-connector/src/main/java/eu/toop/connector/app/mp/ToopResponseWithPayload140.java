@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.ToStringGenerator;
+
+import eu.toop.commons.dataexchange.v140.TDETOOPResponseType;
+import eu.toop.commons.exchange.AsicReadEntry;
+import eu.toop.commons.exchange.ToopResponseWithAttachments140;
+
+/**
+ * A {@link ToopResponseWithAttachments140} that also contains the XML of the
+ * response as it was received. The Schematron validation uses this XML instead of
+ * serializing the response again.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+public class ToopResponseWithPayload140 extends ToopResponseWithAttachments140
+{
+  private final byte [] m_aXMLPayload;
+
+  public ToopResponseWithPayload140 (@Nonnull final TDETOOPResponseType aResponse,
+                                 @Nonnull final ICommonsList <AsicReadEntry> aAttachments,
+                                 @Nonnull final byte [] aXMLPayload)
+  {
+    super (aResponse, aAttachments);
+    ValueEnforcer.notNull (aXMLPayload, "XMLPayload");
+    m_aXMLPayload = aXMLPayload;
+  }
+
+  /**
+   * @return The XML of the response as received. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableObject ("performance")
+  public byte [] getXMLPayload ()
+  {
+    return m_aXMLPayload;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ()).append ("XMLPayloadLength", m_aXMLPayload.length).getToString ();
+  }
+}
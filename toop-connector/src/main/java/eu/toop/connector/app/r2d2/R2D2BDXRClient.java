@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.r2d2;
+
+import java.io.IOException;
+import java.net.URI;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+
+import com.helger.commons.string.StringHelper;
+import com.helger.peppol.sml.ISMLInfo;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.smpclient.bdxr1.BDXRClient;
+import com.helger.smpclient.httpclient.SMPHttpClientSettings;
+import com.helger.smpclient.url.IPeppolURLProvider;
+import com.helger.smpclient.url.PeppolDNSResolutionException;
+
+/**
+ * Special {@link BDXRClient} that executes all SMP queries via the
+ * {@link R2D2SMPHttpClientPool} instead of creating a new HTTP client per
+ * query. The pool uses the proxy and TLS settings of the SMP client
+ * configuration. The SMP specific timeouts, redirect handling and user agent
+ * are applied per request.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+final class R2D2BDXRClient extends BDXRClient
+{
+  R2D2BDXRClient (@Nonnull final URI aSMPHost)
+  {
+    super (aSMPHost);
+  }
+
+  R2D2BDXRClient (@Nonnull final IPeppolURLProvider aURLProvider,
+                  @Nonnull final IParticipantIdentifier aParticipantIdentifier,
+                  @Nonnull final ISMLInfo aSMLInfo) throws PeppolDNSResolutionException
+  {
+    super (aURLProvider, aParticipantIdentifier, aSMLInfo);
+  }
+
+  @Override
+  public <T> T executeRequest (@Nonnull final HttpUriRequest aRequest,
+                               @Nonnull final ResponseHandler <T> aResponseHandler) throws IOException
+  {
+    final SMPHttpClientSettings aSettings = httpClientSettings ();
+    final HttpClientContext aContext = HttpClientContext.adapt (createHttpContext ());
+    aContext.setRequestConfig (RequestConfig.custom ()
+                                            .setCookieSpec (CookieSpecs.DEFAULT)
+                                            .setConnectionRequestTimeout (aSettings.getConnectionRequestTimeoutMS ())
+                                            .setConnectTimeout (aSettings.getConnectionTimeoutMS ())
+                                            .setSocketTimeout (aSettings.getSocketTimeoutMS ())
+                                            .setCircularRedirectsAllowed (false)
+                                            .setRedirectsEnabled (aSettings.isFollowRedirects ())
+                                            .build ());
+    if (StringHelper.hasText (aSettings.getUserAgent ()) && !aRequest.containsHeader (HttpHeaders.USER_AGENT))
+      aRequest.setHeader (HttpHeaders.USER_AGENT, aSettings.getUserAgent ());
+
+    return R2D2SMPHttpClientPool.getInstance ().execute (aRequest, aContext, aResponseHandler);
+  }
+}
@@ -15,6 +15,16 @@
  */
 package eu.toop.connector.app.r2d2;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
 
@@ -31,10 +41,12 @@ import com.helger.peppolid.IParticipantIdentifier;
 import com.helger.peppolid.IProcessIdentifier;
 
 import eu.toop.commons.error.EToopErrorCode;
+import eu.toop.connector.api.TCConfig;
 import eu.toop.connector.api.r2d2.IR2D2Endpoint;
 import eu.toop.connector.api.r2d2.IR2D2EndpointProvider;
 import eu.toop.connector.api.r2d2.IR2D2ErrorHandler;
 import eu.toop.connector.api.r2d2.IR2D2ParticipantIDProvider;
+import eu.toop.connector.app.TCBoundedExecutor;
 import eu.toop.kafkaclient.ToopKafkaClient;
 
 /**
@@ -46,9 +58,163 @@ import eu.toop.kafkaclient.ToopKafkaClient;
 @Immutable
 public class R2D2Client
 {
+  // The threads for the parallel SMP lookups. More threads than pooled SMP
+  // HTTP connections would only wait for a connection.
+  private static final TCBoundedExecutor s_aExecutor = new TCBoundedExecutor ("R2D2", TCConfig::getHttpPoolMaxTotal);
+
   private R2D2Client ()
   {}
 
+  /**
+   * Shutdown the threads used for the parallel SMP lookups. They are created
+   * again on the next parallel lookup.
+   *
+   * @since 0.10.9
+   */
+  public static void shutdownExecutor ()
+  {
+    s_aExecutor.shutdown ();
+  }
+
+  private static void _onNoEndpoints (@Nonnull final IParticipantIdentifier aPI,
+                                      @Nonnull final IDocumentTypeIdentifier aDocumentTypeID,
+                                      @Nonnull final IProcessIdentifier aProcessID,
+                                      @Nonnull final String sTransportProfileID,
+                                      @Nonnull final IR2D2ErrorHandler aErrorHandler)
+  {
+    // emit warning DD_005
+    aErrorHandler.onWarning ("Endpoint lookup for '" +
+                             aPI.getURIEncoded () +
+                             "' and document type ID '" +
+                             aDocumentTypeID.getURIEncoded () +
+                             "' and process ID '" +
+                             aProcessID.getURIEncoded () +
+                             "' and transport profile '" +
+                             sTransportProfileID +
+                             "' returned in no endpoints",
+                             EToopErrorCode.DD_005);
+  }
+
+  /**
+   * Query the endpoints of all participants in parallel. The results and
+   * messages are collected in the order of the participants, so that they are
+   * identical to a sequential lookup.
+   */
+  private static void _getEndpointsInParallel (@Nonnull final String sLogPrefix,
+                                               @Nonnull final ICommonsList <IParticipantIdentifier> aPIs,
+                                               @Nonnull final IDocumentTypeIdentifier aDocumentTypeID,
+                                               @Nonnull final IProcessIdentifier aProcessID,
+                                               @Nonnull final String sTransportProfileID,
+                                               @Nonnull final IR2D2EndpointProvider aEndpointProvider,
+                                               @Nonnull final IR2D2ErrorHandler aErrorHandler,
+                                               @Nonnegative final int nMaxConcurrency,
+                                               final long nDeadlineMS,
+                                               @Nonnull final ICommonsList <IR2D2Endpoint> aTarget)
+  {
+    final int nCount = aPIs.size ();
+    final ICommonsList <CompletableFuture <ICommonsList <IR2D2Endpoint>>> aFutures = new CommonsArrayList <> (nCount);
+    final ICommonsList <R2D2ErrorCollector> aCollectors = new CommonsArrayList <> (nCount);
+    for (int i = 0; i < nCount; ++i)
+    {
+      aFutures.add (new CompletableFuture <> ());
+      aCollectors.add (new R2D2ErrorCollector ());
+    }
+
+    // Each worker takes the next participant until all are done, so that at
+    // most nMaxConcurrency lookups are running
+    final AtomicInteger aNextIndex = new AtomicInteger (0);
+    final AtomicBoolean aStopped = new AtomicBoolean (false);
+    final Runnable aWorker = () -> {
+      int nIndex;
+      while (!aStopped.get () && (nIndex = aNextIndex.getAndIncrement ()) < nCount)
+      {
+        final CompletableFuture <ICommonsList <IR2D2Endpoint>> aFuture = aFutures.get (nIndex);
+        try
+        {
+          aFuture.complete (aEndpointProvider.getEndpoints (sLogPrefix,
+                                                            aPIs.get (nIndex),
+                                                            aDocumentTypeID,
+                                                            aProcessID,
+                                                            sTransportProfileID,
+                                                            aCollectors.get (nIndex)));
+        }
+        catch (final RuntimeException ex)
+        {
+          aFuture.completeExceptionally (ex);
+        }
+      }
+    };
+    final int nWorkers = Math.min (nMaxConcurrency, nCount);
+    final ExecutorService aExecutor = s_aExecutor.getExecutor ();
+    for (int i = 0; i < nWorkers; ++i)
+      aExecutor.execute (aWorker);
+
+    boolean bInterrupted = false;
+    try
+    {
+      final CompletableFuture <Void> aAll = CompletableFuture.allOf (aFutures.toArray (new CompletableFuture <?> [nCount]));
+      if (nDeadlineMS > 0)
+        aAll.get (nDeadlineMS, TimeUnit.MILLISECONDS);
+      else
+        aAll.get ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      bInterrupted = true;
+    }
+    catch (final ExecutionException | TimeoutException ex)
+    {
+      // Handled per participant below
+    }
+    finally
+    {
+      // Don't start any more lookups
+      aStopped.set (true);
+    }
+
+    for (int i = 0; i < nCount; ++i)
+    {
+      final IParticipantIdentifier aPI = aPIs.get (i);
+      final CompletableFuture <ICommonsList <IR2D2Endpoint>> aFuture = aFutures.get (i);
+      if (!aFuture.isDone ())
+      {
+        if (bInterrupted)
+          aErrorHandler.onError (sLogPrefix +
+                                 "Endpoint lookup for '" +
+                                 aPI.getURIEncoded () +
+                                 "' was cancelled because the thread was interrupted",
+                                 EToopErrorCode.DD_002);
+        else
+          aErrorHandler.onError (sLogPrefix +
+                                 "Endpoint lookup for '" +
+                                 aPI.getURIEncoded () +
+                                 "' did not finish within " +
+                                 nDeadlineMS +
+                                 " milliseconds",
+                                 EToopErrorCode.DD_002);
+        continue;
+      }
+
+      aCollectors.get (i).forwardTo (aErrorHandler);
+      final ICommonsList <IR2D2Endpoint> aLocal;
+      try
+      {
+        aLocal = aFuture.join ();
+      }
+      catch (final CompletionException ex)
+      {
+        // Same as in the sequential lookup
+        if (ex.getCause () instanceof RuntimeException)
+          throw (RuntimeException) ex.getCause ();
+        throw ex;
+      }
+      aTarget.addAll (aLocal);
+      if (aLocal.isEmpty ())
+        _onNoEndpoints (aPI, aDocumentTypeID, aProcessID, sTransportProfileID, aErrorHandler);
+    }
+  }
+
   /**
    * Get a list of all endpoints that match the specified requirements. This is
    * the API that is to be invoked in the case, where ServiceGroup IDs of the
@@ -56,9 +222,10 @@ public class R2D2Client
    * performed.<br>
    * Internally country code and document type are queried against the correct
    * TOOP Directory instance (depending on the production or test flag). The
-   * SMPs of the resulting service group IDs are than queried in a loop for all
-   * matching endpoints (of participant ID and document type ID) which are
-   * parsed and converted to simpler R2D2Endpoint instances.
+   * SMPs of the resulting service group IDs are than queried in parallel for
+   * all matching endpoints (of participant ID and document type ID) which are
+   * parsed and converted to simpler R2D2Endpoint instances.<br>
+   * The parallelism and the deadline are taken from the configuration.
    *
    * @param sLogPrefix
    *        Log prefix to use. May not be <code>null</code> but maybe empty.
@@ -94,6 +261,75 @@ public class R2D2Client
                                                                             @Nonnull @Nonempty final String sTransportProfileID,
                                                                             @Nonnull final IR2D2EndpointProvider aEndpointProvider,
                                                                             @Nonnull final IR2D2ErrorHandler aErrorHandler)
+  {
+    return getParticipantIDsAndEndpoints (sLogPrefix,
+                                          sCountryCode,
+                                          aDocumentTypeID,
+                                          aParticipantIDProvider,
+                                          aProcessID,
+                                          sTransportProfileID,
+                                          aEndpointProvider,
+                                          aErrorHandler,
+                                          TCConfig.getR2D2SMPMaxConcurrency (),
+                                          TCConfig.getR2D2SMPDeadlineMS ());
+  }
+
+  /**
+   * Get a list of all endpoints that match the specified requirements. This is
+   * the API that is to be invoked in the case, where ServiceGroup IDs of the
+   * receiver are unknown and an additional PEPPOL Directory query needs to be
+   * performed.<br>
+   * Internally country code and document type are queried against the correct
+   * TOOP Directory instance (depending on the production or test flag). The
+   * SMPs of the resulting service group IDs are than queried in parallel for
+   * all matching endpoints (of participant ID and document type ID) which are
+   * parsed and converted to simpler R2D2Endpoint instances. The endpoints and
+   * the reported messages are in the same order as for sequential lookups.
+   *
+   * @param sLogPrefix
+   *        Log prefix to use. May not be <code>null</code> but maybe empty.
+   * @param sCountryCode
+   *        The country code to be queried. Must be a 2-char string. May not be
+   *        <code>null</code>.
+   * @param aDocumentTypeID
+   *        The document type ID to be queried. May not be <code>null</code>.
+   * @param aParticipantIDProvider
+   *        The participant ID provider that uses country code and document type
+   *        ID to determine the set of matching participant identifiers. May not
+   *        be <code>null</code>.
+   * @param aProcessID
+   *        The process ID to be queried. May not be <code>null</code>.
+   * @param sTransportProfileID
+   *        The transport profile ID to be used. May neither be
+   *        <code>null</code> nor empty.
+   * @param aEndpointProvider
+   *        The R2D2 endpoint ID provider to be used. May not be
+   *        <code>null</code>.
+   * @param aErrorHandler
+   *        The error handler to be used. May not be <code>null</code>.
+   * @param nMaxConcurrency
+   *        The maximum number of SMP lookups performed in parallel. Must be
+   *        &gt; 0. 1 means sequential lookups.
+   * @param nDeadlineMS
+   *        The maximum milliseconds all parallel SMP lookups may take. Lookups
+   *        that did not finish in time are reported as errors. Values &le; 0
+   *        mean no deadline.
+   * @return A non-<code>null</code> but maybe empty list of all matching
+   *         endpoints.
+   * @since 0.10.9
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <IR2D2Endpoint> getParticipantIDsAndEndpoints (@Nonnull final String sLogPrefix,
+                                                                            @Nonnull @Nonempty final String sCountryCode,
+                                                                            @Nonnull final IDocumentTypeIdentifier aDocumentTypeID,
+                                                                            @Nonnull final IR2D2ParticipantIDProvider aParticipantIDProvider,
+                                                                            @Nonnull final IProcessIdentifier aProcessID,
+                                                                            @Nonnull @Nonempty final String sTransportProfileID,
+                                                                            @Nonnull final IR2D2EndpointProvider aEndpointProvider,
+                                                                            @Nonnull final IR2D2ErrorHandler aErrorHandler,
+                                                                            @Nonnegative final int nMaxConcurrency,
+                                                                            final long nDeadlineMS)
   {
     ValueEnforcer.notEmpty (sCountryCode, "CountryCode");
     ValueEnforcer.isTrue (sCountryCode.length () == 2, "CountryCode must have length 2");
@@ -103,6 +339,7 @@ public class R2D2Client
     ValueEnforcer.notEmpty (sTransportProfileID, "TransportProfileID");
     ValueEnforcer.notNull (aEndpointProvider, "EndpointProvider");
     ValueEnforcer.notNull (aErrorHandler, "ErrorHandler");
+    ValueEnforcer.isGT0 (nMaxConcurrency, "MaxConcurrency");
 
     ToopKafkaClient.send (EErrorLevel.INFO,
                           () -> sLogPrefix +
@@ -137,35 +374,38 @@ public class R2D2Client
     if (aPIs.isEmpty ())
       aErrorHandler.onError ("Participant ID lookup returned no matches", EToopErrorCode.DD_004);
     else
-    {
-      // For all matching IDs (if any)
-      for (final IParticipantIdentifier aPI : aPIs)
+      if (nMaxConcurrency > 1 && aPIs.size () > 1)
+      {
+        // Use a deterministic order
+        _getEndpointsInParallel (sLogPrefix,
+                                 new CommonsArrayList <> (aPIs),
+                                 aDocumentTypeID,
+                                 aProcessID,
+                                 sTransportProfileID,
+                                 aEndpointProvider,
+                                 aErrorHandler,
+                                 nMaxConcurrency,
+                                 nDeadlineMS,
+                                 ret);
+      }
+      else
       {
-        // Single SMP query
-        final ICommonsList <IR2D2Endpoint> aLocal = aEndpointProvider.getEndpoints (sLogPrefix,
-                                                                                    aPI,
-                                                                                    aDocumentTypeID,
-                                                                                    aProcessID,
-                                                                                    sTransportProfileID,
-                                                                                    aErrorHandler);
-        ret.addAll (aLocal);
-
-        if (aLocal.isEmpty ())
+        // For all matching IDs (if any)
+        for (final IParticipantIdentifier aPI : aPIs)
         {
-          // emit warning DD_005
-          aErrorHandler.onWarning ("Endpoint lookup for '" +
-                                   aPI.getURIEncoded () +
-                                   "' and document type ID '" +
-                                   aDocumentTypeID.getURIEncoded () +
-                                   "' and process ID '" +
-                                   aProcessID.getURIEncoded () +
-                                   "' and transport profile '" +
-                                   sTransportProfileID +
-                                   "' returned in no endpoints",
-                                   EToopErrorCode.DD_005);
+          // Single SMP query
+          final ICommonsList <IR2D2Endpoint> aLocal = aEndpointProvider.getEndpoints (sLogPrefix,
+                                                                                      aPI,
+                                                                                      aDocumentTypeID,
+                                                                                      aProcessID,
+                                                                                      sTransportProfileID,
+                                                                                      aErrorHandler);
+          ret.addAll (aLocal);
+
+          if (aLocal.isEmpty ())
+            _onNoEndpoints (aPI, aDocumentTypeID, aProcessID, sTransportProfileID, aErrorHandler);
         }
       }
-    }
     return ret;
   }
 }
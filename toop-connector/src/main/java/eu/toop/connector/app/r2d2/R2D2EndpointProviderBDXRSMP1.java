@@ -18,6 +18,8 @@ package eu.toop.connector.app.r2d2;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
@@ -39,7 +41,6 @@ import com.helger.peppolid.simple.process.SimpleProcessIdentifier;
 import com.helger.security.certificate.CertificateHelper;
 import com.helger.smpclient.bdxr1.BDXRClient;
 import com.helger.smpclient.bdxr1.BDXRClientReadOnly;
-import com.helger.smpclient.bdxr1.IBDXRServiceMetadataProvider;
 import com.helger.smpclient.exception.SMPClientException;
 import com.helger.smpclient.url.BDXLURLProvider;
 import com.helger.smpclient.url.PeppolDNSResolutionException;
@@ -59,13 +60,17 @@ import eu.toop.kafkaclient.ToopKafkaClient;
 /**
  * The default implementation of {@link IR2D2EndpointProvider} using the OASIS
  * BDXR SMP v1 lookup. It performs the query every time and does not cache
- * results!
+ * results! Use {@link R2D2EndpointProviderCaching} to cache them. The number of
+ * parallel queries per SMP host is limited.
  *
  * @author Philip Helger
  */
 @Immutable
 public class R2D2EndpointProviderBDXRSMP1 implements IR2D2EndpointProvider
 {
+  // Limits the parallel queries per SMP host over all requests
+  private static final ConcurrentHashMap <String, Semaphore> s_aHostLimits = new ConcurrentHashMap <> ();
+
   public R2D2EndpointProviderBDXRSMP1 ()
   {}
 
@@ -99,20 +104,32 @@ public class R2D2EndpointProviderBDXRSMP1 implements IR2D2EndpointProvider
     final ICommonsList <IR2D2Endpoint> ret = new CommonsArrayList <> ();
     try
     {
-      final IBDXRServiceMetadataProvider aSMPClient;
+      final BDXRClient aSMPClient;
       if (TCConfig.isR2D2UseDNS ())
       {
         // Use dynamic lookup via DNS - can throw exception
-        aSMPClient = new BDXRClient (BDXLURLProvider.INSTANCE, aRecipientID, TCConfig.getR2D2SML ());
+        aSMPClient = new R2D2BDXRClient (BDXLURLProvider.INSTANCE, aRecipientID, TCConfig.getR2D2SML ());
       }
       else
       {
         // Use a constant SMP URL
-        aSMPClient = new BDXRClient (TCConfig.getR2D2SMPUrl ());
+        aSMPClient = new R2D2BDXRClient (TCConfig.getR2D2SMPUrl ());
       }
 
       // Query SMP
-      final SignedServiceMetadataType aSG = aSMPClient.getServiceMetadataOrNull (aRecipientID, aDocumentTypeID);
+      final Semaphore aHostLimit = s_aHostLimits.computeIfAbsent (aSMPClient.getSMPHostURI (),
+                                                                  k -> new Semaphore (TCConfig.getR2D2SMPMaxConcurrencyPerHost (),
+                                                                                      true));
+      aHostLimit.acquire ();
+      final SignedServiceMetadataType aSG;
+      try
+      {
+        aSG = aSMPClient.getServiceMetadataOrNull (aRecipientID, aDocumentTypeID);
+      }
+      finally
+      {
+        aHostLimit.release ();
+      }
       final ServiceInformationType aSI = aSG == null ? null : aSG.getServiceMetadata ().getServiceInformation ();
       if (aSI != null)
       {
@@ -176,6 +193,19 @@ public class R2D2EndpointProviderBDXRSMP1 implements IR2D2EndpointProvider
                              ex,
                              EToopErrorCode.DD_002);
     }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      aErrorHandler.onError (sLogPrefix +
+                             "Interrupted while waiting for the SMP of endpoint " +
+                             aRecipientID.getURIEncoded () +
+                             "/" +
+                             aDocumentTypeID.getURIEncoded () +
+                             "/" +
+                             aProcessID.getURIEncoded (),
+                             ex,
+                             EToopErrorCode.DD_002);
+    }
     catch (final CertificateException ex)
     {
       aErrorHandler.onError (sLogPrefix +
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.r2d2;
+
+import java.io.Closeable;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+
+import eu.toop.connector.api.r2d2.IR2D2Endpoint;
+import eu.toop.connector.api.r2d2.IR2D2EndpointProvider;
+import eu.toop.connector.api.r2d2.IR2D2ErrorHandler;
+
+/**
+ * An {@link IR2D2EndpointProvider} that caches the results of another
+ * {@link IR2D2EndpointProvider} per participant, document type, process and
+ * transport profile. Lookups without an endpoint are cached with the negative
+ * TTL. See {@link R2D2ResultCache} for the details.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@ThreadSafe
+public class R2D2EndpointProviderCaching implements IR2D2EndpointProvider, Closeable
+{
+  private final IR2D2EndpointProvider m_aDelegate;
+  private final R2D2ResultCache <ICommonsList <IR2D2Endpoint>> m_aCache;
+
+  /**
+   * Constructor
+   *
+   * @param aDelegate
+   *        The endpoint provider that performs the lookups. May not be
+   *        <code>null</code>.
+   * @param nTTLMS
+   *        Milliseconds the endpoints are used without refreshing. Must be
+   *        &gt; 0.
+   * @param nStaleMS
+   *        Milliseconds after the TTL in which the endpoints are still used
+   *        while they are refreshed in the background. Must be &ge; 0.
+   * @param nNegativeTTLMS
+   *        Milliseconds a lookup without endpoints is cached. Must be &ge; 0.
+   * @param nMaxEntries
+   *        Maximum number of cached lookups. Must be &gt; 0.
+   */
+  public R2D2EndpointProviderCaching (@Nonnull final IR2D2EndpointProvider aDelegate,
+                                      final long nTTLMS,
+                                      final long nStaleMS,
+                                      final long nNegativeTTLMS,
+                                      final int nMaxEntries)
+  {
+    this (aDelegate, nTTLMS, nStaleMS, nNegativeTTLMS, nMaxEntries, System::currentTimeMillis);
+  }
+
+  R2D2EndpointProviderCaching (@Nonnull final IR2D2EndpointProvider aDelegate,
+                               final long nTTLMS,
+                               final long nStaleMS,
+                               final long nNegativeTTLMS,
+                               final int nMaxEntries,
+                               @Nonnull final LongSupplier aClock)
+  {
+    ValueEnforcer.notNull (aDelegate, "Delegate");
+    m_aDelegate = aDelegate;
+    m_aCache = new R2D2ResultCache <> ("SMP",
+                                       nTTLMS,
+                                       nStaleMS,
+                                       nNegativeTTLMS,
+                                       nMaxEntries,
+                                       ICommonsList::isEmpty,
+                                       ICommonsList::getClone,
+                                       aClock);
+  }
+
+  /**
+   * @return The endpoint provider that performs the lookups. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final IR2D2EndpointProvider getDelegate ()
+  {
+    return m_aDelegate;
+  }
+
+  /**
+   * @return The underlying cache, e.g. for statistics. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final R2D2ResultCache <ICommonsList <IR2D2Endpoint>> getCache ()
+  {
+    return m_aCache;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IR2D2Endpoint> getEndpoints (@Nonnull final String sLogPrefix,
+                                                    @Nonnull final IParticipantIdentifier aRecipientID,
+                                                    @Nonnull final IDocumentTypeIdentifier aDocumentTypeID,
+                                                    @Nonnull final IProcessIdentifier aProcessID,
+                                                    @Nonnull @Nonempty final String sTransportProfileID,
+                                                    @Nonnull final IR2D2ErrorHandler aErrorHandler)
+  {
+    ValueEnforcer.notNull (aRecipientID, "Recipient");
+    ValueEnforcer.notNull (aDocumentTypeID, "DocumentTypeID");
+    ValueEnforcer.notNull (aProcessID, "ProcessID");
+    ValueEnforcer.notEmpty (sTransportProfileID, "TransportProfileID");
+    ValueEnforcer.notNull (aErrorHandler, "ErrorHandler");
+
+    final String sKey = aRecipientID.getURIEncoded () +
+                        '\n' +
+                        aDocumentTypeID.getURIEncoded () +
+                        '\n' +
+                        aProcessID.getURIEncoded () +
+                        '\n' +
+                        sTransportProfileID;
+    return m_aCache.get (sLogPrefix,
+                         sKey,
+                         aErrHdl -> m_aDelegate.getEndpoints (sLogPrefix,
+                                                              aRecipientID,
+                                                              aDocumentTypeID,
+                                                              aProcessID,
+                                                              sTransportProfileID,
+                                                              aErrHdl),
+                         aErrorHandler);
+  }
+
+  public void close ()
+  {
+    m_aCache.close ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Delegate", m_aDelegate).append ("Cache", m_aCache).getToString ();
+  }
+}
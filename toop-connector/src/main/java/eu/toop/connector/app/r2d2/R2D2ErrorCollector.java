@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.r2d2;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.error.level.EErrorLevel;
+
+import eu.toop.commons.error.IToopErrorCode;
+import eu.toop.connector.api.r2d2.IR2D2ErrorHandler;
+
+/**
+ * An {@link IR2D2ErrorHandler} that collects all messages, so that they can be
+ * forwarded to another error handler later on. This is used when a lookup is
+ * performed in a different thread or on behalf of several callers.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@NotThreadSafe
+public final class R2D2ErrorCollector implements IR2D2ErrorHandler
+{
+  @Immutable
+  private static final class Message
+  {
+    private final EErrorLevel m_eErrorLevel;
+    private final String m_sMsg;
+    private final Throwable m_aCause;
+    private final IToopErrorCode m_aCode;
+
+    Message (@Nonnull final EErrorLevel eErrorLevel,
+             @Nonnull final String sMsg,
+             @Nullable final Throwable aCause,
+             @Nonnull final IToopErrorCode aCode)
+    {
+      m_eErrorLevel = eErrorLevel;
+      m_sMsg = sMsg;
+      m_aCause = aCause;
+      m_aCode = aCode;
+    }
+  }
+
+  private final ICommonsList <Message> m_aMessages = new CommonsArrayList <> ();
+
+  public R2D2ErrorCollector ()
+  {}
+
+  public void onMessage (@Nonnull final EErrorLevel eErrorLevel,
+                         @Nonnull final String sMsg,
+                         @Nullable final Throwable t,
+                         @Nonnull final IToopErrorCode eCode)
+  {
+    m_aMessages.add (new Message (eErrorLevel, sMsg, t, eCode));
+  }
+
+  /**
+   * @return <code>true</code> if at least one message with an error level was
+   *         collected.
+   */
+  public boolean hasError ()
+  {
+    return m_aMessages.containsAny (x -> x.m_eErrorLevel.isError ());
+  }
+
+  /**
+   * Forward all collected messages in the order they were received.
+   *
+   * @param aErrorHandler
+   *        The error handler to forward to. May not be <code>null</code>.
+   */
+  public void forwardTo (@Nonnull final IR2D2ErrorHandler aErrorHandler)
+  {
+    ValueEnforcer.notNull (aErrorHandler, "ErrorHandler");
+    for (final Message aMsg : m_aMessages)
+      aErrorHandler.onMessage (aMsg.m_eErrorLevel, aMsg.m_sMsg, aMsg.m_aCause, aMsg.m_aCode);
+  }
+}
@@ -16,21 +16,33 @@
 package eu.toop.connector.app.r2d2;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.apache.http.client.methods.HttpGet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.SimpleLock;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.string.ToStringGenerator;
 import com.helger.commons.url.ISimpleURL;
 import com.helger.commons.url.SimpleURL;
-import com.helger.httpclient.HttpClientManager;
 import com.helger.httpclient.response.ResponseHandlerJson;
 import com.helger.json.IJson;
 import com.helger.json.IJsonArray;
@@ -41,23 +53,32 @@ import com.helger.peppolid.IParticipantIdentifier;
 import eu.toop.commons.error.EToopErrorCode;
 import eu.toop.connector.api.TCConfig;
 import eu.toop.connector.api.TCSettings;
-import eu.toop.connector.api.http.TCHttpClientSettings;
+import eu.toop.connector.api.http.TCHttpClientPool;
 import eu.toop.connector.api.r2d2.IR2D2ErrorHandler;
 import eu.toop.connector.api.r2d2.IR2D2ParticipantIDProvider;
+import eu.toop.connector.app.TCBoundedExecutor;
 import eu.toop.kafkaclient.ToopKafkaClient;
 
 /**
  * This class implements the {@link IR2D2ParticipantIDProvider} interface using
- * a remote query to TOOP Directory.
+ * a remote query to TOOP Directory. If the first result page shows that there
+ * are more pages, the remaining pages are fetched in parallel.
  *
  * @author Philip Helger
  * @since 0.10.6
  */
 public class R2D2ParticipantIDProviderTOOPDirectory implements IR2D2ParticipantIDProvider
 {
+  private static final Logger LOGGER = LoggerFactory.getLogger (R2D2ParticipantIDProviderTOOPDirectory.class);
   private static final int MAX_RESULTS_PER_PAGE = 100;
 
+  // The threads for the parallel page fetching. More threads than pooled
+  // HTTP connections would only wait for a connection.
+  private static final TCBoundedExecutor s_aExecutor = new TCBoundedExecutor ("Directory",
+                                                                              TCConfig::getHttpPoolMaxTotal);
+
   private final String m_sBaseURL;
+  private final int m_nMaxConcurrency;
 
   /**
    * Constructor using the TOOP Directory URL from the configuration file.
@@ -74,9 +95,38 @@ public class R2D2ParticipantIDProviderTOOPDirectory implements IR2D2ParticipantI
    *        The base URL to be used. May neither be <code>null</code> nor empty.
    */
   public R2D2ParticipantIDProviderTOOPDirectory (@Nonnull final String sBaseURL)
+  {
+    this (sBaseURL, TCConfig.getR2D2DirectoryMaxConcurrency ());
+  }
+
+  /**
+   * Constructor with an arbitrary TOOP Directory URL.
+   *
+   * @param sBaseURL
+   *        The base URL to be used. May neither be <code>null</code> nor empty.
+   * @param nMaxConcurrency
+   *        The maximum number of result pages fetched in parallel. Must be &gt;
+   *        0. 1 means the pages are fetched one after the other.
+   * @since 0.10.9
+   */
+  public R2D2ParticipantIDProviderTOOPDirectory (@Nonnull final String sBaseURL,
+                                                 @Nonnegative final int nMaxConcurrency)
   {
     ValueEnforcer.notEmpty (sBaseURL, "BaseURL");
+    ValueEnforcer.isGT0 (nMaxConcurrency, "MaxConcurrency");
     m_sBaseURL = sBaseURL;
+    m_nMaxConcurrency = nMaxConcurrency;
+  }
+
+  /**
+   * Shutdown the threads used for the parallel page fetching. They are created
+   * again on the next parallel fetch.
+   *
+   * @since 0.10.9
+   */
+  public static void shutdownExecutor ()
+  {
+    s_aExecutor.shutdown ();
   }
 
   /**
@@ -90,9 +140,20 @@ public class R2D2ParticipantIDProviderTOOPDirectory implements IR2D2ParticipantI
     return m_sBaseURL;
   }
 
+  /**
+   * @return The maximum number of result pages fetched in parallel. Always
+   *         &gt; 0.
+   * @since 0.10.9
+   */
+  @Nonnegative
+  public final int getMaxConcurrency ()
+  {
+    return m_nMaxConcurrency;
+  }
+
   @Nullable
   private static IJsonObject _fetchJsonObject (@Nonnull final String sLogPrefix,
-                                               @Nonnull final HttpClientManager aMgr,
+                                               @Nonnull final TCHttpClientPool aMgr,
                                                @Nonnull final ISimpleURL aURL) throws IOException
   {
     final HttpGet aGet = new HttpGet (aURL.getAsURI ());
@@ -109,6 +170,155 @@ public class R2D2ParticipantIDProviderTOOPDirectory implements IR2D2ParticipantI
     return null;
   }
 
+  /**
+   * Add all participant IDs of the provided result page.
+   *
+   * @return The number of matches on the page.
+   */
+  @Nonnegative
+  private static int _addMatches (@Nonnull final String sLogPrefix,
+                                  @Nonnull final IJsonObject aResult,
+                                  @Nonnull final Consumer <ICommonsList <IParticipantIdentifier>> aTarget)
+  {
+    int nMatchCount = 0;
+    final ICommonsList <IParticipantIdentifier> aPIs = new CommonsArrayList <> ();
+    final IJsonArray aMatches = aResult.getAsArray ("matches");
+    if (aMatches != null)
+    {
+      for (final IJson aMatch : aMatches)
+      {
+        ++nMatchCount;
+        final IJsonObject aID = aMatch.getAsObject ().getAsObject ("participantID");
+        if (aID != null)
+        {
+          final String sScheme = aID.getAsString ("scheme");
+          final String sValue = aID.getAsString ("value");
+          final IParticipantIdentifier aPI = TCSettings.getIdentifierFactory ()
+                                                       .createParticipantIdentifier (sScheme, sValue);
+          if (aPI != null)
+            aPIs.add (aPI);
+          else
+            ToopKafkaClient.send (EErrorLevel.WARN,
+                                  () -> sLogPrefix +
+                                        "Failed to create participant identifier from '" +
+                                        sScheme +
+                                        "' and '" +
+                                        sValue +
+                                        "'");
+        }
+        else
+          ToopKafkaClient.send (EErrorLevel.WARN, () -> sLogPrefix + "Match does not contain participant ID");
+      }
+    }
+    else
+      ToopKafkaClient.send (EErrorLevel.WARN, () -> sLogPrefix + "JSON response contains no 'matches'");
+    aTarget.accept (aPIs);
+    return nMatchCount;
+  }
+
+  /**
+   * Fetch the result pages one after the other, starting at the provided page
+   * index, until a page is not full.
+   */
+  private static void _fetchSequentially (@Nonnull final String sLogPrefix,
+                                          @Nonnull final TCHttpClientPool aMgr,
+                                          @Nonnull final SimpleURL aBaseURL,
+                                          @Nonnegative final int nFirstPageIndex,
+                                          @Nonnull final Consumer <ICommonsList <IParticipantIdentifier>> aTarget) throws IOException
+  {
+    for (int nResultPageIndex = nFirstPageIndex;; ++nResultPageIndex)
+    {
+      if (nResultPageIndex > MAX_RESULTS_PER_PAGE)
+      {
+        // Avoid endless loop
+        ToopKafkaClient.send (EErrorLevel.ERROR, () -> sLogPrefix + "Endless loop in PD fetching?");
+        break;
+      }
+
+      final IJsonObject aResult = _fetchJsonObject (sLogPrefix,
+                                                    aMgr,
+                                                    aBaseURL.getClone ().add ("rpi", nResultPageIndex));
+      if (aResult == null)
+      {
+        // Unexpected error - stop querying
+        // Error was already logged
+        break;
+      }
+
+      if (_addMatches (sLogPrefix, aResult, aTarget) < MAX_RESULTS_PER_PAGE)
+      {
+        // Got less results than expected - end of list
+        break;
+      }
+    }
+  }
+
+  /**
+   * Fetch the result pages with the index 1 to nPageCount - 1 in parallel.
+   *
+   * @return <code>true</code> if the last page was full, so that more pages
+   *         may be available.
+   */
+  private boolean _fetchInParallel (@Nonnull final String sLogPrefix,
+                                    @Nonnull final TCHttpClientPool aMgr,
+                                    @Nonnull final SimpleURL aBaseURL,
+                                    @Nonnegative final int nPageCount,
+                                    @Nonnull final Consumer <ICommonsList <IParticipantIdentifier>> aTarget) throws IOException
+  {
+    // Each worker takes the next page until all pages are fetched
+    final AtomicInteger aNextPageIndex = new AtomicInteger (1);
+    final AtomicBoolean aLastPageFull = new AtomicBoolean (false);
+    final Callable <Void> aWorker = () -> {
+      int nPageIndex;
+      while ((nPageIndex = aNextPageIndex.getAndIncrement ()) < nPageCount)
+      {
+        final IJsonObject aResult = _fetchJsonObject (sLogPrefix,
+                                                      aMgr,
+                                                      aBaseURL.getClone ().add ("rpi", nPageIndex));
+        if (aResult != null)
+        {
+          // Add the matches as soon as the page is available
+          final int nMatchCount = _addMatches (sLogPrefix, aResult, aTarget);
+          if (nPageIndex == nPageCount - 1 && nMatchCount >= MAX_RESULTS_PER_PAGE)
+            aLastPageFull.set (true);
+        }
+        // else the error was already logged - continue with the other pages
+      }
+      return null;
+    };
+
+    final int nWorkers = Math.min (m_nMaxConcurrency, nPageCount - 1);
+    final ExecutorService aExecutor = s_aExecutor.getExecutor ();
+    final ICommonsList <Future <Void>> aFutures = new CommonsArrayList <> (nWorkers);
+    for (int i = 0; i < nWorkers; ++i)
+      aFutures.add (aExecutor.submit (aWorker));
+
+    IOException aFirstEx = null;
+    for (final Future <Void> aFuture : aFutures)
+    {
+      try
+      {
+        aFuture.get ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new IOException ("Interrupted while fetching the TOOP Directory result pages", ex);
+      }
+      catch (final ExecutionException ex)
+      {
+        final Throwable aCause = ex.getCause ();
+        if (aCause instanceof RuntimeException)
+          throw (RuntimeException) aCause;
+        if (aFirstEx == null)
+          aFirstEx = aCause instanceof IOException ? (IOException) aCause : new IOException (aCause);
+      }
+    }
+    if (aFirstEx != null)
+      throw aFirstEx;
+    return aLastPageFull.get ();
+  }
+
   @Nonnull
   public ICommonsSet <IParticipantIdentifier> getAllParticipantIDs (@Nonnull final String sLogPrefix,
                                                                     @Nonnull @Nonempty final String sCountryCode,
@@ -116,9 +326,14 @@ public class R2D2ParticipantIDProviderTOOPDirectory implements IR2D2ParticipantI
                                                                     @Nonnull final IR2D2ErrorHandler aErrorHandler)
   {
     final ICommonsSet <IParticipantIdentifier> ret = new CommonsHashSet <> ();
+    // Pages may be added from different threads
+    final SimpleLock aLock = new SimpleLock ();
+    final Consumer <ICommonsList <IParticipantIdentifier>> aTarget = x -> aLock.locked ( () -> ret.addAll (x));
 
-    try (final HttpClientManager aMgr = HttpClientManager.create (new TCHttpClientSettings ()))
+    try
     {
+      final TCHttpClientPool aMgr = TCHttpClientPool.getInstance ();
+
       // Build base URL and fetch x records per HTTP request
       final SimpleURL aBaseURL = new SimpleURL (m_sBaseURL + "/search/1.0/json")
                                                                                 .add ("doctype",
@@ -127,69 +342,31 @@ public class R2D2ParticipantIDProviderTOOPDirectory implements IR2D2ParticipantI
                                                                                 .add ("rpc", MAX_RESULTS_PER_PAGE);
 
       // Fetch first object
-      IJsonObject aResult = _fetchJsonObject (sLogPrefix, aMgr, aBaseURL);
-      if (aResult != null)
+      final IJsonObject aResult = _fetchJsonObject (sLogPrefix, aMgr, aBaseURL);
+      if (aResult != null && _addMatches (sLogPrefix, aResult, aTarget) >= MAX_RESULTS_PER_PAGE)
       {
-        // Start querying results
-        int nResultPageIndex = 0;
-        int nLoops = 0;
-        while (true)
+        // More pages are available
+        final int nTotalCount = aResult.getAsInt ("total-result-count", -1);
+        final int nPageCount = Math.min ((nTotalCount + MAX_RESULTS_PER_PAGE - 1) / MAX_RESULTS_PER_PAGE,
+                                         MAX_RESULTS_PER_PAGE + 1);
+        if (m_nMaxConcurrency > 1 && nPageCount > 2)
         {
-          int nMatchCount = 0;
-          final IJsonArray aMatches = aResult.getAsArray ("matches");
-          if (aMatches != null)
-          {
-            for (final IJson aMatch : aMatches)
-            {
-              ++nMatchCount;
-              final IJsonObject aID = aMatch.getAsObject ().getAsObject ("participantID");
-              if (aID != null)
-              {
-                final String sScheme = aID.getAsString ("scheme");
-                final String sValue = aID.getAsString ("value");
-                final IParticipantIdentifier aPI = TCSettings.getIdentifierFactory ()
-                                                             .createParticipantIdentifier (sScheme, sValue);
-                if (aPI != null)
-                  ret.add (aPI);
-                else
-                  ToopKafkaClient.send (EErrorLevel.WARN,
-                                        () -> sLogPrefix +
-                                              "Failed to create participant identifier from '" +
-                                              sScheme +
-                                              "' and '" +
-                                              sValue +
-                                              "'");
-              }
-              else
-                ToopKafkaClient.send (EErrorLevel.WARN, () -> sLogPrefix + "Match does not contain participant ID");
-            }
-          }
-          else
-            ToopKafkaClient.send (EErrorLevel.WARN, () -> sLogPrefix + "JSON response contains no 'matches'");
-
-          if (nMatchCount < MAX_RESULTS_PER_PAGE)
-          {
-            // Got less results than expected - end of list
-            break;
-          }
-
-          if (++nLoops > MAX_RESULTS_PER_PAGE)
-          {
-            // Avoid endless loop
-            ToopKafkaClient.send (EErrorLevel.ERROR, () -> sLogPrefix + "Endless loop in PD fetching?");
-            break;
-          }
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug (sLogPrefix +
+                          "Fetching " +
+                          (nPageCount - 1) +
+                          " more TOOP Directory result pages for " +
+                          nTotalCount +
+                          " matches in parallel");
 
-          // Query next page
-          nResultPageIndex++;
-          aResult = _fetchJsonObject (sLogPrefix, aMgr, aBaseURL.getClone ().add ("rpi", nResultPageIndex));
-          if (aResult == null)
+          if (_fetchInParallel (sLogPrefix, aMgr, aBaseURL, nPageCount, aTarget))
           {
-            // Unexpected error - stop querying
-            // Error was already logged
-            break;
+            // Matches were added in the meantime
+            _fetchSequentially (sLogPrefix, aMgr, aBaseURL, nPageCount, aTarget);
           }
         }
+        else
+          _fetchSequentially (sLogPrefix, aMgr, aBaseURL, 1, aTarget);
       }
     }
     catch (final IOException ex)
@@ -210,6 +387,8 @@ public class R2D2ParticipantIDProviderTOOPDirectory implements IR2D2ParticipantI
   @Override
   public String toString ()
   {
-    return new ToStringGenerator (this).append ("BaseURL", m_sBaseURL).getToString ();
+    return new ToStringGenerator (this).append ("BaseURL", m_sBaseURL)
+                                       .append ("MaxConcurrency", m_nMaxConcurrency)
+                                       .getToString ();
   }
 }
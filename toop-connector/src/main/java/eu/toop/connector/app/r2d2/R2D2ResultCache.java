@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.r2d2;
+
+import java.io.Closeable;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.ToStringGenerator;
+
+import eu.toop.connector.api.r2d2.IR2D2ErrorHandler;
+import eu.toop.connector.app.TCRefreshingCache;
+import eu.toop.kafkaclient.ToopKafkaClient;
+
+/**
+ * A cache for the results of R2D2 lookups that report their errors to an
+ * {@link IR2D2ErrorHandler}. See {@link TCRefreshingCache} for the caching
+ * rules. Lookups that report an error are never cached. The messages of a
+ * lookup are handed to the error handler of each caller that waited for it,
+ * but not to callers that are answered from the cache.
+ *
+ * @author Philip Helger
+ * @param <VALUETYPE>
+ *        The cached result type.
+ * @since 0.10.9
+ */
+@ThreadSafe
+public final class R2D2ResultCache <VALUETYPE> implements Closeable
+{
+  /**
+   * The outcome of a single lookup including all messages reported to the
+   * error handler.
+   */
+  @Immutable
+  private static final class Lookup <VALUETYPE>
+  {
+    private final VALUETYPE m_aValue;
+    private final R2D2ErrorCollector m_aMessages;
+
+    Lookup (@Nonnull final VALUETYPE aValue, @Nonnull final R2D2ErrorCollector aMessages)
+    {
+      m_aValue = aValue;
+      m_aMessages = aMessages;
+    }
+  }
+
+  private final UnaryOperator <VALUETYPE> m_aCopier;
+  private final TCRefreshingCache <Lookup <VALUETYPE>> m_aCache;
+
+  /**
+   * Constructor
+   *
+   * @param sName
+   *        The name of the cache used for logging and thread names. May
+   *        neither be <code>null</code> nor empty.
+   * @param nTTLMS
+   *        Milliseconds a result is used without refreshing. Must be &gt; 0.
+   * @param nStaleMS
+   *        Milliseconds after the TTL in which a result is still used while it
+   *        is refreshed in the background. Must be &ge; 0.
+   * @param nNegativeTTLMS
+   *        Milliseconds a negative result is used. 0 to not cache negative
+   *        results. Must be &ge; 0.
+   * @param nMaxEntries
+   *        Maximum number of cached keys. Must be &gt; 0.
+   * @param aNegativeFilter
+   *        The filter that determines whether a result is negative. May not be
+   *        <code>null</code>.
+   * @param aCopier
+   *        The function to copy a cached result before it is handed out, so
+   *        that callers may modify it. May not be <code>null</code>.
+   * @param aClock
+   *        The milliseconds clock to be used. May not be <code>null</code>.
+   */
+  public R2D2ResultCache (@Nonnull @Nonempty final String sName,
+                          final long nTTLMS,
+                          final long nStaleMS,
+                          final long nNegativeTTLMS,
+                          final int nMaxEntries,
+                          @Nonnull final Predicate <? super VALUETYPE> aNegativeFilter,
+                          @Nonnull final UnaryOperator <VALUETYPE> aCopier,
+                          @Nonnull final LongSupplier aClock)
+  {
+    ValueEnforcer.notNull (aNegativeFilter, "NegativeFilter");
+    ValueEnforcer.notNull (aCopier, "Copier");
+    m_aCopier = aCopier;
+    m_aCache = new TCRefreshingCache <Lookup <VALUETYPE>> (sName,
+                                                           nTTLMS,
+                                                           nStaleMS,
+                                                           nNegativeTTLMS,
+                                                           nMaxEntries,
+                                                           x -> aNegativeFilter.test (x.m_aValue),
+                                                           aClock)
+    {
+      @Override
+      protected boolean isCacheable (@Nonnull final Lookup <VALUETYPE> aValue)
+      {
+        return !aValue.m_aMessages.hasError ();
+      }
+
+      @Override
+      @Nonnull
+      protected Lookup <VALUETYPE> getValueToCache (@Nonnull final Lookup <VALUETYPE> aValue)
+      {
+        // Callers answered from the cache don't receive any message
+        return new Lookup <> (aValue.m_aValue, new R2D2ErrorCollector ());
+      }
+
+      @Override
+      protected void onBackgroundResultNotCached (@Nonnull final String sLogPrefix,
+                                                  @Nonnull final String sKey,
+                                                  @Nonnull final Lookup <VALUETYPE> aValue)
+      {
+        aValue.m_aMessages.forwardTo ( (eErrorLevel, sMsg, aCause, aCode) -> ToopKafkaClient.send (eErrorLevel,
+                                                                                                     () -> sMsg,
+                                                                                                     aCause));
+      }
+    };
+  }
+
+  /**
+   * Get the result for the provided key from the cache or perform the lookup.
+   *
+   * @param sLogPrefix
+   *        Log prefix. May not be <code>null</code> but may be empty.
+   * @param sKey
+   *        The cache key that must uniquely identify the lookup parameters.
+   *        May not be <code>null</code>.
+   * @param aLookup
+   *        The lookup to be performed. It receives the error handler to report
+   *        errors to and must return a non-<code>null</code> result. It may be
+   *        invoked in a background thread. May not be <code>null</code>.
+   * @param aErrorHandler
+   *        The error handler of the caller. It only receives the messages of
+   *        lookups performed for this call. May not be <code>null</code>.
+   * @return A copy of the cached or looked up result. Never <code>null</code>.
+   */
+  @Nonnull
+  public VALUETYPE get (@Nonnull final String sLogPrefix,
+                        @Nonnull final String sKey,
+                        @Nonnull final Function <IR2D2ErrorHandler, ? extends VALUETYPE> aLookup,
+                        @Nonnull final IR2D2ErrorHandler aErrorHandler)
+  {
+    ValueEnforcer.notNull (aLookup, "Lookup");
+    ValueEnforcer.notNull (aErrorHandler, "ErrorHandler");
+
+    final Lookup <VALUETYPE> aResult = m_aCache.get (sLogPrefix, sKey, () -> {
+      final R2D2ErrorCollector aMessages = new R2D2ErrorCollector ();
+      final VALUETYPE aValue = aLookup.apply (aMessages);
+      ValueEnforcer.notNull (aValue, "LookupResult");
+      return new Lookup <> (aValue, aMessages);
+    });
+    aResult.m_aMessages.forwardTo (aErrorHandler);
+    return m_aCopier.apply (aResult.m_aValue);
+  }
+
+  /**
+   * Remove all cached results.
+   */
+  public void clear ()
+  {
+    m_aCache.clear ();
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getName ()
+  {
+    return m_aCache.getName ();
+  }
+
+  /**
+   * @return The number of cached keys.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aCache.size ();
+  }
+
+  /**
+   * @return The underlying cache, e.g. for the statistics. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public TCRefreshingCache <?> getCache ()
+  {
+    return m_aCache;
+  }
+
+  public void close ()
+  {
+    m_aCache.close ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Cache", m_aCache).getToString ();
+  }
+}
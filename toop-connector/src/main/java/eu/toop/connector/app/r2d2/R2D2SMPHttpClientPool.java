@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.r2d2;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.smpclient.httpclient.SMPHttpClientSettings;
+
+import eu.toop.connector.api.TCConfig;
+import eu.toop.connector.api.http.TCHttpClientPool;
+
+/**
+ * Holds the pooled HTTP client that is used for all SMP queries. In contrast
+ * to the shared {@link TCHttpClientPool} it is created from the SMP client
+ * configuration ({@link SMPHttpClientSettings}), so that the proxy and TLS
+ * settings of the SMP client are used for the SMP queries, as before the
+ * pooling was introduced. Only the pool sizes are taken from the TOOP
+ * Connector configuration.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@ThreadSafe
+public final class R2D2SMPHttpClientPool
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (R2D2SMPHttpClientPool.class);
+
+  private static final SimpleReadWriteLock s_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("s_aRWLock")
+  private static TCHttpClientPool s_aInstance;
+
+  private R2D2SMPHttpClientPool ()
+  {}
+
+  /**
+   * @return The global SMP HTTP client pool that is lazily created. Never
+   *         <code>null</code>. Don't close it.
+   */
+  @Nonnull
+  public static TCHttpClientPool getInstance ()
+  {
+    TCHttpClientPool ret = s_aRWLock.readLocked ( () -> s_aInstance);
+    if (ret == null)
+    {
+      ret = s_aRWLock.writeLocked ( () -> {
+        if (s_aInstance == null)
+        {
+          s_aInstance = new TCHttpClientPool (new SMPHttpClientSettings (),
+                                              TCConfig.getHttpPoolMaxTotal (),
+                                              TCConfig.getHttpPoolMaxPerRoute (),
+                                              TCConfig.getHttpPoolIdleMS ());
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug ("Created the SMP HTTP client pool");
+        }
+        return s_aInstance;
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * @return The global SMP HTTP client pool, if it was already created,
+   *         <code>null</code> otherwise.
+   */
+  @Nullable
+  public static TCHttpClientPool getInstanceIfCreated ()
+  {
+    return s_aRWLock.readLocked ( () -> s_aInstance);
+  }
+
+  /**
+   * Close the global SMP HTTP client pool, if it was created.
+   */
+  public static void shutdown ()
+  {
+    final TCHttpClientPool aInstance = s_aRWLock.writeLocked ( () -> {
+      final TCHttpClientPool ret = s_aInstance;
+      s_aInstance = null;
+      return ret;
+    });
+    if (aInstance != null)
+    {
+      aInstance.close ();
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Closed the SMP HTTP client pool");
+    }
+  }
+}
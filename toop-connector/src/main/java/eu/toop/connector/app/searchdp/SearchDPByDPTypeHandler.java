@@ -27,12 +27,11 @@ import org.slf4j.LoggerFactory;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.url.SimpleURL;
-import com.helger.httpclient.HttpClientManager;
 import com.helger.httpclient.response.ResponseHandlerMicroDom;
 import com.helger.xml.microdom.IMicroDocument;
 
 import eu.toop.connector.api.TCConfig;
-import eu.toop.connector.api.http.TCHttpClientSettings;
+import eu.toop.connector.api.http.TCHttpClientPool;
 
 /**
  * Handler to perform the /search-dp-by-dptype servlet functionality.
@@ -80,37 +79,36 @@ public final class SearchDPByDPTypeHandler
       throw new IllegalStateException ("The Directory base URL configuration is missing");
 
     // Invoke TOOP Directory search API
-    try (final HttpClientManager aMgr = HttpClientManager.create (new TCHttpClientSettings ()))
-    {
-      // Build base URL and fetch all records per HTTP request
-      final SimpleURL aBaseURL = new SimpleURL (sBaseURL + "/search/1.0/xml");
-      // More than 1000 is not allowed
-      aBaseURL.add ("rpc", 1_000);
-      // Constant defined in
-      // http://wiki.ds.unipi.gr/display/TOOP/Process+Variations+on+Discovery
-      aBaseURL.add ("identifierScheme", "DataProviderType");
-      // Parameters to this servlet
-      aBaseURL.add ("identifierValue", aInputParams.getDPType ());
+    final TCHttpClientPool aMgr = TCHttpClientPool.getInstance ();
+
+    // Build base URL and fetch all records per HTTP request
+    final SimpleURL aBaseURL = new SimpleURL (sBaseURL + "/search/1.0/xml");
+    // More than 1000 is not allowed
+    aBaseURL.add ("rpc", 1_000);
+    // Constant defined in
+    // http://wiki.ds.unipi.gr/display/TOOP/Process+Variations+on+Discovery
+    aBaseURL.add ("identifierScheme", "DataProviderType");
+    // Parameters to this servlet
+    aBaseURL.add ("identifierValue", aInputParams.getDPType ());
 
-      if (LOGGER.isInfoEnabled ())
-        LOGGER.info ("Querying " + aBaseURL.getAsStringWithEncodedParameters ());
+    if (LOGGER.isInfoEnabled ())
+      LOGGER.info ("Querying " + aBaseURL.getAsStringWithEncodedParameters ());
 
-      final HttpGet aGet = new HttpGet (aBaseURL.getAsURI ());
-      final ResponseHandlerMicroDom aRH = new ResponseHandlerMicroDom ();
-      final IMicroDocument aDoc = aMgr.execute (aGet, aRH);
-      if (aDoc == null || aDoc.getDocumentElement () == null)
-      {
-        // Mandatory fields are missing
-        if (LOGGER.isErrorEnabled ())
-          LOGGER.error ("Failed to invoke the Directory query '" + aBaseURL.getAsStringWithEncodedParameters () + "'");
+    final HttpGet aGet = new HttpGet (aBaseURL.getAsURI ());
+    final ResponseHandlerMicroDom aRH = new ResponseHandlerMicroDom ();
+    final IMicroDocument aDoc = aMgr.execute (aGet, aRH);
+    if (aDoc == null || aDoc.getDocumentElement () == null)
+    {
+      // Mandatory fields are missing
+      if (LOGGER.isErrorEnabled ())
+        LOGGER.error ("Failed to invoke the Directory query '" + aBaseURL.getAsStringWithEncodedParameters () + "'");
 
-        aCallback.onQueryDirectoryError (aBaseURL);
-      }
-      else
-      {
-        // Return "as is"
-        aCallback.onQueryDirectorySuccess (aDoc);
-      }
+      aCallback.onQueryDirectoryError (aBaseURL);
+    }
+    else
+    {
+      // Return "as is"
+      aCallback.onQueryDirectorySuccess (aDoc);
     }
   }
 }
@@ -28,14 +28,17 @@ import javax.servlet.http.HttpServletResponse;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.http.CHttpHeader;
 import com.helger.commons.mime.CMimeType;
+import com.helger.commons.wrapper.Wrapper;
 
 import eu.toop.commons.dataexchange.v140.TDETOOPRequestType;
 import eu.toop.commons.dataexchange.v140.TDETOOPResponseType;
 import eu.toop.commons.exchange.AsicReadEntry;
-import eu.toop.commons.exchange.ToopMessageBuilder140;
 import eu.toop.connector.api.TCConfig;
+import eu.toop.connector.app.TCAsicHelper;
 import eu.toop.connector.app.TCDumpHelper;
+import eu.toop.connector.app.mp.EMPStage;
 import eu.toop.connector.app.mp.MPTrigger;
 import eu.toop.kafkaclient.ToopKafkaClient;
 
@@ -50,6 +53,15 @@ import eu.toop.kafkaclient.ToopKafkaClient;
 @WebServlet ("/from-dc")
 public class FromDCServlet extends HttpServlet
 {
+  private static void _setRejected (@Nonnull final TCUnifiedResponse aUR)
+  {
+    final long nRetryAfterSeconds = MPTrigger.getRetryAfterSeconds (EMPStage.DC_OUTGOING);
+    ToopKafkaClient.send (EErrorLevel.WARN,
+                          () -> "The /from-dc request was rejected. Retry after " + nRetryAfterSeconds + " seconds");
+    aUR.setStatus (HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    aUR.addCustomResponseHeader (CHttpHeader.RETRY_AFTER, Long.toString (nRetryAfterSeconds));
+  }
+
   @Override
   protected void doPost (@Nonnull final HttpServletRequest aHttpServletRequest,
                          @Nonnull final HttpServletResponse aHttpServletResponse) throws ServletException, IOException
@@ -58,12 +70,22 @@ public class FromDCServlet extends HttpServlet
 
     final TCUnifiedResponse aUR = new TCUnifiedResponse (aHttpServletRequest);
 
+    if (MPTrigger.rejectFromDCIfSaturated ())
+    {
+      // Don't read the body at all if it would be rejected anyway
+      _setRejected (aUR);
+      aUR.applyToResponse (aHttpServletResponse);
+      return;
+    }
+
     // Parse POST data
     final ICommonsList <AsicReadEntry> aAttachments = new CommonsArrayList <> ();
-    final TDETOOPRequestType aRequestMsg = ToopMessageBuilder140.parseRequestMessage (TCDumpHelper.getDumpInputStream (aHttpServletRequest.getInputStream (),
-                                                                                                                       TCConfig.getDebugFromDCDumpPathIfEnabled (),
-                                                                                                                       "from-dc.asic"),
-                                                                                      aAttachments::add);
+    final Wrapper <byte []> aXMLPayload = new Wrapper <> ();
+    final TDETOOPRequestType aRequestMsg = TCAsicHelper.parseRequestMessage (TCDumpHelper.getDumpInputStream (aHttpServletRequest.getInputStream (),
+                                                                                                              TCConfig.getDebugFromDCDumpPathIfEnabled (),
+                                                                                                              "from-dc.asic"),
+                                                                             aAttachments::add,
+                                                                             aXMLPayload::set);
 
     if (aRequestMsg == null)
     {
@@ -75,18 +97,29 @@ public class FromDCServlet extends HttpServlet
                                 StandardCharsets.UTF_8);
       aUR.setMimeType (CMimeType.TEXT_PLAIN);
       aUR.setStatus (HttpServletResponse.SC_BAD_REQUEST);
+      TCAsicHelper.deleteSpilledAttachments (aAttachments);
     }
     else
     {
       if (aRequestMsg instanceof TDETOOPResponseType)
+      {
         ToopKafkaClient.send (EErrorLevel.WARN,
                               () -> "The /from-dc request contains a TOOP Response, but needs a TOOP Request only. Please check your endpoint configuration.");
+        // The received XML is not a request - validate it as before
+        aXMLPayload.set (null);
+      }
 
       // Enqueue to processor and we're good
-      MPTrigger.fromDC_1_of_4 (aRequestMsg, aAttachments);
-
-      // Done - no content
-      aUR.setStatus (HttpServletResponse.SC_ACCEPTED);
+      if (MPTrigger.fromDC_1_of_4 (aRequestMsg, aAttachments, aXMLPayload.get ()).isSuccess ())
+      {
+        // Done - no content
+        aUR.setStatus (HttpServletResponse.SC_ACCEPTED);
+      }
+      else
+      {
+        // Queue is saturated - the caller should try again later
+        _setRejected (aUR);
+      }
     }
 
     // Done
@@ -28,13 +28,16 @@ import javax.servlet.http.HttpServletResponse;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.http.CHttpHeader;
 import com.helger.commons.mime.CMimeType;
+import com.helger.commons.wrapper.Wrapper;
 
 import eu.toop.commons.dataexchange.v140.TDETOOPResponseType;
 import eu.toop.commons.exchange.AsicReadEntry;
-import eu.toop.commons.exchange.ToopMessageBuilder140;
 import eu.toop.connector.api.TCConfig;
+import eu.toop.connector.app.TCAsicHelper;
 import eu.toop.connector.app.TCDumpHelper;
+import eu.toop.connector.app.mp.EMPStage;
 import eu.toop.connector.app.mp.MPTrigger;
 import eu.toop.kafkaclient.ToopKafkaClient;
 
@@ -50,6 +53,15 @@ import eu.toop.kafkaclient.ToopKafkaClient;
 @WebServlet ("/from-dp")
 public class FromDPServlet extends HttpServlet
 {
+  private static void _setRejected (@Nonnull final TCUnifiedResponse aUR)
+  {
+    final long nRetryAfterSeconds = MPTrigger.getRetryAfterSeconds (EMPStage.DP_OUTGOING);
+    ToopKafkaClient.send (EErrorLevel.WARN,
+                          () -> "The /from-dp request was rejected. Retry after " + nRetryAfterSeconds + " seconds");
+    aUR.setStatus (HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    aUR.addCustomResponseHeader (CHttpHeader.RETRY_AFTER, Long.toString (nRetryAfterSeconds));
+  }
+
   @Override
   protected void doPost (@Nonnull final HttpServletRequest aHttpServletRequest,
                          @Nonnull final HttpServletResponse aHttpServletResponse) throws ServletException, IOException
@@ -58,13 +70,23 @@ public class FromDPServlet extends HttpServlet
 
     final TCUnifiedResponse aUR = new TCUnifiedResponse (aHttpServletRequest);
 
+    if (MPTrigger.rejectFromDPIfSaturated ())
+    {
+      // Don't read the body at all if it would be rejected anyway
+      _setRejected (aUR);
+      aUR.applyToResponse (aHttpServletResponse);
+      return;
+    }
+
     // Parse POST data
     // No IToopDataResponse contained here
     final ICommonsList <AsicReadEntry> aAttachments = new CommonsArrayList <> ();
-    final TDETOOPResponseType aResponseMsg = ToopMessageBuilder140.parseResponseMessage (TCDumpHelper.getDumpInputStream (aHttpServletRequest.getInputStream (),
-                                                                                                                          TCConfig.getDebugFromDPDumpPathIfEnabled (),
-                                                                                                                          "from-dp.asic"),
-                                                                                         aAttachments::add);
+    final Wrapper <byte []> aXMLPayload = new Wrapper <> ();
+    final TDETOOPResponseType aResponseMsg = TCAsicHelper.parseResponseMessage (TCDumpHelper.getDumpInputStream (aHttpServletRequest.getInputStream (),
+                                                                                                                 TCConfig.getDebugFromDPDumpPathIfEnabled (),
+                                                                                                                 "from-dp.asic"),
+                                                                                aAttachments::add,
+                                                                                aXMLPayload::set);
 
     if (aResponseMsg == null)
     {
@@ -75,14 +97,21 @@ public class FromDPServlet extends HttpServlet
                                 StandardCharsets.UTF_8);
       aUR.setMimeType (CMimeType.TEXT_PLAIN);
       aUR.setStatus (HttpServletResponse.SC_BAD_REQUEST);
+      TCAsicHelper.deleteSpilledAttachments (aAttachments);
     }
     else
     {
       // Enqueue to processor and we're good
-      MPTrigger.fromDP_3_of_4 (aResponseMsg, aAttachments);
-
-      // Done - no content
-      aUR.setStatus (HttpServletResponse.SC_NO_CONTENT);
+      if (MPTrigger.fromDP_3_of_4 (aResponseMsg, aAttachments, aXMLPayload.get ()).isSuccess ())
+      {
+        // Done - no content
+        aUR.setStatus (HttpServletResponse.SC_NO_CONTENT);
+      }
+      else
+      {
+        // Queue is saturated - the caller should try again later
+        _setRejected (aUR);
+      }
     }
 
     // Done
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.servlet;
+
+import javax.servlet.annotation.WebServlet;
+
+import com.helger.commons.http.EHttpMethod;
+import com.helger.xservlet.AbstractXServlet;
+
+/**
+ * The servlet to show the application metrics like the processing latencies.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@WebServlet ("/tc-metrics/*")
+public class TCMetricsServlet extends AbstractXServlet
+{
+  public static final String SERVLET_DEFAULT_NAME = "tc-metrics";
+  public static final String SERVLET_DEFAULT_PATH = '/' + SERVLET_DEFAULT_NAME;
+
+  public TCMetricsServlet ()
+  {
+    handlerRegistry ().registerHandler (EHttpMethod.GET, new TCMetricsXServletHandler ());
+  }
+}
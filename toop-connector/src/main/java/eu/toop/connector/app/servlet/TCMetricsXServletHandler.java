@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.servlet;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.mime.CMimeType;
+import com.helger.commons.mime.MimeType;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+import com.helger.servlet.response.UnifiedResponse;
+import com.helger.web.scope.IRequestWebScopeWithoutResponse;
+import com.helger.xservlet.handler.simple.IXServletSimpleHandler;
+
+import eu.toop.connector.api.TCConfig;
+import eu.toop.connector.app.TCMetricsHelper;
+
+/**
+ * Main handler for the /tc-metrics servlet
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+final class TCMetricsXServletHandler implements IXServletSimpleHandler
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (TCMetricsXServletHandler.class);
+  private static final Charset CHARSET = StandardCharsets.UTF_8;
+
+  public void handleRequest (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                             @Nonnull final UnifiedResponse aUnifiedResponse) throws Exception
+  {
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Metrics information requested");
+
+    // Build data to provide
+    IJsonObject aMetricsData;
+    if (TCConfig.isMetricsEnabled ())
+      aMetricsData = TCMetricsHelper.getDefaultMetricsData ();
+    else
+    {
+      // Metrics are disabled in the configuration
+      aMetricsData = new JsonObject ();
+      aMetricsData.add ("metrics.enabled", false);
+    }
+
+    // Put JSON on response
+    aUnifiedResponse.disableCaching ();
+    aUnifiedResponse.setMimeType (new MimeType (CMimeType.APPLICATION_JSON).addParameter (CMimeType.PARAMETER_NAME_CHARSET,
+                                                                                          CHARSET.name ()));
+    aUnifiedResponse.setContentAndCharset (aMetricsData.getAsJsonString (), CHARSET);
+
+    if (LOGGER.isTraceEnabled ())
+      LOGGER.trace ("Return metrics JSON: " + aMetricsData.getAsJsonString ());
+  }
+}
@@ -68,6 +68,7 @@ public class TCRootServlet extends HttpServlet
     aSB.append ("<div>Build timestamp: ").append (CTC.getBuildTimestamp ()).append ("</div>");
     aSB.append ("<div>Current time: ").append (PDTFactory.getCurrentZonedDateTimeUTC ().toString ()).append ("</div>");
     aSB.append ("<div><a href='tc-status'>Check /tc-status</a></div>");
+    aSB.append ("<div><a href='tc-metrics'>Check /tc-metrics</a></div>");
 
     {
       aSB.append ("<h2>Registered Message Exchange implementations</h2>");
@@ -15,7 +15,7 @@
  */
 package eu.toop.connector.app.smm;
 
-import java.util.Map;
+import java.util.function.BiConsumer;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -27,14 +27,18 @@ import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.CommonsLinkedHashSet;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
 
 import eu.toop.commons.concept.ConceptValue;
 import eu.toop.connector.api.smm.IMappedValueList;
 import eu.toop.connector.api.smm.ISMMClient;
 import eu.toop.connector.api.smm.ISMMConceptProvider;
 import eu.toop.connector.api.smm.ISMMUnmappableCallback;
+import eu.toop.connector.api.smm.IndexedMappedValueList;
 import eu.toop.connector.api.smm.MappedValue;
 import eu.toop.connector.api.smm.MappedValueList;
 
@@ -46,7 +50,8 @@ import eu.toop.connector.api.smm.MappedValueList;
 @NotThreadSafe
 public class SMMClient implements ISMMClient
 {
-  private final ICommonsMap <String, ICommonsList <String>> m_aSrcMap = new CommonsHashMap <> ();
+  // In the order they were added
+  private final ICommonsList <ConceptValue> m_aConcepts = new CommonsArrayList <> ();
 
   public SMMClient ()
   {}
@@ -57,73 +62,96 @@ public class SMMClient implements ISMMClient
   {
     ValueEnforcer.notEmpty (sConceptNamespace, "Scheme");
     ValueEnforcer.notEmpty (sConceptValue, "Value");
-    m_aSrcMap.computeIfAbsent (sConceptNamespace, k -> new CommonsArrayList <> ()).add (sConceptValue);
+    m_aConcepts.add (new ConceptValue (sConceptNamespace, sConceptValue));
     return this;
   }
 
   @Nonnegative
   public int getTotalCountConceptsToBeMapped ()
   {
-    int ret = 0;
-    for (final ICommonsList <?> aList : m_aSrcMap.values ())
-      ret += aList.size ();
-    return ret;
+    return m_aConcepts.size ();
   }
 
-  @Nonnull
-  @ReturnsMutableCopy
-  public IMappedValueList performMapping (@Nonnull final String sLogPrefix,
-                                          @Nonnull @Nonempty final String sDestNamespace,
-                                          @Nonnull final ISMMConceptProvider aConceptProvider,
-                                          @Nullable final ISMMUnmappableCallback aUnmappableCallback)
+  private static void _performMapping (@Nonnull final Iterable <ConceptValue> aConcepts,
+                                       @Nonnull final String sLogPrefix,
+                                       @Nonnull @Nonempty final String sDestNamespace,
+                                       @Nonnull final ISMMConceptProvider aConceptProvider,
+                                       @Nullable final ISMMUnmappableCallback aUnmappableCallback,
+                                       @Nonnull final BiConsumer <ConceptValue, MappedValueList> aResultConsumer)
   {
-
     ValueEnforcer.notNull (sLogPrefix, "LogPrefix");
     ValueEnforcer.notEmpty (sDestNamespace, "DestNamespace");
     ValueEnforcer.notNull (aConceptProvider, "ConceptProvider");
 
-    final MappedValueList ret = new MappedValueList ();
-    // for all source namespaces (maybe many)
-    for (final Map.Entry <String, ICommonsList <String>> aSrcEntry : m_aSrcMap.entrySet ())
+    // The mapping list per source namespace (maybe many)
+    final ICommonsMap <String, MappedValueList> aValueLists = new CommonsHashMap <> ();
+    for (final ConceptValue aSrc : aConcepts)
     {
-      final String sSourceNamespace = aSrcEntry.getKey ();
+      final String sSourceNamespace = aSrc.getNamespace ();
+      final MappedValueList aMatching;
       if (sSourceNamespace.equals (sDestNamespace))
       {
         // No mapping needed - use unmapped values
-        for (final String sSourceValue : aSrcEntry.getValue ())
-        {
-          final ConceptValue aValue = new ConceptValue (sSourceNamespace, sSourceValue);
-          ret.addMappedValue (new MappedValue (aValue, aValue));
-        }
+        aMatching = new MappedValueList ();
+        aMatching.addMappedValue (new MappedValue (aSrc, aSrc));
       }
       else
       {
         // Namespace are different - get the mapping list
-        final MappedValueList aValueList = aConceptProvider.getAllMappedValues (sLogPrefix,
-                                                                                sSourceNamespace,
-                                                                                sDestNamespace);
+        final MappedValueList aValueList = aValueLists.computeIfAbsent (sSourceNamespace,
+                                                                       k -> aConceptProvider.getAllMappedValues (sLogPrefix,
+                                                                                                                 k,
+                                                                                                                 sDestNamespace));
 
-        // Map all source values
-        for (final String sSourceValue : aSrcEntry.getValue ())
+        // The source value may be mapped to 0, 1 or n elements
+        aMatching = aValueList.getAllBySource (aSrc);
+        if (aMatching.isEmpty ())
         {
-          // The source value may be mapped to 0, 1 or n elements
-          final MappedValueList aMatching = aValueList.getAllBySource (x -> x.hasValue (sSourceValue));
-          if (aMatching.isEmpty ())
-          {
-            // Found no mapping
-            if (aUnmappableCallback != null)
-              aUnmappableCallback.onUnmappableValue (sLogPrefix, sSourceNamespace, sSourceValue, sDestNamespace);
-            // TODO shall we add a mapping to null?
-          }
-          else
-          {
-            if (aMatching.size () > 1)
-              throw new IllegalStateException ();
-            ret.addAllMappedValues (aMatching);
-          }
+          // Found no mapping
+          if (aUnmappableCallback != null)
+            aUnmappableCallback.onUnmappableValue (sLogPrefix, sSourceNamespace, aSrc.getValue (), sDestNamespace);
+          // TODO shall we add a mapping to null?
         }
+        else
+          if (aMatching.size () > 1)
+            throw new IllegalStateException ();
       }
+      aResultConsumer.accept (aSrc, aMatching);
     }
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public IMappedValueList performMapping (@Nonnull final String sLogPrefix,
+                                          @Nonnull @Nonempty final String sDestNamespace,
+                                          @Nonnull final ISMMConceptProvider aConceptProvider,
+                                          @Nullable final ISMMUnmappableCallback aUnmappableCallback)
+  {
+    final MappedValueList ret = new IndexedMappedValueList ();
+    _performMapping (m_aConcepts,
+                     sLogPrefix,
+                     sDestNamespace,
+                     aConceptProvider,
+                     aUnmappableCallback,
+                     (aSrc, aMatching) -> ret.addAllMappedValues (aMatching));
+    return ret;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedMap <ConceptValue, IMappedValueList> performBulkMapping (@Nonnull final String sLogPrefix,
+                                                                                 @Nonnull @Nonempty final String sDestNamespace,
+                                                                                 @Nonnull final ISMMConceptProvider aConceptProvider,
+                                                                                 @Nullable final ISMMUnmappableCallback aUnmappableCallback)
+  {
+    // Each concept only once
+    final ICommonsOrderedMap <ConceptValue, IMappedValueList> ret = new CommonsLinkedHashMap <> ();
+    _performMapping (new CommonsLinkedHashSet <> (m_aConcepts),
+                     sLogPrefix,
+                     sDestNamespace,
+                     aConceptProvider,
+                     aUnmappableCallback,
+                     ret::put);
     return ret;
   }
 }
@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.smm;
+
+import java.nio.IntBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.string.ToStringGenerator;
+
+import eu.toop.commons.concept.ConceptValue;
+import eu.toop.connector.api.smm.IndexedMappedValueList;
+import eu.toop.connector.api.smm.MappedValue;
+import eu.toop.connector.api.smm.MappedValueList;
+
+/**
+ * A read-only {@link MappedValueList} for one source and destination namespace
+ * that is backed by {@link SMMCompactMappings}. The {@link MappedValue} objects
+ * are only created when they are accessed.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@Immutable
+public final class SMMCompactMappedValueList extends MappedValueList
+{
+  private final SMMCompactMappings m_aOwner;
+  private final String m_sSourceNamespace;
+  private final String m_sDestNamespace;
+  private final IntBuffer m_aSrcIDs;
+  private final IntBuffer m_aDstIDs;
+  private final IntBuffer m_aSlots;
+  private final int m_nSize;
+
+  SMMCompactMappedValueList (@Nonnull final SMMCompactMappings aOwner,
+                             @Nonnull final String sSourceNamespace,
+                             @Nonnull final String sDestNamespace,
+                             @Nonnull final IntBuffer aSrcIDs,
+                             @Nonnull final IntBuffer aDstIDs,
+                             @Nonnull final IntBuffer aSlots)
+  {
+    m_aOwner = aOwner;
+    m_sSourceNamespace = sSourceNamespace;
+    m_sDestNamespace = sDestNamespace;
+    m_aSrcIDs = aSrcIDs;
+    m_aDstIDs = aDstIDs;
+    m_aSlots = aSlots;
+    m_nSize = aSrcIDs.limit ();
+    setReadOnly ();
+  }
+
+  @Nonnull
+  public String getSourceNamespace ()
+  {
+    return m_sSourceNamespace;
+  }
+
+  @Nonnull
+  public String getDestNamespace ()
+  {
+    return m_sDestNamespace;
+  }
+
+  @Nonnull
+  private MappedValue _create (@Nonnegative final int nIndex)
+  {
+    return new MappedValue (new ConceptValue (m_sSourceNamespace, m_aOwner.getString (m_aSrcIDs.get (nIndex))),
+                            new ConceptValue (m_sDestNamespace, m_aOwner.getString (m_aDstIDs.get (nIndex))));
+  }
+
+  @Override
+  @Nonnull
+  public Iterator <MappedValue> iterator ()
+  {
+    return new Iterator <MappedValue> ()
+    {
+      private int m_nIndex = 0;
+
+      public boolean hasNext ()
+      {
+        return m_nIndex < m_nSize;
+      }
+
+      public MappedValue next ()
+      {
+        if (m_nIndex >= m_nSize)
+          throw new NoSuchElementException ();
+        return _create (m_nIndex++);
+      }
+    };
+  }
+
+  @Override
+  public boolean isEmpty ()
+  {
+    return m_nSize == 0;
+  }
+
+  @Override
+  @Nonnegative
+  public int size ()
+  {
+    return m_nSize;
+  }
+
+  @Override
+  @Nullable
+  public MappedValue getAtIndex (@Nonnegative final int nIndex)
+  {
+    return nIndex >= 0 && nIndex < m_nSize ? _create (nIndex) : null;
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableObject
+  public MappedValueList getAllBySource (@Nonnull final Predicate <? super ConceptValue> aFilter)
+  {
+    ValueEnforcer.notNull (aFilter, "Filter");
+    final MappedValueList ret = new MappedValueList ();
+    for (final MappedValue aValue : this)
+      if (aFilter.test (aValue.getSource ()))
+        ret.addMappedValue (aValue);
+    return ret;
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableObject
+  public MappedValueList getAllByDestination (@Nonnull final Predicate <? super ConceptValue> aFilter)
+  {
+    ValueEnforcer.notNull (aFilter, "Filter");
+    final MappedValueList ret = new MappedValueList ();
+    for (final MappedValue aValue : this)
+      if (aFilter.test (aValue.getDestination ()))
+        ret.addMappedValue (aValue);
+    return ret;
+  }
+
+  private int _getFirstIndexOfSource (final int nSrcID)
+  {
+    final int nSlotCount = m_aSlots.limit ();
+    int nSlot = SMMCompactMappings.getSlot (nSrcID, nSlotCount);
+    while (true)
+    {
+      final int nEntry = m_aSlots.get (nSlot);
+      if (nEntry == 0)
+        return -1;
+      if (m_aSrcIDs.get (nEntry - 1) == nSrcID)
+        return nEntry - 1;
+      nSlot = (nSlot + 1) & (nSlotCount - 1);
+    }
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableObject
+  public MappedValueList getAllBySource (@Nonnull final ConceptValue aSource)
+  {
+    ValueEnforcer.notNull (aSource, "Source");
+    if (!m_sSourceNamespace.equals (aSource.getNamespace ()))
+      return EMPTY_READ_ONLY;
+    final int nSrcID = m_aOwner.getStringID (aSource.getValue ());
+    if (nSrcID < 0)
+      return EMPTY_READ_ONLY;
+    int nIndex = _getFirstIndexOfSource (nSrcID);
+    if (nIndex < 0)
+      return EMPTY_READ_ONLY;
+
+    // All entries with the same source are consecutive
+    final MappedValueList ret = new MappedValueList ();
+    while (nIndex < m_nSize && m_aSrcIDs.get (nIndex) == nSrcID)
+      ret.addMappedValue (new MappedValue (aSource,
+                                           new ConceptValue (m_sDestNamespace,
+                                                             m_aOwner.getString (m_aDstIDs.get (nIndex++)))));
+    ret.setReadOnly ();
+    return ret;
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableObject
+  public MappedValueList getAllByDestination (@Nonnull final ConceptValue aDest)
+  {
+    ValueEnforcer.notNull (aDest, "Dest");
+    if (!m_sDestNamespace.equals (aDest.getNamespace ()))
+      return EMPTY_READ_ONLY;
+    final int nDstID = m_aOwner.getStringID (aDest.getValue ());
+    if (nDstID < 0)
+      return EMPTY_READ_ONLY;
+
+    // Not indexed - scan the IDs only
+    final MappedValueList ret = new MappedValueList ();
+    for (int i = 0; i < m_nSize; ++i)
+      if (m_aDstIDs.get (i) == nDstID)
+        ret.addMappedValue (new MappedValue (new ConceptValue (m_sSourceNamespace,
+                                                               m_aOwner.getString (m_aSrcIDs.get (i))),
+                                             aDest));
+    ret.setReadOnly ();
+    return ret;
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public IndexedMappedValueList getSwappedSourceAndDest ()
+  {
+    final IndexedMappedValueList ret = new IndexedMappedValueList ();
+    for (final MappedValue aValue : this)
+      ret.addMappedValue (aValue.getSwappedSourceAndDest ());
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("SourceNamespace", m_sSourceNamespace)
+                                       .append ("DestNamespace", m_sDestNamespace)
+                                       .append ("Size", m_nSize)
+                                       .getToString ();
+  }
+}
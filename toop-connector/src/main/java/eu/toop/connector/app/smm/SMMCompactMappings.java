@@ -0,0 +1,498 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.smm;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.resource.FileSystemResource;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A compact, binary representation of a semantic mapping XML file for very
+ * large mapping sets. Every namespace and value is stored exactly once in a
+ * string dictionary and the mappings are stored as arrays of dictionary IDs.
+ * Lookups of strings and of mapping entries use open addressing hash tables
+ * inside the data, so they are constant time. The data can either be created
+ * in memory from the XML file or memory-mapped from a file created by
+ * {@link #writeTo(OutputStream)} (see {@link #main(String[])}), in which case
+ * nearly nothing is kept on the heap.<br>
+ * Layout (all ints big endian): magic, version, string count, dictionary slot
+ * count, table count; per table: source namespace ID, destination namespace
+ * ID, entry count, slot count, source IDs (sorted), destination IDs, slots;
+ * then the string offsets, the dictionary slots and finally the UTF-8 bytes of
+ * all strings.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@Immutable
+public final class SMMCompactMappings
+{
+  /** Magic number at the start of a compact file - "TSMM" */
+  public static final int MAGIC = 0x54534d4d;
+  public static final int VERSION = 1;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (SMMCompactMappings.class);
+  private static final int EMPTY_SLOT = 0;
+
+  private final ByteBuffer m_aData;
+  private final int m_nStringCount;
+  private final IntBuffer m_aStringOffsets;
+  private final IntBuffer m_aDictSlots;
+  private final int m_nStringDataPos;
+  private final ICommonsList <SMMCompactMappedValueList> m_aTables = new CommonsArrayList <> ();
+
+  private SMMCompactMappings (@Nonnull final ByteBuffer aData)
+  {
+    m_aData = aData;
+    try
+    {
+      int nPos = 0;
+      if (aData.getInt (nPos) != MAGIC)
+        throw new IllegalStateException ("Not a compact semantic mapping file");
+      if (aData.getInt (nPos + 4) != VERSION)
+        throw new IllegalStateException ("Unsupported compact semantic mapping version " + aData.getInt (nPos + 4));
+      m_nStringCount = aData.getInt (nPos + 8);
+      final int nDictSlotCount = aData.getInt (nPos + 12);
+      final int nTableCount = aData.getInt (nPos + 16);
+      nPos += 20;
+
+      // Tables are created after the dictionary is available
+      final int [] aTablePos = new int [nTableCount];
+      for (int i = 0; i < nTableCount; ++i)
+      {
+        aTablePos[i] = nPos;
+        final int nEntries = aData.getInt (nPos + 8);
+        final int nSlots = aData.getInt (nPos + 12);
+        nPos += 16 + (2 * nEntries + nSlots) * 4;
+      }
+
+      m_aStringOffsets = _getInts (aData, nPos, m_nStringCount + 1);
+      nPos += (m_nStringCount + 1) * 4;
+      m_aDictSlots = _getInts (aData, nPos, nDictSlotCount);
+      nPos += nDictSlotCount * 4;
+      m_nStringDataPos = nPos;
+      if (m_nStringDataPos + m_aStringOffsets.get (m_nStringCount) != aData.limit ())
+        throw new IllegalStateException ("Compact semantic mapping data has the wrong length");
+
+      for (final int nTablePos : aTablePos)
+      {
+        final int nEntries = aData.getInt (nTablePos + 8);
+        final int nSlots = aData.getInt (nTablePos + 12);
+        final int nSrcPos = nTablePos + 16;
+        final int nDstPos = nSrcPos + nEntries * 4;
+        m_aTables.add (new SMMCompactMappedValueList (this,
+                                                      getString (aData.getInt (nTablePos)),
+                                                      getString (aData.getInt (nTablePos + 4)),
+                                                      _getInts (aData, nSrcPos, nEntries),
+                                                      _getInts (aData, nDstPos, nEntries),
+                                                      _getInts (aData, nDstPos + nEntries * 4, nSlots)));
+      }
+    }
+    catch (final IndexOutOfBoundsException | IllegalArgumentException ex)
+    {
+      throw new IllegalStateException ("Compact semantic mapping data is corrupt", ex);
+    }
+  }
+
+  @Nonnull
+  private static IntBuffer _getInts (@Nonnull final ByteBuffer aData, final int nPos, final int nCount)
+  {
+    final ByteBuffer aDup = aData.duplicate ();
+    aDup.position (nPos);
+    aDup.limit (nPos + nCount * 4);
+    return aDup.slice ().asIntBuffer ();
+  }
+
+  /**
+   * Spread the bits of a hash code and map it to a slot.
+   */
+  static int getSlot (final int nHashCode, @Nonnegative final int nSlotCount)
+  {
+    final int h = nHashCode * 0x9e3779b9;
+    return (h ^ (h >>> 16)) & (nSlotCount - 1);
+  }
+
+  @Nonnegative
+  private static int _getSlotCount (@Nonnegative final int nEntries)
+  {
+    // Power of 2 and at most half full
+    int ret = 2;
+    while (ret < nEntries * 2)
+      ret <<= 1;
+    return ret;
+  }
+
+  /**
+   * @return The number of distinct strings in the dictionary.
+   */
+  @Nonnegative
+  public int getStringCount ()
+  {
+    return m_nStringCount;
+  }
+
+  /**
+   * @return The number of bytes of the compact data.
+   */
+  @Nonnegative
+  public int getDataSize ()
+  {
+    return m_aData.limit ();
+  }
+
+  /**
+   * Get the string with the provided dictionary ID.
+   *
+   * @param nID
+   *        The dictionary ID.
+   * @return The string and never <code>null</code>.
+   */
+  @Nonnull
+  public String getString (@Nonnegative final int nID)
+  {
+    final int nStart = m_aStringOffsets.get (nID);
+    final byte [] aBytes = new byte [m_aStringOffsets.get (nID + 1) - nStart];
+    final ByteBuffer aDup = m_aData.duplicate ();
+    aDup.position (m_nStringDataPos + nStart);
+    aDup.get (aBytes);
+    return new String (aBytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Get the dictionary ID of the provided string.
+   *
+   * @param sValue
+   *        The string to search. May not be <code>null</code>.
+   * @return The dictionary ID or -1 if the string is not contained.
+   */
+  public int getStringID (@Nonnull final String sValue)
+  {
+    final int nSlotCount = m_aDictSlots.limit ();
+    final byte [] aBytes = sValue.getBytes (StandardCharsets.UTF_8);
+    int nSlot = getSlot (sValue.hashCode (), nSlotCount);
+    while (true)
+    {
+      final int nEntry = m_aDictSlots.get (nSlot);
+      if (nEntry == EMPTY_SLOT)
+        return -1;
+      final int nID = nEntry - 1;
+      if (_isString (nID, aBytes))
+        return nID;
+      nSlot = (nSlot + 1) & (nSlotCount - 1);
+    }
+  }
+
+  private boolean _isString (final int nID, @Nonnull final byte [] aBytes)
+  {
+    final int nStart = m_aStringOffsets.get (nID);
+    if (m_aStringOffsets.get (nID + 1) - nStart != aBytes.length)
+      return false;
+    final int nDataPos = m_nStringDataPos + nStart;
+    for (int i = 0; i < aBytes.length; ++i)
+      if (m_aData.get (nDataPos + i) != aBytes[i])
+        return false;
+    return true;
+  }
+
+  /**
+   * @return All mapping tables, one per source and destination namespace.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  public Iterable <SMMCompactMappedValueList> getAllTables ()
+  {
+    return m_aTables;
+  }
+
+  /**
+   * Write the compact data, e.g. to a file that can later be read with
+   * {@link #readFromFile(File)}.
+   *
+   * @param aOS
+   *        The output stream to write to. Is not closed. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         on write error
+   */
+  public void writeTo (@Nonnull final OutputStream aOS) throws IOException
+  {
+    ValueEnforcer.notNull (aOS, "OutputStream");
+    final ByteBuffer aDup = m_aData.duplicate ();
+    aDup.position (0);
+    final byte [] aBuf = new byte [64 * 1024];
+    while (aDup.hasRemaining ())
+    {
+      final int nLen = Math.min (aBuf.length, aDup.remaining ());
+      aDup.get (aBuf, 0, nLen);
+      aOS.write (aBuf, 0, nLen);
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("StringCount", m_nStringCount)
+                                       .append ("TableCount", m_aTables.size ())
+                                       .append ("DataSize", m_aData.limit ())
+                                       .getToString ();
+  }
+
+  private static void _writeTable (@Nonnull final DataOutputStream aDOS,
+                                   final int nSrcNS,
+                                   final int nDstNS,
+                                   @Nonnull final ICommonsList <int []> aEntries) throws IOException
+  {
+    // Sort by source ID, so that all entries with the same source are
+    // consecutive
+    aEntries.sort ( (x, y) -> x[0] != y[0] ? Integer.compare (x[0], y[0]) : Integer.compare (x[1], y[1]));
+
+    final int nEntries = aEntries.size ();
+    final int nSlotCount = _getSlotCount (nEntries);
+    final int [] aSlots = new int [nSlotCount];
+    for (int i = 0; i < nEntries; ++i)
+    {
+      final int nSrc = aEntries.get (i)[0];
+      if (i > 0 && aEntries.get (i - 1)[0] == nSrc)
+        continue;
+      // Slot points to the first entry with this source
+      int nSlot = getSlot (nSrc, nSlotCount);
+      while (aSlots[nSlot] != EMPTY_SLOT)
+        nSlot = (nSlot + 1) & (nSlotCount - 1);
+      aSlots[nSlot] = i + 1;
+    }
+
+    aDOS.writeInt (nSrcNS);
+    aDOS.writeInt (nDstNS);
+    aDOS.writeInt (nEntries);
+    aDOS.writeInt (nSlotCount);
+    for (final int [] aEntry : aEntries)
+      aDOS.writeInt (aEntry[0]);
+    for (final int [] aEntry : aEntries)
+      aDOS.writeInt (aEntry[1]);
+    for (final int nSlot : aSlots)
+      aDOS.writeInt (nSlot);
+  }
+
+  @Nonnull
+  static byte [] createData (@Nonnull final ICommonsMap <String, ICommonsMap <String, ICommonsMap <String, String>>> aMappings) throws IOException
+  {
+    // Build the dictionary - every string once
+    final ICommonsOrderedMap <String, Integer> aDict = new CommonsLinkedHashMap <> ();
+    final ToIntFunction <String> aIDs = s -> aDict.computeIfAbsent (s, k -> Integer.valueOf (aDict.size ()))
+                                                  .intValue ();
+
+    // Map <sourceNS, Map <destNS, [sourceID, destID]>> - TOOP to external first
+    // so that it has precedence
+    final ICommonsOrderedMap <Long, ICommonsList <int []>> aTables = new CommonsLinkedHashMap <> ();
+    final ICommonsList <Runnable> aReverse = new CommonsArrayList <> ();
+    for (final Map.Entry <String, ICommonsMap <String, ICommonsMap <String, String>>> aToopEntry : aMappings.entrySet ())
+    {
+      final int nToopNS = aIDs.applyAsInt (aToopEntry.getKey ());
+      for (final Map.Entry <String, ICommonsMap <String, String>> aExternalEntry : aToopEntry.getValue ().entrySet ())
+      {
+        final int nExternalNS = aIDs.applyAsInt (aExternalEntry.getKey ());
+        final ICommonsList <int []> aToopToExternal = new CommonsArrayList <> ();
+        final ICommonsList <int []> aExternalToToop = new CommonsArrayList <> ();
+        for (final Map.Entry <String, String> aEntry : aExternalEntry.getValue ().entrySet ())
+        {
+          final int nToop = aIDs.applyAsInt (aEntry.getKey ());
+          final int nExternal = aIDs.applyAsInt (aEntry.getValue ());
+          aToopToExternal.add (new int [] { nToop, nExternal });
+          aExternalToToop.add (new int [] { nExternal, nToop });
+        }
+        aTables.putIfAbsent (Long.valueOf (((long) nToopNS << 32) | nExternalNS), aToopToExternal);
+        aReverse.add ( () -> aTables.putIfAbsent (Long.valueOf (((long) nExternalNS << 32) | nToopNS),
+                                                  aExternalToToop));
+      }
+    }
+    aReverse.forEach (Runnable::run);
+
+    // String data
+    final int nStringCount = aDict.size ();
+    final int [] aOffsets = new int [nStringCount + 1];
+    final int nDictSlotCount = _getSlotCount (nStringCount);
+    final int [] aDictSlots = new int [nDictSlotCount];
+    final NonBlockingByteArrayOutputStream aStringData = new NonBlockingByteArrayOutputStream ();
+    int nID = 0;
+    for (final String sValue : aDict.keySet ())
+    {
+      aOffsets[nID] = aStringData.size ();
+      aStringData.write (sValue.getBytes (StandardCharsets.UTF_8));
+
+      int nSlot = getSlot (sValue.hashCode (), nDictSlotCount);
+      while (aDictSlots[nSlot] != EMPTY_SLOT)
+        nSlot = (nSlot + 1) & (nDictSlotCount - 1);
+      aDictSlots[nSlot] = nID + 1;
+      ++nID;
+    }
+    aOffsets[nStringCount] = aStringData.size ();
+
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    try (final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      aDOS.writeInt (MAGIC);
+      aDOS.writeInt (VERSION);
+      aDOS.writeInt (nStringCount);
+      aDOS.writeInt (nDictSlotCount);
+      aDOS.writeInt (aTables.size ());
+      for (final Map.Entry <Long, ICommonsList <int []>> aEntry : aTables.entrySet ())
+      {
+        final long nKey = aEntry.getKey ().longValue ();
+        _writeTable (aDOS, (int) (nKey >>> 32), (int) nKey, aEntry.getValue ());
+      }
+      for (final int nOffset : aOffsets)
+        aDOS.writeInt (nOffset);
+      for (final int nSlot : aDictSlots)
+        aDOS.writeInt (nSlot);
+      aStringData.writeTo (aDOS);
+    }
+    return aBAOS.toByteArray ();
+  }
+
+  /**
+   * Read a semantic mapping XML file and convert it to the compact format in
+   * memory.
+   *
+   * @param aRes
+   *        The XML resource to read. May not be <code>null</code>.
+   * @return The compact mappings. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the resource cannot be read or is not a valid mapping file.
+   */
+  @Nonnull
+  public static SMMCompactMappings createFromXML (@Nonnull final IReadableResource aRes)
+  {
+    final ICommonsMap <String, ICommonsMap <String, ICommonsMap <String, String>>> aMappings = SMMMappingTables.readMappings (aRes);
+    try
+    {
+      return new SMMCompactMappings (ByteBuffer.wrap (createData (aMappings)).asReadOnlyBuffer ());
+    }
+    catch (final IOException ex)
+    {
+      // Cannot happen in memory
+      throw new IllegalStateException ("Failed to create compact semantic mappings", ex);
+    }
+  }
+
+  /**
+   * Memory-map a file created with {@link #writeTo(OutputStream)}. The file
+   * may not be modified while it is in use - a new version must be written to
+   * a different file.
+   *
+   * @param aFile
+   *        The file to read. May not be <code>null</code>.
+   * @return The compact mappings. Never <code>null</code>.
+   * @throws IOException
+   *         If the file cannot be read
+   * @throws IllegalStateException
+   *         If the file is not a valid compact semantic mapping file.
+   */
+  @Nonnull
+  public static SMMCompactMappings readFromFile (@Nonnull final File aFile) throws IOException
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    try (final FileChannel aChannel = FileChannel.open (aFile.toPath (), StandardOpenOption.READ))
+    {
+      // The mapping stays valid after the channel is closed
+      return new SMMCompactMappings (aChannel.map (FileChannel.MapMode.READ_ONLY, 0, aChannel.size ()));
+    }
+  }
+
+  /**
+   * Check if the provided file starts with the magic number of the compact
+   * format.
+   *
+   * @param aFile
+   *        The file to check. May not be <code>null</code>.
+   * @return <code>true</code> if it is a compact file, <code>false</code> if
+   *         not (e.g. an XML file).
+   */
+  public static boolean isCompactFile (@Nonnull final File aFile)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    final InputStream aIS = FileHelper.getInputStream (aFile);
+    if (aIS == null)
+      return false;
+    try
+    {
+      final byte [] aMagic = new byte [4];
+      return StreamHelper.readFully (aIS, aMagic, 0, 4) == 4 &&
+             ByteBuffer.wrap (aMagic).getInt () == MAGIC;
+    }
+    catch (final IOException ex)
+    {
+      return false;
+    }
+    finally
+    {
+      StreamHelper.close (aIS);
+    }
+  }
+
+  /**
+   * Convert a semantic mapping XML file to the compact format.
+   *
+   * @param args
+   *        Source XML file and destination file.
+   * @throws IOException
+   *         on write error
+   */
+  public static void main (final String [] args) throws IOException
+  {
+    if (args.length != 2)
+    {
+      LOGGER.error ("Usage: SMMCompactMappings <mapping XML file> <compact file>");
+      return;
+    }
+    final SMMCompactMappings aMappings = createFromXML (new FileSystemResource (args[0]));
+    try (final OutputStream aOS = FileHelper.getBufferedOutputStream (new File (args[1])))
+    {
+      if (aOS == null)
+        throw new IOException ("Failed to open " + args[1] + " for writing");
+      aMappings.writeTo (aOS);
+    }
+    LOGGER.info ("Wrote " + aMappings + " to " + args[1]);
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.smm;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.string.ToStringGenerator;
+
+import eu.toop.connector.api.smm.ISMMConceptProvider;
+import eu.toop.connector.api.smm.MappedValueList;
+
+/**
+ * {@link ISMMConceptProvider} for very large mapping sets, based on
+ * {@link SMMCompactMappings}.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@Immutable
+public class SMMConceptProviderCompact implements ISMMConceptProvider
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (SMMConceptProviderCompact.class);
+
+  private final SMMCompactMappings m_aMappings;
+  // Map <sourceNS, Map <destNS, table>>
+  private final ICommonsMap <String, ICommonsMap <String, SMMCompactMappedValueList>> m_aTables = new CommonsHashMap <> ();
+
+  public SMMConceptProviderCompact (@Nonnull final SMMCompactMappings aMappings)
+  {
+    ValueEnforcer.notNull (aMappings, "Mappings");
+    m_aMappings = aMappings;
+    for (final SMMCompactMappedValueList aTable : aMappings.getAllTables ())
+      m_aTables.computeIfAbsent (aTable.getSourceNamespace (), k -> new CommonsHashMap <> ())
+               .put (aTable.getDestNamespace (), aTable);
+  }
+
+  /**
+   * {@inheritDoc}<br>
+   * The returned list is read-only and shared between all callers.
+   */
+  @Nonnull
+  public MappedValueList getAllMappedValues (@Nonnull final String sLogPrefix,
+                                             @Nonnull final String sSourceNamespace,
+                                             @Nonnull final String sDestNamespace)
+  {
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug (sLogPrefix + "getAllMappedValues (" + sSourceNamespace + ", " + sDestNamespace + ")");
+
+    final ICommonsMap <String, SMMCompactMappedValueList> aDestMap = m_aTables.get (sSourceNamespace);
+    if (aDestMap != null)
+    {
+      final SMMCompactMappedValueList ret = aDestMap.get (sDestNamespace);
+      if (ret != null)
+        return ret;
+    }
+    return MappedValueList.EMPTY_READ_ONLY;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Mappings", m_aMappings).getToString ();
+  }
+}
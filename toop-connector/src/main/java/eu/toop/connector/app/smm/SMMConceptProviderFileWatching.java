@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.smm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.io.resource.FileSystemResource;
+import com.helger.commons.string.ToStringGenerator;
+
+import eu.toop.connector.api.smm.ISMMConceptProvider;
+import eu.toop.connector.api.smm.MappedValueList;
+import eu.toop.kafkaclient.ToopKafkaClient;
+
+/**
+ * {@link ISMMConceptProvider} that reads the mappings from an XML file and
+ * re-reads the file in the background when it was modified. A modified file is
+ * only used if it is a valid mapping file. The new mapping tables are published
+ * with a single reference swap, so running mappings always use either the old
+ * or the new tables and are never blocked.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@ThreadSafe
+public class SMMConceptProviderFileWatching implements ISMMConceptProvider, Closeable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (SMMConceptProviderFileWatching.class);
+
+  private final File m_aFile;
+  private final AtomicReference <SMMMappingTables> m_aTables = new AtomicReference <> ();
+  private final AtomicInteger m_aReloadCount = new AtomicInteger (0);
+  private final AtomicInteger m_aFailedReloadCount = new AtomicInteger (0);
+  private final ScheduledExecutorService m_aExecutor;
+  // Last modification and length of the last file that was read
+  @GuardedBy ("this")
+  private long m_nLastModified;
+  @GuardedBy ("this")
+  private long m_nLastLength;
+
+  /**
+   * Constructor. The file is read immediately.
+   *
+   * @param aFile
+   *        The mapping file to read. May not be <code>null</code>.
+   * @param nCheckIntervalMS
+   *        The interval in milliseconds in which the file is checked for
+   *        modifications. Values &le; 0 disable the background check - in that
+   *        case only {@link #checkForModification()} re-reads the file.
+   * @throws IllegalStateException
+   *         If the file is not a valid mapping file
+   */
+  public SMMConceptProviderFileWatching (@Nonnull final File aFile, final long nCheckIntervalMS)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    m_aFile = aFile;
+    m_nLastModified = aFile.lastModified ();
+    m_nLastLength = aFile.length ();
+    final SMMMappingTables aTables = SMMMappingTables.read (new FileSystemResource (aFile));
+    m_aTables.set (aTables);
+    if (LOGGER.isInfoEnabled ())
+      LOGGER.info ("Read " + aTables.getItemCount () + " semantic mapping items from " + aFile.getAbsolutePath ());
+
+    if (nCheckIntervalMS > 0)
+    {
+      m_aExecutor = Executors.newSingleThreadScheduledExecutor (new BasicThreadFactory.Builder ().setNamingPattern ("TC-SMM-Watch-%d")
+                                                                                                 .setDaemon (true)
+                                                                                                 .build ());
+      m_aExecutor.scheduleWithFixedDelay (this::_checkSafe, nCheckIntervalMS, nCheckIntervalMS, TimeUnit.MILLISECONDS);
+    }
+    else
+      m_aExecutor = null;
+  }
+
+  private void _checkSafe ()
+  {
+    try
+    {
+      checkForModification ();
+    }
+    catch (final RuntimeException ex)
+    {
+      // Never stop the scheduled execution
+      LOGGER.error ("Error checking semantic mapping file " + m_aFile.getAbsolutePath (), ex);
+    }
+  }
+
+  /**
+   * Check if the file was modified since it was last read and if so, read it
+   * again. If the modified file is invalid, the previous mapping tables stay
+   * active and the file is only read again after the next modification.
+   *
+   * @return <code>true</code> if new mapping tables were published,
+   *         <code>false</code> if not.
+   */
+  public synchronized boolean checkForModification ()
+  {
+    final long nLastModified = m_aFile.lastModified ();
+    final long nLength = m_aFile.length ();
+    if (nLastModified == m_nLastModified && nLength == m_nLastLength)
+      return false;
+
+    // Remember in any case, to not read an invalid file over and over again
+    m_nLastModified = nLastModified;
+    m_nLastLength = nLength;
+
+    if (nLastModified == 0)
+    {
+      // File was deleted - keep the old mappings
+      ToopKafkaClient.send (EErrorLevel.WARN,
+                            () -> "The semantic mapping file " +
+                                  m_aFile.getAbsolutePath () +
+                                  " is not available - keeping the previous mappings");
+      return false;
+    }
+
+    final SMMMappingTables aTables;
+    try
+    {
+      aTables = SMMMappingTables.read (new FileSystemResource (m_aFile));
+    }
+    catch (final RuntimeException ex)
+    {
+      m_aFailedReloadCount.incrementAndGet ();
+      ToopKafkaClient.send (EErrorLevel.ERROR,
+                            () -> "The modified semantic mapping file " +
+                                  m_aFile.getAbsolutePath () +
+                                  " is invalid - keeping the previous mappings",
+                            ex);
+      return false;
+    }
+
+    m_aTables.set (aTables);
+    m_aReloadCount.incrementAndGet ();
+    ToopKafkaClient.send (EErrorLevel.INFO,
+                          () -> "Reloaded " +
+                                aTables.getItemCount () +
+                                " semantic mapping items from " +
+                                m_aFile.getAbsolutePath ());
+    return true;
+  }
+
+  /**
+   * @return The mapping file. Never <code>null</code>.
+   */
+  @Nonnull
+  public final File getFile ()
+  {
+    return m_aFile;
+  }
+
+  /**
+   * @return The number of successful reloads after the initial read.
+   */
+  @Nonnegative
+  public int getReloadCount ()
+  {
+    return m_aReloadCount.get ();
+  }
+
+  /**
+   * @return The number of modified files that were rejected as invalid.
+   */
+  @Nonnegative
+  public int getFailedReloadCount ()
+  {
+    return m_aFailedReloadCount.get ();
+  }
+
+  /**
+   * {@inheritDoc}<br>
+   * The returned list is read-only and shared between all callers.
+   */
+  @Nonnull
+  public MappedValueList getAllMappedValues (@Nonnull final String sLogPrefix,
+                                             @Nonnull final String sSourceNamespace,
+                                             @Nonnull final String sDestNamespace)
+  {
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug (sLogPrefix + "getAllMappedValues (" + sSourceNamespace + ", " + sDestNamespace + ")");
+
+    return m_aTables.get ().getAllMappedValues (sSourceNamespace, sDestNamespace);
+  }
+
+  /**
+   * Stop watching the file. The last mapping tables stay usable.
+   */
+  public void close ()
+  {
+    if (m_aExecutor != null)
+      m_aExecutor.shutdownNow ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("File", m_aFile)
+                                       .append ("ReloadCount", m_aReloadCount.get ())
+                                       .append ("FailedReloadCount", m_aFailedReloadCount.get ())
+                                       .getToString ();
+  }
+}
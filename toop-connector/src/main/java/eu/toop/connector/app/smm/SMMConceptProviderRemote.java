@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.smm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.http.client.methods.HttpGet;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.io.resource.inmemory.ReadableResourceByteArray;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.url.SimpleURL;
+import com.helger.httpclient.HttpClientManager;
+import com.helger.httpclient.HttpClientSettings;
+import com.helger.httpclient.response.ResponseHandlerByteArray;
+
+import eu.toop.connector.api.http.TCHttpClientSettings;
+import eu.toop.connector.api.smm.ISMMConceptProvider;
+import eu.toop.connector.api.smm.MappedValueList;
+import eu.toop.connector.app.TCRefreshingCache;
+import eu.toop.kafkaclient.ToopKafkaClient;
+
+/**
+ * {@link ISMMConceptProvider} that queries a central semantic mapping service.
+ * The service is queried with a GET request with the parameters
+ * {@value #PARAM_SOURCE} and {@value #PARAM_DESTINATION} and must respond with
+ * a semantic mapping XML document (same layout as the mapping file).<br>
+ * The results are cached per namespace pair. See {@link TCRefreshingCache}
+ * for the caching rules.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@ThreadSafe
+public class SMMConceptProviderRemote implements ISMMConceptProvider, Closeable
+{
+  public static final String PARAM_SOURCE = "source";
+  public static final String PARAM_DESTINATION = "destination";
+
+  private final String m_sURL;
+  private final HttpClientManager m_aHttpClient;
+  private final TCRefreshingCache <MappedValueList> m_aCache;
+
+  /**
+   * Constructor
+   *
+   * @param sURL
+   *        The URL of the semantic mapping service. May neither be
+   *        <code>null</code> nor empty.
+   * @param nTTLMS
+   *        Milliseconds the fetched mappings are used without refreshing. Must
+   *        be &gt; 0.
+   * @param nStaleMS
+   *        Milliseconds after the TTL in which the fetched mappings are still
+   *        used while they are refreshed in the background. Must be &ge; 0.
+   * @param nMaxEntries
+   *        Maximum number of cached namespace pairs. Must be &gt; 0.
+   */
+  public SMMConceptProviderRemote (@Nonnull @Nonempty final String sURL,
+                                   final long nTTLMS,
+                                   final long nStaleMS,
+                                   final int nMaxEntries)
+  {
+    this (sURL, nTTLMS, nStaleMS, nMaxEntries, new TCHttpClientSettings (), System::currentTimeMillis);
+  }
+
+  SMMConceptProviderRemote (@Nonnull @Nonempty final String sURL,
+                            final long nTTLMS,
+                            final long nStaleMS,
+                            final int nMaxEntries,
+                            @Nonnull final HttpClientSettings aHttpClientSettings,
+                            @Nonnull final LongSupplier aClock)
+  {
+    ValueEnforcer.notEmpty (sURL, "URL");
+    ValueEnforcer.notNull (aHttpClientSettings, "HttpClientSettings");
+    m_sURL = sURL;
+    // Mappings are never negative
+    m_aCache = new TCRefreshingCache <> ("SMM", nTTLMS, nStaleMS, 0, nMaxEntries, x -> false, aClock);
+    m_aHttpClient = HttpClientManager.create (aHttpClientSettings);
+  }
+
+  @Nonnull
+  private static String _getKey (@Nonnull final String sSourceNamespace, @Nonnull final String sDestNamespace)
+  {
+    return sSourceNamespace + " -> " + sDestNamespace;
+  }
+
+  @Nonnull
+  private MappedValueList _fetch (@Nonnull final String sLogPrefix,
+                                  @Nonnull final String sSourceNamespace,
+                                  @Nonnull final String sDestNamespace) throws IOException
+  {
+    final SimpleURL aURL = new SimpleURL (m_sURL).add (PARAM_SOURCE, sSourceNamespace)
+                                                 .add (PARAM_DESTINATION, sDestNamespace);
+    try
+    {
+      final byte [] aBytes = m_aHttpClient.execute (new HttpGet (aURL.getAsURI ()), new ResponseHandlerByteArray ());
+      if (aBytes == null)
+        throw new IOException ("Got no content from " + aURL.getAsStringWithEncodedParameters ());
+      final MappedValueList ret = SMMMappingTables.read (new ReadableResourceByteArray (aBytes))
+                                                  .getAllMappedValues (sSourceNamespace, sDestNamespace);
+
+      ToopKafkaClient.send (EErrorLevel.INFO,
+                            () -> sLogPrefix +
+                                  "Fetched " +
+                                  ret.size () +
+                                  " semantic mappings from '" +
+                                  sSourceNamespace +
+                                  "' to '" +
+                                  sDestNamespace +
+                                  "'");
+      return ret;
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      ToopKafkaClient.send (EErrorLevel.ERROR,
+                            () -> sLogPrefix +
+                                  "Failed to fetch semantic mappings from " +
+                                  aURL.getAsStringWithEncodedParameters (),
+                            ex);
+      throw ex;
+    }
+  }
+
+  /**
+   * {@inheritDoc}<br>
+   * The returned list is read-only and shared between all callers.
+   *
+   * @throws IllegalStateException
+   *         If the mappings are not cached and cannot be fetched.
+   */
+  @Nonnull
+  public MappedValueList getAllMappedValues (@Nonnull final String sLogPrefix,
+                                             @Nonnull final String sSourceNamespace,
+                                             @Nonnull final String sDestNamespace)
+  {
+    return m_aCache.get (sLogPrefix,
+                         _getKey (sSourceNamespace, sDestNamespace),
+                         () -> _fetch (sLogPrefix, sSourceNamespace, sDestNamespace));
+  }
+
+  /**
+   * Fetch the mappings of the provided namespace pair in the background, e.g.
+   * on startup.
+   *
+   * @param sLogPrefix
+   *        Log prefix. May not be <code>null</code> but may be empty.
+   * @param sSourceNamespace
+   *        Source namespace to map from. May not be <code>null</code>.
+   * @param sDestNamespace
+   *        Target namespace to map to. May not be <code>null</code>.
+   * @return The future that is completed when the mappings are cached. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public CompletableFuture <MappedValueList> prefetch (@Nonnull final String sLogPrefix,
+                                                       @Nonnull final String sSourceNamespace,
+                                                       @Nonnull final String sDestNamespace)
+  {
+    ValueEnforcer.notNull (sSourceNamespace, "SourceNamespace");
+    ValueEnforcer.notNull (sDestNamespace, "DestNamespace");
+    return m_aCache.prefetch (sLogPrefix,
+                              _getKey (sSourceNamespace, sDestNamespace),
+                              () -> _fetch (sLogPrefix, sSourceNamespace, sDestNamespace));
+  }
+
+  @Nonnull
+  @Nonempty
+  public final String getURL ()
+  {
+    return m_sURL;
+  }
+
+  /**
+   * @return The cache of the fetched mappings, e.g. for the statistics. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final TCRefreshingCache <?> getCache ()
+  {
+    return m_aCache;
+  }
+
+  public void close ()
+  {
+    m_aCache.close ();
+    m_aHttpClient.close ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("URL", m_sURL).append ("Cache", m_aCache).getToString ();
+  }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.smm;
+
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.io.resource.IReadableResource;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.serialize.MicroReader;
+
+import eu.toop.connector.api.smm.IndexedMappedValueList;
+import eu.toop.connector.api.smm.MappedValueList;
+
+/**
+ * The read-only mapping tables of a semantic mapping XML file. For every
+ * (source, destination) namespace pair and both directions a read-only
+ * {@link IndexedMappedValueList} is created when the file is read.
+ *
+ * @author Philip Helger
+ * @since 0.10.9
+ */
+@Immutable
+public final class SMMMappingTables
+{
+  // Map <sourceNS, Map <destNS, read-only mapped values>>
+  private final ICommonsMap <String, ICommonsMap <String, IndexedMappedValueList>> m_aTables = new CommonsHashMap <> ();
+  private final int m_nItemCount;
+
+  private SMMMappingTables (@Nonnull final ICommonsMap <String, ICommonsMap <String, ICommonsMap <String, String>>> aMappings)
+  {
+    int nItemCount = 0;
+    // Precompute the tables for both directions. TOOP to external is added
+    // first so that it has precedence.
+    final ICommonsList <Runnable> aReverse = new CommonsArrayList <> ();
+    for (final Map.Entry <String, ICommonsMap <String, ICommonsMap <String, String>>> aToopEntry : aMappings.entrySet ())
+    {
+      final String sToopNS = aToopEntry.getKey ();
+      for (final Map.Entry <String, ICommonsMap <String, String>> aExternalEntry : aToopEntry.getValue ().entrySet ())
+      {
+        final String sExternalNS = aExternalEntry.getKey ();
+        final IndexedMappedValueList aToopToExternal = new IndexedMappedValueList ();
+        final IndexedMappedValueList aExternalToToop = new IndexedMappedValueList ();
+        for (final Map.Entry <String, String> aEntry : aExternalEntry.getValue ().entrySet ())
+        {
+          aToopToExternal.addMappedValue (sToopNS, aEntry.getKey (), sExternalNS, aEntry.getValue ());
+          aExternalToToop.addMappedValue (sExternalNS, aEntry.getValue (), sToopNS, aEntry.getKey ());
+        }
+        nItemCount += aToopToExternal.size ();
+        _addTable (sToopNS, sExternalNS, aToopToExternal);
+        aReverse.add ( () -> _addTable (sExternalNS, sToopNS, aExternalToToop));
+      }
+    }
+    aReverse.forEach (Runnable::run);
+    m_nItemCount = nItemCount;
+  }
+
+  private void _addTable (@Nonnull final String sSourceNamespace,
+                          @Nonnull final String sDestNamespace,
+                          @Nonnull final IndexedMappedValueList aValues)
+  {
+    final ICommonsMap <String, IndexedMappedValueList> aDestMap = m_aTables.computeIfAbsent (sSourceNamespace,
+                                                                                           k -> new CommonsHashMap <> ());
+    // First one wins
+    if (!aDestMap.containsKey (sDestNamespace))
+    {
+      aValues.setReadOnly ();
+      aDestMap.put (sDestNamespace, aValues);
+    }
+  }
+
+  /**
+   * @return The number of distinct mapping items read from the file. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  public int getItemCount ()
+  {
+    return m_nItemCount;
+  }
+
+  /**
+   * Get the mapping table from source to destination namespace.
+   *
+   * @param sSourceNamespace
+   *        Source namespace to map from. May not be <code>null</code>.
+   * @param sDestNamespace
+   *        Target namespace to map to. May not be <code>null</code>.
+   * @return The shared read-only table or
+   *         {@link MappedValueList#EMPTY_READ_ONLY}. Never <code>null</code>.
+   */
+  @Nonnull
+  public MappedValueList getAllMappedValues (@Nonnull final String sSourceNamespace,
+                                             @Nonnull final String sDestNamespace)
+  {
+    final ICommonsMap <String, IndexedMappedValueList> aDestMap = m_aTables.get (sSourceNamespace);
+    if (aDestMap != null)
+    {
+      final IndexedMappedValueList ret = aDestMap.get (sDestNamespace);
+      if (ret != null)
+        return ret;
+    }
+    return MappedValueList.EMPTY_READ_ONLY;
+  }
+
+  @Nonnull
+  private static String _getMandatoryAttr (@Nonnull final IMicroElement aElement,
+                                           @Nonnull final String sAttrName,
+                                           @Nonnull final IReadableResource aRes)
+  {
+    final String ret = aElement.getAttributeValue (sAttrName);
+    if (StringHelper.hasNoText (ret))
+      throw new IllegalStateException ("The semantic mapping file " +
+                                       aRes.getPath () +
+                                       " contains a '" +
+                                       aElement.getTagName () +
+                                       "' element without the '" +
+                                       sAttrName +
+                                       "' attribute");
+    return ret;
+  }
+
+  /**
+   * Read and validate a semantic mapping XML file into a nested map.
+   *
+   * @param aRes
+   *        The resource to read. May not be <code>null</code>.
+   * @return Map from TOOP namespace to external namespace to TOOP value to
+   *         external value. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the resource cannot be read or is not a valid mapping file.
+   */
+  @Nonnull
+  static ICommonsMap <String, ICommonsMap <String, ICommonsMap <String, String>>> readMappings (@Nonnull final IReadableResource aRes)
+  {
+    ValueEnforcer.notNull (aRes, "Res");
+    final IMicroDocument aDoc = MicroReader.readMicroXML (aRes);
+    if (aDoc == null || aDoc.getDocumentElement () == null)
+      throw new IllegalStateException ("Failed to read " + aRes + " as XML");
+    if (!"mappings".equals (aDoc.getDocumentElement ().getTagName ()))
+      throw new IllegalStateException ("The semantic mapping file " +
+                                       aRes.getPath () +
+                                       " has the wrong root element '" +
+                                       aDoc.getDocumentElement ().getTagName () +
+                                       "'");
+
+    // Map <toopNS, Map <externalNS, Map <toop, external>>>
+    final ICommonsMap <String, ICommonsMap <String, ICommonsMap <String, String>>> aMappings = new CommonsHashMap <> ();
+    for (final IMicroElement eToop : aDoc.getDocumentElement ().getAllChildElements ("toop"))
+    {
+      final String sToopNS = _getMandatoryAttr (eToop, "ns", aRes);
+      final ICommonsMap <String, ICommonsMap <String, String>> aToopMap = aMappings.computeIfAbsent (sToopNS,
+                                                                                                     k -> new CommonsHashMap <> ());
+      for (final IMicroElement eExternal : eToop.getAllChildElements ("external"))
+      {
+        final String sExternalNS = _getMandatoryAttr (eExternal, "ns", aRes);
+        final ICommonsMap <String, String> aItems = aToopMap.computeIfAbsent (sExternalNS,
+                                                                             k -> new CommonsHashMap <> ());
+        for (final IMicroElement eItem : eExternal.getAllChildElements ("item"))
+        {
+          final String sToop = _getMandatoryAttr (eItem, "toop", aRes);
+          final String sExternal = _getMandatoryAttr (eItem, "external", aRes);
+          aItems.put (sToop, sExternal);
+        }
+      }
+    }
+    return aMappings;
+  }
+
+  /**
+   * Read and validate a semantic mapping XML file.
+   *
+   * @param aRes
+   *        The resource to read. May not be <code>null</code>.
+   * @return The mapping tables and never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the resource cannot be read or is not a valid mapping file.
+   */
+  @Nonnull
+  public static SMMMappingTables read (@Nonnull final IReadableResource aRes)
+  {
+    return new SMMMappingTables (readMappings (aRes));
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Tables", m_aTables).append ("ItemCount", m_nItemCount).getToString ();
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.asic.SignatureHelper;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.mime.CMimeType;
+import com.helger.commons.wrapper.Wrapper;
+import com.helger.datetime.util.PDTXMLConverter;
+import com.helger.security.keystore.EKeyStoreType;
+
+import eu.toop.commons.codelist.EPredefinedDocumentTypeIdentifier;
+import eu.toop.commons.codelist.EPredefinedProcessIdentifier;
+import eu.toop.commons.concept.EConceptType;
+import eu.toop.commons.dataexchange.v140.TDEAddressType;
+import eu.toop.commons.dataexchange.v140.TDEAddressWithLOAType;
+import eu.toop.commons.dataexchange.v140.TDEConceptRequestType;
+import eu.toop.commons.dataexchange.v140.TDEDataConsumerType;
+import eu.toop.commons.dataexchange.v140.TDEDataElementRequestType;
+import eu.toop.commons.dataexchange.v140.TDEDataRequestSubjectType;
+import eu.toop.commons.dataexchange.v140.TDELegalPersonType;
+import eu.toop.commons.dataexchange.v140.TDERoutingInformationType;
+import eu.toop.commons.dataexchange.v140.TDETOOPRequestType;
+import eu.toop.commons.exchange.AsicReadEntry;
+import eu.toop.commons.exchange.AsicWriteEntry;
+import eu.toop.commons.exchange.ToopMessageBuilder140;
+import eu.toop.commons.jaxb.ToopReader;
+import eu.toop.commons.jaxb.ToopXSDHelper140;
+import eu.toop.commons.usecase.EToopEntityType;
+import oasis.names.specification.ubl.schema.xsd.unqualifieddatatypes_21.IdentifierType;
+
+/**
+ * Test class for class {@link TCAsicHelper}.
+ *
+ * @author Philip Helger
+ */
+public final class TCAsicHelperTest
+{
+  private static final SignatureHelper SH = new SignatureHelper (EKeyStoreType.JKS,
+                                                                 "../dockerfiles/playground-keystore.jks",
+                                                                 "toop4eu",
+                                                                 "root-key",
+                                                                 "toop4eu");
+
+  @Nonnull
+  private static TDETOOPRequestType _createRequest ()
+  {
+    final EPredefinedDocumentTypeIdentifier eDocTypeID = EPredefinedDocumentTypeIdentifier.URN_EU_TOOP_NS_DATAEXCHANGE_1P40_REQUEST_URN_EU_TOOP_REQUEST_REGISTEREDORGANIZATION_1_40;
+    final EPredefinedProcessIdentifier eProcessID = EPredefinedProcessIdentifier.URN_EU_TOOP_PROCESS_DATAREQUESTRESPONSE;
+
+    final TDETOOPRequestType ret = new TDETOOPRequestType ();
+    ret.setDocumentUniversalUniqueIdentifier (ToopXSDHelper140.createIdentifierUUID ());
+    ret.setDocumentIssueDate (PDTXMLConverter.getXMLCalendarDateNow ());
+    ret.setDocumentIssueTime (PDTXMLConverter.getXMLCalendarTimeNow ());
+    ret.setCopyIndicator (ToopXSDHelper140.createIndicator (false));
+    ret.setSpecificationIdentifier (ToopXSDHelper140.createIdentifier ("toop-doctypeid-qns",
+                                                                       eDocTypeID.getID ()
+                                                                                 .substring (0,
+                                                                                             eDocTypeID.getID ()
+                                                                                                       .indexOf ("##"))));
+    ret.setDataConsumerDocumentIdentifier (ToopXSDHelper140.createIdentifier ("whatsoever", "DC-ID-17"));
+
+    final TDERoutingInformationType aRoutingInfo = new TDERoutingInformationType ();
+    aRoutingInfo.setDocumentTypeIdentifier (ToopXSDHelper140.createIdentifier (eDocTypeID.getScheme (),
+                                                                               eDocTypeID.getID ()));
+    aRoutingInfo.setProcessIdentifier (ToopXSDHelper140.createIdentifier (eProcessID.getScheme (), eProcessID.getID ()));
+    final IdentifierType aSenderID = ToopXSDHelper140.createIdentifier ("iso6523-actorid-upis", "9999:test");
+    aSenderID.setSchemeAgencyID ("0002");
+    aRoutingInfo.setDataConsumerElectronicAddressIdentifier (aSenderID);
+    aRoutingInfo.setDataConsumerCountryCode (ToopXSDHelper140.createCode ("DE"));
+    aRoutingInfo.setDataProviderCountryCode (ToopXSDHelper140.createCode ("AT"));
+    ret.setRoutingInformation (aRoutingInfo);
+
+    final TDEDataConsumerType aDC = new TDEDataConsumerType ();
+    aDC.setDCUniqueIdentifier (ToopXSDHelper140.createIdentifier ("whatsoever", "9914", "ATU12345678"));
+    aDC.setDCName (ToopXSDHelper140.createText ("Helger Enterprises"));
+    final TDEAddressType aDCAddress = new TDEAddressType ();
+    aDCAddress.setCountryCode (ToopXSDHelper140.createCodeWithLOA ("AT"));
+    aDC.setDCLegalAddress (aDCAddress);
+    ret.setDataConsumer (aDC);
+
+    final TDEAddressWithLOAType aSubjectAddress = new TDEAddressWithLOAType ();
+    aSubjectAddress.setCountryCode (ToopXSDHelper140.createCodeWithLOA ("DK"));
+    final TDELegalPersonType aLegalPerson = new TDELegalPersonType ();
+    aLegalPerson.setLegalPersonUniqueIdentifier (ToopXSDHelper140.createIdentifierWithLOA ("SE/DK/id"));
+    aLegalPerson.setLegalName (ToopXSDHelper140.createTextWithLOA ("ACME Inc."));
+    aLegalPerson.setLegalPersonLegalAddress (aSubjectAddress);
+    final TDEDataRequestSubjectType aSubject = new TDEDataRequestSubjectType ();
+    aSubject.setDataRequestSubjectTypeCode (ToopXSDHelper140.createCode (EToopEntityType.LEGAL_ENTITY.getID ()));
+    aSubject.setLegalPerson (aLegalPerson);
+    ret.setDataRequestSubject (aSubject);
+
+    final TDEConceptRequestType aConcept = new TDEConceptRequestType ();
+    aConcept.setConceptTypeCode (ToopXSDHelper140.createCode (EConceptType.DC.getID ()));
+    aConcept.setSemanticMappingExecutionIndicator (ToopXSDHelper140.createIndicator (false));
+    aConcept.setConceptNamespace (ToopXSDHelper140.createIdentifier ("namespace"));
+    aConcept.setConceptName (ToopXSDHelper140.createText ("value"));
+    final TDEDataElementRequestType aDER = new TDEDataElementRequestType ();
+    aDER.setDataElementRequestIdentifier (ToopXSDHelper140.createIdentifier ("bla"));
+    aDER.setConceptRequest (aConcept);
+    ret.addDataElementRequest (aDER);
+    return ret;
+  }
+
+  @Test
+  public void testSpillLargeAttachments () throws Exception
+  {
+    final TDETOOPRequestType aRequest = _createRequest ();
+    final byte [] aSmall = new byte [100];
+    final byte [] aLarge = new byte [100 * 1024];
+    Arrays.fill (aSmall, (byte) 's');
+    Arrays.fill (aLarge, (byte) 'l');
+
+    final byte [] aArchive;
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      ToopMessageBuilder140.createRequestMessageAsic (aRequest,
+                                                      aBAOS,
+                                                      SH,
+                                                      new CommonsArrayList <> (new AsicWriteEntry ("small.bin",
+                                                                                                   aSmall,
+                                                                                                   CMimeType.APPLICATION_OCTET_STREAM),
+                                                                               new AsicWriteEntry ("large.bin",
+                                                                                                   aLarge,
+                                                                                                   CMimeType.APPLICATION_OCTET_STREAM)));
+      aArchive = aBAOS.toByteArray ();
+    }
+
+    final File aSpillDir = new File ("target/asic-spill-test");
+    final ICommonsList <AsicReadEntry> aAttachments = new CommonsArrayList <> ();
+    final Wrapper <byte []> aXMLPayload = new Wrapper <> ();
+    final Serializable aRead = TCAsicHelper.parseRequestOrResponse (new NonBlockingByteArrayInputStream (aArchive),
+                                                                    aAttachments::add,
+                                                                    aXMLPayload::set,
+                                                                    1024,
+                                                                    aSpillDir);
+    assertTrue (aRead instanceof TDETOOPRequestType);
+    assertNotNull (aXMLPayload.get ());
+    // The received XML can be parsed again
+    assertNotNull (ToopReader.request140 ().read (aXMLPayload.get ()));
+
+    assertEquals (2, aAttachments.size ());
+    final AsicReadEntry aSmallEntry = aAttachments.findFirst (x -> x.getEntryName ().equals ("small.bin"));
+    assertNotNull (aSmallEntry);
+    assertFalse (aSmallEntry instanceof TCFileBackedAsicReadEntry);
+    assertArrayEquals (aSmall, aSmallEntry.payload ());
+
+    final AsicReadEntry aLargeEntry = aAttachments.findFirst (x -> x.getEntryName ().equals ("large.bin"));
+    assertTrue (aLargeEntry instanceof TCFileBackedAsicReadEntry);
+    final File aFile = ((TCFileBackedAsicReadEntry) aLargeEntry).getFile ();
+    assertTrue (aFile.exists ());
+    assertEquals (aSpillDir.getAbsoluteFile (), aFile.getAbsoluteFile ().getParentFile ());
+    assertEquals (aLarge.length, ((TCFileBackedAsicReadEntry) aLargeEntry).getSize ());
+    assertArrayEquals (aLarge, aLargeEntry.payload ());
+
+    TCAsicHelper.deleteSpilledAttachments (aAttachments);
+    assertFalse (aFile.exists ());
+  }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+
+/**
+ * Test class for class {@link MPCoalescer}.
+ *
+ * @author Philip Helger
+ */
+public final class MPCoalescerTest
+{
+  private static final class MockObject
+  {
+    private final String m_sKey;
+    private volatile String m_sResult;
+
+    MockObject (final String sKey)
+    {
+      m_sKey = sKey;
+    }
+  }
+
+  @Test
+  public void testSharedAction () throws Exception
+  {
+    final MPCoalescer <MockObject> aCoalescer = new MPCoalescer <> ( () -> 10);
+    final AtomicInteger aActions = new AtomicInteger ();
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final ConcurrentHashMap <MockObject, Boolean> aDone = new ConcurrentHashMap <> ();
+
+    final ExecutorService aES = Executors.newFixedThreadPool (5);
+    final MockObject [] aObjects = new MockObject [] { new MockObject ("a"),
+                                                       new MockObject ("a"),
+                                                       new MockObject ("a"),
+                                                       new MockObject ("a"),
+                                                       new MockObject ("b") };
+    for (int i = 0; i < aObjects.length; ++i)
+    {
+      final MockObject aObject = aObjects[i];
+      aES.submit ( () -> {
+        aCoalescer.perform (aObject.m_sKey, aObject, (aLeader, aGroupCloser) -> {
+          aActions.incrementAndGet ();
+          if (aLeader.m_sKey.equals ("a"))
+          {
+            // Block the lookup, so that the other objects join
+            aStarted.countDown ();
+            try
+            {
+              aRelease.await ();
+            }
+            catch (final InterruptedException ex)
+            {
+              Thread.currentThread ().interrupt ();
+            }
+          }
+          final ICommonsList <MockObject> aGroup = aGroupCloser.get ();
+          for (final MockObject aMember : aGroup)
+            aMember.m_sResult = aLeader.m_sKey + aGroup.size ();
+        });
+        aDone.put (aObject, Boolean.TRUE);
+      });
+      if (i == 0)
+        assertTrue (aStarted.await (5, TimeUnit.SECONDS));
+    }
+
+    // Wait until the other "a" objects joined
+    final long nEnd = System.currentTimeMillis () + 5000;
+    while (aCoalescer.getJoinedCount () < 3)
+    {
+      if (System.currentTimeMillis () > nEnd)
+        fail ("Objects did not join");
+      Thread.sleep (10);
+    }
+    aRelease.countDown ();
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+
+    assertEquals (5, aDone.size ());
+    // One action for "a" and one for "b"
+    assertEquals (2, aActions.get ());
+    assertEquals (2, aCoalescer.getActionCount ());
+    for (int i = 0; i < 4; ++i)
+      assertEquals ("a4", aObjects[i].m_sResult);
+    assertEquals ("b1", aObjects[4].m_sResult);
+  }
+
+  @Test
+  public void testDisabled ()
+  {
+    final MPCoalescer <MockObject> aCoalescer = new MPCoalescer <> ( () -> 1);
+    final MockObject aObject = new MockObject ("a");
+    aCoalescer.perform ("a", aObject, (aLeader, aGroupCloser) -> {
+      assertSame (aObject, aLeader);
+      assertEquals (1, aGroupCloser.get ().size ());
+      aLeader.m_sResult = "done";
+    });
+    assertEquals ("done", aObject.m_sResult);
+    assertEquals (1, aCoalescer.getActionCount ());
+    assertEquals (0, aCoalescer.getJoinedCount ());
+  }
+
+  @Test
+  public void testExceptionForAllMembers () throws Exception
+  {
+    final MPCoalescer <MockObject> aCoalescer = new MPCoalescer <> ( () -> 10);
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final AtomicInteger aFailures = new AtomicInteger ();
+
+    final ExecutorService aES = Executors.newFixedThreadPool (2);
+    for (int i = 0; i < 2; ++i)
+    {
+      final MockObject aObject = new MockObject ("a");
+      aES.submit ( () -> {
+        try
+        {
+          aCoalescer.perform ("a", aObject, (aLeader, aGroupCloser) -> {
+            aStarted.countDown ();
+            try
+            {
+              aRelease.await ();
+            }
+            catch (final InterruptedException ex)
+            {
+              Thread.currentThread ().interrupt ();
+            }
+            throw new IllegalStateException ("Lookup failed");
+          });
+        }
+        catch (final IllegalStateException ex)
+        {
+          aFailures.incrementAndGet ();
+        }
+      });
+      if (i == 0)
+        assertTrue (aStarted.await (5, TimeUnit.SECONDS));
+    }
+
+    final long nEnd = System.currentTimeMillis () + 5000;
+    while (aCoalescer.getJoinedCount () < 1)
+    {
+      if (System.currentTimeMillis () > nEnd)
+        fail ("Object did not join");
+      Thread.sleep (10);
+    }
+    aRelease.countDown ();
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+
+    // The leader and the member both see the failure
+    assertEquals (2, aFailures.get ());
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.commons.state.ESuccess;
+
+/**
+ * Test class for class {@link MPDeduplicationIndex}.
+ *
+ * @author Philip Helger
+ */
+public final class MPDeduplicationIndexTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final MPDeduplicationIndex aIndex = new MPDeduplicationIndex (60000, 1000, 4);
+    assertTrue (aIndex.registerIfAbsent ("a"));
+    assertTrue (aIndex.registerIfAbsent ("b"));
+    assertFalse (aIndex.registerIfAbsent ("a"));
+    assertFalse (aIndex.registerIfAbsent ("b"));
+    // No ID - no deduplication
+    assertTrue (aIndex.registerIfAbsent (null));
+    assertTrue (aIndex.registerIfAbsent (""));
+    assertEquals (2, aIndex.size ());
+    assertEquals (2, aIndex.getHitCount ());
+    assertEquals (2, aIndex.getMissCount ());
+
+    aIndex.remove ("a");
+    assertTrue (aIndex.registerIfAbsent ("a"));
+    assertEquals (3, aIndex.getMissCount ());
+  }
+
+  @Test
+  public void testAcceptIfAbsent ()
+  {
+    final MPDeduplicationIndex aIndex = new MPDeduplicationIndex (60000, 1000, 4);
+    final AtomicInteger aDuplicates = new AtomicInteger ();
+    // Rejected - not registered
+    assertTrue (aIndex.acceptIfAbsent ("a", () -> ESuccess.FAILURE, aDuplicates::incrementAndGet).isFailure ());
+    assertEquals (0, aIndex.size ());
+    assertTrue (aIndex.acceptIfAbsent ("a", () -> ESuccess.SUCCESS, aDuplicates::incrementAndGet).isSuccess ());
+    assertEquals (0, aDuplicates.get ());
+    // Duplicate
+    assertTrue (aIndex.acceptIfAbsent ("a", () -> ESuccess.FAILURE, aDuplicates::incrementAndGet).isSuccess ());
+    assertEquals (1, aDuplicates.get ());
+    assertEquals (1, aIndex.size ());
+  }
+
+  @Test
+  public void testAcceptIfAbsentConcurrent () throws Exception
+  {
+    final MPDeduplicationIndex aIndex = new MPDeduplicationIndex (60000, 1000, 1);
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final AtomicInteger aAccepted = new AtomicInteger ();
+    final AtomicInteger aDuplicates = new AtomicInteger ();
+    final Thread aFirst = new Thread ( () -> aIndex.acceptIfAbsent ("a", () -> {
+      aStarted.countDown ();
+      try
+      {
+        aRelease.await ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+      // The first attempt is rejected
+      return ESuccess.FAILURE;
+    }, aDuplicates::incrementAndGet));
+    aFirst.start ();
+    aStarted.await ();
+
+    // The resend waits for the first attempt and is processed afterwards
+    final Thread aSecond = new Thread ( () -> aIndex.acceptIfAbsent ("a", () -> {
+      aAccepted.incrementAndGet ();
+      return ESuccess.SUCCESS;
+    }, aDuplicates::incrementAndGet));
+    aSecond.start ();
+    Thread.sleep (50);
+    assertEquals (0, aAccepted.get ());
+
+    aRelease.countDown ();
+    aFirst.join ();
+    aSecond.join ();
+    assertEquals (1, aAccepted.get ());
+    assertEquals (0, aDuplicates.get ());
+  }
+
+  @Test
+  public void testExpiration () throws Exception
+  {
+    final MPDeduplicationIndex aIndex = new MPDeduplicationIndex (50, 1000, 1);
+    assertTrue (aIndex.registerIfAbsent ("a"));
+    assertFalse (aIndex.registerIfAbsent ("a"));
+    Thread.sleep (100);
+    assertTrue (aIndex.registerIfAbsent ("a"));
+  }
+
+  @Test
+  public void testMaxEntries ()
+  {
+    final MPDeduplicationIndex aIndex = new MPDeduplicationIndex (60000, 10, 1);
+    for (int i = 0; i < 20; ++i)
+      assertTrue (aIndex.registerIfAbsent ("id" + i));
+    assertEquals (10, aIndex.size ());
+    // The oldest entries were dropped
+    assertTrue (aIndex.registerIfAbsent ("id0"));
+    assertFalse (aIndex.registerIfAbsent ("id19"));
+  }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Test class for class {@link MPJournal}.
+ *
+ * @author Philip Helger
+ */
+public final class MPJournalTest
+{
+  private static final class MockUnreadable implements Serializable
+  {
+    private void readObject (@SuppressWarnings ("unused") final ObjectInputStream aOIS) throws IOException
+    {
+      throw new IOException ("Cannot be read");
+    }
+  }
+
+  private static final File DIR = new File ("target/mp-journal-test");
+
+  @Before
+  @After
+  public void cleanup ()
+  {
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (DIR);
+  }
+
+  @Test
+  public void testReplayAfterClose () throws Exception
+  {
+    MPJournal aJournal = MPJournal.open (DIR, 1024, true);
+    final long nID1 = aJournal.append (EMPStage.DC_OUTGOING, "first");
+    aJournal.append (EMPStage.DP_OUTGOING, "second");
+    aJournal.append (EMPStage.DC_INCOMING, "third");
+    aJournal.acknowledge (nID1);
+    assertEquals (2, aJournal.getPendingCount ());
+    aJournal.close ();
+
+    aJournal = MPJournal.open (DIR, 1024, true);
+    final ICommonsList <String> aReplayed = new CommonsArrayList <> ();
+    assertEquals (2, aJournal.replayPending ( (eStage, aObject) -> {
+      aReplayed.add (eStage.getID () + ":" + aObject);
+      return ESuccess.SUCCESS;
+    }));
+    assertEquals (new CommonsArrayList <> ("dp-outgoing:second", "dc-incoming:third"), aReplayed);
+    assertEquals (0, aJournal.getPendingCount ());
+    aJournal.close ();
+
+    // Everything was acknowledged
+    aJournal = MPJournal.open (DIR, 1024, true);
+    assertEquals (0, aJournal.replayPending ( (eStage, aObject) -> ESuccess.SUCCESS));
+    aJournal.close ();
+  }
+
+  @Test
+  public void testFailedReplayStaysPending () throws Exception
+  {
+    MPJournal aJournal = MPJournal.open (DIR, 1024, true);
+    aJournal.append (EMPStage.DC_OUTGOING, "first");
+    aJournal.append (EMPStage.DP_OUTGOING, "second");
+    aJournal.close ();
+
+    aJournal = MPJournal.open (DIR, 1024, true);
+    // Only the first one can be queued again
+    assertEquals (1, aJournal.replayPending ( (eStage, aObject) -> ESuccess.valueOf (eStage == EMPStage.DC_OUTGOING)));
+    assertEquals (1, aJournal.getPendingCount ());
+    aJournal.close ();
+
+    // The failed one is replayed again
+    aJournal = MPJournal.open (DIR, 1024, true);
+    final ICommonsList <String> aReplayed = new CommonsArrayList <> ();
+    assertEquals (1, aJournal.replayPending ( (eStage, aObject) -> {
+      aReplayed.add (eStage.getID () + ":" + aObject);
+      return ESuccess.SUCCESS;
+    }));
+    assertEquals (new CommonsArrayList <> ("dp-outgoing:second"), aReplayed);
+    aJournal.close ();
+  }
+
+  @Test
+  public void testUnreadableRecordIsMovedAside () throws Exception
+  {
+    MPJournal aJournal = MPJournal.open (DIR, 1024, true);
+    final long nID = aJournal.append (EMPStage.DC_OUTGOING, new MockUnreadable ());
+    aJournal.close ();
+
+    aJournal = MPJournal.open (DIR, 1024, true);
+    assertEquals (0, aJournal.replayPending ( (eStage, aObject) -> ESuccess.SUCCESS));
+    assertEquals (0, aJournal.getPendingCount ());
+    aJournal.close ();
+
+    final File aRejected = new File (DIR,
+                                     MPJournal.SEGMENT_FILENAME_PREFIX +
+                                          StringHelper.getLeadingZero (nID, 16) +
+                                          MPJournal.REJECTED_FILENAME_SUFFIX);
+    assertTrue (aRejected.isFile ());
+  }
+
+  @Test
+  public void testSegmentRollover () throws Exception
+  {
+    final MPJournal aJournal = MPJournal.open (DIR, 512, false);
+    final ICommonsList <Long> aIDs = new CommonsArrayList <> ();
+    for (int i = 0; i < 100; ++i)
+      aIDs.add (Long.valueOf (aJournal.append (EMPStage.DP_INCOMING, "Object " + i)));
+    assertTrue (aJournal.getSegmentCount () > 1);
+    assertEquals (100, aJournal.getPendingCount ());
+
+    for (final Long aID : aIDs)
+      aJournal.acknowledge (aID.longValue ());
+    assertEquals (0, aJournal.getPendingCount ());
+    assertEquals (1, aJournal.getSegmentCount ());
+    aJournal.close ();
+  }
+
+  @Test
+  public void testConcurrentGroupCommit () throws Exception
+  {
+    final MPJournal aJournal = MPJournal.open (DIR, 64 * 1024, true);
+    final ExecutorService aES = Executors.newFixedThreadPool (8);
+    for (int i = 0; i < 400; ++i)
+    {
+      final Serializable aObj = Integer.valueOf (i);
+      aES.submit ( () -> {
+        aJournal.acknowledge (aJournal.append (EMPStage.DC_OUTGOING, aObj));
+        return null;
+      });
+    }
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+    assertEquals (0, aJournal.getPendingCount ());
+    aJournal.close ();
+  }
+}
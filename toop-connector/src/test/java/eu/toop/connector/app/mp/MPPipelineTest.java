@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+
+/**
+ * Test class for class {@link MPPipeline}.
+ *
+ * @author Philip Helger
+ */
+public final class MPPipelineTest
+{
+  @Test
+  public void testAllPhases ()
+  {
+    final ICommonsList <String> aFinished = new CommonsArrayList <> ();
+    final MPPipeline <StringBuilder> aPipeline = new MPPipeline <> (x -> {
+      synchronized (aFinished)
+      {
+        aFinished.add (x.toString ());
+      }
+    }, (x, ex) -> x.append ("!"));
+    aPipeline.addPhase ("a", "Test-A", 2, 1, x -> {
+      x.append ('a');
+      return true;
+    });
+    aPipeline.addPhase ("b", "Test-B", 1, 1, x -> {
+      x.append ('b');
+      // Stop processing of the objects with "stop"
+      return !x.toString ().startsWith ("stop");
+    });
+    aPipeline.addPhase ("c", "Test-C", 3, 2, x -> {
+      if (x.toString ().startsWith ("fail"))
+        throw new IllegalStateException ("Failed");
+      x.append ('c');
+      return true;
+    });
+    assertEquals (3, aPipeline.getAllPhaseStatistics ().size ());
+    assertEquals (2, aPipeline.getPhaseStatistics ("c").getQueueCapacity ());
+
+    // More objects than the queue capacities
+    for (int i = 0; i < 100; ++i)
+      aPipeline.submit (new StringBuilder ("ok"));
+    aPipeline.submit (new StringBuilder ("stop"));
+    aPipeline.submit (new StringBuilder ("fail"));
+    aPipeline.shutdownAndWaitUntilAllTasksAreFinished ();
+
+    assertEquals (102, aFinished.size ());
+    assertEquals (100, aFinished.getCount ("okabc"::equals));
+    assertTrue (aFinished.contains ("stopab"));
+    assertTrue (aFinished.contains ("failab!"));
+  }
+
+  @Test
+  public void testBatchPhase ()
+  {
+    final ICommonsList <String> aFinished = new CommonsArrayList <> ();
+    final ICommonsList <Integer> aBatchSizes = new CommonsArrayList <> ();
+    final MPPipeline <StringBuilder> aPipeline = new MPPipeline <> (x -> {
+      synchronized (aFinished)
+      {
+        aFinished.add (x.toString ());
+      }
+    }, (x, ex) -> x.append ("!"));
+    aPipeline.addPhase ("a", "Test-A", 1, 10, x -> {
+      x.append ('a');
+      return true;
+    });
+    aPipeline.addBatchPhase ("b", "Test-B", 2, 10, 5, 20, aBatch -> {
+      assertTrue (aBatch.size () <= 5);
+      synchronized (aBatchSizes)
+      {
+        aBatchSizes.add (Integer.valueOf (aBatch.size ()));
+      }
+      for (final StringBuilder x : aBatch)
+        x.append ('b');
+    }, x -> !x.toString ().startsWith ("stop"));
+    aPipeline.addPhase ("c", "Test-C", 1, 10, x -> {
+      x.append ('c');
+      return true;
+    });
+
+    for (int i = 0; i < 50; ++i)
+      aPipeline.submit (new StringBuilder ("ok"));
+    aPipeline.submit (new StringBuilder ("stop"));
+    aPipeline.shutdownAndWaitUntilAllTasksAreFinished ();
+
+    assertEquals (51, aFinished.size ());
+    assertEquals (50, aFinished.getCount ("okabc"::equals));
+    assertTrue (aFinished.contains ("stopab"));
+    // All objects passed the batch phase exactly once
+    assertEquals (51, aBatchSizes.stream ().mapToInt (Integer::intValue).sum ());
+  }
+
+  @Test
+  public void testStageExecutorWaitsForPipeline ()
+  {
+    final AtomicInteger aFinished = new AtomicInteger (0);
+    final MPPipeline <Runnable> aPipeline = new MPPipeline <> (x -> {
+      aFinished.incrementAndGet ();
+      x.run ();
+    }, (x, ex) -> {});
+    aPipeline.addPhase ("slow", "Test-Slow", 1, 1, x -> {
+      Thread.sleep (5);
+      return true;
+    });
+
+    final MPStageExecutor <String> aExecutor = new MPStageExecutor <> (EMPStage.DC_OUTGOING,
+                                                                       1,
+                                                                       0,
+                                                                       0,
+                                                                       x -> null,
+                                                                       (String x,
+                                                                        Runnable aDoneCallback) -> aPipeline.submit (aDoneCallback),
+                                                                       null);
+    for (int i = 0; i < 20; ++i)
+      assertTrue (aExecutor.queueObject ("x" + i).isSuccess ());
+    aExecutor.stopQueuingNewObjects ();
+    aExecutor.shutdownAndWaitUntilAllTasksAreFinished ();
+
+    // All objects were finished by the pipeline before the executor returned
+    assertEquals (20, aFinished.get ());
+    assertEquals (20, aExecutor.getCompletedCount ());
+    aPipeline.shutdownAndWaitUntilAllTasksAreFinished ();
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+
+/**
+ * Test class for class {@link MPPriorityTaskQueue}.
+ *
+ * @author Philip Helger
+ */
+public final class MPPriorityTaskQueueTest
+{
+  private static final class NamedTask implements Runnable
+  {
+    private final String m_sName;
+
+    NamedTask (@Nonnull final String sName)
+    {
+      m_sName = sName;
+    }
+
+    public void run ()
+    {}
+
+    @Override
+    public String toString ()
+    {
+      return m_sName;
+    }
+  }
+
+  @Nonnull
+  private static Runnable _task (@Nonnull final EMPPriority ePriority, final int nIndex)
+  {
+    return new MPPriorityTaskQueue.PrioritizedRunnable (ePriority, new NamedTask (ePriority.getID () + nIndex));
+  }
+
+  @Nonnull
+  private static ICommonsList <String> _drain (@Nonnull final MPPriorityTaskQueue aQueue)
+  {
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    Runnable aTask;
+    while ((aTask = aQueue.poll ()) != null)
+      ret.add ((aTask instanceof MPPriorityTaskQueue.PrioritizedRunnable ? ((MPPriorityTaskQueue.PrioritizedRunnable) aTask).getTask ()
+                                                                         : aTask).toString ());
+    return ret;
+  }
+
+  @Test
+  public void testPriorityOrder () throws Exception
+  {
+    final MPPriorityTaskQueue aQueue = new MPPriorityTaskQueue (100);
+    aQueue.offer (_task (EMPPriority.REQUEST, 1));
+    aQueue.offer (_task (EMPPriority.RESPONSE, 1));
+    aQueue.offer (_task (EMPPriority.ERROR, 1));
+    aQueue.offer (_task (EMPPriority.REQUEST, 2));
+    aQueue.offer (_task (EMPPriority.ERROR, 2));
+    // Not prioritized tasks end up in the lowest lane
+    aQueue.offer (new NamedTask ("other"));
+    assertEquals (6, aQueue.size ());
+    assertEquals (2, aQueue.getLaneSize (EMPPriority.ERROR));
+    assertEquals (1, aQueue.getLaneSize (EMPPriority.RESPONSE));
+    assertEquals (3, aQueue.getLaneSize (EMPPriority.REQUEST));
+
+    assertEquals (new CommonsArrayList <> ("error1", "error2", "response1", "request1", "request2", "other"),
+                  _drain (aQueue));
+    assertEquals (0, aQueue.size ());
+    assertNull (aQueue.poll (10, TimeUnit.MILLISECONDS));
+    assertEquals (0, aQueue.getStarvationCount ());
+  }
+
+  @Test
+  public void testStarvation ()
+  {
+    final MPPriorityTaskQueue aQueue = new MPPriorityTaskQueue (2);
+    for (int i = 1; i <= 6; ++i)
+      aQueue.offer (_task (EMPPriority.ERROR, i));
+    aQueue.offer (_task (EMPPriority.REQUEST, 1));
+    aQueue.offer (_task (EMPPriority.REQUEST, 2));
+
+    // The request lane is served after it was skipped twice
+    assertEquals (new CommonsArrayList <> ("error1",
+                                           "error2",
+                                           "request1",
+                                           "error3",
+                                           "error4",
+                                           "request2",
+                                           "error5",
+                                           "error6"),
+                  _drain (aQueue));
+    assertEquals (2, aQueue.getStarvationCount ());
+  }
+}
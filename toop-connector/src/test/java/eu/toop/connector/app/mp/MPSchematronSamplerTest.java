@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.concurrent.ThreadHelper;
+
+import eu.toop.connector.api.ETCSchematronMode;
+
+/**
+ * Test class for class {@link MPSchematronSampler}.
+ *
+ * @author Philip Helger
+ */
+public final class MPSchematronSamplerTest
+{
+  private static int _countSelected (final MPSchematronSampler aSampler, final int nMessages)
+  {
+    int ret = 0;
+    for (int i = 0; i < nMessages; ++i)
+      if (aSampler.isNextMessageSelected ())
+        ret++;
+    return ret;
+  }
+
+  @Test
+  public void testSampling ()
+  {
+    assertEquals (100, _countSelected (new MPSchematronSampler (ETCSchematronMode.SYNC, 10, 1), 100));
+    assertEquals (0, _countSelected (new MPSchematronSampler (ETCSchematronMode.OFF, 100, 1), 100));
+    assertEquals (0, _countSelected (new MPSchematronSampler (ETCSchematronMode.SAMPLED, 0, 1), 100));
+    assertEquals (100, _countSelected (new MPSchematronSampler (ETCSchematronMode.SAMPLED, 100, 1), 100));
+
+    final MPSchematronSampler aSampler = new MPSchematronSampler (ETCSchematronMode.SAMPLED, 25, 1);
+    assertEquals (25, _countSelected (aSampler, 100));
+    assertEquals (25, aSampler.getSelectedCount ());
+    assertEquals (75, aSampler.getSkippedCount ());
+
+    // Fractions are spread evenly
+    assertEquals (1, _countSelected (new MPSchematronSampler (ETCSchematronMode.SHADOW, 0.5, 1), 200));
+  }
+
+  @Test
+  public void testShadow ()
+  {
+    final MPSchematronSampler aSampler = new MPSchematronSampler (ETCSchematronMode.SHADOW, 100, 10);
+    try
+    {
+      assertTrue (aSampler.validateInShadow ("[test] ", CommonsArrayList::new));
+      assertTrue (aSampler.validateInShadow ("[test] ", () -> {
+        throw new IllegalStateException ("Error applying SCH onto XML");
+      }));
+
+      for (int i = 0; i < 100 && aSampler.getShadowValidatedCount () + aSampler.getShadowErrorCount () < 2; ++i)
+        ThreadHelper.sleep (20);
+      assertEquals (1, aSampler.getShadowValidatedCount ());
+      assertEquals (1, aSampler.getShadowErrorCount ());
+      assertEquals (0, aSampler.getShadowFailedCount ());
+      assertEquals (0, aSampler.getShadowDroppedCount ());
+    }
+    finally
+    {
+      aSampler.shutdown ();
+    }
+    // Dropped after shutdown
+    assertFalse (aSampler.validateInShadow ("[test] ", CommonsArrayList::new));
+    assertEquals (1, aSampler.getShadowDroppedCount ());
+  }
+
+  @Test
+  public void testNoShadow ()
+  {
+    try
+    {
+      new MPSchematronSampler (ETCSchematronMode.SYNC, 100, 1).validateInShadow ("[test] ", CommonsArrayList::new);
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+  }
+}
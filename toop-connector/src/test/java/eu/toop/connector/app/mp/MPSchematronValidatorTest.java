@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.schematron.svrl.AbstractSVRLMessage;
+import com.helger.xml.serialize.read.DOMReader;
+
+import eu.toop.commons.schematron.TOOPSchematron140Validator;
+
+/**
+ * Test class for class {@link MPSchematronValidator}.
+ *
+ * @author Philip Helger
+ */
+public final class MPSchematronValidatorTest
+{
+  @Test
+  public void testConcurrentValidation () throws Exception
+  {
+    final MPSchematronValidator aValidator = new MPSchematronValidator (TOOPSchematron140Validator.TOOP_140_SCHEMATRON_RES_XSLT,
+                                                                        2);
+    assertFalse (aValidator.isCompiled ());
+    aValidator.warmUp ();
+    assertTrue (aValidator.isCompiled ());
+    assertTrue (aValidator.getCompileMillis () >= 0);
+    assertEquals (2, aValidator.getCreatedTransformerCount ());
+
+    final Document aDoc = DOMReader.readXMLDOM ("<Unrelated xmlns='urn:test'/>");
+    assertNotNull (aDoc);
+    final ExecutorService aES = Executors.newFixedThreadPool (4);
+    final ICommonsList <Future <ICommonsList <AbstractSVRLMessage>>> aFutures = new CommonsArrayList <> ();
+    for (int i = 0; i < 20; ++i)
+      aFutures.add (aES.submit ( () -> aValidator.validate (aDoc)));
+    for (final Future <ICommonsList <AbstractSVRLMessage>> aFuture : aFutures)
+      assertNotNull (aFuture.get ());
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+
+    assertEquals (20, aValidator.getValidationCount ());
+    assertEquals (0, aValidator.getActiveCount ());
+    // The pool never grows
+    assertEquals (2, aValidator.getCreatedTransformerCount ());
+  }
+
+  @Test
+  public void testValidateBytes ()
+  {
+    final MPSchematronValidator aValidator = new MPSchematronValidator (TOOPSchematron140Validator.TOOP_140_SCHEMATRON_RES_XSLT,
+                                                                        1);
+    final String sXML = "<Unrelated xmlns='urn:test'/>";
+    final Document aDoc = DOMReader.readXMLDOM (sXML);
+    assertNotNull (aDoc);
+
+    // Same results as for the DOM
+    final ICommonsList <AbstractSVRLMessage> aMsgs = aValidator.validate (sXML.getBytes (StandardCharsets.UTF_8));
+    assertNotNull (aMsgs);
+    assertEquals (aValidator.validate (aDoc).size (), aMsgs.size ());
+    assertEquals (2, aValidator.getValidationCount ());
+
+    // DOCTYPE is not allowed
+    try
+    {
+      aValidator.validate ("<!DOCTYPE Unrelated [<!ENTITY x 'y'>]><Unrelated xmlns='urn:test'>&x;</Unrelated>".getBytes (StandardCharsets.UTF_8));
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    assertEquals (0, aValidator.getActiveCount ());
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.Serializable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FileOperationManager;
+
+/**
+ * Test class for class {@link MPSnapshot}.
+ *
+ * @author Philip Helger
+ */
+public final class MPSnapshotTest
+{
+  private static final File FILE = new File ("target/mp-snapshot-test/snapshot.bin");
+
+  @Before
+  @After
+  public void cleanup ()
+  {
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (FILE.getParentFile ());
+  }
+
+  @Test
+  public void testWriteAndRead () throws Exception
+  {
+    final MPSnapshot aSnapshot = new MPSnapshot ();
+    assertTrue (aSnapshot.isEmpty ());
+    aSnapshot.addAll (EMPStage.DC_OUTGOING, new CommonsArrayList <> ("a", "b"));
+    aSnapshot.addAll (EMPStage.DP_INCOMING, new CommonsArrayList <> ());
+    aSnapshot.addAll (EMPStage.DC_INCOMING, new CommonsArrayList <> ("c"));
+    assertFalse (aSnapshot.isEmpty ());
+    assertEquals (3, aSnapshot.getCount ());
+    aSnapshot.writeTo (FILE);
+    assertTrue (FILE.exists ());
+
+    final MPSnapshot aRead = MPSnapshot.readFrom (FILE);
+    assertEquals (3, aRead.getCount ());
+    final ICommonsList <String> aAll = new CommonsArrayList <> ();
+    aRead.forEach ( (eStage, aObject) -> aAll.add (eStage.getID () + ":" + aObject));
+    assertEquals (new CommonsArrayList <> ("dc-outgoing:a", "dc-outgoing:b", "dc-incoming:c"), aAll);
+  }
+
+  @Test
+  public void testOverwrite () throws Exception
+  {
+    new MPSnapshot ().addAll (EMPStage.DP_OUTGOING, new CommonsArrayList <Serializable> ("old")).writeTo (FILE);
+    new MPSnapshot ().addAll (EMPStage.DP_OUTGOING, new CommonsArrayList <Serializable> ("new")).writeTo (FILE);
+
+    final ICommonsList <Serializable> aAll = new CommonsArrayList <> ();
+    MPSnapshot.readFrom (FILE).forEach ( (eStage, aObject) -> aAll.add (aObject));
+    assertEquals (new CommonsArrayList <> ("new"), aAll);
+  }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.mp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+
+/**
+ * Test class for class {@link MPStageExecutor}.
+ *
+ * @author Philip Helger
+ */
+public final class MPStageExecutorTest
+{
+  @Test
+  public void testOrderPerKey ()
+  {
+    final ICommonsList <String> aPerformed = new CommonsArrayList <> ();
+    final MPStageExecutor <String> aExecutor = new MPStageExecutor <> (EMPStage.DP_OUTGOING,
+                                                                       4,
+                                                                       0,
+                                                                       0,
+                                                                       x -> x.substring (0, 1),
+                                                                       x -> {
+                                                                         synchronized (aPerformed)
+                                                                         {
+                                                                           aPerformed.add (x);
+                                                                         }
+                                                                       },
+                                                                       null);
+    for (int i = 0; i < 100; ++i)
+      for (final String sKey : new String [] { "a", "b", "c" })
+        assertTrue (aExecutor.queueObject (sKey + i).isSuccess ());
+    aExecutor.stopQueuingNewObjects ();
+    aExecutor.shutdownAndWaitUntilAllTasksAreFinished ();
+
+    assertEquals (300, aPerformed.size ());
+    for (final String sKey : new String [] { "a", "b", "c" })
+    {
+      final ICommonsList <String> aPerKey = aPerformed.getAll (x -> x.startsWith (sKey));
+      assertEquals (100, aPerKey.size ());
+      for (int i = 0; i < 100; ++i)
+        assertEquals (sKey + i, aPerKey.get (i));
+    }
+  }
+
+  @Test
+  public void testStopped ()
+  {
+    final MPStageExecutor <String> aExecutor = new MPStageExecutor <> (EMPStage.DC_OUTGOING, 2, 0, 0, x -> null, x -> {}, null);
+    aExecutor.stopQueuingNewObjects ();
+    try
+    {
+      aExecutor.queueObject ("x");
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    aExecutor.shutdownAndWaitUntilAllTasksAreFinished ();
+  }
+
+  @Test
+  public void testWatermarks () throws Exception
+  {
+    final CountDownLatch aBlocker = new CountDownLatch (1);
+    final MPStageExecutor <String> aExecutor = new MPStageExecutor <> (EMPStage.DC_OUTGOING,
+                                                                       1,
+                                                                       10,
+                                                                       5,
+                                                                       x -> null,
+                                                                       x -> aBlocker.await (),
+                                                                       null);
+    // The first object blocks the only worker, the others are queued
+    assertTrue (aExecutor.queueObjectBounded ("o0").isSuccess ());
+    while (aExecutor.getActiveCount () == 0)
+      Thread.sleep (10);
+    for (int i = 1; i <= 10; ++i)
+      assertTrue (aExecutor.queueObjectBounded ("o" + i).isSuccess ());
+    assertTrue (aExecutor.isSaturated ());
+    assertTrue (aExecutor.queueObjectBounded ("rejected").isFailure ());
+    assertEquals (1, aExecutor.getRejectedCount ());
+    assertTrue (aExecutor.rejectIfSaturated ());
+    assertEquals (2, aExecutor.getRejectedCount ());
+    assertTrue (aExecutor.getRetryAfterSeconds () > 0);
+
+    // Unbounded queuing is still possible
+    assertTrue (aExecutor.queueObject ("internal").isSuccess ());
+
+    aBlocker.countDown ();
+    aExecutor.stopQueuingNewObjects ();
+    aExecutor.shutdownAndWaitUntilAllTasksAreFinished ();
+    assertFalse (aExecutor.isSaturated ());
+    assertEquals (-1, aExecutor.getRetryAfterSeconds ());
+    assertEquals (12, aExecutor.getCompletedCount ());
+  }
+
+  @Test
+  public void testSharedExecutor ()
+  {
+    final ICommonsList <String> aPerformed = new CommonsArrayList <> ();
+    final ExecutorService aShared = Executors.newFixedThreadPool (8);
+    final MPStageExecutor <String> aExecutor1 = new MPStageExecutor <> (EMPStage.DP_OUTGOING,
+                                                                        8,
+                                                                        0,
+                                                                        0,
+                                                                        x -> x.substring (0, 1),
+                                                                        x -> {
+                                                                          synchronized (aPerformed)
+                                                                          {
+                                                                            aPerformed.add (x);
+                                                                          }
+                                                                        },
+                                                                        aShared);
+    final MPStageExecutor <String> aExecutor2 = new MPStageExecutor <> (EMPStage.DC_INCOMING,
+                                                                        8,
+                                                                        0,
+                                                                        0,
+                                                                        x -> null,
+                                                                        x -> {
+                                                                          synchronized (aPerformed)
+                                                                          {
+                                                                            aPerformed.add (x);
+                                                                          }
+                                                                        },
+                                                                        aShared);
+    for (int i = 0; i < 100; ++i)
+    {
+      aExecutor1.queueObject ("a" + i);
+      aExecutor2.queueObject ("z" + i);
+    }
+    aExecutor1.stopQueuingNewObjects ();
+    aExecutor1.shutdownAndWaitUntilAllTasksAreFinished ();
+    aExecutor2.stopQueuingNewObjects ();
+    aExecutor2.shutdownAndWaitUntilAllTasksAreFinished ();
+    assertEquals (0, aExecutor1.getQueueLength ());
+    assertEquals (0, aExecutor2.getQueueLength ());
+    assertEquals (200, aPerformed.size ());
+
+    // Order per key is kept
+    final ICommonsList <String> aPerKey = aPerformed.getAll (x -> x.startsWith ("a"));
+    for (int i = 0; i < 100; ++i)
+      assertEquals ("a" + i, aPerKey.get (i));
+
+    // The shared executor is not shut down
+    assertFalse (aShared.isShutdown ());
+    aShared.shutdown ();
+  }
+
+  @Test
+  public void testShutdownDeadline () throws Exception
+  {
+    final CountDownLatch aBlocker = new CountDownLatch (1);
+    final MPStageExecutor <String> aExecutor = new MPStageExecutor <> (EMPStage.DC_OUTGOING,
+                                                                       1,
+                                                                       0,
+                                                                       0,
+                                                                       x -> null,
+                                                                       x -> aBlocker.await (),
+                                                                       null);
+    for (int i = 0; i < 5; ++i)
+      assertTrue (aExecutor.queueObject ("o" + i).isSuccess ());
+    while (aExecutor.getActiveCount () == 0)
+      Thread.sleep (10);
+
+    aExecutor.stopQueuingNewObjects ();
+    final ICommonsList <String> aUnfinished = aExecutor.shutdownAndWaitUntil (System.nanoTime () +
+                                                                               TimeUnit.MILLISECONDS.toNanos (100));
+    assertTrue (aExecutor.isAborted ());
+    // The in-flight object and all queued objects
+    assertEquals (new CommonsArrayList <> ("o0", "o1", "o2", "o3", "o4"), aUnfinished);
+
+    // Returns immediately
+    aExecutor.shutdownAndWaitUntilAllTasksAreFinished ();
+    aBlocker.countDown ();
+  }
+
+  @Test
+  public void testShutdownDeadlineNotReached ()
+  {
+    final MPStageExecutor <String> aExecutor = new MPStageExecutor <> (EMPStage.DC_OUTGOING, 2, 0, 0, x -> null, x -> {}, null);
+    for (int i = 0; i < 10; ++i)
+      assertTrue (aExecutor.queueObject ("o" + i).isSuccess ());
+    aExecutor.stopQueuingNewObjects ();
+    assertTrue (aExecutor.shutdownAndWaitUntil (System.nanoTime () + TimeUnit.SECONDS.toNanos (10)).isEmpty ());
+    assertFalse (aExecutor.isAborted ());
+    assertEquals (10, aExecutor.getCompletedCount ());
+  }
+}
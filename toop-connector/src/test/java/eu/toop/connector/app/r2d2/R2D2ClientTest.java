@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.r2d2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.timing.StopWatch;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.peppolid.factory.IIdentifierFactory;
+
+import eu.toop.commons.error.EToopErrorCode;
+import eu.toop.connector.api.TCSettings;
+import eu.toop.connector.api.r2d2.IR2D2Endpoint;
+import eu.toop.connector.api.r2d2.IR2D2EndpointProvider;
+import eu.toop.connector.api.r2d2.IR2D2ErrorHandler;
+import eu.toop.connector.api.r2d2.IR2D2ParticipantIDProvider;
+
+/**
+ * Test class for class {@link R2D2Client}.
+ *
+ * @author Philip Helger
+ */
+public final class R2D2ClientTest
+{
+  private static final int PARTICIPANT_COUNT = 12;
+  private static final long DELAY_MS = 100;
+  private static final String TRANSPORT_PROFILE = "tp";
+
+  private static final class MockEndpoint implements IR2D2Endpoint
+  {
+    private final IParticipantIdentifier m_aParticipantID;
+
+    MockEndpoint (@Nonnull final IParticipantIdentifier aParticipantID)
+    {
+      m_aParticipantID = aParticipantID;
+    }
+
+    public IParticipantIdentifier getParticipantID ()
+    {
+      return m_aParticipantID;
+    }
+
+    public String getTransportProtocol ()
+    {
+      return TRANSPORT_PROFILE;
+    }
+
+    public String getEndpointURL ()
+    {
+      return "http://" + m_aParticipantID.getValue ();
+    }
+
+    public X509Certificate getCertificate ()
+    {
+      return null;
+    }
+  }
+
+  private final IIdentifierFactory m_aIF = TCSettings.getIdentifierFactory ();
+  private final IDocumentTypeIdentifier m_aDocTypeID = m_aIF.createDocumentTypeIdentifier ("toop-doctypeid-qns",
+                                                                                           "doctype");
+  private final IProcessIdentifier m_aProcessID = m_aIF.createProcessIdentifier ("toop-procid-agreement", "process");
+  private final AtomicInteger m_aActive = new AtomicInteger ();
+  private final AtomicInteger m_aMaxActive = new AtomicInteger ();
+
+  private final IR2D2ParticipantIDProvider m_aPIDP = (sLogPrefix, sCountryCode, aDocumentTypeID, aErrorHandler) -> {
+    final ICommonsSet <IParticipantIdentifier> ret = new CommonsHashSet <> ();
+    for (int i = 0; i < PARTICIPANT_COUNT; ++i)
+      ret.add (m_aIF.createParticipantIdentifier ("iso6523-actorid-upis", "9915:p" + i));
+    return ret;
+  };
+
+  /**
+   * Every participant with an even number has an endpoint, the others report
+   * an error. Participant "9915:p0" takes much longer.
+   */
+  private final IR2D2EndpointProvider m_aEPP = (sLogPrefix,
+                                                aRecipientID,
+                                                aDocumentTypeID,
+                                                aProcessID,
+                                                sTransportProfileID,
+                                                aErrorHandler) -> {
+    final int nActive = m_aActive.incrementAndGet ();
+    m_aMaxActive.accumulateAndGet (nActive, Math::max);
+    try
+    {
+      ThreadHelper.sleep (aRecipientID.getValue ().equals ("9915:p0") ? 10 * DELAY_MS : DELAY_MS);
+      final int nIndex = Integer.parseInt (aRecipientID.getValue ().substring (6));
+      final ICommonsList <IR2D2Endpoint> ret = new CommonsArrayList <> ();
+      if ((nIndex % 2) == 0)
+        ret.add (new MockEndpoint (aRecipientID));
+      else
+        aErrorHandler.onError ("No SMP for " + aRecipientID.getValue (), EToopErrorCode.DD_002);
+      return ret;
+    }
+    finally
+    {
+      m_aActive.decrementAndGet ();
+    }
+  };
+
+  @Nonnull
+  private ICommonsList <IR2D2Endpoint> _lookup (final int nMaxConcurrency,
+                                                final long nDeadlineMS,
+                                                @Nonnull final ICommonsList <String> aMessages)
+  {
+    final IR2D2ErrorHandler aErrHdl = (eErrorLevel, sMsg, aCause, eCode) -> aMessages.add (eCode.getID () +
+                                                                                          " " +
+                                                                                          sMsg);
+    return R2D2Client.getParticipantIDsAndEndpoints ("",
+                                                     "AT",
+                                                     m_aDocTypeID,
+                                                     m_aPIDP,
+                                                     m_aProcessID,
+                                                     TRANSPORT_PROFILE,
+                                                     m_aEPP,
+                                                     aErrHdl,
+                                                     nMaxConcurrency,
+                                                     nDeadlineMS);
+  }
+
+  @Test
+  public void testParallelSameAsSequential ()
+  {
+    final ICommonsList <String> aSeqMessages = new CommonsArrayList <> ();
+    final StopWatch aSW = StopWatch.createdStarted ();
+    final ICommonsList <IR2D2Endpoint> aSeq = _lookup (1, 0, aSeqMessages);
+    final long nSeqMillis = aSW.stopAndGetMillis ();
+    assertEquals (1, m_aMaxActive.get ());
+    assertEquals (PARTICIPANT_COUNT / 2, aSeq.size ());
+    // One error and one warning for every second participant
+    assertEquals (PARTICIPANT_COUNT, aSeqMessages.size ());
+
+    m_aMaxActive.set (0);
+    final ICommonsList <String> aParMessages = new CommonsArrayList <> ();
+    aSW.restart ();
+    final ICommonsList <IR2D2Endpoint> aPar = _lookup (4, 0, aParMessages);
+    final long nParMillis = aSW.stopAndGetMillis ();
+    assertEquals (4, m_aMaxActive.get ());
+
+    // Same order of endpoints and messages
+    assertEquals (aSeq.getAllMapped (IR2D2Endpoint::getEndpointURL), aPar.getAllMapped (IR2D2Endpoint::getEndpointURL));
+    assertEquals (aSeqMessages, aParMessages);
+    assertTrue ("Parallel " + nParMillis + " ms vs. sequential " + nSeqMillis + " ms", nParMillis < nSeqMillis);
+  }
+
+  @Test
+  public void testDeadline ()
+  {
+    final ICommonsList <String> aMessages = new CommonsArrayList <> ();
+    final ICommonsList <IR2D2Endpoint> aPar = _lookup (PARTICIPANT_COUNT, 5 * DELAY_MS, aMessages);
+
+    // The slow participant is missing and reported as an error
+    assertEquals (PARTICIPANT_COUNT / 2 - 1, aPar.size ());
+    assertTrue (aMessages.toString (),
+                aMessages.containsAny (x -> x.startsWith (EToopErrorCode.DD_002.getID ()) &&
+                                            x.contains ("'iso6523-actorid-upis::9915:p0' did not finish")));
+  }
+
+  @Test
+  public void testInterrupted ()
+  {
+    final ICommonsList <String> aMessages = new CommonsArrayList <> ();
+    Thread.currentThread ().interrupt ();
+    final ICommonsList <IR2D2Endpoint> aPar = _lookup (PARTICIPANT_COUNT, 0, aMessages);
+
+    // The interrupt flag is kept and the lookups are not reported as timed out
+    assertTrue (Thread.interrupted ());
+    assertTrue (aPar.size () < PARTICIPANT_COUNT / 2);
+    assertTrue (aMessages.toString (),
+                aMessages.containsAny (x -> x.contains ("was cancelled because the thread was interrupted")));
+    assertFalse (aMessages.toString (), aMessages.containsAny (x -> x.contains ("did not finish")));
+  }
+}
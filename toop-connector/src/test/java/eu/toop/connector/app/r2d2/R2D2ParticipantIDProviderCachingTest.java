@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.r2d2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+
+import eu.toop.commons.error.EToopErrorCode;
+import eu.toop.connector.api.TCSettings;
+import eu.toop.connector.api.r2d2.IR2D2ErrorHandler;
+import eu.toop.connector.api.r2d2.IR2D2ParticipantIDProvider;
+
+/**
+ * Test class for class {@link R2D2ParticipantIDProviderCaching}.
+ *
+ * @author Philip Helger
+ */
+public final class R2D2ParticipantIDProviderCachingTest
+{
+  private static final long TTL = 1000;
+  private static final long STALE = 1000;
+
+  @Test
+  public void testBasic ()
+  {
+    final IDocumentTypeIdentifier aDocTypeID = TCSettings.getIdentifierFactory ()
+                                                         .createDocumentTypeIdentifier ("toop-doctypeid-qns",
+                                                                                        "doctype");
+    final IParticipantIdentifier aPI = TCSettings.getIdentifierFactory ()
+                                                 .createParticipantIdentifier ("iso6523-actorid-upis", "9915:test");
+    final AtomicInteger aCallCount = new AtomicInteger ();
+    final AtomicBoolean aFail = new AtomicBoolean (false);
+    final IR2D2ParticipantIDProvider aDelegate = (sLogPrefix, sCountryCode, aDocumentTypeID, aErrorHandler) -> {
+      aCallCount.incrementAndGet ();
+      if (aFail.get ())
+      {
+        aErrorHandler.onError ("Directory unavailable", EToopErrorCode.DD_001);
+        return new CommonsHashSet <> ();
+      }
+      return "AT".equals (sCountryCode) ? new CommonsHashSet <> (aPI) : new CommonsHashSet <> ();
+    };
+
+    final AtomicLong aClock = new AtomicLong (1_000_000);
+    final ICommonsList <String> aErrors = new CommonsArrayList <> ();
+    final IR2D2ErrorHandler aErrHdl = (eErrorLevel, sMsg, aCause, eCode) -> aErrors.add (sMsg);
+    try (final R2D2ParticipantIDProviderCaching aCaching = new R2D2ParticipantIDProviderCaching (aDelegate,
+                                                                                                 TTL,
+                                                                                                 STALE,
+                                                                                                 100,
+                                                                                                 10,
+                                                                                                 aClock::get))
+    {
+      final ICommonsSet <IParticipantIdentifier> aSet = aCaching.getAllParticipantIDs ("", "AT", aDocTypeID, aErrHdl);
+      assertEquals (new CommonsHashSet <> (aPI), aSet);
+      // Modifying the result does not modify the cache
+      aSet.clear ();
+      assertEquals (new CommonsHashSet <> (aPI), aCaching.getAllParticipantIDs ("", "AT", aDocTypeID, aErrHdl));
+      assertEquals (1, aCallCount.get ());
+
+      // Different country
+      assertTrue (aCaching.getAllParticipantIDs ("", "SE", aDocTypeID, aErrHdl).isEmpty ());
+      assertEquals (2, aCallCount.get ());
+      assertEquals (2, aCaching.getCache ().size ());
+
+      // Expired and the Directory fails - use the old result
+      aFail.set (true);
+      aClock.addAndGet (TTL + STALE);
+      assertEquals (new CommonsHashSet <> (aPI), aCaching.getAllParticipantIDs ("", "AT", aDocTypeID, aErrHdl));
+      assertEquals (3, aCallCount.get ());
+      assertTrue (aErrors.isEmpty ());
+
+      // No old result - the error is forwarded
+      assertTrue (aCaching.getAllParticipantIDs ("", "SE", aDocTypeID, aErrHdl).isEmpty ());
+      assertEquals (new CommonsArrayList <> ("Directory unavailable"), aErrors);
+    }
+  }
+}
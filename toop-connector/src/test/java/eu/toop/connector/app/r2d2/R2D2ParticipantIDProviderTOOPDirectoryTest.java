@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.r2d2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsConcurrentHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.url.URLHelper;
+import com.helger.json.IJsonArray;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonArray;
+import com.helger.json.JsonObject;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.sun.net.httpserver.HttpServer;
+
+import eu.toop.connector.api.TCSettings;
+import eu.toop.connector.api.r2d2.IR2D2ErrorHandler;
+
+/**
+ * Test class for class {@link R2D2ParticipantIDProviderTOOPDirectory}. Uses a
+ * local HTTP server as the TOOP Directory.
+ *
+ * @author Philip Helger
+ */
+public final class R2D2ParticipantIDProviderTOOPDirectoryTest
+{
+  private static final int TOTAL = 950;
+  private static final int PAGE_SIZE = 100;
+
+  private HttpServer m_aServer;
+  private final ICommonsMap <Integer, AtomicInteger> m_aPageCalls = new CommonsConcurrentHashMap <> ();
+  private final AtomicInteger m_aActive = new AtomicInteger ();
+  private final AtomicInteger m_aMaxActive = new AtomicInteger ();
+
+  @Before
+  public void before () throws IOException
+  {
+    m_aServer = HttpServer.create (new InetSocketAddress ("localhost", 0), 0);
+    m_aServer.setExecutor (Executors.newCachedThreadPool ());
+    m_aServer.createContext ("/search/1.0/json", aExchange -> {
+      final int nActive = m_aActive.incrementAndGet ();
+      m_aMaxActive.accumulateAndGet (nActive, Math::max);
+      try
+      {
+        final String sPageIndex = URLHelper.getParsedQueryParameters (aExchange.getRequestURI ().getRawQuery ())
+                                           .getFirstParamValue ("rpi");
+        final int nPageIndex = sPageIndex == null ? 0 : Integer.parseInt (sPageIndex);
+        m_aPageCalls.computeIfAbsent (Integer.valueOf (nPageIndex), k -> new AtomicInteger ()).incrementAndGet ();
+        ThreadHelper.sleep (50);
+
+        final IJsonArray aMatches = new JsonArray ();
+        for (int i = nPageIndex * PAGE_SIZE; i < Math.min ((nPageIndex + 1) * PAGE_SIZE, TOTAL); ++i)
+          aMatches.add (new JsonObject ().add ("participantID",
+                                               new JsonObject ().add ("scheme", "iso6523-actorid-upis")
+                                                                .add ("value", "9915:p" + i)));
+        final IJsonObject aResult = new JsonObject ().add ("total-result-count", TOTAL)
+                                                     .add ("result-page-index", nPageIndex)
+                                                     .add ("matches", aMatches);
+        final byte [] aBytes = aResult.getAsJsonString ().getBytes (StandardCharsets.UTF_8);
+        aExchange.getResponseHeaders ().add ("Content-Type", "application/json");
+        aExchange.sendResponseHeaders (200, aBytes.length);
+        try (final OutputStream aOS = aExchange.getResponseBody ())
+        {
+          aOS.write (aBytes);
+        }
+      }
+      finally
+      {
+        m_aActive.decrementAndGet ();
+      }
+    });
+    m_aServer.start ();
+  }
+
+  @After
+  public void after ()
+  {
+    m_aServer.stop (0);
+  }
+
+  private ICommonsSet <IParticipantIdentifier> _lookup (final int nMaxConcurrency,
+                                                        final ICommonsList <String> aErrors)
+  {
+    final IDocumentTypeIdentifier aDocTypeID = TCSettings.getIdentifierFactory ()
+                                                         .createDocumentTypeIdentifier ("toop-doctypeid-qns",
+                                                                                        "doctype");
+    final IR2D2ErrorHandler aErrHdl = (eErrorLevel, sMsg, aCause, eCode) -> aErrors.add (sMsg);
+    return new R2D2ParticipantIDProviderTOOPDirectory ("http://localhost:" + m_aServer.getAddress ().getPort (),
+                                                       nMaxConcurrency).getAllParticipantIDs ("",
+                                                                                              "AT",
+                                                                                              aDocTypeID,
+                                                                                              aErrHdl);
+  }
+
+  @Test
+  public void testSequential ()
+  {
+    final ICommonsList <String> aErrors = new CommonsArrayList <> ();
+    assertEquals (TOTAL, _lookup (1, aErrors).size ());
+    assertTrue (aErrors.isEmpty ());
+    assertEquals (10, m_aPageCalls.size ());
+    assertEquals (1, m_aMaxActive.get ());
+  }
+
+  @Test
+  public void testParallel ()
+  {
+    final ICommonsList <String> aErrors = new CommonsArrayList <> ();
+    final ICommonsSet <IParticipantIdentifier> aPIs = _lookup (4, aErrors);
+    assertEquals (TOTAL, aPIs.size ());
+    assertTrue (aPIs.contains (TCSettings.getIdentifierFactory ()
+                                         .createParticipantIdentifier ("iso6523-actorid-upis", "9915:p949")));
+    assertTrue (aErrors.isEmpty ());
+
+    // Every page was fetched exactly once
+    assertEquals (10, m_aPageCalls.size ());
+    for (final AtomicInteger aCount : m_aPageCalls.values ())
+      assertEquals (1, aCount.get ());
+    assertTrue (m_aMaxActive.get () > 1);
+    assertTrue (m_aMaxActive.get () <= 4);
+  }
+}
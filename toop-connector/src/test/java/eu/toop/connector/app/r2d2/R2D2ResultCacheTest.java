@@ -0,0 +1,221 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.r2d2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ThreadHelper;
+
+import eu.toop.commons.error.EToopErrorCode;
+import eu.toop.connector.api.r2d2.IR2D2ErrorHandler;
+
+/**
+ * Test class for class {@link R2D2ResultCache}.
+ *
+ * @author Philip Helger
+ */
+public final class R2D2ResultCacheTest
+{
+  private static final long TTL = 1000;
+  private static final long STALE = 1000;
+  private static final long NEGATIVE_TTL = 100;
+
+  private final AtomicLong m_aClock = new AtomicLong (1_000_000);
+  private final AtomicInteger m_aLookupCount = new AtomicInteger ();
+
+  private R2D2ResultCache <ICommonsList <String>> _createCache ()
+  {
+    return new R2D2ResultCache <> ("Test",
+                                   TTL,
+                                   STALE,
+                                   NEGATIVE_TTL,
+                                   10,
+                                   ICommonsList::isEmpty,
+                                   ICommonsList::getClone,
+                                   m_aClock::get);
+  }
+
+  private Function <IR2D2ErrorHandler, ICommonsList <String>> _lookup (final String... aValues)
+  {
+    return aErrHdl -> {
+      m_aLookupCount.incrementAndGet ();
+      return new CommonsArrayList <> (aValues);
+    };
+  }
+
+  private Function <IR2D2ErrorHandler, ICommonsList <String>> _failingLookup ()
+  {
+    return aErrHdl -> {
+      m_aLookupCount.incrementAndGet ();
+      aErrHdl.onError ("Lookup failed", EToopErrorCode.DD_002);
+      return new CommonsArrayList <> ();
+    };
+  }
+
+  private static void _waitFor (final BooleanSupplier aCondition)
+  {
+    for (int i = 0; i < 500 && !aCondition.getAsBoolean (); ++i)
+      ThreadHelper.sleep (10);
+  }
+
+  private static IR2D2ErrorHandler _collect (final ICommonsList <String> aTarget)
+  {
+    return (eErrorLevel, sMsg, aCause, eCode) -> aTarget.add (sMsg);
+  }
+
+  @Test
+  public void testTTLAndStale ()
+  {
+    final ICommonsList <String> aErrors = new CommonsArrayList <> ();
+    try (final R2D2ResultCache <ICommonsList <String>> aCache = _createCache ())
+    {
+      final ICommonsList <String> aList1 = aCache.get ("", "k", _lookup ("a"), _collect (aErrors));
+      assertEquals (new CommonsArrayList <> ("a"), aList1);
+      assertEquals (1, m_aLookupCount.get ());
+
+      // Within the TTL - a copy is returned
+      m_aClock.addAndGet (TTL - 1);
+      final ICommonsList <String> aList2 = aCache.get ("", "k", _lookup ("a"), _collect (aErrors));
+      assertEquals (aList1, aList2);
+      assertNotSame (aList1, aList2);
+      assertEquals (1, m_aLookupCount.get ());
+      assertEquals (1, aCache.getCache ().getHitCount ());
+
+      // Stale - the old value is returned and refreshed in the background
+      m_aClock.addAndGet (1);
+      assertEquals (aList1, aCache.get ("", "k", _lookup ("a", "b"), _collect (aErrors)));
+      assertEquals (1, aCache.getCache ().getStaleHitCount ());
+      assertEquals (1, aCache.getCache ().getRefreshCount ());
+      _waitFor ( () -> aCache.getCache ().getLookupCount () == 2);
+      assertEquals (2, m_aLookupCount.get ());
+      assertEquals (new CommonsArrayList <> ("a", "b"), aCache.get ("", "k", _lookup ("x"), _collect (aErrors)));
+
+      // Expired - looked up synchronously
+      m_aClock.addAndGet (TTL + STALE);
+      assertEquals (new CommonsArrayList <> ("c"), aCache.get ("", "k", _lookup ("c"), _collect (aErrors)));
+      assertEquals (3, m_aLookupCount.get ());
+      assertEquals (2, aCache.getCache ().getMissCount ());
+      assertTrue (aErrors.isEmpty ());
+    }
+  }
+
+  @Test
+  public void testNegative ()
+  {
+    final ICommonsList <String> aErrors = new CommonsArrayList <> ();
+    try (final R2D2ResultCache <ICommonsList <String>> aCache = _createCache ())
+    {
+      assertTrue (aCache.get ("", "k", _lookup (), _collect (aErrors)).isEmpty ());
+      assertTrue (aCache.get ("", "k", _lookup ("a"), _collect (aErrors)).isEmpty ());
+      assertEquals (1, m_aLookupCount.get ());
+      assertEquals (1, aCache.getCache ().getNegativeHitCount ());
+
+      // Negative results are not served stale
+      m_aClock.addAndGet (NEGATIVE_TTL);
+      assertEquals (new CommonsArrayList <> ("a"), aCache.get ("", "k", _lookup ("a"), _collect (aErrors)));
+      assertEquals (2, m_aLookupCount.get ());
+      assertTrue (aErrors.isEmpty ());
+    }
+  }
+
+  @Test
+  public void testErrors ()
+  {
+    final ICommonsList <String> aErrors = new CommonsArrayList <> ();
+    try (final R2D2ResultCache <ICommonsList <String>> aCache = _createCache ())
+    {
+      // Errors are forwarded and not cached
+      assertTrue (aCache.get ("", "k", _failingLookup (), _collect (aErrors)).isEmpty ());
+      assertEquals (new CommonsArrayList <> ("Lookup failed"), aErrors);
+      assertEquals (0, aCache.size ());
+      assertEquals (1, aCache.getCache ().getLookupErrorCount ());
+
+      assertEquals (new CommonsArrayList <> ("a"), aCache.get ("", "k", _lookup ("a"), _collect (aErrors)));
+      assertEquals (2, m_aLookupCount.get ());
+
+      // Expired and the lookup fails - use the old result
+      aErrors.clear ();
+      m_aClock.addAndGet (TTL + STALE);
+      assertEquals (new CommonsArrayList <> ("a"), aCache.get ("", "k", _failingLookup (), _collect (aErrors)));
+      assertTrue (aErrors.isEmpty ());
+      assertEquals (2, aCache.getCache ().getLookupErrorCount ());
+    }
+  }
+
+  @Test
+  public void testSingleLookup () throws Exception
+  {
+    final int nThreads = 8;
+    final CountDownLatch aBlocker = new CountDownLatch (1);
+    final Function <IR2D2ErrorHandler, ICommonsList <String>> aLookup = aErrHdl -> {
+      m_aLookupCount.incrementAndGet ();
+      try
+      {
+        aBlocker.await (10, TimeUnit.SECONDS);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+      aErrHdl.onError ("Lookup failed", EToopErrorCode.DD_002);
+      return new CommonsArrayList <> ();
+    };
+
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    try (final R2D2ResultCache <ICommonsList <String>> aCache = _createCache ())
+    {
+      final ICommonsList <ICommonsList <String>> aErrors = new CommonsArrayList <> ();
+      final ICommonsList <Future <ICommonsList <String>>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < nThreads; ++i)
+      {
+        final ICommonsList <String> aThreadErrors = new CommonsArrayList <> ();
+        aErrors.add (aThreadErrors);
+        aFutures.add (aES.submit ( () -> aCache.get ("", "k", aLookup, _collect (aThreadErrors))));
+      }
+
+      // Wait until all threads joined the running lookup
+      _waitFor ( () -> aCache.getCache ().getJoinedCount () == nThreads - 1);
+      aBlocker.countDown ();
+
+      for (final Future <ICommonsList <String>> aFuture : aFutures)
+        assertTrue (aFuture.get (10, TimeUnit.SECONDS).isEmpty ());
+      assertEquals (1, m_aLookupCount.get ());
+      // Every caller received the error
+      for (final ICommonsList <String> aThreadErrors : aErrors)
+        assertEquals (new CommonsArrayList <> ("Lookup failed"), aThreadErrors);
+    }
+    finally
+    {
+      aES.shutdownNow ();
+    }
+  }
+}
@@ -23,6 +23,10 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.mutable.MutableInt;
+
 import eu.toop.commons.concept.ConceptValue;
 import eu.toop.commons.usecase.EToopConcept;
 import eu.toop.commons.usecase.SMMDocumentTypeMapping;
@@ -45,7 +49,8 @@ public final class SMMClientTest
   private static final ConceptValue CONCEPT_FR_1 = new ConceptValue (CMockSMM.NS_FREEDONIA, "FreedoniaCompanyCode");
 
   // Use with cache and remote
-  private static final ISMMConceptProvider [] CP = new ISMMConceptProvider [] { new SMMConceptProviderFileBased () };
+  private static final ISMMConceptProvider [] CP = new ISMMConceptProvider [] { new SMMConceptProviderFileBased (),
+                                                                               new SMMConceptProviderCompact (SMMCompactMappings.createFromXML (SMMConceptProviderFileBased.DEFAULT_RES)) };
   private static final ISMMUnmappableCallback UCB = (sLogPrefix, aSourceNamespace, aSourceValue, aDestNamespace) -> {
     // Do nothing
   };
@@ -134,4 +139,38 @@ public final class SMMClientTest
       assertEquals (CONCEPT_FR_1, aValue.getDestination ());
     }
   }
+
+  @Test
+  public void testBulkMapping ()
+  {
+    for (final ISMMConceptProvider aCP : CP)
+    {
+      LOGGER.info ("Starting testBulkMapping");
+      final ConceptValue aUnknown = new ConceptValue (SMMDocumentTypeMapping.SMM_DOMAIN_REGISTERED_ORGANIZATION,
+                                                      "NonExistingField");
+      final ISMMClient aClient = new SMMClient ();
+      aClient.addConceptToBeMapped (CONCEPT_FR_1);
+      aClient.addConceptToBeMapped (aUnknown);
+      aClient.addConceptToBeMapped (CONCEPT_TOOP_1);
+      aClient.addConceptToBeMapped (CONCEPT_TOOP_1);
+      final MutableInt aUnmappable = new MutableInt (0);
+      final ICommonsOrderedMap <ConceptValue, IMappedValueList> ret = aClient.performBulkMapping (CMockSMM.LOG_PREFIX,
+                                                                                                  CMockSMM.NS_FREEDONIA,
+                                                                                                  aCP,
+                                                                                                  (sLogPrefix,
+                                                                                                   sSourceNamespace,
+                                                                                                   sSourceValue,
+                                                                                                   sDestNamespace) -> aUnmappable.inc ());
+      assertNotNull (ret);
+      // In request order and without duplicates
+      assertEquals (new CommonsArrayList <> (CONCEPT_FR_1, aUnknown, CONCEPT_TOOP_1), ret.copyOfKeySet ().getCopyAsList ());
+      assertEquals (1, aUnmappable.intValue ());
+
+      assertEquals (1, ret.get (CONCEPT_FR_1).size ());
+      assertEquals (CONCEPT_FR_1, ret.get (CONCEPT_FR_1).getFirst ().getDestination ());
+      assertTrue (ret.get (aUnknown).isEmpty ());
+      assertEquals (1, ret.get (CONCEPT_TOOP_1).size ());
+      assertEquals (CONCEPT_FR_1, ret.get (CONCEPT_TOOP_1).getFirst ().getDestination ());
+    }
+  }
 }
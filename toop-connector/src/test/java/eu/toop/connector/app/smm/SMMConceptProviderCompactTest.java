@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.smm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FileOperations;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.resource.IReadableResource;
+
+import eu.toop.commons.concept.ConceptValue;
+import eu.toop.connector.api.smm.IMappedValueList;
+import eu.toop.connector.api.smm.MappedValue;
+import eu.toop.connector.api.smm.MappedValueList;
+
+/**
+ * Test class for class {@link SMMConceptProviderCompact}.
+ *
+ * @author Philip Helger
+ */
+public final class SMMConceptProviderCompactTest
+{
+  private static final IReadableResource RES = SMMConceptProviderFileBased.DEFAULT_RES;
+
+  private static void _assertSameMappings (final SMMCompactMappings aCompact)
+  {
+    final SMMMappingTables aTables = SMMMappingTables.read (RES);
+    final SMMConceptProviderCompact aCP = new SMMConceptProviderCompact (aCompact);
+    int nTables = 0;
+    for (final SMMCompactMappedValueList aCompactList : aCompact.getAllTables ())
+    {
+      final String sSrcNS = aCompactList.getSourceNamespace ();
+      final String sDstNS = aCompactList.getDestNamespace ();
+      assertSame (aCompactList, aCP.getAllMappedValues ("", sSrcNS, sDstNS));
+
+      final MappedValueList aExpected = aTables.getAllMappedValues (sSrcNS, sDstNS);
+      assertEquals (aExpected.size (), aCompactList.size ());
+      final ICommonsSet <MappedValue> aAll = new CommonsHashSet <> ();
+      for (final MappedValue aValue : aExpected)
+      {
+        final IMappedValueList aFound = aCompactList.getAllBySource (aValue.getSource ());
+        assertEquals (aExpected.getAllBySource (aValue.getSource ()).size (), aFound.size ());
+        assertTrue (aFound.containsAny (aValue::equals));
+        assertTrue (aCompactList.getAllByDestination (aValue.getDestination ()).containsAny (aValue::equals));
+        aAll.add (aValue);
+      }
+      assertEquals (aAll, new CommonsHashSet <> (aCompactList));
+      ++nTables;
+    }
+    assertTrue (nTables > 0);
+
+    assertTrue (aCP.getAllMappedValues ("", "urn:unknown", "urn:unknown2").isEmpty ());
+    final SMMCompactMappedValueList aFirst = aCompact.getAllTables ().iterator ().next ();
+    assertTrue (aFirst.getAllBySource (new ConceptValue (aFirst.getSourceNamespace (), "doesnotexist")).isEmpty ());
+    assertTrue (aFirst.getAllBySource (new ConceptValue ("urn:other", "CompanyCode")).isEmpty ());
+    assertEquals (-1, aCompact.getStringID ("doesnotexist"));
+  }
+
+  @Test
+  public void testInMemory ()
+  {
+    _assertSameMappings (SMMCompactMappings.createFromXML (RES));
+  }
+
+  @Test
+  public void testMemoryMapped () throws IOException
+  {
+    final File aFile = File.createTempFile ("toop-smm-", ".bin");
+    try
+    {
+      final SMMCompactMappings aMappings = SMMCompactMappings.createFromXML (RES);
+      try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aFile))
+      {
+        aMappings.writeTo (aOS);
+      }
+      assertEquals (aMappings.getDataSize (), aFile.length ());
+      assertTrue (SMMCompactMappings.isCompactFile (aFile));
+      assertFalse (SMMCompactMappings.isCompactFile (new File ("src/main/resources/semantic-mapping-default.xml")));
+
+      _assertSameMappings (SMMCompactMappings.readFromFile (aFile));
+    }
+    finally
+    {
+      FileOperations.deleteFileIfExisting (aFile);
+    }
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void testInvalid () throws IOException
+  {
+    SMMCompactMappings.readFromFile (new ClassPathResource ("semantic-mapping-default.xml").getAsFile ());
+  }
+}
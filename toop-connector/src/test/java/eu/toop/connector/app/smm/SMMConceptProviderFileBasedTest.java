@@ -18,6 +18,8 @@ package eu.toop.connector.app.smm;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
@@ -55,5 +57,13 @@ public class SMMConceptProviderFileBasedTest
     assertEquals (1, y.getAllBySource (c -> c.getValue ().equals ("FreedoniaCompanyCode")).size ());
     assertEquals (1, y.getAllByDestination (c -> c.getValue ().equals ("CompanyCode")).size ());
     assertEquals (0, y.getAllByDestination (c -> c.getValue ().equals ("FreedoniaCompanyCode")).size ());
+
+    // Precomputed tables
+    assertTrue (x.isReadOnly ());
+    assertSame (x,
+                cp.getAllMappedValues ("",
+                                       SMMDocumentTypeMapping.SMM_DOMAIN_REGISTERED_ORGANIZATION,
+                                       CMockSMM.NS_FREEDONIA));
+    assertSame (MappedValueList.EMPTY_READ_ONLY, cp.getAllMappedValues ("", "urn:unknown", CMockSMM.NS_FREEDONIA));
   }
 }
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.smm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.helger.commons.io.file.FileOperations;
+import com.helger.commons.io.file.SimpleFileIO;
+
+import eu.toop.connector.api.smm.MappedValueList;
+
+/**
+ * Test class for class {@link SMMConceptProviderFileWatching}.
+ *
+ * @author Philip Helger
+ */
+public final class SMMConceptProviderFileWatchingTest
+{
+  private static final String NS_TOOP = "urn:toop";
+  private static final String NS_EXT = "urn:ext";
+
+  private static void _write (final File aFile, final String sItems, final long nLastModified)
+  {
+    SimpleFileIO.writeFile (aFile,
+                            "<mappings><toop ns='" +
+                                   NS_TOOP +
+                                   "'><external ns='" +
+                                   NS_EXT +
+                                   "'>" +
+                                   sItems +
+                                   "</external></toop></mappings>",
+                            StandardCharsets.UTF_8);
+    aFile.setLastModified (nLastModified);
+  }
+
+  @Test
+  public void testReload () throws IOException
+  {
+    final File aFile = File.createTempFile ("toop-smm-", ".xml");
+    try
+    {
+      final long nNow = System.currentTimeMillis () - 60_000;
+      _write (aFile, "<item toop='a' external='A' />", nNow);
+
+      // No background thread
+      try (final SMMConceptProviderFileWatching aCP = new SMMConceptProviderFileWatching (aFile, 0))
+      {
+        final MappedValueList aList1 = aCP.getAllMappedValues ("", NS_TOOP, NS_EXT);
+        assertEquals (1, aList1.size ());
+        assertEquals (1, aCP.getAllMappedValues ("", NS_EXT, NS_TOOP).size ());
+        assertFalse (aCP.checkForModification ());
+
+        // Valid modification
+        _write (aFile, "<item toop='a' external='A' /><item toop='b' external='B' />", nNow + 1000);
+        assertTrue (aCP.checkForModification ());
+        assertEquals (1, aCP.getReloadCount ());
+        final MappedValueList aList2 = aCP.getAllMappedValues ("", NS_TOOP, NS_EXT);
+        assertNotSame (aList1, aList2);
+        assertEquals (2, aList2.size ());
+        // The old tables are unchanged
+        assertEquals (1, aList1.size ());
+
+        // Invalid modification - keep the previous tables
+        _write (aFile, "<item toop='c' />", nNow + 2000);
+        assertFalse (aCP.checkForModification ());
+        assertEquals (1, aCP.getFailedReloadCount ());
+        assertSame (aList2, aCP.getAllMappedValues ("", NS_TOOP, NS_EXT));
+        // Not read again until modified
+        assertFalse (aCP.checkForModification ());
+        assertEquals (1, aCP.getFailedReloadCount ());
+
+        // Deleted - keep the previous tables
+        FileOperations.deleteFile (aFile);
+        assertFalse (aCP.checkForModification ());
+        assertSame (aList2, aCP.getAllMappedValues ("", NS_TOOP, NS_EXT));
+      }
+    }
+    finally
+    {
+      FileOperations.deleteFileIfExisting (aFile);
+    }
+  }
+}
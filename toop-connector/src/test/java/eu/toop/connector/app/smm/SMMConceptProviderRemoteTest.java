@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2018-2020 toop.eu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.toop.connector.app.smm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.httpclient.HttpClientSettings;
+import com.sun.net.httpserver.HttpServer;
+
+import eu.toop.connector.api.smm.MappedValueList;
+
+/**
+ * Test class for class {@link SMMConceptProviderRemote}. Uses a local HTTP
+ * server as the semantic mapping service.
+ *
+ * @author Philip Helger
+ */
+public final class SMMConceptProviderRemoteTest
+{
+  private static final String NS_TOOP = "urn:toop";
+  private static final String NS_EXT = "urn:ext";
+  private static final long TTL = 1000;
+  private static final long STALE = 1000;
+
+  private HttpServer m_aServer;
+  private final AtomicInteger m_aCallCount = new AtomicInteger ();
+  private final AtomicInteger m_aStatusCode = new AtomicInteger (200);
+  private volatile String m_sItems = "<item toop='a' external='A' />";
+  private volatile CountDownLatch m_aBlocker;
+  private final AtomicLong m_aClock = new AtomicLong (1_000_000);
+
+  @Before
+  public void before () throws IOException
+  {
+    m_aServer = HttpServer.create (new InetSocketAddress ("localhost", 0), 0);
+    m_aServer.setExecutor (Executors.newCachedThreadPool ());
+    m_aServer.createContext ("/smm", aExchange -> {
+      m_aCallCount.incrementAndGet ();
+      try
+      {
+        final CountDownLatch aBlocker = m_aBlocker;
+        if (aBlocker != null)
+          aBlocker.await (10, TimeUnit.SECONDS);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+      final byte [] aBytes = ("<mappings><toop ns='" +
+                              NS_TOOP +
+                              "'><external ns='" +
+                              NS_EXT +
+                              "'>" +
+                              m_sItems +
+                              "</external></toop></mappings>").getBytes (StandardCharsets.UTF_8);
+      aExchange.sendResponseHeaders (m_aStatusCode.get (), aBytes.length);
+      try (final OutputStream aOS = aExchange.getResponseBody ())
+      {
+        aOS.write (aBytes);
+      }
+    });
+    m_aServer.start ();
+  }
+
+  @After
+  public void after ()
+  {
+    m_aServer.stop (0);
+  }
+
+  private SMMConceptProviderRemote _createCP ()
+  {
+    return new SMMConceptProviderRemote ("http://localhost:" + m_aServer.getAddress ().getPort () + "/smm",
+                                         TTL,
+                                         STALE,
+                                         10,
+                                         new HttpClientSettings (),
+                                         m_aClock::get);
+  }
+
+  private static void _waitFor (final BooleanSupplier aCondition)
+  {
+    for (int i = 0; i < 500 && !aCondition.getAsBoolean (); ++i)
+      ThreadHelper.sleep (10);
+  }
+
+  @Test
+  public void testCaching () throws Exception
+  {
+    try (final SMMConceptProviderRemote aCP = _createCP ())
+    {
+      final MappedValueList aList1 = aCP.getAllMappedValues ("", NS_TOOP, NS_EXT);
+      assertEquals (1, aList1.size ());
+      assertEquals (1, m_aCallCount.get ());
+      assertEquals (1, aCP.getCache ().getMissCount ());
+
+      // Within the TTL
+      m_aClock.addAndGet (TTL - 1);
+      assertSame (aList1, aCP.getAllMappedValues ("", NS_TOOP, NS_EXT));
+      assertEquals (1, m_aCallCount.get ());
+      assertEquals (1, aCP.getCache ().getHitCount ());
+
+      // Stale - the old value is returned and refreshed in the background
+      m_sItems = "<item toop='a' external='A' /><item toop='b' external='B' />";
+      m_aClock.addAndGet (1);
+      assertSame (aList1, aCP.getAllMappedValues ("", NS_TOOP, NS_EXT));
+      assertEquals (1, aCP.getCache ().getStaleHitCount ());
+      _waitFor ( () -> aCP.getCache ().getLookupCount () == 2);
+      assertEquals (2, m_aCallCount.get ());
+      final MappedValueList aList2 = aCP.getAllMappedValues ("", NS_TOOP, NS_EXT);
+      assertEquals (2, aList2.size ());
+      assertEquals (2, aCP.getCache ().getHitCount ());
+
+      // Expired - fetched synchronously
+      m_aClock.addAndGet (TTL + STALE);
+      final MappedValueList aList3 = aCP.getAllMappedValues ("", NS_TOOP, NS_EXT);
+      assertNotSame (aList2, aList3);
+      assertEquals (3, m_aCallCount.get ());
+      assertEquals (2, aCP.getCache ().getMissCount ());
+
+      // Other direction is a separate entry
+      assertEquals (2, aCP.getAllMappedValues ("", NS_EXT, NS_TOOP).size ());
+      assertEquals (4, m_aCallCount.get ());
+      assertEquals (2, aCP.getCache ().size ());
+    }
+  }
+
+  @Test
+  public void testFailure ()
+  {
+    try (final SMMConceptProviderRemote aCP = _createCP ())
+    {
+      m_aStatusCode.set (500);
+      try
+      {
+        aCP.getAllMappedValues ("", NS_TOOP, NS_EXT);
+        fail ();
+      }
+      catch (final IllegalStateException ex)
+      {
+        // expected
+      }
+      assertEquals (1, aCP.getCache ().getLookupErrorCount ());
+      assertEquals (0, aCP.getCache ().size ());
+
+      m_aStatusCode.set (200);
+      final MappedValueList aList1 = aCP.getAllMappedValues ("", NS_TOOP, NS_EXT);
+      assertEquals (1, aList1.size ());
+
+      // Expired, but the service is unavailable - use the old mappings
+      m_aStatusCode.set (500);
+      m_aClock.addAndGet (TTL + STALE);
+      assertSame (aList1, aCP.getAllMappedValues ("", NS_TOOP, NS_EXT));
+      assertEquals (2, aCP.getCache ().getLookupErrorCount ());
+    }
+  }
+
+  @Test
+  public void testSingleFlight () throws Exception
+  {
+    final int nThreads = 8;
+    m_aBlocker = new CountDownLatch (1);
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    try (final SMMConceptProviderRemote aCP = _createCP ())
+    {
+      final ICommonsList <Future <MappedValueList>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < nThreads; ++i)
+        aFutures.add (aES.submit ( () -> aCP.getAllMappedValues ("", NS_TOOP, NS_EXT)));
+
+      // Wait until all threads joined the running call
+      _waitFor ( () -> aCP.getCache ().getJoinedCount () == nThreads - 1);
+      m_aBlocker.countDown ();
+
+      final MappedValueList aList = aFutures.getFirst ().get (10, TimeUnit.SECONDS);
+      for (final Future <MappedValueList> aFuture : aFutures)
+        assertSame (aList, aFuture.get (10, TimeUnit.SECONDS));
+      assertEquals (1, m_aCallCount.get ());
+      assertEquals (nThreads - 1, aCP.getCache ().getJoinedCount ());
+    }
+    finally
+    {
+      aES.shutdownNow ();
+    }
+  }
+
+  @Test
+  public void testPrefetch () throws Exception
+  {
+    try (final SMMConceptProviderRemote aCP = _createCP ())
+    {
+      final MappedValueList aList = aCP.prefetch ("", NS_TOOP, NS_EXT).get (10, TimeUnit.SECONDS);
+      assertEquals (1, m_aCallCount.get ());
+      assertSame (aList, aCP.getAllMappedValues ("", NS_TOOP, NS_EXT));
+      assertEquals (1, m_aCallCount.get ());
+      assertEquals (1, aCP.getCache ().getHitCount ());
+      assertEquals (0, aCP.getCache ().getMissCount ());
+    }
+  }
+}